@@ -0,0 +1,249 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.apache.async;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.AsyncClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.zalando.fahrschein.http.api.BufferPool;
+import org.zalando.fahrschein.http.api.PooledByteArrayOutputStream;
+import org.zalando.fahrschein.http.api.RequestCompression;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * {@link AsyncClientHttpRequest} implementation based on
+ * Apache HttpComponents HttpAsyncClient.
+ *
+ * <p>The request body is buffered in a pooled buffer, which is released once the exchange
+ * has completed. The returned future completes as soon as the response headers were received.
+ *
+ * <p>Created via the {@link HttpComponentsAsyncClientHttpRequestFactory}.
+ *
+ * @author Oleg Kalnichevski
+ * @author Arjen Poutsma
+ * @author Joern Horstmann
+ * @see HttpComponentsAsyncClientHttpRequestFactory#createAsyncRequest(URI, HttpMethod)
+ */
+final class HttpComponentsAsyncClientHttpRequest implements AsyncClientHttpRequest {
+
+	private final HttpAsyncClient httpClient;
+	private final HttpUriRequest httpRequest;
+
+	private final HttpContext httpContext;
+	private final BufferPool bufferPool;
+	private final RequestCompression compression;
+	private final ResponseDecompression decompression;
+	private final int responseBufferSize;
+	private final HttpHeaders headers;
+	private PooledByteArrayOutputStream bufferedOutput;
+	private boolean executed;
+
+
+	HttpComponentsAsyncClientHttpRequest(HttpAsyncClient client, HttpUriRequest request, HttpContext context, BufferPool bufferPool, RequestCompression compression, ResponseDecompression decompression, int responseBufferSize) {
+		this.httpClient = client;
+		this.httpRequest = request;
+		this.httpContext = context;
+		this.bufferPool = bufferPool;
+		this.compression = compression;
+		this.decompression = decompression;
+		this.responseBufferSize = responseBufferSize;
+		this.headers = new HttpHeaders();
+	}
+
+
+	@Override
+	public HttpMethod getMethod() {
+		return HttpMethod.resolve(this.httpRequest.getMethod());
+	}
+
+	@Override
+	public URI getURI() {
+		return this.httpRequest.getURI();
+	}
+
+	private static String collectionToDelimitedString(Collection<?> coll, String delim) {
+		if (coll == null || coll.isEmpty()) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder();
+		Iterator<?> it = coll.iterator();
+		while (it.hasNext()) {
+			sb.append(it.next());
+			if (it.hasNext()) {
+				sb.append(delim);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Add the given headers to the given HTTP request.
+	 * <p>The {@code Content-Length} and {@code Transfer-Encoding} headers are skipped,
+	 * HttpAsyncClient derives them from the request entity.
+	 * @param httpRequest the request to add the headers to
+	 * @param headers the headers to add
+	 */
+	private static void addHeaders(HttpUriRequest httpRequest, HttpHeaders headers) {
+		for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+			String headerName = entry.getKey();
+			if (HttpHeaders.COOKIE.equalsIgnoreCase(headerName)) {  // RFC 6265
+				String headerValue = collectionToDelimitedString(entry.getValue(), "; ");
+				httpRequest.addHeader(headerName, headerValue);
+			}
+			else if (!HTTP.CONTENT_LEN.equalsIgnoreCase(headerName) &&
+					!HTTP.TRANSFER_ENCODING.equalsIgnoreCase(headerName)) {
+				for (String headerValue : entry.getValue()) {
+					httpRequest.addHeader(headerName, headerValue);
+				}
+			}
+		}
+	}
+
+	private ListenableFuture<ClientHttpResponse> executeInternal(HttpHeaders headers) throws IOException {
+		int size = this.bufferedOutput != null ? this.bufferedOutput.size() : 0;
+
+		if (this.compression != null && this.bufferedOutput != null && this.compression.shouldCompress(headers, size)) {
+			final PooledByteArrayOutputStream compressed = this.compression.compress(this.bufferedOutput.getBuffer(), 0, size);
+			this.bufferedOutput.release();
+			this.bufferedOutput = compressed;
+			size = compressed.size();
+			this.compression.applyHeaders(headers, size);
+		}
+
+		if (headers.getContentLength() < 0) {
+			headers.setContentLength(size);
+		}
+
+		addHeaders(this.httpRequest, headers);
+
+		if (this.httpRequest instanceof HttpEntityEnclosingRequest) {
+			HttpEntityEnclosingRequest entityEnclosingRequest = (HttpEntityEnclosingRequest) this.httpRequest;
+			NByteArrayEntity requestEntity = this.bufferedOutput != null
+					? new NByteArrayEntity(this.bufferedOutput.getBuffer(), 0, size)
+					: new NByteArrayEntity(new byte[0]);
+			entityEnclosingRequest.setEntity(requestEntity);
+		}
+
+		// The pooled buffer is owned by the exchange from now on
+		final PooledByteArrayOutputStream bufferedOutput = this.bufferedOutput;
+		this.bufferedOutput = null;
+
+		final StreamingResponseConsumer consumer = new StreamingResponseConsumer(this.decompression, this.responseBufferSize);
+		final ExchangeCallback callback = new ExchangeCallback(consumer, bufferedOutput);
+		final Future<HttpResponse> exchange;
+		try {
+			exchange = this.httpClient.execute(HttpAsyncMethods.create(this.httpRequest), consumer, this.httpContext, callback);
+		} catch (RuntimeException e) {
+			callback.release();
+			throw e;
+		}
+		consumer.setExchange(exchange);
+		return consumer.getResponseFuture();
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		return (this.executed ? HttpHeaders.readOnlyHttpHeaders(this.headers) : this.headers);
+	}
+
+	@Override
+	public OutputStream getBody() throws IOException {
+		assertNotExecuted();
+		if (this.bufferedOutput == null) {
+			this.bufferedOutput = new PooledByteArrayOutputStream(this.bufferPool, getURI());
+		}
+		return this.bufferedOutput;
+	}
+
+	@Override
+	public ListenableFuture<ClientHttpResponse> executeAsync() throws IOException {
+		assertNotExecuted();
+		final ListenableFuture<ClientHttpResponse> result = executeInternal(this.headers);
+		this.executed = true;
+		return result;
+	}
+
+	/**
+	 * Assert that this request has not been {@linkplain #executeAsync() executed} yet.
+	 * @throws IllegalStateException if this request has been executed
+	 */
+	private void assertNotExecuted() {
+		if (this.executed) {
+			throw new IllegalStateException("ClientHttpRequest already executed");
+		}
+	}
+
+
+	/**
+	 * Callback for the outcome of the whole exchange, which releases the request buffer
+	 * and reports failures that happened before a response was received.
+	 */
+	private static final class ExchangeCallback implements FutureCallback<HttpResponse> {
+
+		private final StreamingResponseConsumer consumer;
+		private PooledByteArrayOutputStream bufferedOutput;
+
+		ExchangeCallback(StreamingResponseConsumer consumer, PooledByteArrayOutputStream bufferedOutput) {
+			this.consumer = consumer;
+			this.bufferedOutput = bufferedOutput;
+		}
+
+		synchronized void release() {
+			if (this.bufferedOutput != null) {
+				this.bufferedOutput.release();
+				this.bufferedOutput = null;
+			}
+		}
+
+		@Override
+		public void completed(HttpResponse result) {
+			release();
+		}
+
+		@Override
+		public void failed(Exception ex) {
+			release();
+			this.consumer.failed(ex);
+		}
+
+		@Override
+		public void cancelled() {
+			release();
+			this.consumer.cancel();
+		}
+	}
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.apache.async;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.Configurable;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpOptions;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpTrace;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.AsyncClientHttpRequest;
+import org.springframework.http.client.AsyncClientHttpRequestFactory;
+import org.zalando.fahrschein.http.api.BufferPool;
+import org.zalando.fahrschein.http.api.RequestCompression;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Asynchronous extension of the {@link org.springframework.http.client.ClientHttpRequestFactory}
+ * based on <a href="http://hc.apache.org/httpcomponents-asyncclient-dev/">Apache HttpComponents
+ * HttpAsyncClient</a>.
+ *
+ * <p>Requests are driven by the I/O reactor threads of the client, so a small number of threads
+ * can handle thousands of concurrent requests and open streams. Response futures complete once the
+ * response headers were received, the body is streamed through a bounded buffer per response and
+ * reading from the connection is suspended while that buffer is full.
+ *
+ * <p><b>NOTE:</b> Callbacks registered on the response future are invoked on an I/O reactor thread
+ * and must not block, in particular they must not read the response body. Reading the body should
+ * happen on an application thread, for example after {@link java.util.concurrent.Future#get()}.
+ *
+ * @author Oleg Kalnichevski
+ * @author Arjen Poutsma
+ * @author Stephane Nicoll
+ * @author Juergen Hoeller
+ * @author Joern Horstmann
+ */
+public class HttpComponentsAsyncClientHttpRequestFactory implements AsyncClientHttpRequestFactory {
+
+	private static final int DEFAULT_RESPONSE_BUFFER_SIZE = 64 * 1024;
+
+	private final HttpAsyncClient httpAsyncClient;
+	private RequestConfig requestConfig;
+	private BufferPool bufferPool = BufferPool.getDefault();
+	private RequestCompression requestCompression;
+	private ResponseDecompression responseDecompression;
+	private int responseBufferSize = DEFAULT_RESPONSE_BUFFER_SIZE;
+
+	/**
+	 * Create a new instance of the {@code HttpComponentsAsyncClientHttpRequestFactory}
+	 * with a default {@link HttpAsyncClient}.
+	 */
+	public HttpComponentsAsyncClientHttpRequestFactory() {
+		this(HttpAsyncClients.createSystem());
+	}
+
+	/**
+	 * Create a new instance of the {@code HttpComponentsAsyncClientHttpRequestFactory}
+	 * with the given {@link HttpAsyncClient} instance. A {@link CloseableHttpAsyncClient}
+	 * is started when the first request is created, if it is not running already.
+	 * @param httpAsyncClient the HttpAsyncClient instance to use for this request factory
+	 */
+	public HttpComponentsAsyncClientHttpRequestFactory(HttpAsyncClient httpAsyncClient) {
+		if (httpAsyncClient == null) {
+			throw new IllegalArgumentException("HttpAsyncClient must not be null");
+		}
+		this.httpAsyncClient = httpAsyncClient;
+	}
+
+
+	/**
+	 * Set the connection timeout for the underlying HttpAsyncClient.
+	 * A timeout value of 0 specifies an infinite timeout.
+	 * @param timeout the timeout value in milliseconds
+	 * @see RequestConfig#getConnectTimeout()
+	 */
+	public void setConnectTimeout(int timeout) {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("Timeout must be a non-negative value");
+		}
+		this.requestConfig = requestConfigBuilder().setConnectTimeout(timeout).build();
+	}
+
+	/**
+	 * Set the timeout in milliseconds used when requesting a connection from the connection
+	 * manager using the underlying HttpAsyncClient.
+	 * A timeout value of 0 specifies an infinite timeout.
+	 * @param connectionRequestTimeout the timeout value to request a connection in milliseconds
+	 * @see RequestConfig#getConnectionRequestTimeout()
+	 */
+	public void setConnectionRequestTimeout(int connectionRequestTimeout) {
+		this.requestConfig = requestConfigBuilder().setConnectionRequestTimeout(connectionRequestTimeout).build();
+	}
+
+	/**
+	 * Set the socket read timeout for the underlying HttpAsyncClient.
+	 * A timeout value of 0 specifies an infinite timeout.
+	 * @param timeout the timeout value in milliseconds
+	 * @see RequestConfig#getSocketTimeout()
+	 */
+	public void setReadTimeout(int timeout) {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("Timeout must be a non-negative value");
+		}
+		this.requestConfig = requestConfigBuilder().setSocketTimeout(timeout).build();
+	}
+
+	/**
+	 * Set the {@link BufferPool} used for buffering request bodies.
+	 * <p>Default is the {@linkplain BufferPool#getDefault() shared pool}.
+	 */
+	public void setBufferPool(BufferPool bufferPool) {
+		if (bufferPool == null) {
+			throw new IllegalArgumentException("BufferPool must not be null");
+		}
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Enable compression of request bodies using the given configuration.
+	 * <p>Default is {@code null}, meaning request bodies are sent uncompressed.
+	 * @see org.zalando.fahrschein.http.api.GzipRequestCompression#fixed(int, int)
+	 * @see RequestCompression#forEncoding(String, int)
+	 */
+	public void setRequestCompression(RequestCompression requestCompression) {
+		this.requestCompression = requestCompression;
+	}
+
+	/**
+	 * Indicate whether responses should be transparently decompressed.
+	 * <p>Default is {@code false}. When enabled, requests are sent with an {@code Accept-Encoding}
+	 * header listing all {@linkplain org.zalando.fahrschein.http.api.ContentCodecs available codecs},
+	 * unless that header is set explicitly, and compressed response bodies are decoded while reading.
+	 * @see ResponseDecompression
+	 */
+	public void setDecompressResponses(boolean decompressResponses) {
+		this.responseDecompression = decompressResponses ? ResponseDecompression.getDefault() : null;
+	}
+
+	/**
+	 * Set the number of bytes buffered per response before reading from the connection is suspended.
+	 * <p>Default is 64 KiB.
+	 */
+	public void setResponseBufferSize(int responseBufferSize) {
+		if (responseBufferSize <= 0) {
+			throw new IllegalArgumentException("Response buffer size must be positive");
+		}
+		this.responseBufferSize = responseBufferSize;
+	}
+
+	private HttpAsyncClient startAsyncClient() {
+		HttpAsyncClient client = this.httpAsyncClient;
+		if (client instanceof CloseableHttpAsyncClient) {
+			CloseableHttpAsyncClient closeableAsyncClient = (CloseableHttpAsyncClient) client;
+			if (!closeableAsyncClient.isRunning()) {
+				closeableAsyncClient.start();
+			}
+		}
+		return client;
+	}
+
+	@Override
+	public AsyncClientHttpRequest createAsyncRequest(URI uri, HttpMethod httpMethod) throws IOException {
+		HttpAsyncClient client = startAsyncClient();
+
+		HttpUriRequest httpRequest = createHttpUriRequest(httpMethod, uri);
+		HttpContext context = HttpClientContext.create();
+
+		// Request configuration not set in the context
+		if (context.getAttribute(HttpClientContext.REQUEST_CONFIG) == null) {
+			// Use request configuration given by the user, when available
+			RequestConfig config = null;
+			if (httpRequest instanceof Configurable) {
+				config = ((Configurable) httpRequest).getConfig();
+			}
+			if (config == null) {
+				config = createRequestConfig(client);
+			}
+			if (config != null) {
+				context.setAttribute(HttpClientContext.REQUEST_CONFIG, config);
+			}
+		}
+
+		final AsyncClientHttpRequest request = new HttpComponentsAsyncClientHttpRequest(client, httpRequest, context, this.bufferPool, this.requestCompression, this.responseDecompression, this.responseBufferSize);
+		if (this.responseDecompression != null) {
+			this.responseDecompression.applyRequestHeaders(request.getHeaders());
+		}
+		return request;
+	}
+
+
+	/**
+	 * Return a builder for modifying the factory-level {@link RequestConfig}.
+	 */
+	private RequestConfig.Builder requestConfigBuilder() {
+		return (this.requestConfig != null ? RequestConfig.copy(this.requestConfig) : RequestConfig.custom());
+	}
+
+	/**
+	 * Create a default {@link RequestConfig} to use with the given client.
+	 * Can return {@code null} to indicate that no custom request config should
+	 * be set and the defaults of the {@link HttpAsyncClient} should be used.
+	 * <p>The default implementation tries to merge the defaults of the client
+	 * with the local customizations of this factory instance, if any.
+	 * @param client the {@link HttpAsyncClient} to check
+	 * @return the actual RequestConfig to use (may be {@code null})
+	 * @see #mergeRequestConfig(RequestConfig)
+	 */
+	protected RequestConfig createRequestConfig(Object client) {
+		if (client instanceof Configurable) {
+			RequestConfig clientRequestConfig = ((Configurable) client).getConfig();
+			return mergeRequestConfig(clientRequestConfig);
+		}
+		return this.requestConfig;
+	}
+
+	/**
+	 * Merge the given {@link HttpAsyncClient}-level {@link RequestConfig} with
+	 * the factory-level {@link RequestConfig}, if necessary.
+	 * @param clientConfig the config held by the current
+	 * @return the merged request config
+	 * (may be {@code null} if the given client config is {@code null})
+	 */
+	protected RequestConfig mergeRequestConfig(RequestConfig clientConfig) {
+		if (this.requestConfig == null) {  // nothing to merge
+			return clientConfig;
+		}
+
+		RequestConfig.Builder builder = RequestConfig.copy(clientConfig);
+		int connectTimeout = this.requestConfig.getConnectTimeout();
+		if (connectTimeout >= 0) {
+			builder.setConnectTimeout(connectTimeout);
+		}
+		int connectionRequestTimeout = this.requestConfig.getConnectionRequestTimeout();
+		if (connectionRequestTimeout >= 0) {
+			builder.setConnectionRequestTimeout(connectionRequestTimeout);
+		}
+		int socketTimeout = this.requestConfig.getSocketTimeout();
+		if (socketTimeout >= 0) {
+			builder.setSocketTimeout(socketTimeout);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Create a Commons HttpMethodBase object for the given HTTP method and URI specification.
+	 * @param httpMethod the HTTP method
+	 * @param uri the URI
+	 * @return the Commons HttpMethodBase object
+	 */
+	private static HttpUriRequest createHttpUriRequest(HttpMethod httpMethod, URI uri) {
+		switch (httpMethod) {
+			case GET:
+				return new HttpGet(uri);
+			case HEAD:
+				return new HttpHead(uri);
+			case POST:
+				return new HttpPost(uri);
+			case PUT:
+				return new HttpPut(uri);
+			case PATCH:
+				return new HttpPatch(uri);
+			case DELETE:
+				return new HttpDelete(uri);
+			case OPTIONS:
+				return new HttpOptions(uri);
+			case TRACE:
+				return new HttpTrace(uri);
+			default:
+				throw new IllegalArgumentException("Invalid HTTP method: " + httpMethod);
+		}
+	}
+
+
+	/**
+	 * Shutdown hook that closes the underlying HttpAsyncClient, stopping its
+	 * I/O reactor and closing all pooled connections.
+	 */
+	public void destroy() throws Exception {
+		if (this.httpAsyncClient instanceof Closeable) {
+			((Closeable) this.httpAsyncClient).close();
+		}
+	}
+
+
+	/**
+	 * An alternative to {@link org.apache.http.client.methods.HttpDelete} that
+	 * extends {@link org.apache.http.client.methods.HttpEntityEnclosingRequestBase}
+	 * rather than {@link org.apache.http.client.methods.HttpRequestBase} and
+	 * hence allows HTTP delete with a request body.
+	 */
+	private static class HttpDelete extends HttpEntityEnclosingRequestBase {
+
+		public HttpDelete(URI uri) {
+			super();
+			setURI(uri);
+		}
+
+		@Override
+		public String getMethod() {
+			return "DELETE";
+		}
+	}
+
+}
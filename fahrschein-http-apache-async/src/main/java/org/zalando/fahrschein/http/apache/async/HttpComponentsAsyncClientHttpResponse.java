@@ -0,0 +1,160 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.apache.async;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderIterator;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpMessage;
+import org.apache.http.HttpResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.zalando.fahrschein.http.api.LazyHeaderMap;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link ClientHttpResponse} implementation based on
+ * Apache HttpComponents HttpAsyncClient.
+ *
+ * <p>The response is available as soon as its headers were received, the body is
+ * streamed while it arrives. Closing the response before the body was read completely
+ * aborts the exchange and closes the connection.
+ *
+ * <p>Created via the {@link HttpComponentsAsyncClientHttpRequest}.
+ *
+ * @author Oleg Kalnichevski
+ * @author Arjen Poutsma
+ * @author Joern Horstmann
+ * @see HttpComponentsAsyncClientHttpRequest#executeAsync()
+ */
+final class HttpComponentsAsyncClientHttpResponse implements ClientHttpResponse {
+
+	private final HttpResponse httpResponse;
+	private final InputStream body;
+	private final StreamingResponseConsumer consumer;
+	private final ResponseDecompression decompression;
+	private HttpHeaders headers;
+	private InputStream decodedBody;
+
+	HttpComponentsAsyncClientHttpResponse(HttpResponse httpResponse, InputStream body, StreamingResponseConsumer consumer, ResponseDecompression decompression) {
+		this.httpResponse = httpResponse;
+		this.body = body;
+		this.consumer = consumer;
+		this.decompression = decompression;
+	}
+
+	@Override
+	public int getRawStatusCode() throws IOException {
+		return this.httpResponse.getStatusLine().getStatusCode();
+	}
+
+	@Override
+	public String getStatusText() throws IOException {
+		return this.httpResponse.getStatusLine().getReasonPhrase();
+	}
+
+	@Override
+	public HttpStatus getStatusCode() throws IOException {
+		return HttpStatus.valueOf(getRawStatusCode());
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		if (this.headers == null) {
+			this.headers = new HttpHeaders(new MessageHeaders(this.httpResponse));
+			if (this.decompression != null) {
+				this.decompression.applyResponseHeaders(this.headers);
+			}
+		}
+		return this.headers;
+	}
+
+	@Override
+	public InputStream getBody() throws IOException {
+		if (this.body == null) {
+			return new ByteArrayInputStream(new byte[0]);
+		}
+		if (this.decompression == null) {
+			return this.body;
+		}
+		if (this.decodedBody == null) {
+			final HttpEntity entity = this.httpResponse.getEntity();
+			final Header contentEncoding = entity != null ? entity.getContentEncoding() : null;
+			this.decodedBody = this.decompression.decode(contentEncoding != null ? contentEncoding.getValue() : null, this.body);
+		}
+		return this.decodedBody;
+	}
+
+	@Override
+	public void close() {
+		this.consumer.abort();
+		// Release decoder resources after the exchange was aborted, closing the body stream does not drain it
+		if (this.decodedBody != null) {
+			try {
+				this.decodedBody.close();
+			} catch (IOException e) {
+				// ignore exception on close
+			}
+		}
+	}
+
+
+	/**
+	 * View of the response headers that looks up single headers in the {@link HttpMessage},
+	 * without copying them.
+	 */
+	private static final class MessageHeaders extends LazyHeaderMap {
+
+		private final HttpMessage message;
+
+		MessageHeaders(HttpMessage message) {
+			this.message = message;
+		}
+
+		@Override
+		protected String getFirstValue(String name) {
+			final Header header = this.message.getFirstHeader(name);
+			return (header != null ? header.getValue() : null);
+		}
+
+		@Override
+		protected List<String> getValues(String name) {
+			final Header[] headers = this.message.getHeaders(name);
+			final List<String> values = new ArrayList<String>(headers.length);
+			for (Header header : headers) {
+				values.add(header.getValue());
+			}
+			return values;
+		}
+
+		@Override
+		protected void copyTo(HttpHeaders headers) {
+			final HeaderIterator iterator = this.message.headerIterator();
+			while (iterator.hasNext()) {
+				final Header header = iterator.nextHeader();
+				headers.add(header.getName(), header.getValue());
+			}
+		}
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.apache.async;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.SharedInputBuffer;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+
+/**
+ * Response consumer that completes the response future as soon as the response headers
+ * were received and streams the body through a bounded buffer.
+ *
+ * <p>Reading from the connection is suspended while the buffer is full and resumed once
+ * the application consumed data from the body stream, so long-lived streaming responses
+ * only occupy a fixed amount of memory and no I/O dispatcher thread.
+ *
+ * @author Joern Horstmann
+ */
+final class StreamingResponseConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+
+	private final ResponseDecompression decompression;
+	private final int bufferSize;
+	private final SettableListenableFuture<ClientHttpResponse> responseFuture;
+	private final Object exchangeMonitor = new Object();
+	private HttpResponse httpResponse;
+	private volatile SharedInputBuffer buffer;
+	private volatile Exception failure;
+	private Future<?> exchange;
+	private boolean aborted;
+
+	StreamingResponseConsumer(ResponseDecompression decompression, int bufferSize) {
+		this.decompression = decompression;
+		this.bufferSize = bufferSize;
+		this.responseFuture = new SettableListenableFuture<ClientHttpResponse>() {
+			@Override
+			protected void interruptTask() {
+				abort();
+			}
+		};
+	}
+
+	ListenableFuture<ClientHttpResponse> getResponseFuture() {
+		return this.responseFuture;
+	}
+
+	/**
+	 * Set the future of the exchange, which is used to abort the exchange when the response is closed early.
+	 */
+	void setExchange(Future<?> exchange) {
+		final boolean abort;
+		synchronized (this.exchangeMonitor) {
+			this.exchange = exchange;
+			abort = this.aborted;
+		}
+		if (abort) {
+			exchange.cancel(true);
+		}
+	}
+
+	/**
+	 * Abort the exchange, unless the response was already received completely.
+	 */
+	void abort() {
+		final Future<?> exchange;
+		synchronized (this.exchangeMonitor) {
+			this.aborted = true;
+			exchange = this.exchange;
+		}
+		if (exchange != null && !exchange.isDone()) {
+			exchange.cancel(true);
+		}
+	}
+
+	@Override
+	protected void onResponseReceived(HttpResponse response) {
+		this.httpResponse = response;
+	}
+
+	@Override
+	protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) {
+		final SharedInputBuffer buffer = new SharedInputBuffer(this.bufferSize, HeapByteBufferAllocator.INSTANCE);
+		this.buffer = buffer;
+		this.responseFuture.set(new HttpComponentsAsyncClientHttpResponse(this.httpResponse, new BodyInputStream(buffer), this, this.decompression));
+	}
+
+	@Override
+	protected void onContentReceived(ContentDecoder decoder, IOControl ioctrl) throws IOException {
+		this.buffer.consumeContent(decoder, ioctrl);
+	}
+
+	@Override
+	protected HttpResponse buildResult(HttpContext context) {
+		final SharedInputBuffer buffer = this.buffer;
+		if (buffer == null) {
+			this.responseFuture.set(new HttpComponentsAsyncClientHttpResponse(this.httpResponse, null, this, this.decompression));
+		} else {
+			// Mark the end of the body, responses without content never see a completed decoder
+			buffer.close();
+		}
+		return this.httpResponse;
+	}
+
+	@Override
+	protected void releaseResources() {
+		if (getResult() == null) {
+			final Exception ex = getException();
+			this.failure = (ex != null ? ex : new CancellationException("Response was cancelled"));
+			if (ex != null) {
+				this.responseFuture.setException(ex);
+			} else {
+				this.responseFuture.cancel(false);
+			}
+			final SharedInputBuffer buffer = this.buffer;
+			if (buffer != null) {
+				buffer.shutdown();
+			}
+		}
+	}
+
+
+	/**
+	 * Blocking input stream reading from the shared buffer, which reports failures of the exchange
+	 * instead of a premature end of stream.
+	 */
+	private final class BodyInputStream extends InputStream {
+
+		private final SharedInputBuffer buffer;
+
+		BodyInputStream(SharedInputBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b;
+			try {
+				b = this.buffer.read();
+			} catch (InterruptedIOException e) {
+				throw failed(e);
+			}
+			if (b < 0) {
+				checkFailure();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			final int n;
+			try {
+				n = this.buffer.read(b, off, len);
+			} catch (InterruptedIOException e) {
+				throw failed(e);
+			}
+			if (n < 0) {
+				checkFailure();
+			}
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return this.buffer.available();
+		}
+
+		private void checkFailure() throws IOException {
+			if (failure != null) {
+				throw failed(null);
+			}
+		}
+
+		private IOException failed(IOException cause) {
+			final Exception ex = failure;
+			if (ex instanceof IOException) {
+				return (IOException) ex;
+			}
+			final String message = ex instanceof CancellationException ? "Response was cancelled" : "Response failed";
+			return new IOException(message, ex != null ? ex : cause);
+		}
+
+		/**
+		 * Close the stream, aborting the exchange if the body was not read completely.
+		 */
+		@Override
+		public void close() {
+			abort();
+		}
+	}
+}
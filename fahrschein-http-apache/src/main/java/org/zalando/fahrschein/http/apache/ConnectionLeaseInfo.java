@@ -0,0 +1,34 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.apache;
+
+/**
+ * Implemented by the responses of an {@link HttpComponentsClientHttpRequestFactory}, exposing how long
+ * the request waited for a connection from the pool.
+ *
+ * @author Joern Horstmann
+ * @see HttpComponentsClientHttpRequestFactory#HttpComponentsClientHttpRequestFactory(org.apache.http.impl.conn.PoolingHttpClientConnectionManager)
+ */
+public interface ConnectionLeaseInfo {
+
+	/**
+	 * Return the time in nanoseconds the request waited for a connection lease, or {@code -1} if the
+	 * request factory does not know the connection manager of its {@code HttpClient}.
+	 */
+	long getLeaseWaitNanos();
+
+}
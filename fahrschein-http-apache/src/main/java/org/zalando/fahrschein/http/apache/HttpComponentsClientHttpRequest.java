@@ -28,8 +28,12 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.client.ClientHttpRequest;
 import org.springframework.http.client.ClientHttpResponse;
+import org.zalando.fahrschein.http.api.BufferPool;
+import org.zalando.fahrschein.http.api.RequestCompression;
+import org.zalando.fahrschein.http.api.ResponseClosePolicy;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
+import org.zalando.fahrschein.http.api.PooledByteArrayOutputStream;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
@@ -56,15 +60,25 @@ final class HttpComponentsClientHttpRequest implements ClientHttpRequest {
 	private final HttpUriRequest httpRequest;
 
 	private final HttpContext httpContext;
+	private final BufferPool bufferPool;
+	private final RequestCompression compression;
+	private final ResponseDecompression decompression;
+	private final ResponseClosePolicy closePolicy;
+	private final LeaseTrackingConnectionManager connectionManager;
 	private final HttpHeaders headers;
-	private ByteArrayOutputStream bufferedOutput;
+	private PooledByteArrayOutputStream bufferedOutput;
 	private boolean executed;
 
 
-	HttpComponentsClientHttpRequest(HttpClient client, HttpUriRequest request, HttpContext context) {
+	HttpComponentsClientHttpRequest(HttpClient client, HttpUriRequest request, HttpContext context, BufferPool bufferPool, RequestCompression compression, ResponseDecompression decompression, ResponseClosePolicy closePolicy, LeaseTrackingConnectionManager connectionManager) {
 		this.httpClient = client;
 		this.httpRequest = request;
 		this.httpContext = context;
+		this.bufferPool = bufferPool;
+		this.compression = compression;
+		this.decompression = decompression;
+		this.closePolicy = closePolicy;
+		this.connectionManager = connectionManager;
 		this.headers = new HttpHeaders();
 	}
 
@@ -94,37 +108,72 @@ final class HttpComponentsClientHttpRequest implements ClientHttpRequest {
 		return sb.toString();
 	}
 
-	private ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
-		final byte[] bytes = this.bufferedOutput != null ? this.bufferedOutput.toByteArray() : new byte[0];
-
-		if (headers.getContentLength() < 0) {
-			headers.setContentLength(bytes.length);
-		}
-
+	/**
+	 * Add the given headers to the given HTTP request.
+	 * <p>The {@code Content-Length} and {@code Transfer-Encoding} headers are skipped,
+	 * HttpClient derives them from the request entity.
+	 * @param httpRequest the request to add the headers to
+	 * @param headers the headers to add
+	 */
+	static void addHeaders(HttpUriRequest httpRequest, HttpHeaders headers) {
 		for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
 			String headerName = entry.getKey();
 			if (HttpHeaders.COOKIE.equalsIgnoreCase(headerName)) {  // RFC 6265
 				String headerValue = collectionToDelimitedString(entry.getValue(), "; ");
-				this.httpRequest.addHeader(headerName, headerValue);
+				httpRequest.addHeader(headerName, headerValue);
 			}
 			else if (!HTTP.CONTENT_LEN.equalsIgnoreCase(headerName) &&
 					!HTTP.TRANSFER_ENCODING.equalsIgnoreCase(headerName)) {
 				for (String headerValue : entry.getValue()) {
-					this.httpRequest.addHeader(headerName, headerValue);
+					httpRequest.addHeader(headerName, headerValue);
 				}
 			}
 		}
+	}
+
+	private ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
+		try {
+			return doExecute(headers);
+		} finally {
+			// The entity has been completely written once the client returns the response
+			if (this.bufferedOutput != null) {
+				this.bufferedOutput.release();
+				this.bufferedOutput = null;
+			}
+		}
+	}
+
+	private ClientHttpResponse doExecute(HttpHeaders headers) throws IOException {
+		int size = this.bufferedOutput != null ? this.bufferedOutput.size() : 0;
+
+		if (this.compression != null && this.bufferedOutput != null && this.compression.shouldCompress(headers, size)) {
+			final PooledByteArrayOutputStream compressed = this.compression.compress(this.bufferedOutput.getBuffer(), 0, size);
+			this.bufferedOutput.release();
+			this.bufferedOutput = compressed;
+			size = compressed.size();
+			this.compression.applyHeaders(headers, size);
+		}
+
+		if (headers.getContentLength() < 0) {
+			headers.setContentLength(size);
+		}
+
+		addHeaders(this.httpRequest, headers);
 
 		if (this.httpRequest instanceof HttpEntityEnclosingRequest) {
 			HttpEntityEnclosingRequest entityEnclosingRequest = (HttpEntityEnclosingRequest) this.httpRequest;
-			HttpEntity requestEntity = new ByteArrayEntity(bytes);
+			HttpEntity requestEntity = this.bufferedOutput != null
+					? new ByteArrayEntity(this.bufferedOutput.getBuffer(), 0, size)
+					: new ByteArrayEntity(new byte[0]);
 			entityEnclosingRequest.setEntity(requestEntity);
 		}
 
+		if (this.connectionManager != null) {
+			this.connectionManager.startRequest();
+		}
 		final HttpResponse httpResponse = this.httpClient.execute(this.httpRequest, this.httpContext);
-		final ClientHttpResponse result = new HttpComponentsClientHttpResponse(httpResponse);
-		this.bufferedOutput = null;
-		return result;
+		final long leaseWaitNanos = this.connectionManager != null ? this.connectionManager.getLeaseWaitNanos() : -1;
+		return new HttpComponentsClientHttpResponse(httpResponse, this.decompression, this.closePolicy, leaseWaitNanos);
 	}
 
 	@Override
@@ -136,7 +185,7 @@ final class HttpComponentsClientHttpRequest implements ClientHttpRequest {
 	public final OutputStream getBody() throws IOException {
 		assertNotExecuted();
 		if (this.bufferedOutput == null) {
-			this.bufferedOutput =  new ByteArrayOutputStream(1024);
+			this.bufferedOutput = new PooledByteArrayOutputStream(this.bufferPool, getURI());
 		}
 		return this.bufferedOutput;
 	}
@@ -29,15 +29,25 @@ import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpTrace;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.protocol.HttpContext;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.client.ClientHttpRequest;
 import org.springframework.http.client.ClientHttpRequestFactory;
+import org.zalando.fahrschein.http.api.BufferPool;
+import org.zalando.fahrschein.http.api.RequestCompression;
+import org.zalando.fahrschein.http.api.ResponseClosePolicy;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * {@link org.springframework.http.client.ClientHttpRequestFactory} implementation that
@@ -58,7 +68,13 @@ import java.net.URI;
 public class HttpComponentsClientHttpRequestFactory implements ClientHttpRequestFactory {
 
 	private final HttpClient httpClient;
+	private final LeaseTrackingConnectionManager connectionManager;
 	private RequestConfig requestConfig;
+	private boolean bufferRequestBody = true;
+	private BufferPool bufferPool = BufferPool.getDefault();
+	private RequestCompression requestCompression;
+	private ResponseDecompression responseDecompression;
+	private ResponseClosePolicy responseClosePolicy;
 
 	/**
 	 * Create a new instance of the {@code HttpComponentsClientHttpRequestFactory}
@@ -78,9 +94,82 @@ public class HttpComponentsClientHttpRequestFactory implements ClientHttpRequest
 			throw new IllegalArgumentException("HttpClient must not be null");
 		}
 		this.httpClient = httpClient;
+		this.connectionManager = null;
+	}
+
+	/**
+	 * Create a new instance of the {@code HttpComponentsClientHttpRequestFactory}
+	 * with an {@link HttpClient} using the given connection pool.
+	 * <p>The statistics of the pool are available via {@link #getTotalStats()} and
+	 * {@link #getRouteStats()}, and responses report the time spent waiting for a
+	 * connection via {@link ConnectionLeaseInfo}.
+	 * @param connectionManager the connection pool, which is shut down by {@link #destroy()}
+	 */
+	public HttpComponentsClientHttpRequestFactory(PoolingHttpClientConnectionManager connectionManager) {
+		this(HttpClients.custom(), connectionManager);
+	}
+
+	/**
+	 * Create a new instance of the {@code HttpComponentsClientHttpRequestFactory}
+	 * with an {@link HttpClient} built by the given builder, using the given connection pool.
+	 * <p>The statistics of the pool are available via {@link #getTotalStats()} and
+	 * {@link #getRouteStats()}, and responses report the time spent waiting for a
+	 * connection via {@link ConnectionLeaseInfo}.
+	 * @param httpClientBuilder the builder for the HttpClient, its connection manager is replaced
+	 * @param connectionManager the connection pool, which is shut down by {@link #destroy()}
+	 */
+	public HttpComponentsClientHttpRequestFactory(HttpClientBuilder httpClientBuilder, PoolingHttpClientConnectionManager connectionManager) {
+		if (httpClientBuilder == null) {
+			throw new IllegalArgumentException("HttpClientBuilder must not be null");
+		}
+		if (connectionManager == null) {
+			throw new IllegalArgumentException("PoolingHttpClientConnectionManager must not be null");
+		}
+		this.connectionManager = new LeaseTrackingConnectionManager(connectionManager);
+		this.httpClient = httpClientBuilder.setConnectionManager(this.connectionManager).build();
 	}
 
 
+	/**
+	 * Return the connection pool of the underlying HttpClient, or {@code null} if this
+	 * factory was created with an {@link HttpClient} instance.
+	 */
+	public PoolingHttpClientConnectionManager getConnectionManager() {
+		return (this.connectionManager != null ? this.connectionManager.getConnectionManager() : null);
+	}
+
+	/**
+	 * Return the number of leased, pending and available connections and the maximum
+	 * number of connections of the whole pool.
+	 * @throws IllegalStateException if this factory does not know the connection pool
+	 * @see #getConnectionManager()
+	 */
+	public PoolStats getTotalStats() {
+		return requireConnectionManager().getTotalStats();
+	}
+
+	/**
+	 * Return the number of leased, pending and available connections and the maximum
+	 * number of connections for each route known to the pool.
+	 * @throws IllegalStateException if this factory does not know the connection pool
+	 * @see #getConnectionManager()
+	 */
+	public Map<HttpRoute, PoolStats> getRouteStats() {
+		final PoolingHttpClientConnectionManager connectionManager = requireConnectionManager();
+		final Map<HttpRoute, PoolStats> stats = new LinkedHashMap<>();
+		for (HttpRoute route : connectionManager.getRoutes()) {
+			stats.put(route, connectionManager.getStats(route));
+		}
+		return stats;
+	}
+
+	private PoolingHttpClientConnectionManager requireConnectionManager() {
+		if (this.connectionManager == null) {
+			throw new IllegalStateException("Connection pool is not known, the request factory was created with an HttpClient instance");
+		}
+		return this.connectionManager.getConnectionManager();
+	}
+
 	/**
 	 * Set the connection timeout for the underlying HttpClient.
 	 * A timeout value of 0 specifies an infinite timeout.
@@ -124,6 +213,68 @@ public class HttpComponentsClientHttpRequestFactory implements ClientHttpRequest
 		this.requestConfig = requestConfigBuilder().setSocketTimeout(timeout).build();
 	}
 
+	/**
+	 * Indicate whether this request factory should buffer the request body internally.
+	 * <p>Default is {@code true}. When sending large amounts of data via POST or PUT, it is
+	 * recommended to change this property to {@code false}, so as not to run out of memory.
+	 * Requests created in that mode implement {@link org.springframework.http.StreamingHttpOutputMessage}
+	 * and their body has to be provided via
+	 * {@link org.springframework.http.StreamingHttpOutputMessage#setBody setBody}.
+	 * It is written directly to the connection, using chunked transfer encoding unless
+	 * the {@code Content-Length} header is set.
+	 */
+	public void setBufferRequestBody(boolean bufferRequestBody) {
+		this.bufferRequestBody = bufferRequestBody;
+	}
+
+	/**
+	 * Set the {@link BufferPool} used for buffering request bodies.
+	 * <p>Default is the {@linkplain BufferPool#getDefault() shared pool}.
+	 */
+	public void setBufferPool(BufferPool bufferPool) {
+		if (bufferPool == null) {
+			throw new IllegalArgumentException("BufferPool must not be null");
+		}
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Enable compression of request bodies using the given configuration.
+	 * <p>Default is {@code null}, meaning request bodies are sent uncompressed.
+	 * @see org.zalando.fahrschein.http.api.GzipRequestCompression#fixed(int, int)
+	 * @see org.zalando.fahrschein.http.api.GzipRequestCompression#adaptive(int, int, long)
+	 * @see RequestCompression#forEncoding(String, int)
+	 */
+	public void setRequestCompression(RequestCompression requestCompression) {
+		this.requestCompression = requestCompression;
+	}
+
+	/**
+	 * Indicate whether responses should be transparently decompressed.
+	 * <p>Default is {@code false}, leaving content compression to the HttpClient configuration.
+	 * When enabled, requests are sent with an {@code Accept-Encoding} header listing all
+	 * {@linkplain org.zalando.fahrschein.http.api.ContentCodecs available codecs}, unless that
+	 * header is set explicitly, and compressed response bodies are
+	 * decoded while reading. The {@code Content-Encoding} and {@code Content-Length} headers of
+	 * decoded responses are removed. The content compression of the HttpClient itself is disabled
+	 * for these requests if its {@link RequestConfig} is accessible.
+	 * @see ResponseDecompression
+	 */
+	public void setDecompressResponses(boolean decompressResponses) {
+		this.responseDecompression = decompressResponses ? ResponseDecompression.getDefault() : null;
+	}
+
+	/**
+	 * Set the policy deciding whether closing a response drains the remaining body, so that the
+	 * connection is returned to the pool, or aborts the connection.
+	 * <p>Default is {@code null}, meaning the connection is aborted unless the body was read completely.
+	 *
+	 * @see ResponseClosePolicy#drain(long, long, java.util.concurrent.TimeUnit)
+	 */
+	public void setResponseClosePolicy(ResponseClosePolicy responseClosePolicy) {
+		this.responseClosePolicy = responseClosePolicy;
+	}
+
 	@Override
 	public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
 
@@ -140,12 +291,25 @@ public class HttpComponentsClientHttpRequestFactory implements ClientHttpRequest
 			if (config == null) {
 				config = createRequestConfig(httpClient);
 			}
+			if (config != null && this.responseDecompression != null) {
+				config = RequestConfig.copy(config).setContentCompressionEnabled(false).build();
+			}
 			if (config != null) {
 				context.setAttribute(HttpClientContext.REQUEST_CONFIG, config);
 			}
 		}
 
-		return new HttpComponentsClientHttpRequest(httpClient, httpRequest, context);
+		final ClientHttpRequest request;
+		if (this.bufferRequestBody) {
+			request = new HttpComponentsClientHttpRequest(httpClient, httpRequest, context, this.bufferPool, this.requestCompression, this.responseDecompression, this.responseClosePolicy, this.connectionManager);
+		}
+		else {
+			request = new HttpComponentsStreamingClientHttpRequest(httpClient, httpRequest, context, this.requestCompression, this.responseDecompression, this.responseClosePolicy, this.connectionManager);
+		}
+		if (this.responseDecompression != null) {
+			this.responseDecompression.applyRequestHeaders(request.getHeaders());
+		}
+		return request;
 	}
 
 
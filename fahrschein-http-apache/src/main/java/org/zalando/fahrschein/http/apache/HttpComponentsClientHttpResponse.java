@@ -17,16 +17,25 @@
 package org.zalando.fahrschein.http.apache;
 
 import org.apache.http.Header;
+import org.apache.http.HeaderIterator;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpMessage;
 import org.apache.http.HttpResponse;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.client.ClientHttpResponse;
+import org.zalando.fahrschein.http.api.InflatingInputStream;
+import org.zalando.fahrschein.http.api.LazyHeaderMap;
+import org.zalando.fahrschein.http.api.ResponseClosePolicy;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
+import org.zalando.fahrschein.http.api.TrackingInputStream;
 
 import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * {@link ClientHttpResponse} implementation based on
@@ -39,13 +48,21 @@ import java.io.InputStream;
  * @author Joern Horstmann
  * @see HttpComponentsClientHttpRequest#execute()
  */
-final class HttpComponentsClientHttpResponse implements ClientHttpResponse {
+final class HttpComponentsClientHttpResponse implements ClientHttpResponse, ConnectionLeaseInfo {
 
 	private final HttpResponse httpResponse;
+	private final ResponseDecompression decompression;
+	private final ResponseClosePolicy closePolicy;
+	private final long leaseWaitNanos;
 	private HttpHeaders headers;
+	private InputStream decodedBody;
+	private TrackingInputStream body;
 
-	HttpComponentsClientHttpResponse(HttpResponse httpResponse) {
+	HttpComponentsClientHttpResponse(HttpResponse httpResponse, ResponseDecompression decompression, ResponseClosePolicy closePolicy, long leaseWaitNanos) {
 		this.httpResponse = httpResponse;
+		this.decompression = decompression;
+		this.closePolicy = closePolicy;
+		this.leaseWaitNanos = leaseWaitNanos;
 	}
 
 	@Override
@@ -61,9 +78,9 @@ final class HttpComponentsClientHttpResponse implements ClientHttpResponse {
 	@Override
 	public HttpHeaders getHeaders() {
 		if (this.headers == null) {
-			this.headers = new HttpHeaders();
-			for (Header header : this.httpResponse.getAllHeaders()) {
-				this.headers.add(header.getName(), header.getValue());
+			this.headers = new HttpHeaders(new MessageHeaders(this.httpResponse));
+			if (this.decompression != null) {
+				this.decompression.applyResponseHeaders(this.headers);
 			}
 		}
 		return this.headers;
@@ -72,12 +89,29 @@ final class HttpComponentsClientHttpResponse implements ClientHttpResponse {
 	@Override
 	public InputStream getBody() throws IOException {
 		HttpEntity entity = this.httpResponse.getEntity();
-		return (entity != null ? entity.getContent() : new ByteArrayInputStream(new byte[0]));
+		if (entity == null) {
+			return new ByteArrayInputStream(new byte[0]);
+		}
+		if (this.body == null) {
+			if (this.decompression == null) {
+				this.body = new TrackingInputStream(entity.getContent());
+			}
+			else {
+				final Header contentEncoding = entity.getContentEncoding();
+				this.decodedBody = this.decompression.decode(contentEncoding != null ? contentEncoding.getValue() : null, entity.getContent());
+				this.body = new TrackingInputStream(this.decodedBody);
+			}
+		}
+		return this.body;
 	}
 
 	@Override
 	public void close() {
-        // Release underlying connection back to the connection manager
+		if (this.closePolicy != null) {
+			drain(this.closePolicy);
+		}
+		// Release underlying connection back to the connection manager, this aborts the connection
+		// unless the end of the body was reached
 		if (this.httpResponse instanceof Closeable) {
 			try {
 				((Closeable) this.httpResponse).close();
@@ -85,10 +119,92 @@ final class HttpComponentsClientHttpResponse implements ClientHttpResponse {
 				// ignore exception on close
 			}
 		}
+		// Return pooled inflater after the connection was aborted, so that closing does not drain the stream
+		if (this.decodedBody instanceof InflatingInputStream) {
+			try {
+				this.decodedBody.close();
+			} catch (IOException e) {
+				// ignore exception on close
+			}
+		}
+	}
+
+	/**
+	 * Discard the remaining body if the policy allows it. Reaching the end of the entity stream
+	 * returns the connection to the pool, as does closing it. Bodies read up to their end or
+	 * closed by the application are therefore only closed, which consumes the remainder of an
+	 * encoded body after the end of its decoded content.
+	 */
+	private void drain(ResponseClosePolicy closePolicy) {
+		final HttpEntity entity = this.httpResponse.getEntity();
+		if (entity == null) {
+			closePolicy.recordCompleted();
+			return;
+		}
+		if (this.body != null && this.body.isFinished()) {
+			try {
+				this.body.close();
+				closePolicy.recordCompleted();
+			} catch (IOException e) {
+				// the connection is aborted when closing the response
+				closePolicy.recordAborted();
+			}
+			return;
+		}
+		try {
+			// the entity reports the length of the undecoded body
+			closePolicy.drain(entity.getContent(), this.body != null ? -1 : entity.getContentLength());
+		} catch (IOException e) {
+			// ignore, the connection is aborted when closing the response
+		}
 	}
 
 	@Override
 	public HttpStatus getStatusCode() throws IOException {
 		return HttpStatus.valueOf(getRawStatusCode());
 	}
+
+	@Override
+	public long getLeaseWaitNanos() {
+		return this.leaseWaitNanos;
+	}
+
+
+	/**
+	 * View of the response headers that looks up single headers in the {@link HttpMessage},
+	 * without copying them.
+	 */
+	private static final class MessageHeaders extends LazyHeaderMap {
+
+		private final HttpMessage message;
+
+		MessageHeaders(HttpMessage message) {
+			this.message = message;
+		}
+
+		@Override
+		protected String getFirstValue(String name) {
+			final Header header = this.message.getFirstHeader(name);
+			return (header != null ? header.getValue() : null);
+		}
+
+		@Override
+		protected List<String> getValues(String name) {
+			final Header[] headers = this.message.getHeaders(name);
+			final List<String> values = new ArrayList<String>(headers.length);
+			for (Header header : headers) {
+				values.add(header.getValue());
+			}
+			return values;
+		}
+
+		@Override
+		protected void copyTo(HttpHeaders headers) {
+			final HeaderIterator iterator = this.message.headerIterator();
+			while (iterator.hasNext()) {
+				final Header header = iterator.nextHeader();
+				headers.add(header.getName(), header.getValue());
+			}
+		}
+	}
 }
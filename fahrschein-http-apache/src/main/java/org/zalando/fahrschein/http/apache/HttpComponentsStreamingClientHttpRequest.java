@@ -0,0 +1,214 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.apache;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.zalando.fahrschein.http.api.RequestCompression;
+import org.zalando.fahrschein.http.api.ResponseClosePolicy;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+
+/**
+ * {@link ClientHttpRequest} implementation based on
+ * Apache HttpComponents HttpClient in streaming mode.
+ *
+ * <p>The body has to be provided via {@link #setBody(Body)} and is written directly to
+ * the connection when the request is executed. The request is sent with a fixed
+ * {@code Content-Length} if that header was set, and using chunked transfer encoding otherwise.
+ *
+ * <p>Created via the {@link HttpComponentsClientHttpRequestFactory}.
+ *
+ * @author Arjen Poutsma
+ * @author Joern Horstmann
+ * @see HttpComponentsClientHttpRequestFactory#setBufferRequestBody(boolean)
+ */
+final class HttpComponentsStreamingClientHttpRequest implements ClientHttpRequest, StreamingHttpOutputMessage {
+
+	private final HttpClient httpClient;
+	private final HttpUriRequest httpRequest;
+
+	private final HttpContext httpContext;
+	private final RequestCompression compression;
+	private final ResponseDecompression decompression;
+	private final ResponseClosePolicy closePolicy;
+	private final LeaseTrackingConnectionManager connectionManager;
+	private final HttpHeaders headers;
+	private Body body;
+	private boolean executed;
+
+
+	HttpComponentsStreamingClientHttpRequest(HttpClient client, HttpUriRequest request, HttpContext context, RequestCompression compression, ResponseDecompression decompression, ResponseClosePolicy closePolicy, LeaseTrackingConnectionManager connectionManager) {
+		this.httpClient = client;
+		this.httpRequest = request;
+		this.httpContext = context;
+		this.compression = compression;
+		this.decompression = decompression;
+		this.closePolicy = closePolicy;
+		this.connectionManager = connectionManager;
+		this.headers = new HttpHeaders();
+	}
+
+
+	@Override
+	public HttpMethod getMethod() {
+		return HttpMethod.resolve(this.httpRequest.getMethod());
+	}
+
+	@Override
+	public URI getURI() {
+		return this.httpRequest.getURI();
+	}
+
+	@Override
+	public void setBody(Body body) {
+		assertNotExecuted();
+		this.body = body;
+	}
+
+	@Override
+	public OutputStream getBody() {
+		throw new UnsupportedOperationException("getBody not supported, use setBody instead");
+	}
+
+	private ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
+		Body body = this.body;
+		if (body != null && this.compression != null && this.compression.shouldCompress(headers, headers.getContentLength())) {
+			this.compression.applyHeaders(headers, -1);
+			body = this.compression.compressingBody(body);
+		}
+
+		HttpComponentsClientHttpRequest.addHeaders(this.httpRequest, headers);
+
+		if (this.httpRequest instanceof HttpEntityEnclosingRequest && body != null) {
+			HttpEntityEnclosingRequest entityEnclosingRequest = (HttpEntityEnclosingRequest) this.httpRequest;
+			HttpEntity requestEntity = new StreamingHttpEntity(headers, body);
+			entityEnclosingRequest.setEntity(requestEntity);
+		}
+
+		if (this.connectionManager != null) {
+			this.connectionManager.startRequest();
+		}
+		final HttpResponse httpResponse = this.httpClient.execute(this.httpRequest, this.httpContext);
+		final long leaseWaitNanos = this.connectionManager != null ? this.connectionManager.getLeaseWaitNanos() : -1;
+		return new HttpComponentsClientHttpResponse(httpResponse, this.decompression, this.closePolicy, leaseWaitNanos);
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		return (this.executed ? HttpHeaders.readOnlyHttpHeaders(this.headers) : this.headers);
+	}
+
+	@Override
+	public ClientHttpResponse execute() throws IOException {
+		assertNotExecuted();
+		final ClientHttpResponse result = executeInternal(this.headers);
+		this.executed = true;
+		return result;
+	}
+
+	/**
+	 * Assert that this request has not been {@linkplain #execute() executed} yet.
+	 * @throws IllegalStateException if this request has been executed
+	 */
+	private void assertNotExecuted() {
+		if (this.executed) {
+			throw new IllegalStateException("ClientHttpRequest already executed");
+		}
+	}
+
+
+	/**
+	 * Non-repeatable {@link HttpEntity} that writes the streaming body directly
+	 * to the output stream of the connection.
+	 */
+	private static final class StreamingHttpEntity implements HttpEntity {
+
+		private final HttpHeaders headers;
+		private final Body body;
+
+		StreamingHttpEntity(HttpHeaders headers, Body body) {
+			this.headers = headers;
+			this.body = body;
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return false;
+		}
+
+		@Override
+		public boolean isChunked() {
+			return getContentLength() < 0;
+		}
+
+		@Override
+		public long getContentLength() {
+			return this.headers.getContentLength();
+		}
+
+		@Override
+		public Header getContentType() {
+			String contentType = this.headers.getFirst(HTTP.CONTENT_TYPE);
+			return (contentType != null ? new BasicHeader(HTTP.CONTENT_TYPE, contentType) : null);
+		}
+
+		@Override
+		public Header getContentEncoding() {
+			String contentEncoding = this.headers.getFirst(HTTP.CONTENT_ENCODING);
+			return (contentEncoding != null ? new BasicHeader(HTTP.CONTENT_ENCODING, contentEncoding) : null);
+		}
+
+		@Override
+		public InputStream getContent() {
+			throw new IllegalStateException("No content available");
+		}
+
+		@Override
+		public void writeTo(OutputStream outputStream) throws IOException {
+			this.body.writeTo(outputStream);
+		}
+
+		@Override
+		public boolean isStreaming() {
+			return true;
+		}
+
+		@Override
+		@Deprecated
+		public void consumeContent() throws IOException {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+}
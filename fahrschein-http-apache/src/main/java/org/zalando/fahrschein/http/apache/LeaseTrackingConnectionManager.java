@@ -0,0 +1,128 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.apache;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link HttpClientConnectionManager} decorator that measures the time the executing thread waits for
+ * a connection lease from a {@link PoolingHttpClientConnectionManager}.
+ *
+ * <p>HttpClient leases the connection on the thread executing the request, the wait time is therefore
+ * accumulated per thread between {@link #startRequest()} and {@link #getLeaseWaitNanos()}, including
+ * the leases of retried requests.
+ *
+ * @author Joern Horstmann
+ */
+final class LeaseTrackingConnectionManager implements HttpClientConnectionManager {
+
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final ThreadLocal<long[]> leaseWaitNanos = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	LeaseTrackingConnectionManager(PoolingHttpClientConnectionManager connectionManager) {
+		this.connectionManager = connectionManager;
+	}
+
+	PoolingHttpClientConnectionManager getConnectionManager() {
+		return this.connectionManager;
+	}
+
+	/**
+	 * Reset the lease wait time of the current thread before executing a request.
+	 */
+	void startRequest() {
+		this.leaseWaitNanos.get()[0] = 0;
+	}
+
+	/**
+	 * Return the time the current thread waited for connection leases since {@link #startRequest()}.
+	 */
+	long getLeaseWaitNanos() {
+		return this.leaseWaitNanos.get()[0];
+	}
+
+	@Override
+	public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+		final ConnectionRequest request = this.connectionManager.requestConnection(route, state);
+		return new ConnectionRequest() {
+			@Override
+			public HttpClientConnection get(long timeout, TimeUnit tunit) throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+				final long start = System.nanoTime();
+				try {
+					return request.get(timeout, tunit);
+				} finally {
+					leaseWaitNanos.get()[0] += System.nanoTime() - start;
+				}
+			}
+
+			@Override
+			public boolean cancel() {
+				return request.cancel();
+			}
+		};
+	}
+
+	@Override
+	public void releaseConnection(HttpClientConnection conn, Object newState, long validDuration, TimeUnit timeUnit) {
+		this.connectionManager.releaseConnection(conn, newState, validDuration, timeUnit);
+	}
+
+	@Override
+	public void connect(HttpClientConnection conn, HttpRoute route, int connectTimeout, HttpContext context) throws IOException {
+		this.connectionManager.connect(conn, route, connectTimeout, context);
+	}
+
+	@Override
+	public void upgrade(HttpClientConnection conn, HttpRoute route, HttpContext context) throws IOException {
+		this.connectionManager.upgrade(conn, route, context);
+	}
+
+	@Override
+	public void routeComplete(HttpClientConnection conn, HttpRoute route, HttpContext context) throws IOException {
+		this.connectionManager.routeComplete(conn, route, context);
+	}
+
+	@Override
+	public void closeIdleConnections(long idletime, TimeUnit tunit) {
+		this.connectionManager.closeIdleConnections(idletime, tunit);
+	}
+
+	@Override
+	public void closeExpiredConnections() {
+		this.connectionManager.closeExpiredConnections();
+	}
+
+	@Override
+	public void shutdown() {
+		this.connectionManager.shutdown();
+	}
+}
@@ -0,0 +1,640 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.http;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import org.springframework.util.MultiValueMap;
+import org.zalando.fahrschein.http.api.HeaderName;
+
+/**
+ * Storage of the {@link HttpHeaders}, keeping header names and values in two parallel arrays
+ * in insertion order.
+ *
+ * <p>Names are first compared by identity, since names {@linkplain HeaderName registered} with the
+ * same case are stored as their canonical instance, and then case-insensitively character by character,
+ * so lookups do not allocate lower-cased keys. Since a message only has a few dozen headers, lookups
+ * scan the names linearly, which is faster than hashing for such sizes. A header with a single value
+ * stores the {@code String} itself. It is converted to a modifiable list when a second value is added
+ * or when the list returned by {@link #get(Object)} is modified, so that changes to the returned list
+ * are visible in the map as with any other {@link Map} implementation. Reading never modifies the map,
+ * so concurrent reads are safe as long as no thread modifies it.
+ *
+ * <p>Read-only instances return unmodifiable lists and throw {@link UnsupportedOperationException}
+ * from all mutating operations, including those of the collection views.
+ *
+ * <p>Does <i>not</i> support {@code null} keys.
+ *
+ * @author Joern Horstmann
+ * @see HttpHeaders
+ */
+final class CompactHeaderMap extends AbstractMap<String, List<String>> implements MultiValueMap<String, String>, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int DEFAULT_CAPACITY = 8;
+
+	private final boolean readOnly;
+	private String[] names;
+	// each element is either a String or a List<String>
+	private Object[] values;
+	private int size;
+	private transient int modCount;
+	private transient Set<Entry<String, List<String>>> entrySet;
+
+
+	CompactHeaderMap() {
+		this(DEFAULT_CAPACITY, false);
+	}
+
+	private CompactHeaderMap(int capacity, boolean readOnly) {
+		this.readOnly = readOnly;
+		this.names = new String[capacity];
+		this.values = new Object[capacity];
+	}
+
+	/**
+	 * Return a read-only copy of the given map, including copies of the lists of values, so that
+	 * later changes to the given map are not visible in the copy.
+	 */
+	static CompactHeaderMap readOnlyCopy(Map<String, List<String>> headers) {
+		if (!(headers instanceof CompactHeaderMap)) {
+			final CompactHeaderMap copy = new CompactHeaderMap(Math.max(1, headers.size()), true);
+			for (Entry<String, List<String>> entry : headers.entrySet()) {
+				copy.append(entry.getKey(), readOnlyValue(entry.getValue()));
+			}
+			return copy;
+		}
+		final CompactHeaderMap map = (CompactHeaderMap) headers;
+		if (map.readOnly) {
+			return map;
+		}
+		final CompactHeaderMap copy = new CompactHeaderMap(Math.max(1, map.size), true);
+		for (int i = 0; i < map.size; i++) {
+			final Object value = map.values[i];
+			copy.names[i] = map.names[i];
+			copy.values[i] = (value instanceof String ? value : readOnlyValue(asList(value)));
+		}
+		copy.size = map.size;
+		return copy;
+	}
+
+	/**
+	 * Copy the given values for a read-only map, storing a single value as the {@code String} itself.
+	 */
+	private static Object readOnlyValue(List<String> list) {
+		if (list == null) {
+			return null;
+		}
+		if (list.size() == 1 && list.get(0) != null) {
+			return list.get(0);
+		}
+		return Collections.unmodifiableList(new ArrayList<String>(list));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<String> asList(Object value) {
+		return (List<String>) value;
+	}
+
+	private int indexOf(Object key) {
+		if (!(key instanceof String)) {
+			return -1;
+		}
+		final String name = (String) key;
+		final String[] names = this.names;
+		// registered names are usually both stored and looked up via their canonical instance
+		for (int i = 0; i < this.size; i++) {
+			if (names[i] == name) {
+				return i;
+			}
+		}
+		final int length = name.length();
+		for (int i = 0; i < this.size; i++) {
+			final String candidate = names[i];
+			if (candidate.length() == length && HeaderName.equalsIgnoreCase(candidate, name, length)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void checkWritable() {
+		if (this.readOnly) {
+			throw new UnsupportedOperationException("Headers are read-only");
+		}
+	}
+
+	private static void checkName(String name) {
+		if (name == null) {
+			throw new IllegalArgumentException("Header name must not be null");
+		}
+	}
+
+	private void append(String name, Object value) {
+		if (this.size == this.names.length) {
+			final int capacity = this.size * 2;
+			this.names = Arrays.copyOf(this.names, capacity);
+			this.values = Arrays.copyOf(this.values, capacity);
+		}
+		this.names[this.size] = HeaderName.canonicalize(name);
+		this.values[this.size] = value;
+		this.size++;
+		this.modCount++;
+	}
+
+	private void removeAt(int index) {
+		final int moved = this.size - index - 1;
+		if (moved > 0) {
+			System.arraycopy(this.names, index + 1, this.names, index, moved);
+			System.arraycopy(this.values, index + 1, this.values, index, moved);
+		}
+		this.size--;
+		this.names[this.size] = null;
+		this.values[this.size] = null;
+		this.modCount++;
+	}
+
+	/**
+	 * Store a single value, {@code null} values are kept in a list to distinguish them from
+	 * headers without a list.
+	 */
+	private static Object singleValue(String value) {
+		if (value != null) {
+			return value;
+		}
+		final List<String> list = new ArrayList<String>(1);
+		list.add(null);
+		return list;
+	}
+
+	/**
+	 * Return the values at the given index as a list, without modifying the map.
+	 */
+	private List<String> valueAt(int index) {
+		final Object value = this.values[index];
+		if (value instanceof String) {
+			return (this.readOnly ? Collections.singletonList((String) value) : new SingleValueList(this.names[index]));
+		}
+		return asList(value);
+	}
+
+	/**
+	 * Return the values at the given index as a list, without storing it in the map.
+	 */
+	private static List<String> detachedList(Object value) {
+		if (value instanceof String) {
+			final List<String> list = new ArrayList<String>(1);
+			list.add((String) value);
+			return list;
+		}
+		return asList(value);
+	}
+
+	private static boolean valueEquals(Object value, Object other) {
+		if (value instanceof String) {
+			if (!(other instanceof List)) {
+				return false;
+			}
+			final List<?> list = (List<?>) other;
+			return list.size() == 1 && value.equals(list.get(0));
+		}
+		return (value == null ? other == null : value.equals(other));
+	}
+
+	private static int valueHashCode(Object value) {
+		// same as the hash code of a list containing the value
+		return (value instanceof String ? 31 + value.hashCode() : (value == null ? 0 : value.hashCode()));
+	}
+
+
+	// MultiValueMap implementation, without allocation
+
+	/**
+	 * Return the first value of the given header, or {@code null} if none.
+	 */
+	@Override
+	public String getFirst(String name) {
+		final int index = indexOf(name);
+		if (index < 0) {
+			return null;
+		}
+		final Object value = this.values[index];
+		if (value instanceof String) {
+			return (String) value;
+		}
+		final List<String> list = asList(value);
+		return (list == null || list.isEmpty() ? null : list.get(0));
+	}
+
+	/**
+	 * Add a value to the given header.
+	 */
+	@Override
+	public void add(String name, String value) {
+		checkWritable();
+		checkName(name);
+		final int index = indexOf(name);
+		if (index < 0) {
+			append(name, singleValue(value));
+		}
+		else {
+			final Object existing = this.values[index];
+			if (existing instanceof String || existing == null) {
+				final List<String> list = new ArrayList<String>(2);
+				if (existing != null) {
+					list.add((String) existing);
+				}
+				list.add(value);
+				this.values[index] = list;
+			}
+			else {
+				asList(existing).add(value);
+			}
+		}
+	}
+
+	/**
+	 * Replace all values of the given header with a single value.
+	 */
+	@Override
+	public void set(String name, String value) {
+		checkWritable();
+		checkName(name);
+		final int index = indexOf(name);
+		if (index < 0) {
+			append(name, singleValue(value));
+		}
+		else {
+			this.names[index] = HeaderName.canonicalize(name);
+			this.values[index] = singleValue(value);
+		}
+	}
+
+	@Override
+	public void setAll(Map<String, String> values) {
+		for (Entry<String, String> entry : values.entrySet()) {
+			set(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Override
+	public Map<String, String> toSingleValueMap() {
+		final Map<String, String> singleValueMap = new LinkedHashMap<String, String>(this.size * 2);
+		for (int i = 0; i < this.size; i++) {
+			final Object value = this.values[i];
+			if (value instanceof String) {
+				singleValueMap.put(this.names[i], (String) value);
+			}
+			else {
+				final List<String> list = asList(value);
+				singleValueMap.put(this.names[i], list == null || list.isEmpty() ? null : list.get(0));
+			}
+		}
+		return singleValueMap;
+	}
+
+
+	// Map implementation
+
+	@Override
+	public int size() {
+		return this.size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		for (int i = 0; i < this.size; i++) {
+			if (valueEquals(this.values[i], value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public List<String> get(Object key) {
+		final int index = indexOf(key);
+		return (index >= 0 ? valueAt(index) : null);
+	}
+
+	@Override
+	public List<String> put(String key, List<String> value) {
+		checkWritable();
+		checkName(key);
+		final int index = indexOf(key);
+		if (index < 0) {
+			append(key, value);
+			return null;
+		}
+		final List<String> previous = detachedList(this.values[index]);
+		this.names[index] = HeaderName.canonicalize(key);
+		this.values[index] = value;
+		return previous;
+	}
+
+	@Override
+	public List<String> remove(Object key) {
+		checkWritable();
+		final int index = indexOf(key);
+		if (index < 0) {
+			return null;
+		}
+		final List<String> previous = detachedList(this.values[index]);
+		removeAt(index);
+		return previous;
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends List<String>> map) {
+		for (Entry<? extends String, ? extends List<String>> entry : map.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Override
+	public void clear() {
+		checkWritable();
+		Arrays.fill(this.names, 0, this.size, null);
+		Arrays.fill(this.values, 0, this.size, null);
+		this.size = 0;
+		this.modCount++;
+	}
+
+	@Override
+	public Set<Entry<String, List<String>>> entrySet() {
+		if (this.entrySet == null) {
+			this.entrySet = new EntrySet();
+		}
+		return this.entrySet;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof Map)) {
+			return false;
+		}
+		final Map<?, ?> otherMap = (Map<?, ?>) other;
+		if (otherMap.size() != this.size) {
+			return false;
+		}
+		for (int i = 0; i < this.size; i++) {
+			final Object otherValue = otherMap.get(this.names[i]);
+			if (!valueEquals(this.values[i], otherValue) || (otherValue == null && !otherMap.containsKey(this.names[i]))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int hashCode = 0;
+		for (int i = 0; i < this.size; i++) {
+			hashCode += this.names[i].hashCode() ^ valueHashCode(this.values[i]);
+		}
+		return hashCode;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder(this.size * 32 + 2);
+		sb.append('{');
+		for (int i = 0; i < this.size; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			final Object value = this.values[i];
+			sb.append(this.names[i]).append('=');
+			if (value instanceof String) {
+				sb.append('[').append((String) value).append(']');
+			}
+			else {
+				sb.append(value);
+			}
+		}
+		return sb.append('}').toString();
+	}
+
+
+	private final class EntrySet extends AbstractSet<Entry<String, List<String>>> {
+
+		@Override
+		public int size() {
+			return CompactHeaderMap.this.size;
+		}
+
+		@Override
+		public Iterator<Entry<String, List<String>>> iterator() {
+			return new EntryIterator();
+		}
+
+		@Override
+		public void clear() {
+			CompactHeaderMap.this.clear();
+		}
+	}
+
+
+	private final class EntryIterator implements Iterator<Entry<String, List<String>>> {
+
+		private int next;
+		private int last = -1;
+		private int expectedModCount = modCount;
+
+		@Override
+		public boolean hasNext() {
+			return this.next < size;
+		}
+
+		@Override
+		public Entry<String, List<String>> next() {
+			if (modCount != this.expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (this.next >= size) {
+				throw new NoSuchElementException();
+			}
+			this.last = this.next++;
+			return new HeaderEntry(this.last);
+		}
+
+		@Override
+		public void remove() {
+			if (this.last < 0) {
+				throw new IllegalStateException();
+			}
+			if (modCount != this.expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			checkWritable();
+			removeAt(this.last);
+			this.next = this.last;
+			this.last = -1;
+			this.expectedModCount = modCount;
+		}
+	}
+
+
+	/**
+	 * List of the values of a header that was stored as a single value when the list was requested.
+	 * Reading looks up the current values of the header, the first modification converts the value
+	 * to a list stored in the map.
+	 */
+	private final class SingleValueList extends AbstractList<String> implements RandomAccess {
+
+		private final String name;
+
+		SingleValueList(String name) {
+			this.name = name;
+		}
+
+		private Object value() {
+			final int index = CompactHeaderMap.this.indexOf(this.name);
+			return (index >= 0 ? values[index] : null);
+		}
+
+		private List<String> modifiableList() {
+			final int index = CompactHeaderMap.this.indexOf(this.name);
+			if (index < 0) {
+				throw new ConcurrentModificationException("Header was removed: " + this.name);
+			}
+			final Object value = values[index];
+			if (value instanceof String) {
+				final List<String> list = new ArrayList<String>(2);
+				list.add((String) value);
+				values[index] = list;
+				return list;
+			}
+			return asList(value);
+		}
+
+		@Override
+		public String get(int index) {
+			final Object value = value();
+			if (value instanceof String) {
+				if (index != 0) {
+					throw new IndexOutOfBoundsException("Index: " + index + ", Size: 1");
+				}
+				return (String) value;
+			}
+			return (value != null ? asList(value) : Collections.<String>emptyList()).get(index);
+		}
+
+		@Override
+		public int size() {
+			final Object value = value();
+			return (value instanceof String ? 1 : (value != null ? asList(value).size() : 0));
+		}
+
+		@Override
+		public String set(int index, String element) {
+			return modifiableList().set(index, element);
+		}
+
+		@Override
+		public void add(int index, String element) {
+			modifiableList().add(index, element);
+		}
+
+		@Override
+		public String remove(int index) {
+			return modifiableList().remove(index);
+		}
+	}
+
+
+	/**
+	 * Entry referring to a position in the map, valid until the map is structurally modified.
+	 */
+	private final class HeaderEntry implements Entry<String, List<String>> {
+
+		private final int index;
+
+		HeaderEntry(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public String getKey() {
+			return names[this.index];
+		}
+
+		@Override
+		public List<String> getValue() {
+			return valueAt(this.index);
+		}
+
+		@Override
+		public List<String> setValue(List<String> value) {
+			checkWritable();
+			final List<String> previous = detachedList(values[this.index]);
+			values[this.index] = value;
+			return previous;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof Entry)) {
+				return false;
+			}
+			final Entry<?, ?> otherEntry = (Entry<?, ?>) other;
+			return getKey().equals(otherEntry.getKey()) && valueEquals(values[this.index], otherEntry.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return getKey().hashCode() ^ valueHashCode(values[this.index]);
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + detachedList(values[this.index]);
+		}
+	}
+}
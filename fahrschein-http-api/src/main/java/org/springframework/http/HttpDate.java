@@ -0,0 +1,402 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.http;
+
+/**
+ * Parser and formatter for the date formats of HTTP, without allocating formatters.
+ *
+ * <p>{@link #parse(CharSequence)} accepts the three formats listed in RFC 7231, section 7.1.1.1:
+ * <ul>
+ * <li>the preferred IMF-fixdate, for example {@code Sun, 06 Nov 1994 08:49:37 GMT};</li>
+ * <li>the obsolete RFC 850 format, for example {@code Sunday, 06-Nov-94 08:49:37 GMT};</li>
+ * <li>the obsolete ANSI C {@code asctime()} format, for example {@code Sun Nov  6 08:49:37 1994}.</li>
+ * </ul>
+ * Day and month names are matched case-insensitively, days can have one or two digits, and besides
+ * {@code GMT} the zones {@code UTC} and numeric offsets like {@code +0100} are accepted.
+ * Two-digit years are interpreted as described in RFC 7231, as the most recent year with the same
+ * last two digits unless that would be more than 50 years in the future.
+ *
+ * <p>{@link #format(long)} writes the IMF-fixdate format. The last formatted second is cached,
+ * so formatting the current time repeatedly, as done for the {@code Date} header, returns the same
+ * {@code String} instance until the next second.
+ *
+ * <p>Both methods are thread-safe.
+ *
+ * @author Joern Horstmann
+ * @see HttpHeaders#getFirstDate(String)
+ * @see HttpHeaders#setDate(String, long)
+ * @see <a href="https://tools.ietf.org/html/rfc7231#section-7.1.1.1">Section 7.1.1.1 of RFC 7231</a>
+ */
+final class HttpDate {
+
+	private static final String[] DAY_NAMES = {"Sunday", "Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday"};
+	private static final String[] MONTH_NAMES = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+
+	private static final int INVALID = -1;
+	private static final int INVALID_ZONE = Integer.MIN_VALUE;
+	private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+	private static volatile FormattedDate lastFormatted = new FormattedDate(Long.MIN_VALUE, null);
+
+	private HttpDate() {
+	}
+
+	/**
+	 * Parse the given HTTP date.
+	 * @param value the header value, may be {@code null}
+	 * @return the date as the number of milliseconds since January 1, 1970 GMT, or -1 if the
+	 * value is {@code null} or not a valid date
+	 */
+	static long parse(CharSequence value) {
+		if (value == null) {
+			return INVALID;
+		}
+		int start = 0;
+		int end = value.length();
+		while (start < end && isWhitespace(value.charAt(start))) {
+			start++;
+		}
+		while (end > start && isWhitespace(value.charAt(end - 1))) {
+			end--;
+		}
+		int pos = start;
+		while (pos < end && isLetter(value.charAt(pos))) {
+			pos++;
+		}
+		if (!isDayName(value, start, pos)) {
+			return INVALID;
+		}
+		if (pos < end && value.charAt(pos) == ',') {
+			return parseFixdateOrRfc850(value, pos + 1, end);
+		}
+		return parseAsctime(value, pos, end);
+	}
+
+	/**
+	 * Parse the part after the day name of {@code Sun, 06 Nov 1994 08:49:37 GMT} or
+	 * {@code Sunday, 06-Nov-94 08:49:37 GMT}, starting with the space after the comma.
+	 */
+	private static long parseFixdateOrRfc850(CharSequence value, int pos, int end) {
+		if (!isChar(value, pos, end, ' ')) {
+			return INVALID;
+		}
+		pos++;
+		final int dayDigits = countDigits(value, pos, end);
+		if (dayDigits < 1 || dayDigits > 2) {
+			return INVALID;
+		}
+		final int day = parseDigits(value, pos, dayDigits);
+		pos += dayDigits;
+		if (!isChar(value, pos, end, ' ') && !isChar(value, pos, end, '-')) {
+			return INVALID;
+		}
+		final char separator = value.charAt(pos);
+		final int month = parseMonth(value, pos + 1, end);
+		pos += 4;
+		if (month == INVALID || !isChar(value, pos, end, separator)) {
+			return INVALID;
+		}
+		pos++;
+		final int yearDigits = countDigits(value, pos, end);
+		final int year;
+		if (yearDigits == 4) {
+			year = parseDigits(value, pos, 4);
+		}
+		else if (yearDigits == 2) {
+			year = expandTwoDigitYear(parseDigits(value, pos, 2));
+		}
+		else {
+			return INVALID;
+		}
+		pos += yearDigits;
+		if (!isChar(value, pos, end, ' ')) {
+			return INVALID;
+		}
+		final int time = parseTime(value, pos + 1, end);
+		pos += 9;
+		if (time == INVALID || !isChar(value, pos, end, ' ')) {
+			return INVALID;
+		}
+		final int offset = parseZone(value, pos + 1, end);
+		if (offset == INVALID_ZONE) {
+			return INVALID;
+		}
+		return toMillis(year, month, day, time - offset);
+	}
+
+	/**
+	 * Parse the part after the day name of {@code Sun Nov  6 08:49:37 1994}, starting with the space
+	 * after the day name.
+	 */
+	private static long parseAsctime(CharSequence value, int pos, int end) {
+		if (!isChar(value, pos, end, ' ')) {
+			return INVALID;
+		}
+		final int month = parseMonth(value, pos + 1, end);
+		pos += 4;
+		if (month == INVALID || !isChar(value, pos, end, ' ')) {
+			return INVALID;
+		}
+		pos++;
+		if (isChar(value, pos, end, ' ')) {
+			// single digit days are padded with a space
+			pos++;
+		}
+		final int dayDigits = countDigits(value, pos, end);
+		if (dayDigits < 1 || dayDigits > 2) {
+			return INVALID;
+		}
+		final int day = parseDigits(value, pos, dayDigits);
+		pos += dayDigits;
+		if (!isChar(value, pos, end, ' ')) {
+			return INVALID;
+		}
+		final int time = parseTime(value, pos + 1, end);
+		pos += 9;
+		if (time == INVALID || !isChar(value, pos, end, ' ')) {
+			return INVALID;
+		}
+		pos++;
+		if (end - pos != 4 || countDigits(value, pos, end) != 4) {
+			return INVALID;
+		}
+		return toMillis(parseDigits(value, pos, 4), month, day, time);
+	}
+
+	/**
+	 * Parse {@code HH:mm:ss} into the second of the day.
+	 */
+	private static int parseTime(CharSequence value, int pos, int end) {
+		if (end - pos < 8 || countDigits(value, pos, pos + 2) != 2 || value.charAt(pos + 2) != ':'
+				|| countDigits(value, pos + 3, pos + 5) != 2 || value.charAt(pos + 5) != ':'
+				|| countDigits(value, pos + 6, pos + 8) != 2) {
+			return INVALID;
+		}
+		final int hour = parseDigits(value, pos, 2);
+		final int minute = parseDigits(value, pos + 3, 2);
+		final int second = parseDigits(value, pos + 6, 2);
+		if (hour > 23 || minute > 59 || second > 60) {
+			return INVALID;
+		}
+		return hour * 3600 + minute * 60 + second;
+	}
+
+	/**
+	 * Parse the zone at the end of the value into its offset in seconds.
+	 */
+	private static int parseZone(CharSequence value, int pos, int end) {
+		final int length = end - pos;
+		if (length == 3 && (regionMatches(value, pos, "GMT", 3) || regionMatches(value, pos, "UTC", 3))) {
+			return 0;
+		}
+		if (length == 5 && (value.charAt(pos) == '+' || value.charAt(pos) == '-') && countDigits(value, pos + 1, end) == 4) {
+			final int hours = parseDigits(value, pos + 1, 2);
+			final int minutes = parseDigits(value, pos + 3, 2);
+			if (minutes > 59) {
+				return INVALID_ZONE;
+			}
+			final int offset = hours * 3600 + minutes * 60;
+			return value.charAt(pos) == '-' ? -offset : offset;
+		}
+		return INVALID_ZONE;
+	}
+
+	/**
+	 * Parse a three letter month name, returning the month from 1 to 12.
+	 */
+	private static int parseMonth(CharSequence value, int pos, int end) {
+		if (end - pos < 3) {
+			return INVALID;
+		}
+		for (int i = 0; i < MONTH_NAMES.length; i++) {
+			if (regionMatches(value, pos, MONTH_NAMES[i], 3)) {
+				return i + 1;
+			}
+		}
+		return INVALID;
+	}
+
+	private static boolean isDayName(CharSequence value, int start, int end) {
+		final int length = end - start;
+		for (String dayName : DAY_NAMES) {
+			if ((length == 3 || length == dayName.length()) && regionMatches(value, start, dayName, length)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Interpret a two-digit year as described in RFC 7231, section 7.1.1.1.
+	 */
+	private static int expandTwoDigitYear(int twoDigitYear) {
+		final int currentYear = yearOfDay(floorDiv(System.currentTimeMillis(), 1000L * SECONDS_PER_DAY));
+		final int year = currentYear - currentYear % 100 + twoDigitYear;
+		return year > currentYear + 50 ? year - 100 : year;
+	}
+
+	private static long toMillis(int year, int month, int day, int secondOfDay) {
+		if (day < 1 || day > 31) {
+			return INVALID;
+		}
+		return (daysFromCivil(year, month, day) * SECONDS_PER_DAY + secondOfDay) * 1000L;
+	}
+
+	/**
+	 * Format the given date in the IMF-fixdate format, for example {@code Sun, 06 Nov 1994 08:49:37 GMT}.
+	 * Milliseconds are truncated.
+	 * @param date the date as the number of milliseconds since January 1, 1970 GMT
+	 * @return the formatted date
+	 */
+	static String format(long date) {
+		final long second = floorDiv(date, 1000L);
+		final FormattedDate last = lastFormatted;
+		if (last.second == second) {
+			return last.value;
+		}
+		final String value = formatSecond(second);
+		lastFormatted = new FormattedDate(second, value);
+		return value;
+	}
+
+	private static String formatSecond(long second) {
+		final long days = floorDiv(second, SECONDS_PER_DAY);
+		final int secondOfDay = (int) (second - days * SECONDS_PER_DAY);
+
+		// civil date from days since the epoch, see http://howardhinnant.github.io/date_algorithms.html
+		final long z = days + 719468;
+		final long era = (z >= 0 ? z : z - 146096) / 146097;
+		final int dayOfEra = (int) (z - era * 146097);
+		final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		final int mp = (5 * dayOfYear + 2) / 153;
+		final int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+		final int month = mp < 10 ? mp + 3 : mp - 9;
+		final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		// 1970-01-01 was a Thursday
+		final int dayOfWeek = (int) floorMod(days + 4, 7);
+
+		final StringBuilder builder = new StringBuilder(29);
+		builder.append(DAY_NAMES[dayOfWeek], 0, 3).append(',').append(' ');
+		appendTwoDigits(builder, day);
+		builder.append(' ').append(MONTH_NAMES[month - 1]).append(' ');
+		if (year >= 0 && year < 1000) {
+			builder.append(year < 10 ? "000" : year < 100 ? "00" : "0");
+		}
+		builder.append(year).append(' ');
+		appendTwoDigits(builder, secondOfDay / 3600);
+		builder.append(':');
+		appendTwoDigits(builder, secondOfDay / 60 % 60);
+		builder.append(':');
+		appendTwoDigits(builder, secondOfDay % 60);
+		return builder.append(" GMT").toString();
+	}
+
+	private static void appendTwoDigits(StringBuilder builder, int value) {
+		builder.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+	}
+
+	/**
+	 * Days since the epoch of the given civil date, see http://howardhinnant.github.io/date_algorithms.html.
+	 */
+	private static long daysFromCivil(int year, int month, int day) {
+		final long y = month <= 2 ? year - 1 : year;
+		final long era = (y >= 0 ? y : y - 399) / 400;
+		final int yearOfEra = (int) (y - era * 400);
+		final int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	private static int yearOfDay(long days) {
+		final long z = days + 719468;
+		final long era = (z >= 0 ? z : z - 146096) / 146097;
+		final int dayOfEra = (int) (z - era * 146097);
+		final int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		final int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		final int mp = (5 * dayOfYear + 2) / 153;
+		return (int) (yearOfEra + era * 400 + (mp >= 10 ? 1 : 0));
+	}
+
+	private static long floorDiv(long x, long y) {
+		final long q = x / y;
+		return (x % y != 0 && (x ^ y) < 0) ? q - 1 : q;
+	}
+
+	private static long floorMod(long x, long y) {
+		return x - floorDiv(x, y) * y;
+	}
+
+	private static boolean isChar(CharSequence value, int pos, int end, char ch) {
+		return pos < end && value.charAt(pos) == ch;
+	}
+
+	private static boolean isWhitespace(char ch) {
+		return ch == ' ' || ch == '\t';
+	}
+
+	private static boolean isLetter(char ch) {
+		return (ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z');
+	}
+
+	private static int countDigits(CharSequence value, int pos, int end) {
+		int count = 0;
+		while (pos + count < end && value.charAt(pos + count) >= '0' && value.charAt(pos + count) <= '9') {
+			count++;
+		}
+		return count;
+	}
+
+	private static int parseDigits(CharSequence value, int pos, int count) {
+		int result = 0;
+		for (int i = pos; i < pos + count; i++) {
+			result = result * 10 + (value.charAt(i) - '0');
+		}
+		return result;
+	}
+
+	/**
+	 * Compare the letters at the given position case-insensitively with the first letters of the given name.
+	 */
+	private static boolean regionMatches(CharSequence value, int pos, String name, int length) {
+		if (value.length() - pos < length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if ((value.charAt(pos + i) | 0x20) != (name.charAt(i) | 0x20)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * A formatted second, replaced as a whole so that readers always see a consistent pair.
+	 */
+	private static final class FormattedDate {
+
+		final long second;
+		final String value;
+
+		FormattedDate(long second, String value) {
+			this.second = second;
+			this.value = value;
+		}
+	}
+}
@@ -17,22 +17,16 @@
 package org.springframework.http;
 
 import org.springframework.util.MultiValueMap;
+import org.zalando.fahrschein.http.api.HeaderValueTokenizer;
 
 import java.io.Serializable;
 import java.nio.charset.Charset;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.TimeZone;
 import java.util.regex.Pattern;
 
 /**
@@ -360,54 +354,36 @@ public class HttpHeaders implements MultiValueMap<String, String>, Serializable
 	 */
 	public static final String WWW_AUTHENTICATE = "WWW-Authenticate";
 
-	/**
-	 * Date formats as specified in the HTTP RFC
-	 * @see <a href="https://tools.ietf.org/html/rfc7231#section-7.1.1.1">Section 7.1.1.1 of RFC 7231</a>
-	 */
-	private static final String[] DATE_FORMATS = new String[] {
-			"EEE, dd MMM yyyy HH:mm:ss zzz",
-			"EEE, dd-MMM-yy HH:mm:ss zzz",
-			"EEE MMM dd HH:mm:ss yyyy"
-	};
-
 	/**
 	 * Pattern matching ETag multiple field values in headers such as "If-Match", "If-None-Match"
 	 * @see <a href="https://tools.ietf.org/html/rfc7232#section-2.3">Section 2.3 of RFC 7232</a>
 	 */
 	private static final Pattern ETAG_HEADER_VALUE_PATTERN = Pattern.compile("\\*|\\s*((W\\/)?(\"[^\"]*\"))\\s*,?");
 
-	private static TimeZone GMT = TimeZone.getTimeZone("GMT");
 
-
-	private final Map<String, List<String>> headers;
+	private final MultiValueMap<String, String> headers;
 
 
 	/**
 	 * Constructs a new, empty instance of the {@code HttpHeaders} object.
 	 */
 	public HttpHeaders() {
-		this(new LinkedCaseInsensitiveMap<List<String>>(8, Locale.ENGLISH), false);
+		this(new CompactHeaderMap());
 	}
 
 	/**
-	 * Private constructor that can create read-only {@code HttpHeader} instances.
+	 * Construct a new {@code HttpHeaders} instance backed by an existing map.
+	 * <p>This constructor is available as an optimization for adapting to existing
+	 * headers map structures, for example the headers received by an underlying
+	 * HTTP client. The given map must compare header names case-insensitively.
+	 * @param headers the headers map
+	 * @see org.zalando.fahrschein.http.api.LazyHeaderMap
 	 */
-	private HttpHeaders(Map<String, List<String>> headers, boolean readOnly) {
+	public HttpHeaders(MultiValueMap<String, String> headers) {
 		if (headers == null) {
 			throw new IllegalArgumentException("'headers' must not be null");
 		}
-		if (readOnly) {
-			Map<String, List<String>> map =
-					new LinkedCaseInsensitiveMap<List<String>>(headers.size(), Locale.ENGLISH);
-			for (Entry<String, List<String>> entry : headers.entrySet()) {
-				List<String> values = Collections.unmodifiableList(entry.getValue());
-				map.put(entry.getKey(), values);
-			}
-			this.headers = Collections.unmodifiableMap(map);
-		}
-		else {
-			this.headers = headers;
-		}
+		this.headers = headers;
 	}
 
 
@@ -518,11 +494,10 @@ public class HttpHeaders implements MultiValueMap<String, String>, Serializable
 	 * using the pattern {@code "EEE, dd MMM yyyy HH:mm:ss zzz"}. The equivalent of
 	 * {@link #set(String, String)} but for date headers.
 	 * @since 3.2.4
+	 * @see HttpDate#format(long)
 	 */
 	public void setDate(String headerName, long date) {
-		SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMATS[0], Locale.US);
-		dateFormat.setTimeZone(GMT);
-		set(headerName, dateFormat.format(new Date(date)));
+		set(headerName, HttpDate.format(date));
 	}
 
 	/**
@@ -532,6 +507,7 @@ public class HttpHeaders implements MultiValueMap<String, String>, Serializable
 	 * @param headerName the header name
 	 * @return the parsed date header, or -1 if none
 	 * @since 3.2.4
+	 * @see HttpDate#parse(CharSequence)
 	 */
 	public long getFirstDate(String headerName) {
 		return getFirstDate(headerName, true);
@@ -554,19 +530,9 @@ public class HttpHeaders implements MultiValueMap<String, String>, Serializable
 			// No header value sent at all
 			return -1;
 		}
-		if (headerValue.length() >= 3) {
-			// Short "0" or "-1" like values are never valid HTTP date headers...
-			// Let's only bother with SimpleDateFormat parsing for long enough values.
-			for (String dateFormat : DATE_FORMATS) {
-				SimpleDateFormat simpleDateFormat = new SimpleDateFormat(dateFormat, Locale.US);
-				simpleDateFormat.setTimeZone(GMT);
-				try {
-					return simpleDateFormat.parse(headerValue).getTime();
-				}
-				catch (ParseException ex) {
-					// ignore
-				}
-			}
+		long date = HttpDate.parse(headerValue);
+		if (date != -1) {
+			return date;
 		}
 		if (rejectInvalid) {
 			throw new IllegalArgumentException("Cannot parse date value \"" + headerValue +
@@ -586,11 +552,12 @@ public class HttpHeaders implements MultiValueMap<String, String>, Serializable
 		List<String> values = get(headerName);
 		if (values != null) {
 			List<String> result = new ArrayList<String>();
+			HeaderValueTokenizer tokens = new HeaderValueTokenizer(',');
 			for (String value : values) {
 				if (value != null) {
-					String[] tokens = StringUtils.tokenizeToStringArray(value, ",");
-					for (String token : tokens) {
-						result.add(token);
+					tokens.reset(value);
+					while (tokens.next()) {
+						result.add(tokens.getToken());
 					}
 				}
 			}
@@ -608,8 +575,7 @@ public class HttpHeaders implements MultiValueMap<String, String>, Serializable
 	 */
 	@Override
 	public String getFirst(String headerName) {
-		List<String> headerValues = this.headers.get(headerName);
-		return (headerValues != null ? headerValues.get(0) : null);
+		return this.headers.getFirst(headerName);
 	}
 
 	/**
@@ -622,12 +588,7 @@ public class HttpHeaders implements MultiValueMap<String, String>, Serializable
 	 */
 	@Override
 	public void add(String headerName, String headerValue) {
-		List<String> headerValues = this.headers.get(headerName);
-		if (headerValues == null) {
-			headerValues = new LinkedList<String>();
-			this.headers.put(headerName, headerValues);
-		}
-		headerValues.add(headerValue);
+		this.headers.add(headerName, headerValue);
 	}
 
 	/**
@@ -640,25 +601,17 @@ public class HttpHeaders implements MultiValueMap<String, String>, Serializable
 	 */
 	@Override
 	public void set(String headerName, String headerValue) {
-		List<String> headerValues = new LinkedList<String>();
-		headerValues.add(headerValue);
-		this.headers.put(headerName, headerValues);
+		this.headers.set(headerName, headerValue);
 	}
 
 	@Override
 	public void setAll(Map<String, String> values) {
-		for (Entry<String, String> entry : values.entrySet()) {
-			set(entry.getKey(), entry.getValue());
-		}
+		this.headers.setAll(values);
 	}
 
 	@Override
 	public Map<String, String> toSingleValueMap() {
-		LinkedHashMap<String, String> singleValueMap = new LinkedHashMap<String,String>(this.headers.size());
-		for (Entry<String, List<String>> entry : this.headers.entrySet()) {
-			singleValueMap.put(entry.getKey(), entry.getValue().get(0));
-		}
-		return singleValueMap;
+		return this.headers.toSingleValueMap();
 	}
 
 
@@ -747,12 +700,29 @@ public class HttpHeaders implements MultiValueMap<String, String>, Serializable
 		return this.headers.toString();
 	}
 
+	/**
+	 * Serialize a copy of headers backed by an adapted map, which might not be serializable itself.
+	 */
+	private Object writeReplace() {
+		if (this.headers instanceof CompactHeaderMap) {
+			return this;
+		}
+		final CompactHeaderMap copy = new CompactHeaderMap();
+		for (Entry<String, List<String>> entry : this.headers.entrySet()) {
+			copy.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+		}
+		return new HttpHeaders(copy);
+	}
+
 
 	/**
 	 * Return a {@code HttpHeaders} object that can only be read, not written to.
 	 */
 	public static HttpHeaders readOnlyHttpHeaders(HttpHeaders headers) {
-		return new HttpHeaders(headers, true);
+		if (headers == null) {
+			throw new IllegalArgumentException("'headers' must not be null");
+		}
+		return new HttpHeaders(CompactHeaderMap.readOnlyCopy(headers.headers));
 	}
 
 	/**
@@ -31,6 +31,9 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.TreeSet;
 
+import org.zalando.fahrschein.http.api.HeaderValueTokenizer;
+import org.zalando.fahrschein.http.api.MediaTypeCache;
+
 /**
  *
  * @author Arjen Poutsma
@@ -263,23 +266,23 @@ public class MediaType implements Serializable, Comparable<MediaType> {
 	}
 
 	static {
-		ALL = valueOf(ALL_VALUE);
-		APPLICATION_ATOM_XML = valueOf(APPLICATION_ATOM_XML_VALUE);
-		APPLICATION_FORM_URLENCODED = valueOf(APPLICATION_FORM_URLENCODED_VALUE);
-		APPLICATION_JSON = valueOf(APPLICATION_JSON_VALUE);
-		APPLICATION_JSON_UTF8 = valueOf(APPLICATION_JSON_UTF8_VALUE);
-		APPLICATION_OCTET_STREAM = valueOf(APPLICATION_OCTET_STREAM_VALUE);
-		APPLICATION_PDF = valueOf(APPLICATION_PDF_VALUE);
-		APPLICATION_XHTML_XML = valueOf(APPLICATION_XHTML_XML_VALUE);
-		APPLICATION_XML = valueOf(APPLICATION_XML_VALUE);
-		IMAGE_GIF = valueOf(IMAGE_GIF_VALUE);
-		IMAGE_JPEG = valueOf(IMAGE_JPEG_VALUE);
-		IMAGE_PNG = valueOf(IMAGE_PNG_VALUE);
-		MULTIPART_FORM_DATA = valueOf(MULTIPART_FORM_DATA_VALUE);
-		TEXT_HTML = valueOf(TEXT_HTML_VALUE);
-		TEXT_MARKDOWN = valueOf(TEXT_MARKDOWN_VALUE);
-		TEXT_PLAIN = valueOf(TEXT_PLAIN_VALUE);
-		TEXT_XML = valueOf(TEXT_XML_VALUE);
+		ALL = constant(ALL_VALUE);
+		APPLICATION_ATOM_XML = constant(APPLICATION_ATOM_XML_VALUE);
+		APPLICATION_FORM_URLENCODED = constant(APPLICATION_FORM_URLENCODED_VALUE);
+		APPLICATION_JSON = constant(APPLICATION_JSON_VALUE);
+		APPLICATION_JSON_UTF8 = constant(APPLICATION_JSON_UTF8_VALUE);
+		APPLICATION_OCTET_STREAM = constant(APPLICATION_OCTET_STREAM_VALUE);
+		APPLICATION_PDF = constant(APPLICATION_PDF_VALUE);
+		APPLICATION_XHTML_XML = constant(APPLICATION_XHTML_XML_VALUE);
+		APPLICATION_XML = constant(APPLICATION_XML_VALUE);
+		IMAGE_GIF = constant(IMAGE_GIF_VALUE);
+		IMAGE_JPEG = constant(IMAGE_JPEG_VALUE);
+		IMAGE_PNG = constant(IMAGE_PNG_VALUE);
+		MULTIPART_FORM_DATA = constant(MULTIPART_FORM_DATA_VALUE);
+		TEXT_HTML = constant(TEXT_HTML_VALUE);
+		TEXT_MARKDOWN = constant(TEXT_MARKDOWN_VALUE);
+		TEXT_PLAIN = constant(TEXT_PLAIN_VALUE);
+		TEXT_XML = constant(TEXT_XML_VALUE);
 	}
 
 	private final String type;
@@ -464,21 +467,45 @@ public class MediaType implements Serializable, Comparable<MediaType> {
 
 	/**
 	 * Parse the given String into a single {@code MediaType}.
+	 * <p>Parsed values are {@linkplain MediaTypeCache cached}, and the values of the
+	 * media type constants return the constant itself.
 	 * @param mediaType the string to parse
 	 * @return the media type
 	 * @throws InvalidMediaTypeException if the media type value cannot be parsed
 	 */
 	public static MediaType parseMediaType(String mediaType) {
+		if (mediaType == null) {
+			return parse(mediaType);
+		}
+		MediaTypeCache cache = MediaTypeCache.getDefault();
+		MediaType result = cache.get(mediaType);
+		if (result == null) {
+			result = parse(mediaType);
+			cache.put(mediaType, result);
+		}
+		return result;
+	}
+
+	private static MediaType constant(String value) {
+		MediaType mediaType = parse(value);
+		MediaTypeCache.getDefault().registerConstant(value, mediaType);
+		return mediaType;
+	}
+
+	/**
+	 * Parse the given String without using the cache.
+	 */
+	static MediaType parse(String mediaType) {
 		try {
 			if (mediaType == null || mediaType.length() == 0) {
                 throw new InvalidMediaTypeException(mediaType, "'mimeType' must not be empty");
             }
-			String[] parts = StringUtils.tokenizeToStringArray(mediaType, ";");
-			if (parts.length == 0) {
+			HeaderValueTokenizer parts = new HeaderValueTokenizer(';').reset(mediaType);
+			if (!parts.next()) {
                 throw new InvalidMediaTypeException(mediaType, "'mimeType' must not be empty");
             }
 
-			String fullType = parts[0].trim();
+			String fullType = parts.getToken();
 			// java.net.HttpURLConnection returns a *; q=.2 Accept header
 			if (WILDCARD_TYPE.equals(fullType)) {
                 fullType = "*/*";
@@ -497,16 +524,15 @@ public class MediaType implements Serializable, Comparable<MediaType> {
             }
 
 			Map<String, String> parameters1 = null;
-			if (parts.length > 1) {
-                parameters1 = new LinkedHashMap<String, String>(parts.length - 1);
-                for (int i = 1; i < parts.length; i++) {
-                    String parameter = parts[i];
-                    int eqIndex = parameter.indexOf('=');
-                    if (eqIndex != -1) {
-                        String attribute = parameter.substring(0, eqIndex);
-                        String value = parameter.substring(eqIndex + 1, parameter.length());
-                        parameters1.put(attribute, value);
+			while (parts.next()) {
+                int eqIndex = parts.indexOf('=');
+                if (eqIndex != -1) {
+                    if (parameters1 == null) {
+                        parameters1 = new LinkedHashMap<String, String>(4);
                     }
+                    String attribute = mediaType.substring(parts.getStart(), eqIndex);
+                    String value = mediaType.substring(eqIndex + 1, parts.getEnd());
+                    parameters1.put(attribute, value);
                 }
             }
 
@@ -531,10 +557,10 @@ public class MediaType implements Serializable, Comparable<MediaType> {
 		if (mediaTypes == null || mediaTypes.length() == 0) {
 			return Collections.emptyList();
 		}
-		String[] tokens = StringUtils.tokenizeToStringArray(mediaTypes, ",");
-		List<MediaType> result = new ArrayList<MediaType>(tokens.length);
-		for (String token : tokens) {
-			result.add(parseMediaType(token));
+		HeaderValueTokenizer tokens = new HeaderValueTokenizer(',').reset(mediaTypes);
+		List<MediaType> result = new ArrayList<MediaType>(4);
+		while (tokens.next()) {
+			result.add(parseMediaType(tokens.getToken()));
 		}
 		return result;
 	}
@@ -16,11 +16,8 @@
 
 package org.springframework.http;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.List;
-import java.util.StringTokenizer;
 
 /**
  * Miscellaneous {@link String} utility methods.
@@ -31,8 +28,9 @@ import java.util.StringTokenizer;
  *
  * <p>This class delivers some simple functionality that should really be
  * provided by the core Java {@link String} and {@link StringBuilder}
- * classes. It also provides easy-to-use methods to convert between
- * delimited strings, such as CSV strings, and collections and arrays.
+ * classes. It also provides easy-to-use methods to convert collections
+ * to delimited strings, such as CSV strings. Header values are tokenized
+ * using the {@link org.zalando.fahrschein.http.api.HeaderValueTokenizer}.
  *
  * @author Rod Johnson
  * @author Juergen Hoeller
@@ -46,80 +44,6 @@ import java.util.StringTokenizer;
  */
 abstract class StringUtils {
 
-	//---------------------------------------------------------------------
-	// Convenience methods for working with String arrays
-	//---------------------------------------------------------------------
-
-	/**
-	 * Copy the given {@code Collection} into a {@code String} array.
-	 * <p>The {@code Collection} must contain {@code String} elements only.
-	 * @param collection the {@code Collection} to copy
-	 * @return the {@code String} array ({@code null} if the supplied
-	 * {@code Collection} was {@code null})
-	 */
-	private static String[] toStringArray(Collection<String> collection) {
-		if (collection == null) {
-			return null;
-		}
-		return collection.toArray(new String[collection.size()]);
-	}
-
-	/**
-	 * Tokenize the given {@code String} into a {@code String} array via a
-	 * {@link StringTokenizer}.
-	 * <p>Trims tokens and omits empty tokens.
-	 * <p>The given {@code delimiters} string can consist of any number of
-	 * delimiter characters. Each of those characters can be used to separate
-	 * tokens. A delimiter is always a single character.
-	 * @param str the {@code String} to tokenize
-	 * @param delimiters the delimiter characters, assembled as a {@code String}
-	 * (each of the characters is individually considered as a delimiter)
-	 * @return an array of the tokens
-	 * @see StringTokenizer
-	 * @see String#trim()
-	 */
-	public static String[] tokenizeToStringArray(String str, String delimiters) {
-		return tokenizeToStringArray(str, delimiters, true, true);
-	}
-
-	/**
-	 * Tokenize the given {@code String} into a {@code String} array via a
-	 * {@link StringTokenizer}.
-	 * <p>The given {@code delimiters} string can consist of any number of
-	 * delimiter characters. Each of those characters can be used to separate
-	 * tokens. A delimiter is always a single character.
-	 * @param str the {@code String} to tokenize
-	 * @param delimiters the delimiter characters, assembled as a {@code String}
-	 * (each of the characters is individually considered as a delimiter)
-	 * @param trimTokens trim the tokens via {@link String#trim()}
-	 * @param ignoreEmptyTokens omit empty tokens from the result array
-	 * (only applies to tokens that are empty after trimming; StringTokenizer
-	 * will not consider subsequent delimiters as token in the first place).
-	 * @return an array of the tokens ({@code null} if the input {@code String}
-	 * was {@code null})
-	 * @see StringTokenizer
-	 * @see String#trim()
-	 */
-	private static String[] tokenizeToStringArray(
-			String str, String delimiters, boolean trimTokens, boolean ignoreEmptyTokens) {
-
-		if (str == null) {
-			return null;
-		}
-		StringTokenizer st = new StringTokenizer(str, delimiters);
-		List<String> tokens = new ArrayList<String>();
-		while (st.hasMoreTokens()) {
-			String token = st.nextToken();
-			if (trimTokens) {
-				token = token.trim();
-			}
-			if (!ignoreEmptyTokens || token.length() > 0) {
-				tokens.add(token);
-			}
-		}
-		return toStringArray(tokens);
-	}
-
 	/**
 	 * Convert a {@link Collection} to a delimited {@code String} (e.g. CSV).
 	 * <p>Useful for {@code toString()} implementations.
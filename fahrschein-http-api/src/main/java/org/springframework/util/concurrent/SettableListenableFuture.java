@@ -0,0 +1,186 @@
+/*
+ * Copyright 2002-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.util.concurrent;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link ListenableFuture} whose value can be set via {@link #set(Object)}
+ * or {@link #setException(Throwable)}. It may also get cancelled.
+ *
+ * <p>Inspired by {@code com.google.common.util.concurrent.SettableFuture}.
+ *
+ * @author Mattias Severson
+ * @author Rossen Stoyanchev
+ * @author Juergen Hoeller
+ * @author Joern Horstmann
+ * @since 4.1
+ */
+public class SettableListenableFuture<T> implements ListenableFuture<T> {
+
+	private final ListenableFutureCallbackRegistry<T> callbacks = new ListenableFutureCallbackRegistry<T>();
+
+	private final CountDownLatch completion = new CountDownLatch(1);
+
+	private final Object mutex = new Object();
+
+	private State state = State.NEW;
+
+	private T value;
+
+	private Throwable exception;
+
+
+	/**
+	 * Set the value of this future. This method will return {@code true} if the
+	 * value was set successfully, or {@code false} if the future has already been
+	 * set or cancelled.
+	 * @param value the value that will be set
+	 * @return {@code true} if the value was successfully set, else {@code false}
+	 */
+	public boolean set(T value) {
+		return complete(State.SUCCESS, value, null);
+	}
+
+	/**
+	 * Set the exception of this future. This method will return {@code true} if the
+	 * exception was set successfully, or {@code false} if the future has already been
+	 * set or cancelled.
+	 * @param exception the value that will be set
+	 * @return {@code true} if the exception was successfully set, else {@code false}
+	 */
+	public boolean setException(Throwable exception) {
+		if (exception == null) {
+			throw new IllegalArgumentException("Exception must not be null");
+		}
+		return complete(State.FAILURE, null, exception);
+	}
+
+	private boolean complete(State state, T value, Throwable exception) {
+		synchronized (this.mutex) {
+			if (this.state != State.NEW) {
+				return false;
+			}
+			this.state = state;
+			this.value = value;
+			this.exception = exception;
+		}
+		this.completion.countDown();
+		if (state == State.SUCCESS) {
+			this.callbacks.success(value);
+		}
+		else {
+			this.callbacks.failure(exception);
+		}
+		return true;
+	}
+
+	@Override
+	public void addCallback(ListenableFutureCallback<? super T> callback) {
+		this.callbacks.addCallback(callback);
+	}
+
+	@Override
+	public void addCallback(SuccessCallback<? super T> successCallback, FailureCallback failureCallback) {
+		this.callbacks.addSuccessCallback(successCallback);
+		this.callbacks.addFailureCallback(failureCallback);
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		final boolean cancelled = complete(State.CANCELLED, null, new CancellationException("Future was cancelled"));
+		if (cancelled && mayInterruptIfRunning) {
+			interruptTask();
+		}
+		return cancelled;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		synchronized (this.mutex) {
+			return this.state == State.CANCELLED;
+		}
+	}
+
+	@Override
+	public boolean isDone() {
+		synchronized (this.mutex) {
+			return this.state != State.NEW;
+		}
+	}
+
+	/**
+	 * Retrieve the value.
+	 * <p>This method returns the value if it has been set via {@link #set(Object)},
+	 * throws an {@link java.util.concurrent.ExecutionException} if an exception has
+	 * been set via {@link #setException(Throwable)}, or throws a
+	 * {@link java.util.concurrent.CancellationException} if the future has been cancelled.
+	 * @return the value associated with this future
+	 */
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		this.completion.await();
+		return report();
+	}
+
+	/**
+	 * Retrieve the value.
+	 * <p>This method returns the value if it has been set via {@link #set(Object)},
+	 * throws an {@link java.util.concurrent.ExecutionException} if an exception has
+	 * been set via {@link #setException(Throwable)}, or throws a
+	 * {@link java.util.concurrent.CancellationException} if the future has been cancelled.
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout argument
+	 * @return the value associated with this future
+	 */
+	@Override
+	public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!this.completion.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return report();
+	}
+
+	private T report() throws ExecutionException {
+		synchronized (this.mutex) {
+			switch (this.state) {
+				case SUCCESS:
+					return this.value;
+				case CANCELLED:
+					throw (CancellationException) this.exception;
+				default:
+					throw new ExecutionException(this.exception);
+			}
+		}
+	}
+
+	/**
+	 * Subclasses can override this method to implement interruption of the future's
+	 * computation. The method is invoked automatically by a successful call to
+	 * {@link #cancel(boolean) cancel(true)}.
+	 * <p>The default implementation is empty.
+	 */
+	protected void interruptTask() {
+	}
+
+
+	private enum State {NEW, SUCCESS, FAILURE, CANCELLED}
+
+}
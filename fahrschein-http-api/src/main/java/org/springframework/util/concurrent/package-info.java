@@ -0,0 +1,4 @@
+/**
+ * Useful generic {@code java.util.concurrent.Future} extensions.
+ */
+package org.springframework.util.concurrent;
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.api;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pool of byte arrays used for buffering request bodies.
+ *
+ * <p>Buffers are organized in power-of-two size classes between {@link #getMinBufferSize()}
+ * and {@link #getMaxBufferSize()}. Each size class is split into stripes selected by the
+ * current thread, so that concurrent requests usually do not contend on the same slots.
+ * The total number of bytes retained by the pool is capped, buffers that would exceed this
+ * limit or are larger than the biggest size class are left to the garbage collector.
+ *
+ * <p>The pool also keeps a lossy table of recently seen body sizes per host and path, which
+ * is used to choose the initial buffer size for the next request to the same resource.
+ *
+ * @author Joern Horstmann
+ * @see PooledByteArrayOutputStream
+ */
+public final class BufferPool {
+
+	private static final int DEFAULT_MIN_BUFFER_SIZE = 1024;
+	private static final int DEFAULT_MAX_BUFFER_SIZE = 1024 * 1024;
+	private static final long DEFAULT_MAX_RETAINED_BYTES = 16L * 1024 * 1024;
+	private static final int SLOTS_PER_STRIPE = 4;
+	private static final int SIZE_HINTS = 256;
+
+	private static final BufferPool DEFAULT = new BufferPool(DEFAULT_MIN_BUFFER_SIZE, DEFAULT_MAX_BUFFER_SIZE, DEFAULT_MAX_RETAINED_BYTES);
+
+	private final int minShift;
+	private final int maxShift;
+	private final long maxRetainedBytes;
+	private final int stripeMask;
+	private final AtomicReferenceArray<byte[]>[] slots;
+	private final AtomicLong retainedBytes;
+	private final AtomicIntegerArray sizeHints;
+
+	/**
+	 * Create a new pool.
+	 * @param minBufferSize the size of the smallest size class, rounded up to a power of two
+	 * @param maxBufferSize the size of the largest size class, rounded up to a power of two
+	 * @param maxRetainedBytes the maximum number of bytes kept in the pool
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public BufferPool(int minBufferSize, int maxBufferSize, long maxRetainedBytes) {
+		if (minBufferSize <= 0) {
+			throw new IllegalArgumentException("Minimum buffer size must be positive");
+		}
+		if (maxBufferSize < minBufferSize || maxBufferSize > (1 << 30)) {
+			throw new IllegalArgumentException("Maximum buffer size must be between minimum buffer size and 1 GiB");
+		}
+		if (maxRetainedBytes < 0) {
+			throw new IllegalArgumentException("Maximum retained bytes must not be negative");
+		}
+		this.minShift = log2Ceil(minBufferSize);
+		this.maxShift = log2Ceil(maxBufferSize);
+		this.maxRetainedBytes = maxRetainedBytes;
+
+		final int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+		this.stripeMask = stripes - 1;
+		this.slots = new AtomicReferenceArray[this.maxShift - this.minShift + 1];
+		for (int i = 0; i < this.slots.length; i++) {
+			this.slots[i] = new AtomicReferenceArray<byte[]>(stripes * SLOTS_PER_STRIPE);
+		}
+		this.retainedBytes = new AtomicLong();
+		this.sizeHints = new AtomicIntegerArray(SIZE_HINTS);
+	}
+
+	/**
+	 * Return the shared pool used by the request factories unless configured otherwise.
+	 */
+	public static BufferPool getDefault() {
+		return DEFAULT;
+	}
+
+	private static int log2Ceil(int size) {
+		return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+	}
+
+	private int sizeClass(int size) {
+		return Math.max(0, log2Ceil(size) - this.minShift);
+	}
+
+	private int stripeOffset() {
+		return ((int) Thread.currentThread().getId() & this.stripeMask) * SLOTS_PER_STRIPE;
+	}
+
+	/**
+	 * Return a buffer with a capacity of at least the given size. The contents of the buffer are undefined.
+	 * @param minCapacity the minimum capacity
+	 * @return a pooled buffer, or a newly allocated one if the pool has no matching buffer
+	 */
+	public byte[] acquire(int minCapacity) {
+		final int sizeClass = sizeClass(minCapacity);
+		if (sizeClass >= this.slots.length) {
+			return new byte[minCapacity];
+		}
+		final AtomicReferenceArray<byte[]> classSlots = this.slots[sizeClass];
+		final int offset = stripeOffset();
+		for (int i = offset; i < offset + SLOTS_PER_STRIPE; i++) {
+			final byte[] buffer = classSlots.get(i);
+			if (buffer != null && classSlots.compareAndSet(i, buffer, null)) {
+				this.retainedBytes.addAndGet(-buffer.length);
+				return buffer;
+			}
+		}
+		return new byte[1 << (sizeClass + this.minShift)];
+	}
+
+	/**
+	 * Return a buffer to the pool. Buffers that were not created by this pool, or that do not fit into the
+	 * pool are silently dropped.
+	 * @param buffer the buffer to return
+	 */
+	public void release(byte[] buffer) {
+		final int length = buffer.length;
+		if (Integer.bitCount(length) != 1 || length < (1 << this.minShift) || length > (1 << this.maxShift)) {
+			return;
+		}
+		if (this.retainedBytes.addAndGet(length) > this.maxRetainedBytes) {
+			this.retainedBytes.addAndGet(-length);
+			return;
+		}
+		final AtomicReferenceArray<byte[]> classSlots = this.slots[sizeClass(length)];
+		final int offset = stripeOffset();
+		for (int i = offset; i < offset + SLOTS_PER_STRIPE; i++) {
+			if (classSlots.get(i) == null && classSlots.compareAndSet(i, null, buffer)) {
+				return;
+			}
+		}
+		this.retainedBytes.addAndGet(-length);
+	}
+
+	/**
+	 * Return the initial buffer size for a request body sent to the given uri, based on the body sizes
+	 * recently {@linkplain #recordSize(URI, int) recorded} for the same host and path.
+	 * @param uri the request uri
+	 * @return the suggested initial buffer size
+	 */
+	public int sizeHint(URI uri) {
+		final int hint = this.sizeHints.get(hintIndex(uri));
+		return 1 << Math.min(hint + this.minShift, this.maxShift);
+	}
+
+	/**
+	 * Record the body size of a request sent to the given uri. Growing sizes are taken over immediately,
+	 * while shrinking sizes only reduce the hint by one size class at a time.
+	 * @param uri the request uri
+	 * @param size the size of the request body
+	 */
+	public void recordSize(URI uri, int size) {
+		final int index = hintIndex(uri);
+		final int sizeClass = Math.min(sizeClass(size), this.slots.length - 1);
+		final int previous = this.sizeHints.get(index);
+		if (sizeClass > previous) {
+			this.sizeHints.lazySet(index, sizeClass);
+		} else if (sizeClass < previous) {
+			this.sizeHints.lazySet(index, previous - 1);
+		}
+	}
+
+	private static int hintIndex(URI uri) {
+		final String host = uri.getHost();
+		final String path = uri.getRawPath();
+		int hash = (host != null ? host.hashCode() : 0) * 31 + (path != null ? path.hashCode() : 0);
+		hash ^= (hash >>> 16);
+		return hash & (SIZE_HINTS - 1);
+	}
+
+	/**
+	 * Return the size of the smallest pooled buffers.
+	 */
+	public int getMinBufferSize() {
+		return 1 << this.minShift;
+	}
+
+	/**
+	 * Return the size of the largest pooled buffers.
+	 */
+	public int getMaxBufferSize() {
+		return 1 << this.maxShift;
+	}
+
+	/**
+	 * Return the number of bytes currently retained by this pool.
+	 */
+	public long getRetainedBytes() {
+		return this.retainedBytes.get();
+	}
+}
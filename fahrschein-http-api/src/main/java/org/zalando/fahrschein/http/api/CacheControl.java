@@ -0,0 +1,129 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.HttpHeaders;
+
+import java.util.List;
+
+/**
+ * The {@code Cache-Control} directives relevant for a private cache.
+ *
+ * @author Joern Horstmann
+ * @see <a href="https://tools.ietf.org/html/rfc7234#section-5.2">Section 5.2 of RFC 7234</a>
+ */
+final class CacheControl {
+
+	private static final CacheControl EMPTY = new CacheControl(false, false, -1);
+
+	private final boolean noStore;
+	private final boolean noCache;
+	private final long maxAge;
+
+	private CacheControl(boolean noStore, boolean noCache, long maxAge) {
+		this.noStore = noStore;
+		this.noCache = noCache;
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Parse the {@code Cache-Control} headers of a request or response. A request {@code Pragma: no-cache}
+	 * header is treated like {@code Cache-Control: no-cache} if there is no {@code Cache-Control} header.
+	 */
+	static CacheControl parse(HttpHeaders headers) {
+		final List<String> values = headers.get(HttpHeaders.CACHE_CONTROL);
+		if (values == null) {
+			final String pragma = headers.getFirst(HttpHeaders.PRAGMA);
+			return pragma != null && pragma.contains("no-cache") ? new CacheControl(false, true, -1) : EMPTY;
+		}
+		boolean noStore = false;
+		boolean noCache = false;
+		long maxAge = -1;
+		final HeaderValueTokenizer tokenizer = new HeaderValueTokenizer(',');
+		for (String value : values) {
+			tokenizer.reset(value);
+			while (tokenizer.next()) {
+				final int eqIndex = tokenizer.indexOf('=');
+				if (eqIndex < 0) {
+					if (tokenizer.tokenEqualsIgnoreCase("no-store")) {
+						noStore = true;
+					}
+					else if (tokenizer.tokenEqualsIgnoreCase("no-cache")) {
+						noCache = true;
+					}
+				}
+				else if (isDirective(value, tokenizer.getStart(), eqIndex, "max-age")) {
+					maxAge = parseDeltaSeconds(value, eqIndex + 1, tokenizer.getEnd());
+				}
+				else if (isDirective(value, tokenizer.getStart(), eqIndex, "no-cache")) {
+					// no-cache for some header fields, revalidate like for the unqualified form
+					noCache = true;
+				}
+			}
+		}
+		return new CacheControl(noStore, noCache, maxAge);
+	}
+
+	private static boolean isDirective(String value, int start, int end, String directive) {
+		return end - start == directive.length() && value.regionMatches(true, start, directive, 0, directive.length());
+	}
+
+	/**
+	 * Parse a possibly quoted number of seconds, treating invalid values as 0 and capping large values.
+	 * @see <a href="https://tools.ietf.org/html/rfc7234#section-1.2.1">Section 1.2.1 of RFC 7234</a>
+	 */
+	private static long parseDeltaSeconds(String value, int start, int end) {
+		if (end - start >= 2 && value.charAt(start) == '"' && value.charAt(end - 1) == '"') {
+			start++;
+			end--;
+		}
+		if (start == end) {
+			return 0;
+		}
+		long seconds = 0;
+		for (int i = start; i < end; i++) {
+			final char ch = value.charAt(i);
+			if (ch < '0' || ch > '9') {
+				return 0;
+			}
+			seconds = Math.min(seconds * 10 + (ch - '0'), Integer.MAX_VALUE);
+		}
+		return seconds;
+	}
+
+	/**
+	 * Return whether the {@code no-store} directive is present.
+	 */
+	boolean isNoStore() {
+		return this.noStore;
+	}
+
+	/**
+	 * Return whether the {@code no-cache} directive is present.
+	 */
+	boolean isNoCache() {
+		return this.noCache;
+	}
+
+	/**
+	 * Return the value of the {@code max-age} directive in seconds, or -1 if not present.
+	 */
+	long getMaxAge() {
+		return this.maxAge;
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.InputStream;
+
+/**
+ * {@link ClientHttpResponse} serving a {@link CachedResponse}, with an {@code Age} header for its current age.
+ *
+ * @author Joern Horstmann
+ * @see CachingClientHttpRequestFactory
+ */
+final class CachedClientHttpResponse implements ClientHttpResponse {
+
+	private final CachedResponse response;
+	private final HttpHeaders headers;
+	private InputStream body;
+
+	CachedClientHttpResponse(CachedResponse response, long age) {
+		this.response = response;
+		this.headers = new HttpHeaders();
+		this.headers.putAll(response.getHeaders());
+		this.headers.set(HttpHeaders.AGE, Long.toString(age / 1000));
+	}
+
+	@Override
+	public HttpStatus getStatusCode() {
+		return HttpStatus.valueOf(this.response.getStatusCode());
+	}
+
+	@Override
+	public int getRawStatusCode() {
+		return this.response.getStatusCode();
+	}
+
+	@Override
+	public String getStatusText() {
+		return this.response.getStatusText();
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		return this.headers;
+	}
+
+	@Override
+	public InputStream getBody() {
+		if (this.body == null) {
+			this.body = new ByteBufferInputStream(this.response.getBody());
+		}
+		return this.body;
+	}
+
+	@Override
+	public void close() {
+	}
+}
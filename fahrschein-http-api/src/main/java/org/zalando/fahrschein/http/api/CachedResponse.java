@@ -0,0 +1,299 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.HttpHeaders;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable response held by a {@link ResponseStore}.
+ *
+ * <p>Besides status, headers and body, an entry keeps the time its request was sent and its response
+ * was received, to calculate its age, and the values of the request headers nominated by the
+ * {@code Vary} header of the response, to select it for later requests. The freshness lifetime and the
+ * validators are derived from the headers when the entry is created.
+ *
+ * @author Joern Horstmann
+ * @see <a href="https://tools.ietf.org/html/rfc7234">RFC 7234</a>
+ */
+public final class CachedResponse {
+
+	private final int statusCode;
+	private final String statusText;
+	private final HttpHeaders headers;
+	private final Map<String, String> varyHeaders;
+	private final ByteBuffer body;
+	private final long requestTime;
+	private final long responseTime;
+
+	private final long correctedInitialAge;
+	private final long freshnessLifetime;
+	private final long lastModified;
+
+	/**
+	 * Create a new {@code CachedResponse}.
+	 * @param statusCode the HTTP status code
+	 * @param statusText the HTTP status text
+	 * @param headers the response headers, which are copied
+	 * @param varyHeaders the values of the request headers nominated by the {@code Vary} header,
+	 * {@code null} values for headers that were not present
+	 * @param body the response body between its position and limit, which must not be modified afterwards
+	 * @param requestTime the time (in milliseconds since the epoch) the request was sent
+	 * @param responseTime the time (in milliseconds since the epoch) the response was received
+	 */
+	public CachedResponse(int statusCode, String statusText, HttpHeaders headers, Map<String, String> varyHeaders,
+			ByteBuffer body, long requestTime, long responseTime) {
+		if (headers == null) {
+			throw new IllegalArgumentException("HttpHeaders must not be null");
+		}
+		if (body == null) {
+			throw new IllegalArgumentException("Body must not be null");
+		}
+		this.statusCode = statusCode;
+		this.statusText = statusText != null ? statusText : "";
+		this.headers = HttpHeaders.readOnlyHttpHeaders(headers);
+		this.varyHeaders = varyHeaders == null || varyHeaders.isEmpty()
+				? Collections.<String, String>emptyMap()
+				: Collections.unmodifiableMap(new LinkedHashMap<>(varyHeaders));
+		this.body = body.slice().asReadOnlyBuffer();
+		this.requestTime = requestTime;
+		this.responseTime = responseTime;
+
+		// https://tools.ietf.org/html/rfc7234#section-4.2.3
+		final long date = parseDate(this.headers, HttpHeaders.DATE);
+		final long dateValue = date != -1 ? date : responseTime;
+		final long apparentAge = Math.max(0, responseTime - dateValue);
+		final long correctedAgeValue = parseAge(this.headers.getFirst(HttpHeaders.AGE)) + (responseTime - requestTime);
+		this.correctedInitialAge = Math.max(apparentAge, correctedAgeValue);
+
+		// https://tools.ietf.org/html/rfc7234#section-4.2.1
+		final CacheControl cacheControl = CacheControl.parse(this.headers);
+		if (cacheControl.isNoCache()) {
+			this.freshnessLifetime = 0;
+		}
+		else if (cacheControl.getMaxAge() >= 0) {
+			this.freshnessLifetime = cacheControl.getMaxAge() * 1000;
+		}
+		else if (this.headers.containsKey(HttpHeaders.EXPIRES)) {
+			// invalid dates represent a time in the past
+			final long expires = parseDate(this.headers, HttpHeaders.EXPIRES);
+			this.freshnessLifetime = expires != -1 ? Math.max(0, expires - dateValue) : 0;
+		}
+		else {
+			this.freshnessLifetime = 0;
+		}
+		this.lastModified = parseDate(this.headers, HttpHeaders.LAST_MODIFIED);
+	}
+
+	/**
+	 * Return the first value of the given date header, or -1 if there is none or it is not a valid date.
+	 */
+	private static long parseDate(HttpHeaders headers, String headerName) {
+		try {
+			return headers.getFirstDate(headerName);
+		}
+		catch (IllegalArgumentException ex) {
+			return -1;
+		}
+	}
+
+	private static long parseAge(String value) {
+		if (value == null) {
+			return 0;
+		}
+		long seconds = 0;
+		for (int i = 0; i < value.length(); i++) {
+			final char ch = value.charAt(i);
+			if (ch < '0' || ch > '9') {
+				return 0;
+			}
+			seconds = Math.min(seconds * 10 + (ch - '0'), Integer.MAX_VALUE);
+		}
+		return seconds * 1000;
+	}
+
+	/**
+	 * Select the values of the request headers nominated by the {@code Vary} header of a response.
+	 * @param responseHeaders the response headers
+	 * @param requestHeaders the request headers
+	 * @return the nominated header names mapped to the comma-separated request header values,
+	 * or {@code null} if the response varies on aspects other than request headers ({@code Vary: *})
+	 */
+	static Map<String, String> selectVaryHeaders(HttpHeaders responseHeaders, HttpHeaders requestHeaders) {
+		final List<String> names = responseHeaders.getValuesAsList(HttpHeaders.VARY);
+		if (names.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		final Map<String, String> varyHeaders = new LinkedHashMap<>();
+		for (String name : names) {
+			if ("*".equals(name)) {
+				return null;
+			}
+			varyHeaders.put(name, joinValues(requestHeaders.get(name)));
+		}
+		return varyHeaders;
+	}
+
+	private static String joinValues(List<String> values) {
+		if (values == null || values.isEmpty()) {
+			return null;
+		}
+		if (values.size() == 1) {
+			return values.get(0);
+		}
+		final StringBuilder sb = new StringBuilder();
+		for (String value : values) {
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append(value);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Return whether this response was stored for a request with the same values of the headers
+	 * nominated by its {@code Vary} header as the given request headers.
+	 */
+	boolean matches(HttpHeaders requestHeaders) {
+		for (Map.Entry<String, String> entry : this.varyHeaders.entrySet()) {
+			final String value = joinValues(requestHeaders.get(entry.getKey()));
+			if (value == null ? entry.getValue() != null : !value.equals(entry.getValue())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Return a copy of this response with the headers updated by a {@code 304 Not Modified} response
+	 * to a conditional request.
+	 * @see <a href="https://tools.ietf.org/html/rfc7234#section-4.3.4">Section 4.3.4 of RFC 7234</a>
+	 */
+	CachedResponse withValidatedHeaders(HttpHeaders notModifiedHeaders, long requestTime, long responseTime) {
+		final HttpHeaders headers = new HttpHeaders();
+		headers.putAll(this.headers);
+		for (Map.Entry<String, List<String>> entry : notModifiedHeaders.entrySet()) {
+			final String name = entry.getKey();
+			if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name) && !HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name)
+					&& !HttpHeaders.TRANSFER_ENCODING.equalsIgnoreCase(name) && !HttpHeaders.CONNECTION.equalsIgnoreCase(name)) {
+				headers.put(name, entry.getValue());
+			}
+		}
+		return new CachedResponse(this.statusCode, this.statusText, headers, this.varyHeaders, this.body, requestTime, responseTime);
+	}
+
+	/**
+	 * Return the HTTP status code.
+	 */
+	public int getStatusCode() {
+		return this.statusCode;
+	}
+
+	/**
+	 * Return the HTTP status text.
+	 */
+	public String getStatusText() {
+		return this.statusText;
+	}
+
+	/**
+	 * Return the read-only response headers.
+	 */
+	public HttpHeaders getHeaders() {
+		return this.headers;
+	}
+
+	/**
+	 * Return the values of the request headers nominated by the {@code Vary} header of the response,
+	 * {@code null} values for headers that were not present.
+	 */
+	public Map<String, String> getVaryHeaders() {
+		return this.varyHeaders;
+	}
+
+	/**
+	 * Return a new read-only buffer over the response body, positioned at its start.
+	 */
+	public ByteBuffer getBody() {
+		return this.body.duplicate();
+	}
+
+	/**
+	 * Return the length of the response body in bytes.
+	 */
+	public int getBodyLength() {
+		return this.body.remaining();
+	}
+
+	/**
+	 * Return the time (in milliseconds since the epoch) the request was sent.
+	 */
+	public long getRequestTime() {
+		return this.requestTime;
+	}
+
+	/**
+	 * Return the time (in milliseconds since the epoch) the response was received.
+	 */
+	public long getResponseTime() {
+		return this.responseTime;
+	}
+
+	/**
+	 * Return the age (in milliseconds) of this response at the given time.
+	 * @param now the current time in milliseconds since the epoch
+	 * @see <a href="https://tools.ietf.org/html/rfc7234#section-4.2.3">Section 4.2.3 of RFC 7234</a>
+	 */
+	public long getAge(long now) {
+		return this.correctedInitialAge + Math.max(0, now - this.responseTime);
+	}
+
+	/**
+	 * Return the freshness lifetime (in milliseconds) given by the {@code Cache-Control: max-age} or
+	 * {@code Expires} headers, 0 if there is none or the response must always be revalidated.
+	 * @see <a href="https://tools.ietf.org/html/rfc7234#section-4.2.1">Section 4.2.1 of RFC 7234</a>
+	 */
+	public long getFreshnessLifetime() {
+		return this.freshnessLifetime;
+	}
+
+	/**
+	 * Return the {@code Last-Modified} date, or -1 if none.
+	 */
+	long getLastModified() {
+		return this.lastModified;
+	}
+
+	/**
+	 * Return whether a conditional request can validate this response.
+	 */
+	boolean hasValidators() {
+		return this.headers.getETag() != null || this.lastModified != -1;
+	}
+
+	@Override
+	public String toString() {
+		return "CachedResponse[" + this.statusCode + " " + this.statusText + ", " + this.body.remaining() + " bytes]";
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * {@link ClientHttpRequest} decorator answering a {@code GET} request from the {@link ResponseStore}
+ * of a {@link CachingClientHttpRequestFactory}, or revalidating and storing its response.
+ *
+ * @author Joern Horstmann
+ * @see CachingClientHttpRequestFactory
+ */
+final class CachingClientHttpRequest implements ClientHttpRequest {
+
+	private static final int[] STORABLE_STATUS_CODES = {200, 203, 204, 300, 301, 404, 405, 410, 414, 501};
+
+	private final CachingClientHttpRequestFactory factory;
+	private final ClientHttpRequest request;
+	private final String key;
+
+	CachingClientHttpRequest(CachingClientHttpRequestFactory factory, ClientHttpRequest request, String key) {
+		this.factory = factory;
+		this.request = request;
+		this.key = key;
+	}
+
+	@Override
+	public HttpMethod getMethod() {
+		return this.request.getMethod();
+	}
+
+	@Override
+	public URI getURI() {
+		return this.request.getURI();
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		return this.request.getHeaders();
+	}
+
+	@Override
+	public OutputStream getBody() throws IOException {
+		return this.request.getBody();
+	}
+
+	@Override
+	public ClientHttpResponse execute() throws IOException {
+		final HttpHeaders headers = this.request.getHeaders();
+		final CacheControl cacheControl = CacheControl.parse(headers);
+		if (cacheControl.isNoStore() || headers.containsKey(HttpHeaders.IF_NONE_MATCH) || headers.containsKey(HttpHeaders.IF_MODIFIED_SINCE)) {
+			this.factory.recordMiss();
+			return this.request.execute();
+		}
+
+		final ResponseStore store = this.factory.getResponseStore();
+		CachedResponse cached = store.get(this.key);
+		if (cached != null && !cached.matches(headers)) {
+			cached = null;
+		}
+		if (cached != null) {
+			final long age = cached.getAge(System.currentTimeMillis());
+			if (!cacheControl.isNoCache() && age < cached.getFreshnessLifetime()
+					&& (cacheControl.getMaxAge() < 0 || age <= cacheControl.getMaxAge() * 1000)) {
+				this.factory.recordHit();
+				return new CachedClientHttpResponse(cached, age);
+			}
+			if (cached.hasValidators()) {
+				// https://tools.ietf.org/html/rfc7232#section-2.4
+				final String eTag = cached.getHeaders().getETag();
+				if (eTag != null) {
+					headers.set(HttpHeaders.IF_NONE_MATCH, eTag);
+				}
+				if (cached.getLastModified() != -1) {
+					headers.setDate(HttpHeaders.IF_MODIFIED_SINCE, cached.getLastModified());
+				}
+			}
+			else {
+				cached = null;
+			}
+		}
+
+		final long requestTime = System.currentTimeMillis();
+		final ClientHttpResponse response = this.request.execute();
+		final long responseTime = System.currentTimeMillis();
+		try {
+			final int statusCode = response.getRawStatusCode();
+			if (cached != null) {
+				this.factory.recordRevalidation(statusCode == 304);
+				if (statusCode == 304) {
+					final CachedResponse validated = cached.withValidatedHeaders(response.getHeaders(), requestTime, responseTime);
+					response.close();
+					store.put(this.key, validated);
+					return new CachedClientHttpResponse(validated, validated.getAge(responseTime));
+				}
+			}
+			else {
+				this.factory.recordMiss();
+			}
+
+			final HttpHeaders responseHeaders = response.getHeaders();
+			final Map<String, String> varyHeaders = isStorable(statusCode, responseHeaders) ? CachedResponse.selectVaryHeaders(responseHeaders, headers) : null;
+			if (varyHeaders != null) {
+				return new StoringClientHttpResponse(response, store, this.key, varyHeaders, requestTime, responseTime, this.factory.getMaxBodySize());
+			}
+			if (cached != null) {
+				store.remove(this.key);
+			}
+			return response;
+		}
+		catch (IOException | RuntimeException ex) {
+			response.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Return whether a response can be stored and later be used, since it is either fresh for some
+	 * time or can be revalidated.
+	 * @see <a href="https://tools.ietf.org/html/rfc7234#section-3">Section 3 of RFC 7234</a>
+	 */
+	private static boolean isStorable(int statusCode, HttpHeaders responseHeaders) {
+		boolean storableStatus = false;
+		for (int code : STORABLE_STATUS_CODES) {
+			if (code == statusCode) {
+				storableStatus = true;
+				break;
+			}
+		}
+		if (!storableStatus) {
+			return false;
+		}
+		final CacheControl cacheControl = CacheControl.parse(responseHeaders);
+		if (cacheControl.isNoStore()) {
+			return false;
+		}
+		return cacheControl.getMaxAge() > 0 || responseHeaders.containsKey(HttpHeaders.EXPIRES)
+				|| responseHeaders.containsKey(HttpHeaders.ETAG) || responseHeaders.containsKey(HttpHeaders.LAST_MODIFIED);
+	}
+}
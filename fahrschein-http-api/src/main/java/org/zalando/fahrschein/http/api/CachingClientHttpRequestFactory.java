@@ -0,0 +1,181 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ClientHttpRequestFactory} decorator caching responses to {@code GET} requests following
+ * the semantics of a private cache as specified by RFC 7234.
+ *
+ * <p>Fresh responses are served from the {@link ResponseStore} without contacting the server. Stale
+ * responses with an {@code ETag} or {@code Last-Modified} header are revalidated with a conditional
+ * request, a {@code 304 Not Modified} response updates the stored headers and is answered with the
+ * stored body. Other responses are stored while the application reads their body, once the end of the
+ * body was reached; responses closed before that or with a body larger than the
+ * {@linkplain #setMaxBodySize(int) maximum body size} are not stored. Stored responses are immutable
+ * and shared between concurrent callers.
+ *
+ * <p>Only responses with an explicit freshness lifetime ({@code Cache-Control: max-age} or
+ * {@code Expires}) or validators are stored, no heuristic freshness is applied. Requests with
+ * conditional headers set by the application, or with {@code Cache-Control: no-store}, are passed
+ * through. Creating a request with an unsafe method invalidates the response stored for its URI.
+ *
+ * @author Joern Horstmann
+ * @see <a href="https://tools.ietf.org/html/rfc7234">RFC 7234</a>
+ */
+public class CachingClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+	private static final int DEFAULT_MAX_BODY_SIZE = 1024 * 1024;
+
+	private final ClientHttpRequestFactory requestFactory;
+	private final ResponseStore responseStore;
+	private volatile int maxBodySize = DEFAULT_MAX_BODY_SIZE;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong revalidationCount = new AtomicLong();
+	private final AtomicLong notModifiedCount = new AtomicLong();
+
+	/**
+	 * Create a new {@code CachingClientHttpRequestFactory} keeping responses in an {@link InMemoryResponseStore}.
+	 * @param requestFactory the request factory creating the requests
+	 * @param maxSize the maximum estimated size of all stored responses in bytes
+	 */
+	public CachingClientHttpRequestFactory(ClientHttpRequestFactory requestFactory, long maxSize) {
+		this(requestFactory, new InMemoryResponseStore(maxSize));
+	}
+
+	/**
+	 * Create a new {@code CachingClientHttpRequestFactory}.
+	 * @param requestFactory the request factory creating the requests
+	 * @param responseStore the store keeping the cached responses
+	 */
+	public CachingClientHttpRequestFactory(ClientHttpRequestFactory requestFactory, ResponseStore responseStore) {
+		if (requestFactory == null) {
+			throw new IllegalArgumentException("ClientHttpRequestFactory must not be null");
+		}
+		if (responseStore == null) {
+			throw new IllegalArgumentException("ResponseStore must not be null");
+		}
+		this.requestFactory = requestFactory;
+		this.responseStore = responseStore;
+	}
+
+	/**
+	 * Set the maximum size of a response body that is stored, larger responses are passed through.
+	 * <p>Default is 1 MiB.
+	 */
+	public void setMaxBodySize(int maxBodySize) {
+		if (maxBodySize < 0) {
+			throw new IllegalArgumentException("Maximum body size must not be negative");
+		}
+		this.maxBodySize = maxBodySize;
+	}
+
+	/**
+	 * Return the store keeping the cached responses.
+	 */
+	public ResponseStore getResponseStore() {
+		return this.responseStore;
+	}
+
+	@Override
+	public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+		final ClientHttpRequest request = this.requestFactory.createRequest(uri, httpMethod);
+		if (httpMethod == HttpMethod.GET) {
+			return new CachingClientHttpRequest(this, request, cacheKey(uri));
+		}
+		if (httpMethod != HttpMethod.HEAD && httpMethod != HttpMethod.OPTIONS && httpMethod != HttpMethod.TRACE) {
+			// https://tools.ietf.org/html/rfc7234#section-4.4
+			this.responseStore.remove(cacheKey(uri));
+		}
+		return request;
+	}
+
+	/**
+	 * Return the key of the response to a {@code GET} request for the given URI.
+	 */
+	static String cacheKey(URI uri) {
+		return "GET " + uri.toASCIIString();
+	}
+
+	int getMaxBodySize() {
+		return this.maxBodySize;
+	}
+
+	void recordHit() {
+		this.hitCount.incrementAndGet();
+	}
+
+	void recordMiss() {
+		this.missCount.incrementAndGet();
+	}
+
+	void recordRevalidation(boolean notModified) {
+		this.revalidationCount.incrementAndGet();
+		if (notModified) {
+			this.notModifiedCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Return the number of requests answered with a fresh stored response, without contacting the server.
+	 */
+	public long getHitCount() {
+		return this.hitCount.get();
+	}
+
+	/**
+	 * Return the number of requests sent to the server without a stored response to validate.
+	 */
+	public long getMissCount() {
+		return this.missCount.get();
+	}
+
+	/**
+	 * Return the number of conditional requests sent to validate a stale stored response.
+	 */
+	public long getRevalidationCount() {
+		return this.revalidationCount.get();
+	}
+
+	/**
+	 * Return the number of revalidations answered with {@code 304 Not Modified}, serving the stored body.
+	 */
+	public long getNotModifiedCount() {
+		return this.notModifiedCount.get();
+	}
+
+	/**
+	 * Return the fraction of requests served with a stored body, either fresh or after revalidation,
+	 * or {@link Double#NaN} if no request was executed yet.
+	 */
+	public double getHitRate() {
+		final long served = this.hitCount.get() + this.notModifiedCount.get();
+		final long total = this.hitCount.get() + this.missCount.get() + this.revalidationCount.get();
+		return total == 0 ? Double.NaN : (double) served / total;
+	}
+
+}
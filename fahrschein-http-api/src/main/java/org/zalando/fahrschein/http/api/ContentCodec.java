@@ -0,0 +1,60 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Service provider interface for HTTP content codings, identified by their {@code Content-Encoding} token.
+ *
+ * <p>Implementations are discovered via {@link java.util.ServiceLoader}, by listing their class name in
+ * {@code META-INF/services/org.zalando.fahrschein.http.api.ContentCodec}. Implementations have to be
+ * thread-safe and should have a public no-arg constructor.
+ *
+ * @author Joern Horstmann
+ * @see ContentCodecs
+ */
+public interface ContentCodec {
+
+	/**
+	 * Return the content coding token, as used in the {@code Content-Encoding} and
+	 * {@code Accept-Encoding} headers, for example {@code "gzip"}.
+	 */
+	String getName();
+
+	/**
+	 * Return a stream that encodes data written to it into the given stream.
+	 * <p>Closing the returned stream has to finish the encoded data and close the given stream.
+	 * @param out the stream receiving encoded data
+	 * @return the encoding stream
+	 * @throws IOException in case of I/O errors
+	 */
+	OutputStream encode(OutputStream out) throws IOException;
+
+	/**
+	 * Return a stream that decodes data read from the given stream.
+	 * <p>Decoding should happen incrementally, without buffering the whole stream, and closing the
+	 * returned stream has to close the given stream.
+	 * @param in the stream providing encoded data
+	 * @return the decoding stream
+	 * @throws IOException in case of I/O errors
+	 */
+	InputStream decode(InputStream in) throws IOException;
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Registry of the available {@link ContentCodec content codecs}, keyed by their content coding token.
+ *
+ * <p>The {@code gzip} and {@code deflate} codings are always available and backed by pooled
+ * deflaters and inflaters. Additional codecs are discovered via {@link ServiceLoader}, they can not
+ * replace the built-in codings and are skipped if they fail to instantiate, for example because of a
+ * missing native library. Lookups are case-insensitive and treat {@code x-gzip} as {@code gzip}.
+ *
+ * @author Joern Horstmann
+ * @see RequestCompression#forEncoding(String, int)
+ * @see ResponseDecompression
+ */
+public final class ContentCodecs {
+
+	private static final int DEFAULT_LEVEL = 6;
+
+	private static volatile ContentCodecs defaultInstance;
+
+	private final Map<String, ContentCodec> codecs;
+	private final String acceptEncoding;
+
+	private ContentCodecs(Iterable<ContentCodec> additionalCodecs) {
+		final Map<String, ContentCodec> codecs = new LinkedHashMap<>();
+		codecs.put(GzipRequestCompression.GZIP, new GzipCodec());
+		codecs.put(ResponseDecompression.DEFLATE, new DeflateCodec());
+		for (ContentCodec codec : additionalCodecs) {
+			final String name = normalize(codec.getName());
+			if (!name.isEmpty() && !codecs.containsKey(name)) {
+				codecs.put(name, codec);
+			}
+		}
+		this.codecs = Collections.unmodifiableMap(codecs);
+
+		final StringBuilder acceptEncoding = new StringBuilder();
+		for (String name : codecs.keySet()) {
+			if (acceptEncoding.length() > 0) {
+				acceptEncoding.append(", ");
+			}
+			acceptEncoding.append(name);
+		}
+		this.acceptEncoding = acceptEncoding.toString();
+	}
+
+	/**
+	 * Return the registry containing the built-in codecs and all codecs found by the {@link ServiceLoader}
+	 * of the current thread's context class loader on first access.
+	 */
+	public static ContentCodecs getDefault() {
+		ContentCodecs result = defaultInstance;
+		if (result == null) {
+			synchronized (ContentCodecs.class) {
+				result = defaultInstance;
+				if (result == null) {
+					result = new ContentCodecs(loadCodecs());
+					defaultInstance = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	private static List<ContentCodec> loadCodecs() {
+		final List<ContentCodec> result = new ArrayList<>();
+		final Iterator<ContentCodec> iterator = ServiceLoader.load(ContentCodec.class).iterator();
+		while (true) {
+			try {
+				if (!iterator.hasNext()) {
+					break;
+				}
+				result.add(iterator.next());
+			} catch (ServiceConfigurationError e) {
+				// codec not usable in this environment, continue with the next provider
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return a registry containing the built-in codecs and the given codecs.
+	 * @param codecs the additional codecs
+	 */
+	public static ContentCodecs of(ContentCodec... codecs) {
+		final List<ContentCodec> list = new ArrayList<>(codecs.length);
+		Collections.addAll(list, codecs);
+		return new ContentCodecs(list);
+	}
+
+	private static String normalize(String contentEncoding) {
+		final String name = contentEncoding.trim().toLowerCase(Locale.ENGLISH);
+		return "x-gzip".equals(name) ? GzipRequestCompression.GZIP : name;
+	}
+
+	/**
+	 * Return the codec for the given content coding.
+	 * @param contentEncoding the content coding token, may be {@code null}
+	 * @return the codec, or {@code null} if the coding is not supported
+	 */
+	public ContentCodec get(String contentEncoding) {
+		return contentEncoding == null ? null : this.codecs.get(normalize(contentEncoding));
+	}
+
+	/**
+	 * Return the names of all registered content codings, starting with the built-in ones.
+	 */
+	public List<String> getNames() {
+		return new ArrayList<>(this.codecs.keySet());
+	}
+
+	/**
+	 * Return the registered content codings as an {@code Accept-Encoding} header value.
+	 */
+	public String getAcceptEncoding() {
+		return this.acceptEncoding;
+	}
+
+
+	/**
+	 * Built-in {@code gzip} codec.
+	 */
+	private static final class GzipCodec implements ContentCodec {
+
+		private final GzipRequestCompression compression = GzipRequestCompression.fixed(0, DEFAULT_LEVEL);
+
+		@Override
+		public String getName() {
+			return GzipRequestCompression.GZIP;
+		}
+
+		@Override
+		public OutputStream encode(OutputStream out) throws IOException {
+			return this.compression.compressingStream(out);
+		}
+
+		@Override
+		public InputStream decode(InputStream in) {
+			return ResponseDecompression.getDefault().inflate(in, true);
+		}
+	}
+
+
+	/**
+	 * Built-in {@code deflate} codec, encoding in zlib format and decoding both zlib and raw deflate data.
+	 */
+	private static final class DeflateCodec implements ContentCodec {
+
+		@Override
+		public String getName() {
+			return ResponseDecompression.DEFLATE;
+		}
+
+		@Override
+		public OutputStream encode(OutputStream out) {
+			return new ZlibOutputStream(out);
+		}
+
+		@Override
+		public InputStream decode(InputStream in) {
+			return ResponseDecompression.getDefault().inflate(in, false);
+		}
+	}
+
+
+	/**
+	 * Zlib output stream that releases the native resources of its deflater when closed.
+	 */
+	private static final class ZlibOutputStream extends DeflaterOutputStream {
+
+		private boolean closed;
+
+		ZlibOutputStream(OutputStream out) {
+			super(out, new Deflater(DEFAULT_LEVEL), RequestCompression.BUFFER_SIZE);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!this.closed) {
+				this.closed = true;
+				try {
+					super.close();
+				} finally {
+					this.def.end();
+				}
+			}
+		}
+	}
+}
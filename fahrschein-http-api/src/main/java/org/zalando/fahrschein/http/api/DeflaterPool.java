@@ -0,0 +1,61 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.api;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Bounded pool of raw (headerless) {@link Deflater} instances, so that the native zlib state
+ * is not allocated and freed for every request.
+ *
+ * @author Joern Horstmann
+ */
+final class DeflaterPool {
+
+	private final Queue<Deflater> deflaters;
+	private final AtomicInteger size;
+	private final int maxSize;
+
+	DeflaterPool(int maxSize) {
+		this.deflaters = new ConcurrentLinkedQueue<Deflater>();
+		this.size = new AtomicInteger();
+		this.maxSize = maxSize;
+	}
+
+	Deflater acquire(int level) {
+		final Deflater deflater = this.deflaters.poll();
+		if (deflater == null) {
+			return new Deflater(level, true);
+		}
+		this.size.decrementAndGet();
+		deflater.setLevel(level);
+		return deflater;
+	}
+
+	void release(Deflater deflater) {
+		if (this.size.incrementAndGet() <= this.maxSize) {
+			deflater.reset();
+			this.deflaters.offer(deflater);
+		} else {
+			this.size.decrementAndGet();
+			deflater.end();
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads newline-delimited frames, for example the batches of a {@code application/x-json-stream} response,
+ * from an {@link InputStream} without copying or decoding them.
+ *
+ * <p>Each frame is returned as a view of the internal buffer, between its position and limit, without the
+ * terminating {@code '\n'} and a preceding {@code '\r'}. The buffer is reused: a frame is only valid until the
+ * next call to {@link #next()}, and must not be modified. The buffer grows for frames larger than its initial
+ * size, up to the maximum frame size, and keeps its size afterwards.
+ *
+ * <p>Since it only relies on the body stream, it works with the responses of every {@code ClientHttpRequestFactory}:
+ * <pre class="code">
+ * try (ClientHttpResponse response = request.execute(); FrameReader frames = new FrameReader(response.getBody())) {
+ *     ByteBuffer frame;
+ *     while ((frame = frames.next()) != null) {
+ *         JsonParser parser = jsonFactory.createParser(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * Not thread-safe.
+ *
+ * @author Joern Horstmann
+ */
+public final class FrameReader implements Closeable {
+
+	private static final int DEFAULT_BUFFER_SIZE = 8192;
+	private static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+	private final InputStream in;
+	private final int maxFrameSize;
+	private byte[] buffer;
+	private ByteBuffer frame;
+	// the buffer holds unread data between start and end, without a newline between start and scan
+	private int start;
+	private int scan;
+	private int end;
+	private boolean eof;
+
+	/**
+	 * Create a new {@code FrameReader} with an initial buffer of 8 KiB and a maximum frame size of 64 MiB.
+	 * @param in the stream to read from
+	 */
+	public FrameReader(InputStream in) {
+		this(in, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_FRAME_SIZE);
+	}
+
+	/**
+	 * Create a new {@code FrameReader}.
+	 * @param in the stream to read from
+	 * @param bufferSize the initial size of the buffer
+	 * @param maxFrameSize the maximum size of a frame, including the terminating newline
+	 */
+	public FrameReader(InputStream in, int bufferSize, int maxFrameSize) {
+		if (in == null) {
+			throw new IllegalArgumentException("InputStream must not be null");
+		}
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("Buffer size must be positive");
+		}
+		if (maxFrameSize < bufferSize) {
+			throw new IllegalArgumentException("Maximum frame size must not be smaller than the buffer size");
+		}
+		this.in = in;
+		this.maxFrameSize = maxFrameSize;
+		this.buffer = new byte[bufferSize];
+		this.frame = ByteBuffer.wrap(this.buffer);
+	}
+
+	/**
+	 * Read the next frame.
+	 * <p>The last frame does not need to be terminated by a newline, empty lines are returned as empty frames.
+	 * @return a view of the frame, valid until the next call, or {@code null} at the end of the stream
+	 * @throws IOException if reading fails or a frame exceeds the maximum frame size
+	 */
+	public ByteBuffer next() throws IOException {
+		while (true) {
+			final byte[] buffer = this.buffer;
+			for (int i = this.scan; i < this.end; i++) {
+				if (buffer[i] == '\n') {
+					final int frameStart = this.start;
+					this.start = this.scan = i + 1;
+					return frame(frameStart, i > frameStart && buffer[i - 1] == '\r' ? i - 1 : i);
+				}
+			}
+			this.scan = this.end;
+			if (this.eof) {
+				if (this.start == this.end) {
+					return null;
+				}
+				final int frameStart = this.start;
+				this.start = this.end;
+				return frame(frameStart, this.end);
+			}
+			fill();
+		}
+	}
+
+	private ByteBuffer frame(int start, int end) {
+		this.frame.limit(end);
+		this.frame.position(start);
+		return this.frame;
+	}
+
+	/**
+	 * Read more data after the incomplete frame at the end of the buffer, moving it to the start of the
+	 * buffer or growing the buffer if needed.
+	 */
+	private void fill() throws IOException {
+		if (this.start == this.end) {
+			this.start = this.scan = this.end = 0;
+		}
+		else if (this.end == this.buffer.length) {
+			final int length = this.end - this.start;
+			if (this.start > 0) {
+				System.arraycopy(this.buffer, this.start, this.buffer, 0, length);
+			}
+			else {
+				if (this.buffer.length >= this.maxFrameSize) {
+					throw new IOException("Frame exceeds the maximum size of " + this.maxFrameSize + " bytes");
+				}
+				final byte[] grown = new byte[(int) Math.min((long) this.buffer.length * 2, this.maxFrameSize)];
+				System.arraycopy(this.buffer, 0, grown, 0, length);
+				this.buffer = grown;
+				this.frame = ByteBuffer.wrap(grown);
+			}
+			this.start = 0;
+			this.scan = length;
+			this.end = length;
+		}
+		final int n = this.in.read(this.buffer, this.end, this.buffer.length - this.end);
+		if (n < 0) {
+			this.eof = true;
+		}
+		else {
+			this.end += n;
+		}
+	}
+
+	/**
+	 * Close the underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.in.close();
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream writing data in gzip format using a pooled {@link Deflater} and a pooled output buffer.
+ * Both are returned to their pools once the stream is {@linkplain #finish() finished} or {@linkplain #release() released}.
+ *
+ * @author Joern Horstmann
+ * @see GzipRequestCompression#compressingStream(OutputStream)
+ */
+public final class GzipCompressingOutputStream extends OutputStream {
+
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int HEADER_SIZE = 10;
+	private static final int TRAILER_SIZE = 8;
+
+	private final OutputStream out;
+	private final GzipRequestCompression compression;
+	private final CRC32 crc;
+	private final byte[] singleByte;
+	private Deflater deflater;
+	private byte[] buffer;
+	private long deflateNanos;
+
+	GzipCompressingOutputStream(OutputStream out, GzipRequestCompression compression, Deflater deflater, byte[] buffer) throws IOException {
+		this.out = out;
+		this.compression = compression;
+		this.deflater = deflater;
+		this.buffer = buffer;
+		this.crc = new CRC32();
+		this.singleByte = new byte[1];
+		writeHeader();
+	}
+
+	private void writeHeader() throws IOException {
+		final byte[] header = this.buffer;
+		header[0] = (byte) GZIP_MAGIC;
+		header[1] = (byte) (GZIP_MAGIC >> 8);
+		header[2] = Deflater.DEFLATED;
+		for (int i = 3; i < HEADER_SIZE - 1; i++) {
+			header[i] = 0;
+		}
+		header[HEADER_SIZE - 1] = (byte) 0xff; // unknown OS
+		this.out.write(header, 0, HEADER_SIZE);
+	}
+
+	private void ensureOpen() throws IOException {
+		if (this.deflater == null) {
+			throw new IOException("Stream already finished");
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		this.singleByte[0] = (byte) b;
+		write(this.singleByte, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return;
+		}
+		this.crc.update(b, off, len);
+		this.deflater.setInput(b, off, len);
+		while (!this.deflater.needsInput()) {
+			deflate();
+		}
+	}
+
+	private void deflate() throws IOException {
+		final long start = System.nanoTime();
+		final int len = this.deflater.deflate(this.buffer, 0, this.buffer.length);
+		this.deflateNanos += System.nanoTime() - start;
+		if (len > 0) {
+			this.out.write(this.buffer, 0, len);
+		}
+	}
+
+	/**
+	 * Finish writing compressed data including the gzip trailer without closing the underlying stream.
+	 * The deflater and buffer are returned to their pools, further writes will fail.
+	 * @throws IOException in case of I/O errors
+	 */
+	public void finish() throws IOException {
+		if (this.deflater == null) {
+			return;
+		}
+		final Deflater deflater = this.deflater;
+		final byte[] buffer = this.buffer;
+		try {
+			deflater.finish();
+			while (!deflater.finished()) {
+				deflate();
+			}
+			final long bytesRead = deflater.getBytesRead();
+			final long bytesWritten = deflater.getBytesWritten() + HEADER_SIZE + TRAILER_SIZE;
+			writeInt(buffer, 0, (int) this.crc.getValue());
+			writeInt(buffer, 4, (int) bytesRead);
+			this.out.write(buffer, 0, TRAILER_SIZE);
+			this.compression.completed(bytesRead, bytesWritten, this.deflateNanos);
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Return the deflater and buffer to their pools without writing the remaining compressed data,
+	 * for example after writing to the underlying stream failed. Further writes will fail.
+	 */
+	public void release() {
+		final Deflater deflater = this.deflater;
+		if (deflater == null) {
+			return;
+		}
+		final byte[] buffer = this.buffer;
+		this.deflater = null;
+		this.buffer = null;
+		this.compression.release(deflater, buffer);
+	}
+
+	private static void writeInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) value;
+		buffer[offset + 1] = (byte) (value >> 8);
+		buffer[offset + 2] = (byte) (value >> 16);
+		buffer[offset + 3] = (byte) (value >> 24);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		this.out.flush();
+	}
+
+	/**
+	 * {@linkplain #finish() Finish} writing compressed data and close the underlying stream.
+	 * @throws IOException in case of I/O errors
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			this.out.close();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Configuration for compressing request bodies using {@code Content-Encoding: gzip}.
+ *
+ * <p>Deflaters and output buffers are pooled, so the native zlib state is reused between requests.
+ *
+ * <p>In {@linkplain #adaptive(int, int, long) adaptive} mode the compression level starts at the
+ * given maximum and is lowered whenever the time spent compressing a request exceeds the time that
+ * the saved bytes would have taken to transfer at the given bandwidth. It is raised again while
+ * compression takes less than half of the saved transfer time.
+ *
+ * @author Joern Horstmann
+ */
+public final class GzipRequestCompression extends RequestCompression {
+
+	/**
+	 * The {@code gzip} content coding.
+	 */
+	public static final String GZIP = "gzip";
+
+	private static final int MAX_POOLED_DEFLATERS = Runtime.getRuntime().availableProcessors() * 2;
+
+	private final int maxLevel;
+	private final long bandwidth;
+	private final DeflaterPool deflaterPool;
+	private volatile int level;
+
+	private GzipRequestCompression(int minSize, int maxLevel, long bandwidth, BufferPool bufferPool) {
+		super(GZIP, minSize, bufferPool);
+		if (maxLevel < Deflater.BEST_SPEED || maxLevel > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Compression level must be between 1 and 9");
+		}
+		this.maxLevel = maxLevel;
+		this.bandwidth = bandwidth;
+		this.deflaterPool = new DeflaterPool(MAX_POOLED_DEFLATERS);
+		this.level = maxLevel;
+	}
+
+	/**
+	 * Compress request bodies of at least {@code minSize} bytes with a fixed compression level.
+	 * @param minSize the minimum body size in bytes
+	 * @param level the compression level, between 1 (fastest) and 9 (best compression)
+	 */
+	public static GzipRequestCompression fixed(int minSize, int level) {
+		return new GzipRequestCompression(minSize, level, 0, BufferPool.getDefault());
+	}
+
+	/**
+	 * Compress request bodies of at least {@code minSize} bytes, adapting the compression level
+	 * to the given bandwidth.
+	 * @param minSize the minimum body size in bytes
+	 * @param maxLevel the initial and maximum compression level, between 1 (fastest) and 9 (best compression)
+	 * @param bytesPerSecond the expected bandwidth of the connection in bytes per second
+	 */
+	public static GzipRequestCompression adaptive(int minSize, int maxLevel, long bytesPerSecond) {
+		if (bytesPerSecond <= 0) {
+			throw new IllegalArgumentException("Bandwidth must be positive");
+		}
+		return new GzipRequestCompression(minSize, maxLevel, bytesPerSecond, BufferPool.getDefault());
+	}
+
+	/**
+	 * Return a stream that writes gzip compressed data to the given stream.
+	 * <p>The returned stream has to be {@linkplain GzipCompressingOutputStream#finish() finished}
+	 * or closed to write the gzip trailer and return pooled resources, only closing it also closes
+	 * the given stream.
+	 * @param out the stream to write compressed data to
+	 * @throws IOException in case of I/O errors
+	 */
+	@Override
+	public GzipCompressingOutputStream compressingStream(OutputStream out) throws IOException {
+		final Deflater deflater = this.deflaterPool.acquire(this.level);
+		return new GzipCompressingOutputStream(out, this, deflater, getBufferPool().acquire(BUFFER_SIZE));
+	}
+
+	void completed(long bytesRead, long bytesWritten, long deflateNanos) {
+		if (this.bandwidth > 0 && bytesRead > 0) {
+			final long savedNanos = (bytesRead - bytesWritten) * 1000000000L / this.bandwidth;
+			final int current = this.level;
+			if (deflateNanos > savedNanos && current > Deflater.BEST_SPEED) {
+				this.level = current - 1;
+			} else if (2 * deflateNanos < savedNanos && current < this.maxLevel) {
+				this.level = current + 1;
+			}
+		}
+	}
+
+	void release(Deflater deflater, byte[] buffer) {
+		this.deflaterPool.release(deflater);
+		getBufferPool().release(buffer);
+	}
+
+	/**
+	 * Return the compression level that is currently used for new requests.
+	 */
+	public int getLevel() {
+		return this.level;
+	}
+}
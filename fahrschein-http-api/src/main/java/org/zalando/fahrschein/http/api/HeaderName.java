@@ -0,0 +1,353 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.HttpHeaders;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A registered HTTP header name, holding its canonical {@code String} instance, a precomputed
+ * case-insensitive hash and its US-ASCII encoding.
+ *
+ * <p>All header names declared as constants in {@link HttpHeaders} are registered, further names
+ * like {@code X-Flow-Id} can be added via {@link #register(String)}. Since the canonical instance of a
+ * registered name is the one used by callers, for example {@link HttpHeaders#CONTENT_TYPE}, header
+ * storage can match it by identity, and wire writers can emit the encoded bytes instead of encoding
+ * the name again. Parsers can find the name for a range of received bytes without creating a {@code String}.
+ *
+ * <p>The registry is meant for a bounded number of names, typically registered at startup. Lookups
+ * do not lock and do not allocate, registering copies the registry.
+ *
+ * @author Joern Horstmann
+ * @see HttpHeaders
+ */
+public final class HeaderName {
+
+	private static final String[] KNOWN_NAMES = {
+			HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_CHARSET, HttpHeaders.ACCEPT_ENCODING,
+			HttpHeaders.ACCEPT_LANGUAGE, HttpHeaders.ACCEPT_RANGES, HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS,
+			HttpHeaders.ACCESS_CONTROL_ALLOW_HEADERS, HttpHeaders.ACCESS_CONTROL_ALLOW_METHODS,
+			HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS,
+			HttpHeaders.ACCESS_CONTROL_MAX_AGE, HttpHeaders.ACCESS_CONTROL_REQUEST_HEADERS,
+			HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, HttpHeaders.AGE, HttpHeaders.ALLOW,
+			HttpHeaders.AUTHORIZATION, HttpHeaders.CACHE_CONTROL, HttpHeaders.CONNECTION,
+			HttpHeaders.CONTENT_ENCODING, HttpHeaders.CONTENT_DISPOSITION, HttpHeaders.CONTENT_LANGUAGE,
+			HttpHeaders.CONTENT_LENGTH, HttpHeaders.CONTENT_LOCATION, HttpHeaders.CONTENT_RANGE,
+			HttpHeaders.CONTENT_TYPE, HttpHeaders.COOKIE, HttpHeaders.DATE, HttpHeaders.ETAG, HttpHeaders.EXPECT,
+			HttpHeaders.EXPIRES, HttpHeaders.FROM, HttpHeaders.HOST, HttpHeaders.IF_MATCH,
+			HttpHeaders.IF_MODIFIED_SINCE, HttpHeaders.IF_NONE_MATCH, HttpHeaders.IF_RANGE,
+			HttpHeaders.IF_UNMODIFIED_SINCE, HttpHeaders.LAST_MODIFIED, HttpHeaders.LINK, HttpHeaders.LOCATION,
+			HttpHeaders.MAX_FORWARDS, HttpHeaders.ORIGIN, HttpHeaders.PRAGMA, HttpHeaders.PROXY_AUTHENTICATE,
+			HttpHeaders.PROXY_AUTHORIZATION, HttpHeaders.RANGE, HttpHeaders.REFERER, HttpHeaders.RETRY_AFTER,
+			HttpHeaders.SERVER, HttpHeaders.SET_COOKIE, HttpHeaders.SET_COOKIE2, HttpHeaders.TE,
+			HttpHeaders.TRAILER, HttpHeaders.TRANSFER_ENCODING, HttpHeaders.UPGRADE, HttpHeaders.USER_AGENT,
+			HttpHeaders.VARY, HttpHeaders.VIA, HttpHeaders.WARNING, HttpHeaders.WWW_AUTHENTICATE
+	};
+
+	private static volatile Registry registry = new Registry(new HeaderName[0]);
+
+	static {
+		for (String name : KNOWN_NAMES) {
+			register(name);
+		}
+	}
+
+	private final String name;
+	private final int hash;
+	private final byte[] bytes;
+
+	private HeaderName(String name) {
+		this.name = name;
+		this.hash = hashIgnoreCase(name);
+		this.bytes = name.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Register the given header name, unless a name differing only in case is already registered.
+	 * @param name the header name, which must be a token as defined by RFC 7230
+	 * @return the registered header name, whose canonical instance is the given {@code String}
+	 * unless the name was registered before
+	 * @throws IllegalArgumentException if the name is not a valid token
+	 */
+	public static HeaderName register(String name) {
+		if (name == null || name.isEmpty()) {
+			throw new IllegalArgumentException("Header name must not be empty");
+		}
+		for (int i = 0; i < name.length(); i++) {
+			if (!isTokenChar(name.charAt(i))) {
+				throw new IllegalArgumentException("Invalid header name [" + name + "]");
+			}
+		}
+		synchronized (HeaderName.class) {
+			final HeaderName existing = lookup(name);
+			if (existing != null) {
+				return existing;
+			}
+			final HeaderName headerName = new HeaderName(name);
+			final HeaderName[] names = registry.names;
+			final HeaderName[] newNames = Arrays.copyOf(names, names.length + 1);
+			newNames[names.length] = headerName;
+			registry = new Registry(newNames);
+			return headerName;
+		}
+	}
+
+	/**
+	 * Return the registered header name equal to the given name ignoring case, or {@code null} if none.
+	 * @param name the header name
+	 */
+	public static HeaderName lookup(String name) {
+		final Registry registry = HeaderName.registry;
+		final HeaderName headerName = registry.lookupExact(name);
+		return (headerName != null ? headerName : registry.lookupIgnoreCase(name));
+	}
+
+	/**
+	 * Return the registered header name equal to the given US-ASCII encoded name ignoring case,
+	 * or {@code null} if none.
+	 * @param bytes the buffer containing the encoded name
+	 * @param offset the offset of the name in the buffer
+	 * @param length the length of the name
+	 */
+	public static HeaderName lookup(byte[] bytes, int offset, int length) {
+		return registry.lookupIgnoreCase(bytes, offset, length);
+	}
+
+	/**
+	 * Return the canonical instance of the given name if it is registered with exactly the same case,
+	 * otherwise the name itself.
+	 * @param name the header name
+	 */
+	public static String canonicalize(String name) {
+		final HeaderName headerName = registry.lookupExact(name);
+		return (headerName != null ? headerName.name : name);
+	}
+
+	/**
+	 * Return the canonical instance of this header name.
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Return the number of characters, and encoded bytes, of this header name.
+	 */
+	public int length() {
+		return this.bytes.length;
+	}
+
+	/**
+	 * Return a copy of the US-ASCII encoding of this header name.
+	 */
+	public byte[] getBytes() {
+		return this.bytes.clone();
+	}
+
+	/**
+	 * Copy the US-ASCII encoding of this header name into the given array.
+	 * @param dest the destination array, which must have room for {@link #length()} bytes
+	 * @param offset the offset in the destination array
+	 */
+	public void copyTo(byte[] dest, int offset) {
+		System.arraycopy(this.bytes, 0, dest, offset, this.bytes.length);
+	}
+
+	/**
+	 * Write the US-ASCII encoding of this header name to the given stream.
+	 * @param out the output stream
+	 * @throws IOException in case of I/O errors
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(this.bytes);
+	}
+
+	/**
+	 * Write the US-ASCII encoding of this header name to the given buffer.
+	 * @param buffer the buffer, which must have {@link #length()} bytes remaining
+	 */
+	public void writeTo(ByteBuffer buffer) {
+		buffer.put(this.bytes);
+	}
+
+	/**
+	 * Return whether the given name is equal to this header name ignoring case.
+	 */
+	public boolean matches(String name) {
+		return name == this.name || (name != null && name.length() == this.bytes.length && equalsIgnoreCase(this.name, name, this.bytes.length));
+	}
+
+	/**
+	 * Return the case-insensitive hash of this header name.
+	 * @see #hashIgnoreCase(String)
+	 */
+	@Override
+	public int hashCode() {
+		return this.hash;
+	}
+
+	@Override
+	public String toString() {
+		return this.name;
+	}
+
+	/**
+	 * Return a hash of the given name which is equal for names differing only in the case of ASCII letters.
+	 */
+	public static int hashIgnoreCase(String name) {
+		int hash = 0;
+		for (int i = 0; i < name.length(); i++) {
+			hash = 31 * hash + foldCase(name.charAt(i));
+		}
+		return hash;
+	}
+
+	private static int hashIgnoreCase(byte[] bytes, int offset, int length) {
+		int hash = 0;
+		for (int i = offset; i < offset + length; i++) {
+			hash = 31 * hash + foldCase((char) (bytes[i] & 0xFF));
+		}
+		return hash;
+	}
+
+	private static int foldCase(char ch) {
+		return (ch >= 'A' && ch <= 'Z' ? ch + ('a' - 'A') : ch);
+	}
+
+	/**
+	 * Compare two strings of the given length, folding the case of ASCII letters directly and
+	 * falling back to {@link String#regionMatches(boolean, int, String, int, int)} for other characters.
+	 * @param name the first string
+	 * @param other the second string
+	 * @param length the length of both strings
+	 */
+	public static boolean equalsIgnoreCase(String name, String other, int length) {
+		for (int i = 0; i < length; i++) {
+			final char ch = name.charAt(i);
+			final char otherCh = other.charAt(i);
+			if (ch != otherCh) {
+				final int folded = ch | 0x20;
+				if (folded != (otherCh | 0x20) || folded < 'a' || folded > 'z') {
+					return (ch >= 0x80 || otherCh >= 0x80) && name.regionMatches(true, i, other, i, length - i);
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean isTokenChar(char ch) {
+		// tchar as defined by RFC 7230, section 3.2.6
+		if ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9')) {
+			return true;
+		}
+		return "!#$%&'*+-.^_`|~".indexOf(ch) >= 0;
+	}
+
+
+	/**
+	 * Immutable snapshot of the registered names, with open addressing tables indexed by the
+	 * case-sensitive {@link String#hashCode()}, which is cached by the {@code String}, and by the
+	 * case-insensitive hash.
+	 */
+	private static final class Registry {
+
+		private final HeaderName[] names;
+		private final HeaderName[] byExactHash;
+		private final HeaderName[] byHashIgnoreCase;
+		private final int mask;
+
+		Registry(HeaderName[] names) {
+			this.names = names;
+			// keep the tables at most a quarter full, so that probe sequences stay short
+			final int capacity = Integer.highestOneBit(Math.max(4, names.length) * 4 - 1) << 1;
+			this.mask = capacity - 1;
+			this.byExactHash = new HeaderName[capacity];
+			this.byHashIgnoreCase = new HeaderName[capacity];
+			for (HeaderName name : names) {
+				insert(this.byExactHash, spread(name.name.hashCode()), name);
+				insert(this.byHashIgnoreCase, spread(name.hash), name);
+			}
+		}
+
+		private void insert(HeaderName[] table, int hash, HeaderName name) {
+			int i = hash & this.mask;
+			while (table[i] != null) {
+				i = (i + 1) & this.mask;
+			}
+			table[i] = name;
+		}
+
+		private static int spread(int hash) {
+			return hash ^ (hash >>> 16);
+		}
+
+		HeaderName lookupExact(String name) {
+			int i = spread(name.hashCode()) & this.mask;
+			HeaderName candidate;
+			while ((candidate = this.byExactHash[i]) != null) {
+				if (candidate.name == name || candidate.name.equals(name)) {
+					return candidate;
+				}
+				i = (i + 1) & this.mask;
+			}
+			return null;
+		}
+
+		HeaderName lookupIgnoreCase(String name) {
+			final int hash = hashIgnoreCase(name);
+			int i = spread(hash) & this.mask;
+			HeaderName candidate;
+			while ((candidate = this.byHashIgnoreCase[i]) != null) {
+				if (candidate.hash == hash && candidate.matches(name)) {
+					return candidate;
+				}
+				i = (i + 1) & this.mask;
+			}
+			return null;
+		}
+
+		HeaderName lookupIgnoreCase(byte[] bytes, int offset, int length) {
+			final int hash = hashIgnoreCase(bytes, offset, length);
+			int i = spread(hash) & this.mask;
+			HeaderName candidate;
+			while ((candidate = this.byHashIgnoreCase[i]) != null) {
+				if (candidate.hash == hash && candidate.bytes.length == length && equalsIgnoreCase(candidate.bytes, bytes, offset)) {
+					return candidate;
+				}
+				i = (i + 1) & this.mask;
+			}
+			return null;
+		}
+
+		private static boolean equalsIgnoreCase(byte[] name, byte[] bytes, int offset) {
+			for (int i = 0; i < name.length; i++) {
+				final int b = name[i];
+				final int other = bytes[offset + i];
+				if (b != other && (foldCase((char) b) != foldCase((char) (other & 0xFF)))) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+/**
+ * Cursor over the elements of a header value separated by a delimiter, typically {@code ','} for the
+ * elements of a list like {@code Accept} or {@code Cache-Control}, or {@code ';'} for the parameters
+ * of an element like a media type.
+ *
+ * <p>Elements are reported as offsets into the original value, with surrounding whitespace trimmed.
+ * Empty elements are skipped. Delimiters within quoted strings, including escaped quotes, do not
+ * separate elements. Iterating does not allocate, only {@link #getToken()} creates a {@code String}
+ * if the element is not the complete value.
+ *
+ * <p>A tokenizer can be reused for further values by calling {@link #reset(CharSequence)}.
+ * Instances are not thread-safe.
+ *
+ * <pre class="code">
+ * HeaderValueTokenizer tokenizer = new HeaderValueTokenizer(',').reset(cacheControl);
+ * while (tokenizer.next()) {
+ *     if (tokenizer.tokenEqualsIgnoreCase("no-store")) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ *
+ * @author Joern Horstmann
+ * @see <a href="https://tools.ietf.org/html/rfc7230#section-7">Section 7 of RFC 7230</a>
+ */
+public final class HeaderValueTokenizer {
+
+	private final char delimiter;
+	private CharSequence value;
+	private int position;
+	private int limit;
+	private int start;
+	private int end;
+
+	/**
+	 * Create a tokenizer for elements separated by the given delimiter.
+	 * @param delimiter the delimiter, which must not be a quote or whitespace
+	 */
+	public HeaderValueTokenizer(char delimiter) {
+		if (delimiter == '"' || delimiter <= ' ') {
+			throw new IllegalArgumentException("Invalid delimiter '" + delimiter + "'");
+		}
+		this.delimiter = delimiter;
+	}
+
+	/**
+	 * Start tokenizing the given value.
+	 * @param value the header value, {@code null} is treated like an empty value
+	 * @return this tokenizer
+	 */
+	public HeaderValueTokenizer reset(CharSequence value) {
+		return reset(value, 0, value != null ? value.length() : 0);
+	}
+
+	/**
+	 * Start tokenizing the given range of a value.
+	 * @param value the header value
+	 * @param start the start of the range, inclusive
+	 * @param end the end of the range, exclusive
+	 * @return this tokenizer
+	 */
+	public HeaderValueTokenizer reset(CharSequence value, int start, int end) {
+		if (start < 0 || end < start || end > (value != null ? value.length() : 0)) {
+			throw new IllegalArgumentException("Invalid range [" + start + ", " + end + ")");
+		}
+		this.value = value;
+		this.position = start;
+		this.limit = end;
+		this.start = start;
+		this.end = start;
+		return this;
+	}
+
+	/**
+	 * Advance to the next non-empty element.
+	 * @return {@code true} if there was a further element
+	 */
+	public boolean next() {
+		final CharSequence value = this.value;
+		while (this.position < this.limit) {
+			int tokenStart = this.position;
+			int i = this.position;
+			boolean quoted = false;
+			while (i < this.limit) {
+				final char ch = value.charAt(i);
+				if (quoted) {
+					if (ch == '\\') {
+						i++;
+					}
+					else if (ch == '"') {
+						quoted = false;
+					}
+				}
+				else if (ch == '"') {
+					quoted = true;
+				}
+				else if (ch == this.delimiter) {
+					break;
+				}
+				i++;
+			}
+			int tokenEnd = Math.min(i, this.limit);
+			this.position = Math.min(i + 1, this.limit);
+			while (tokenStart < tokenEnd && value.charAt(tokenStart) <= ' ') {
+				tokenStart++;
+			}
+			while (tokenEnd > tokenStart && value.charAt(tokenEnd - 1) <= ' ') {
+				tokenEnd--;
+			}
+			if (tokenStart < tokenEnd) {
+				this.start = tokenStart;
+				this.end = tokenEnd;
+				return true;
+			}
+		}
+		this.start = this.limit;
+		this.end = this.limit;
+		return false;
+	}
+
+	/**
+	 * Return the offset of the current element in the value, inclusive.
+	 */
+	public int getStart() {
+		return this.start;
+	}
+
+	/**
+	 * Return the end offset of the current element in the value, exclusive.
+	 */
+	public int getEnd() {
+		return this.end;
+	}
+
+	/**
+	 * Return the current element as a {@code String}. The value itself is returned if it is a
+	 * {@code String} consisting only of this element.
+	 */
+	public String getToken() {
+		if (this.start == 0 && this.end == this.value.length() && this.value instanceof String) {
+			return (String) this.value;
+		}
+		return this.value.subSequence(this.start, this.end).toString();
+	}
+
+	/**
+	 * Return the offset of the first occurrence of the given character in the current element
+	 * outside of quoted strings, or -1 if it does not occur.
+	 */
+	public int indexOf(char ch) {
+		boolean quoted = false;
+		for (int i = this.start; i < this.end; i++) {
+			final char c = this.value.charAt(i);
+			if (quoted) {
+				if (c == '\\') {
+					i++;
+				}
+				else if (c == '"') {
+					quoted = false;
+				}
+			}
+			else if (c == '"') {
+				quoted = true;
+			}
+			else if (c == ch) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Return whether the current element equals the given string, ignoring the case of ASCII letters.
+	 */
+	public boolean tokenEqualsIgnoreCase(String other) {
+		final int length = this.end - this.start;
+		if (other.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			char a = this.value.charAt(this.start + i);
+			char b = other.charAt(i);
+			if (a != b) {
+				if (a >= 'A' && a <= 'Z') {
+					a += 'a' - 'A';
+				}
+				if (b >= 'A' && b <= 'Z') {
+					b += 'a' - 'A';
+				}
+				if (a != b) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return this.value == null ? "" : this.value.subSequence(this.start, this.end).toString();
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ResponseStore} keeping responses on the heap, evicting the least recently used responses
+ * once their estimated size exceeds a limit.
+ *
+ * <p>The size of an entry is estimated from the length of its body, key and headers. Responses
+ * larger than the whole store are not stored.
+ *
+ * @author Joern Horstmann
+ */
+public final class InMemoryResponseStore implements ResponseStore {
+
+	private static final int ENTRY_OVERHEAD = 256;
+
+	private final long maxSize;
+
+	// guarded by this
+	private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long size;
+
+	/**
+	 * Create a new {@code InMemoryResponseStore}.
+	 * @param maxSize the maximum estimated size of all entries in bytes
+	 */
+	public InMemoryResponseStore(long maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("Maximum size must be positive");
+		}
+		this.maxSize = maxSize;
+	}
+
+	static long estimateSize(String key, CachedResponse response) {
+		long size = ENTRY_OVERHEAD + 2L * key.length() + response.getBodyLength();
+		for (Map.Entry<String, List<String>> entry : response.getHeaders().entrySet()) {
+			size += 2L * entry.getKey().length();
+			for (String value : entry.getValue()) {
+				size += 2L * value.length();
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public synchronized CachedResponse get(String key) {
+		return this.entries.get(key);
+	}
+
+	@Override
+	public synchronized void put(String key, CachedResponse response) {
+		if (response == null) {
+			throw new IllegalArgumentException("CachedResponse must not be null");
+		}
+		final long entrySize = estimateSize(key, response);
+		if (entrySize > this.maxSize) {
+			remove(key);
+			return;
+		}
+		final CachedResponse previous = this.entries.put(key, response);
+		if (previous != null) {
+			this.size -= estimateSize(key, previous);
+		}
+		this.size += entrySize;
+		final Iterator<Map.Entry<String, CachedResponse>> it = this.entries.entrySet().iterator();
+		while (this.size > this.maxSize && it.hasNext()) {
+			final Map.Entry<String, CachedResponse> eldest = it.next();
+			this.size -= estimateSize(eldest.getKey(), eldest.getValue());
+			it.remove();
+		}
+	}
+
+	@Override
+	public synchronized void remove(String key) {
+		final CachedResponse previous = this.entries.remove(key);
+		if (previous != null) {
+			this.size -= estimateSize(key, previous);
+		}
+	}
+
+	/**
+	 * Return the number of stored responses.
+	 */
+	public synchronized int getEntryCount() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Return the estimated size of all stored responses in bytes.
+	 */
+	public synchronized long getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Return the maximum estimated size of all stored responses in bytes.
+	 */
+	public long getMaxSize() {
+		return this.maxSize;
+	}
+
+	/**
+	 * Remove all stored responses.
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+		this.size = 0;
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.api;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+
+/**
+ * Bounded pool of raw (headerless) {@link Inflater} instances, so that the native zlib state
+ * is not allocated and freed for every request.
+ *
+ * @author Joern Horstmann
+ */
+final class InflaterPool {
+
+	private final Queue<Inflater> inflaters;
+	private final AtomicInteger size;
+	private final int maxSize;
+
+	InflaterPool(int maxSize) {
+		this.inflaters = new ConcurrentLinkedQueue<Inflater>();
+		this.size = new AtomicInteger();
+		this.maxSize = maxSize;
+	}
+
+	Inflater acquire() {
+		final Inflater inflater = this.inflaters.poll();
+		if (inflater == null) {
+			return new Inflater(true);
+		}
+		this.size.decrementAndGet();
+		return inflater;
+	}
+
+	void release(Inflater inflater) {
+		if (this.size.incrementAndGet() <= this.maxSize) {
+			inflater.reset();
+			this.inflaters.offer(inflater);
+		} else {
+			this.size.decrementAndGet();
+			inflater.end();
+		}
+	}
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.api;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Input stream decoding the {@code gzip} or {@code deflate} content codings using a pooled
+ * {@link Inflater} and a pooled input buffer.
+ *
+ * <p>Data is decoded as soon as it arrives, a read only blocks until the underlying stream
+ * provides some compressed input, which makes this stream suitable for long-lived event streams.
+ * For the {@code deflate} coding both zlib wrapped and raw deflate data are accepted.
+ *
+ * <p>The inflater and buffer are returned to their pools when the end of the compressed data is
+ * reached. Closing the stream before that, possibly from another thread while a read is in progress,
+ * only marks it as closed; the inflater is freed and the buffer returned once no read is in progress,
+ * so it is never handed to another request while still being used.
+ *
+ * @author Joern Horstmann
+ * @see ResponseDecompression#decode(String, InputStream)
+ */
+public final class InflatingInputStream extends InputStream {
+
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private static final int READING = 1;
+	private static final int CLOSED = 2;
+	private static final int RELEASED = 4;
+
+	private final InputStream in;
+	private final ResponseDecompression decompression;
+	private final boolean gzip;
+	private final byte[] singleByte;
+	private final AtomicInteger state = new AtomicInteger();
+	private Checksum checksum;
+	private Inflater inflater;
+	private byte[] buffer;
+	private int pos;
+	private int limit;
+	private boolean headerRead;
+	private boolean eof;
+
+	InflatingInputStream(InputStream in, ResponseDecompression decompression, boolean gzip, Inflater inflater, byte[] buffer) {
+		this.in = in;
+		this.decompression = decompression;
+		this.gzip = gzip;
+		this.inflater = inflater;
+		this.buffer = buffer;
+		this.singleByte = new byte[1];
+	}
+
+	private boolean fill() throws IOException {
+		final int n = this.in.read(this.buffer, 0, this.buffer.length);
+		this.pos = 0;
+		this.limit = Math.max(n, 0);
+		return n > 0;
+	}
+
+	private boolean ensureAvailable(int n) throws IOException {
+		while (this.limit - this.pos < n) {
+			if (this.pos > 0) {
+				System.arraycopy(this.buffer, this.pos, this.buffer, 0, this.limit - this.pos);
+				this.limit -= this.pos;
+				this.pos = 0;
+			}
+			final int read = this.in.read(this.buffer, this.limit, this.buffer.length - this.limit);
+			if (read < 0) {
+				return false;
+			}
+			this.limit += read;
+		}
+		return true;
+	}
+
+	private int readUnsignedByte() throws IOException {
+		if (this.pos == this.limit && !fill()) {
+			throw new EOFException("Unexpected end of compressed stream");
+		}
+		return this.buffer[this.pos++] & 0xff;
+	}
+
+	private int readUnsignedShortLE() throws IOException {
+		return readUnsignedByte() | (readUnsignedByte() << 8);
+	}
+
+	private long readUnsignedIntLE() throws IOException {
+		return ((long) readUnsignedShortLE() | ((long) readUnsignedShortLE() << 16)) & 0xffffffffL;
+	}
+
+	private void skipBytes(int n) throws IOException {
+		for (int i = 0; i < n; i++) {
+			readUnsignedByte();
+		}
+	}
+
+	private void skipZeroTerminated() throws IOException {
+		while (readUnsignedByte() != 0) {
+			// skip
+		}
+	}
+
+	/**
+	 * Read the gzip or zlib header, returns false if the underlying stream is empty.
+	 */
+	private boolean readHeader() throws IOException {
+		if (!ensureAvailable(1)) {
+			return false;
+		}
+		if (this.gzip) {
+			if (readUnsignedShortLE() != GZIP_MAGIC) {
+				throw new ZipException("Not in gzip format");
+			}
+			if (readUnsignedByte() != 8) {
+				throw new ZipException("Unsupported compression method");
+			}
+			final int flags = readUnsignedByte();
+			skipBytes(6);
+			if ((flags & FEXTRA) == FEXTRA) {
+				skipBytes(readUnsignedShortLE());
+			}
+			if ((flags & FNAME) == FNAME) {
+				skipZeroTerminated();
+			}
+			if ((flags & FCOMMENT) == FCOMMENT) {
+				skipZeroTerminated();
+			}
+			if ((flags & FHCRC) == FHCRC) {
+				skipBytes(2);
+			}
+			this.checksum = new CRC32();
+		} else if (ensureAvailable(2)) {
+			final int cmf = this.buffer[this.pos] & 0xff;
+			final int flg = this.buffer[this.pos + 1] & 0xff;
+			if ((cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0) {
+				if ((flg & 0x20) != 0) {
+					throw new ZipException("Preset dictionaries are not supported");
+				}
+				this.pos += 2;
+				this.checksum = new Adler32();
+			}
+		}
+		if (this.limit > this.pos) {
+			this.inflater.setInput(this.buffer, this.pos, this.limit - this.pos);
+		}
+		return true;
+	}
+
+	private void readTrailer() throws IOException {
+		this.pos = this.limit - this.inflater.getRemaining();
+		if (this.gzip) {
+			final long crc = readUnsignedIntLE();
+			final long size = readUnsignedIntLE();
+			if (crc != this.checksum.getValue()) {
+				throw new ZipException("Corrupt gzip trailer, crc mismatch");
+			}
+			if (size != (this.inflater.getBytesWritten() & 0xffffffffL)) {
+				throw new ZipException("Corrupt gzip trailer, size mismatch");
+			}
+		} else if (this.checksum != null) {
+			final long adler = ((long) readUnsignedByte() << 24) | (readUnsignedByte() << 16) | (readUnsignedByte() << 8) | readUnsignedByte();
+			if (adler != this.checksum.getValue()) {
+				throw new ZipException("Corrupt zlib trailer, adler32 mismatch");
+			}
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int n = read(this.singleByte, 0, 1);
+		return n < 0 ? -1 : this.singleByte[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (this.eof) {
+			return -1;
+		}
+		if (!begin()) {
+			throw new IOException("Stream closed");
+		}
+		try {
+			return inflate(b, off, len);
+		} finally {
+			end();
+		}
+	}
+
+	/**
+	 * Mark a read as in progress, unless the stream was closed.
+	 */
+	private boolean begin() {
+		while (true) {
+			final int state = this.state.get();
+			if ((state & CLOSED) != 0) {
+				discard();
+				return false;
+			}
+			if (this.state.compareAndSet(state, state | READING)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Mark the read as completed, and free the resources if the stream was closed in the meantime.
+	 */
+	private void end() {
+		while (true) {
+			final int state = this.state.get();
+			if (this.state.compareAndSet(state, state & ~READING)) {
+				if ((state & CLOSED) != 0) {
+					discard();
+				}
+				return;
+			}
+		}
+	}
+
+	private int inflate(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!this.headerRead) {
+			if (!readHeader()) {
+				finished();
+				return -1;
+			}
+			this.headerRead = true;
+		}
+		while (true) {
+			final int n;
+			try {
+				n = this.inflater.inflate(b, off, len);
+			} catch (DataFormatException e) {
+				throw new ZipException(e.getMessage() != null ? e.getMessage() : "Invalid compressed data");
+			}
+			if (n > 0) {
+				if (this.checksum != null) {
+					this.checksum.update(b, off, n);
+				}
+				return n;
+			}
+			if (this.inflater.finished()) {
+				readTrailer();
+				finished();
+				return -1;
+			}
+			if (this.inflater.needsDictionary()) {
+				throw new ZipException("Preset dictionaries are not supported");
+			}
+			if (this.inflater.needsInput()) {
+				if (!fill()) {
+					throw new EOFException("Unexpected end of compressed stream");
+				}
+				this.inflater.setInput(this.buffer, this.pos, this.limit - this.pos);
+			}
+		}
+	}
+
+	private void finished() {
+		this.eof = true;
+		if (claimRelease()) {
+			this.decompression.release(this.inflater, this.buffer);
+			this.inflater = null;
+			this.buffer = null;
+		}
+	}
+
+	/**
+	 * Free the inflater of a stream closed before the end of its data.
+	 */
+	private void discard() {
+		if (claimRelease()) {
+			this.decompression.discard(this.inflater, this.buffer);
+			this.inflater = null;
+			this.buffer = null;
+		}
+	}
+
+	private boolean claimRelease() {
+		while (true) {
+			final int state = this.state.get();
+			if ((state & RELEASED) != 0) {
+				return false;
+			}
+			if (this.state.compareAndSet(state, state | RELEASED)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Mark the stream as closed and close the underlying stream. The pooled resources are released
+	 * right away if no read is in progress, otherwise by the reading thread when its read returns.
+	 * @throws IOException in case of I/O errors
+	 */
+	@Override
+	public void close() throws IOException {
+		while (true) {
+			final int state = this.state.get();
+			if (this.state.compareAndSet(state, state | CLOSED)) {
+				if ((state & READING) == 0) {
+					discard();
+				}
+				break;
+			}
+		}
+		this.in.close();
+	}
+}
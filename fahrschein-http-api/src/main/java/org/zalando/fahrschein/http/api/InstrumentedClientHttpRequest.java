@@ -0,0 +1,136 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+
+/**
+ * {@link ClientHttpRequest} decorator recording the metrics of a single request.
+ *
+ * @author Joern Horstmann
+ * @see InstrumentedClientHttpRequestFactory
+ */
+class InstrumentedClientHttpRequest implements ClientHttpRequest {
+
+	private static final HttpStatus.Series[] SERIES = {null, HttpStatus.Series.INFORMATIONAL, HttpStatus.Series.SUCCESSFUL,
+			HttpStatus.Series.REDIRECTION, HttpStatus.Series.CLIENT_ERROR, HttpStatus.Series.SERVER_ERROR};
+
+	protected final ClientHttpRequest request;
+	private final RequestMetrics metrics;
+	private CountingOutputStream body;
+	protected long bytesSent;
+
+	InstrumentedClientHttpRequest(ClientHttpRequest request, RequestMetrics metrics) {
+		this.request = request;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public HttpMethod getMethod() {
+		return this.request.getMethod();
+	}
+
+	@Override
+	public URI getURI() {
+		return this.request.getURI();
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		return this.request.getHeaders();
+	}
+
+	@Override
+	public OutputStream getBody() throws IOException {
+		if (this.body == null) {
+			this.body = new CountingOutputStream(this.request.getBody());
+		}
+		return this.body;
+	}
+
+	private long getBytesSent() {
+		return this.body != null ? this.body.count : this.bytesSent;
+	}
+
+	@Override
+	public ClientHttpResponse execute() throws IOException {
+		final long start = System.nanoTime();
+		this.metrics.requestStarted();
+		final ClientHttpResponse response;
+		final int statusCode;
+		try {
+			response = this.request.execute();
+			try {
+				statusCode = response.getRawStatusCode();
+			} catch (IOException | RuntimeException e) {
+				response.close();
+				throw e;
+			}
+		} catch (IOException | RuntimeException | Error e) {
+			this.metrics.requestFailed(System.nanoTime() - start, getBytesSent());
+			throw e;
+		}
+		final long executed = System.nanoTime();
+		final int seriesIdx = statusCode / 100;
+		this.metrics.requestExecuted(executed - start, getBytesSent(), seriesIdx > 0 && seriesIdx < SERIES.length ? SERIES[seriesIdx] : null);
+		return new InstrumentedClientHttpResponse(response, this.metrics, start, executed);
+	}
+
+
+	/**
+	 * Counts the bytes of the request body.
+	 */
+	static final class CountingOutputStream extends OutputStream {
+
+		private final OutputStream out;
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this.count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			this.out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.out.close();
+		}
+	}
+}
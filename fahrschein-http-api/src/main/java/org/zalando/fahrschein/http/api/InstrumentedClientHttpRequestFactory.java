@@ -0,0 +1,99 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link ClientHttpRequestFactory} decorator that records metrics of all requests through a {@link MetricsRecorder}.
+ *
+ * <p>Records the time to execute a request, the time to the first byte of the response body, the time
+ * spent reading the body, the number of bytes sent and received, the status series and the number of
+ * requests in flight, tagged by host and method. Requests of the decorated factory that implement
+ * {@link StreamingHttpOutputMessage} keep doing so.
+ *
+ * <p>The {@link RequestMetrics} are looked up once per host and method, recording measurements does not
+ * allocate apart from the wrappers of each request and response.
+ *
+ * @author Joern Horstmann
+ * @see MetricsRecorder
+ */
+public class InstrumentedClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+	private static final int METHOD_COUNT = HttpMethod.values().length;
+
+	private final ClientHttpRequestFactory requestFactory;
+	private final MetricsRecorder metricsRecorder;
+	private final ConcurrentMap<String, AtomicReferenceArray<RequestMetrics>> metricsByHost = new ConcurrentHashMap<>();
+
+	/**
+	 * Create a new {@code InstrumentedClientHttpRequestFactory}.
+	 * @param requestFactory the request factory creating the requests
+	 * @param metricsRecorder the recorder receiving the metrics
+	 */
+	public InstrumentedClientHttpRequestFactory(ClientHttpRequestFactory requestFactory, MetricsRecorder metricsRecorder) {
+		if (requestFactory == null) {
+			throw new IllegalArgumentException("ClientHttpRequestFactory must not be null");
+		}
+		if (metricsRecorder == null) {
+			throw new IllegalArgumentException("MetricsRecorder must not be null");
+		}
+		this.requestFactory = requestFactory;
+		this.metricsRecorder = metricsRecorder;
+	}
+
+	@Override
+	public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+		final ClientHttpRequest request = this.requestFactory.createRequest(uri, httpMethod);
+		final RequestMetrics metrics = getRequestMetrics(uri.getHost() != null ? uri.getHost() : "", httpMethod);
+		return request instanceof StreamingHttpOutputMessage
+				? new InstrumentedStreamingClientHttpRequest(request, metrics)
+				: new InstrumentedClientHttpRequest(request, metrics);
+	}
+
+	private RequestMetrics getRequestMetrics(String host, HttpMethod method) {
+		AtomicReferenceArray<RequestMetrics> byMethod = this.metricsByHost.get(host);
+		if (byMethod == null) {
+			final AtomicReferenceArray<RequestMetrics> created = new AtomicReferenceArray<>(METHOD_COUNT);
+			byMethod = this.metricsByHost.putIfAbsent(host, created);
+			if (byMethod == null) {
+				byMethod = created;
+			}
+		}
+		final int idx = method.ordinal();
+		final RequestMetrics metrics = byMethod.get(idx);
+		if (metrics != null) {
+			return metrics;
+		}
+		final RequestMetrics created = this.metricsRecorder.getRequestMetrics(host, method);
+		if (created == null) {
+			throw new IllegalStateException("MetricsRecorder returned no metrics for " + method + " " + host);
+		}
+		// keep the first instance if another thread was faster
+		return byMethod.compareAndSet(idx, null, created) ? created : byMethod.get(idx);
+	}
+
+}
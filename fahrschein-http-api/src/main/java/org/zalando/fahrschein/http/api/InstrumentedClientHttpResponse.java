@@ -0,0 +1,141 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link ClientHttpResponse} decorator recording the metrics of reading the response body.
+ *
+ * @author Joern Horstmann
+ * @see InstrumentedClientHttpRequestFactory
+ */
+final class InstrumentedClientHttpResponse implements ClientHttpResponse {
+
+	private final ClientHttpResponse response;
+	private final RequestMetrics metrics;
+	private final long start;
+	private final long executed;
+	private CountingInputStream body;
+	private boolean closed;
+
+	InstrumentedClientHttpResponse(ClientHttpResponse response, RequestMetrics metrics, long start, long executed) {
+		this.response = response;
+		this.metrics = metrics;
+		this.start = start;
+		this.executed = executed;
+	}
+
+	@Override
+	public HttpStatus getStatusCode() throws IOException {
+		return this.response.getStatusCode();
+	}
+
+	@Override
+	public int getRawStatusCode() throws IOException {
+		return this.response.getRawStatusCode();
+	}
+
+	@Override
+	public String getStatusText() throws IOException {
+		return this.response.getStatusText();
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		return this.response.getHeaders();
+	}
+
+	@Override
+	public InputStream getBody() throws IOException {
+		if (this.body == null) {
+			this.body = new CountingInputStream(this.response.getBody());
+		}
+		return this.body;
+	}
+
+	@Override
+	public void close() {
+		try {
+			this.response.close();
+		} finally {
+			if (!this.closed) {
+				this.closed = true;
+				this.metrics.responseClosed(System.nanoTime() - this.executed, this.body != null ? this.body.count : 0);
+			}
+		}
+	}
+
+
+	/**
+	 * Counts the bytes of the response body and records the arrival of the first byte.
+	 */
+	private final class CountingInputStream extends InputStream {
+
+		private final InputStream in;
+		long count;
+
+		CountingInputStream(InputStream in) {
+			this.in = in;
+		}
+
+		private void count(long n) {
+			if (n > 0) {
+				if (this.count == 0) {
+					InstrumentedClientHttpResponse.this.metrics.firstByteReceived(System.nanoTime() - InstrumentedClientHttpResponse.this.start);
+				}
+				this.count += n;
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = this.in.read();
+			count(b >= 0 ? 1 : 0);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			final int n = this.in.read(b, off, len);
+			count(n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			final long skipped = this.in.skip(n);
+			count(skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return this.in.available();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.in.close();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link InstrumentedClientHttpRequest} for requests that accept a {@linkplain StreamingHttpOutputMessage streaming body}.
+ *
+ * @author Joern Horstmann
+ * @see InstrumentedClientHttpRequestFactory
+ */
+final class InstrumentedStreamingClientHttpRequest extends InstrumentedClientHttpRequest implements StreamingHttpOutputMessage {
+
+	InstrumentedStreamingClientHttpRequest(ClientHttpRequest request, RequestMetrics metrics) {
+		super(request, metrics);
+	}
+
+	@Override
+	public void setBody(final Body body) {
+		((StreamingHttpOutputMessage) this.request).setBody(new Body() {
+			@Override
+			public void writeTo(OutputStream outputStream) throws IOException {
+				final CountingOutputStream counting = new CountingOutputStream(outputStream);
+				try {
+					body.writeTo(counting);
+				} finally {
+					InstrumentedStreamingClientHttpRequest.this.bytesSent += counting.count;
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.MultiValueMap;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Base class for a {@link MultiValueMap} view of the headers of an underlying client response,
+ * to be wrapped using the {@link HttpHeaders#HttpHeaders(MultiValueMap)} constructor.
+ *
+ * <p>Lookups of single headers via {@link #getFirst(Object) getFirst}, {@link #get(Object) get}
+ * and {@link #containsKey(Object) containsKey} read directly from the underlying response without
+ * copying its headers. {@link #remove(Object) Removing} a header only hides it from these lookups,
+ * so that adapting the headers of a decompressed response does not require a copy. All other
+ * operations, including iteration and any other modification, first copy all headers into a
+ * regular {@link HttpHeaders} instance and then delegate to that copy.
+ *
+ * <p>Lists returned by {@code get} before the copy was made can not be modified. The view itself
+ * is not serializable, {@code HttpHeaders} wrapping it serialize a copy instead.
+ *
+ * @author Joern Horstmann
+ */
+public abstract class LazyHeaderMap implements MultiValueMap<String, String> {
+
+	private HttpHeaders copy;
+
+	private Set<String> removed;
+
+	/**
+	 * Return the first value of the given header from the underlying response, or {@code null} if none.
+	 * @param name the header name, to be compared case-insensitively
+	 */
+	protected abstract String getFirstValue(String name);
+
+	/**
+	 * Return all values of the given header from the underlying response, or an empty list if none.
+	 * @param name the header name, to be compared case-insensitively
+	 */
+	protected abstract List<String> getValues(String name);
+
+	/**
+	 * Add all headers of the underlying response to the given instance.
+	 */
+	protected abstract void copyTo(HttpHeaders headers);
+
+	/**
+	 * Return whether all headers were copied already.
+	 */
+	protected final boolean isCopied() {
+		return this.copy != null;
+	}
+
+	private HttpHeaders copy() {
+		if (this.copy == null) {
+			final HttpHeaders headers = new HttpHeaders();
+			copyTo(headers);
+			if (this.removed != null) {
+				for (String name : this.removed) {
+					headers.remove(name);
+				}
+				this.removed = null;
+			}
+			this.copy = headers;
+		}
+		return this.copy;
+	}
+
+	private boolean isRemoved(Object key) {
+		return (this.removed != null && key instanceof String && this.removed.contains(key));
+	}
+
+	// lazy lookups and removals
+
+	@Override
+	public String getFirst(String key) {
+		if (this.copy != null) {
+			return this.copy.getFirst(key);
+		}
+		return (isRemoved(key) ? null : getFirstValue(key));
+	}
+
+	@Override
+	public List<String> get(Object key) {
+		if (this.copy != null) {
+			return this.copy.get(key);
+		}
+		if (!(key instanceof String) || isRemoved(key)) {
+			return null;
+		}
+		final List<String> values = getValues((String) key);
+		return (values.isEmpty() ? null : Collections.unmodifiableList(values));
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if (this.copy != null) {
+			return this.copy.containsKey(key);
+		}
+		return (key instanceof String && !isRemoved(key) && getFirstValue((String) key) != null);
+	}
+
+	@Override
+	public List<String> remove(Object key) {
+		if (this.copy != null) {
+			return this.copy.remove(key);
+		}
+		final List<String> values = get(key);
+		if (values != null) {
+			if (this.removed == null) {
+				this.removed = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+			}
+			this.removed.add((String) key);
+		}
+		return values;
+	}
+
+	// operations on the copy
+
+	@Override
+	public int size() {
+		return copy().size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return copy().isEmpty();
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		return copy().containsValue(value);
+	}
+
+	@Override
+	public List<String> put(String key, List<String> value) {
+		return copy().put(key, value);
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends List<String>> map) {
+		copy().putAll(map);
+	}
+
+	@Override
+	public void clear() {
+		copy().clear();
+	}
+
+	@Override
+	public Set<String> keySet() {
+		return copy().keySet();
+	}
+
+	@Override
+	public Collection<List<String>> values() {
+		return copy().values();
+	}
+
+	@Override
+	public Set<Entry<String, List<String>>> entrySet() {
+		return copy().entrySet();
+	}
+
+	@Override
+	public void add(String key, String value) {
+		copy().add(key, value);
+	}
+
+	@Override
+	public void set(String key, String value) {
+		copy().set(key, value);
+	}
+
+	@Override
+	public void setAll(Map<String, String> values) {
+		copy().setAll(values);
+	}
+
+	@Override
+	public Map<String, String> toSingleValueMap() {
+		return copy().toSingleValueMap();
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (other instanceof LazyHeaderMap) {
+			return copy().equals(((LazyHeaderMap) other).copy());
+		}
+		// compare from the other side, HttpHeaders are only equal to other HttpHeaders
+		return (other instanceof Map && other.equals(copy()));
+	}
+
+	@Override
+	public int hashCode() {
+		return copy().hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return copy().toString();
+	}
+
+}
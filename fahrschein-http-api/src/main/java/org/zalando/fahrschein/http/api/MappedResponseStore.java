@@ -0,0 +1,571 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.HttpHeaders;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * {@link ResponseStore} persisting responses in memory-mapped segment files, so cached responses
+ * survive a restart of the application.
+ *
+ * <p>The store directory holds a fixed number of segment files of equal size, their total size is the
+ * maximum size on disk. Responses and removals are appended as checksummed records to the newest segment.
+ * An index in direct memory maps the hash of each key to its latest record and is rebuilt by scanning the
+ * segments when the store is opened; records after a damaged one, for example written partially when the
+ * application crashed, are ignored.
+ *
+ * <p>Once the newest segment is full, a new segment is created and the oldest one is removed. Entries of the
+ * oldest segment that were read since they were written are first compacted into the new segment, up to
+ * half its size, the others are evicted. Bodies of responses returned by {@link #get(String)} are read-only
+ * views of the mapped segment, they are not copied onto the heap. Segment files are never modified after
+ * their records were written, and removed segments stay mapped until their responses are no longer referenced,
+ * so these views remain valid.
+ *
+ * <p>Each key has a single entry, the request headers nominated by its {@code Vary} header are stored with
+ * the response and matched by the {@link CachingClientHttpRequestFactory}. A directory can only be used
+ * by one store at a time.
+ *
+ * @author Joern Horstmann
+ * @see CachingClientHttpRequestFactory
+ */
+public final class MappedResponseStore implements ResponseStore, Closeable {
+
+	private static final int DEFAULT_SEGMENT_COUNT = 8;
+	private static final int MIN_SEGMENT_SIZE = 64 * 1024;
+
+	private static final long SEGMENT_MAGIC = 0x4668727343616368L;
+	private static final int SEGMENT_VERSION = 1;
+	private static final int SEGMENT_HEADER_SIZE = 24;
+	private static final String SEGMENT_SUFFIX = ".segment";
+
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final byte RECORD_RESPONSE = 1;
+	private static final byte RECORD_REMOVAL = 2;
+
+	private static final int COPY_BUFFER_SIZE = 8192;
+
+	private final Path directory;
+	private final int segmentCount;
+	private final int segmentSize;
+	private final int maxRecordSize;
+	private final FileChannel lockChannel;
+
+	// guarded by this
+	private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+	private final Segment[] segmentsByIndex;
+	private final ResponseIndex index = new ResponseIndex(1024);
+	private boolean closed;
+
+	/**
+	 * Open a {@code MappedResponseStore} with 8 segment files.
+	 * @param directory the directory for the segment files, which is created if it does not exist
+	 * @param maxSize the size of all segment files in bytes, at least 512 KiB and at most 16 GiB
+	 * @throws IOException if the directory cannot be created, read or locked
+	 */
+	public MappedResponseStore(Path directory, long maxSize) throws IOException {
+		this(directory, maxSize, DEFAULT_SEGMENT_COUNT);
+	}
+
+	/**
+	 * Open a {@code MappedResponseStore}.
+	 * <p>Existing segment files with a different size are deleted, as are the oldest segments
+	 * if there are more than the given number.
+	 * @param directory the directory for the segment files, which is created if it does not exist
+	 * @param maxSize the size of all segment files in bytes
+	 * @param segmentCount the number of segment files, at least 2. Responses larger than half a segment
+	 * are not stored, each segment must be between 64 KiB and 2 GiB.
+	 * @throws IOException if the directory cannot be created, read or locked
+	 */
+	public MappedResponseStore(Path directory, long maxSize, int segmentCount) throws IOException {
+		if (directory == null) {
+			throw new IllegalArgumentException("Directory must not be null");
+		}
+		if (segmentCount < 2) {
+			throw new IllegalArgumentException("Segment count must be at least 2");
+		}
+		final long segmentSize = maxSize / segmentCount;
+		if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Segment size must be between 64 KiB and 2 GiB, but is " + segmentSize);
+		}
+		this.directory = directory;
+		this.segmentCount = segmentCount;
+		this.segmentSize = (int) segmentSize;
+		this.maxRecordSize = (this.segmentSize - SEGMENT_HEADER_SIZE) / 2;
+		this.segmentsByIndex = new Segment[segmentCount];
+
+		Files.createDirectories(directory);
+		this.lockChannel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			FileLock lock;
+			try {
+				lock = this.lockChannel.tryLock();
+			}
+			catch (OverlappingFileLockException ex) {
+				lock = null;
+			}
+			if (lock == null) {
+				throw new IOException("Directory is used by another response store: " + directory);
+			}
+			load();
+		}
+		catch (IOException | RuntimeException ex) {
+			this.lockChannel.close();
+			throw ex;
+		}
+	}
+
+	private void load() throws IOException {
+		final List<Segment> found = new ArrayList<>();
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(this.directory, "*" + SEGMENT_SUFFIX)) {
+			for (Path path : paths) {
+				final Segment segment = Files.size(path) == this.segmentSize ? openSegment(path) : null;
+				if (segment != null) {
+					found.add(segment);
+				}
+				else {
+					deleteSegmentFile(path);
+				}
+			}
+		}
+		Collections.sort(found, new Comparator<Segment>() {
+			@Override
+			public int compare(Segment s1, Segment s2) {
+				return Long.compare(s1.sequence, s2.sequence);
+			}
+		});
+		final long newest = found.isEmpty() ? 0 : found.get(found.size() - 1).sequence;
+		for (Segment segment : found) {
+			if (segment.sequence > newest - this.segmentCount) {
+				addSegment(segment, freeIndex());
+				scan(segment);
+			}
+			else {
+				deleteSegmentFile(segment.path);
+			}
+		}
+		if (this.segments.isEmpty()) {
+			addSegment(createSegment(0), freeIndex());
+		}
+	}
+
+	private Segment openSegment(Path path) throws IOException {
+		final MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+		}
+		if (buffer.getLong(0) != SEGMENT_MAGIC || buffer.getInt(8) != SEGMENT_VERSION || buffer.getLong(16) < 0) {
+			return null;
+		}
+		return new Segment(path, buffer.getLong(16), buffer);
+	}
+
+	private Segment createSegment(long sequence) throws IOException {
+		final Path path = this.directory.resolve(String.format("%016x", sequence) + SEGMENT_SUFFIX);
+		final MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+		}
+		buffer.putLong(0, SEGMENT_MAGIC);
+		buffer.putInt(8, SEGMENT_VERSION);
+		buffer.putLong(16, sequence);
+		return new Segment(path, sequence, buffer);
+	}
+
+	/**
+	 * Add a segment as the newest one, at the given position of the index.
+	 */
+	private void addSegment(Segment segment, int index) {
+		segment.index = index;
+		this.segments.addLast(segment);
+		this.segmentsByIndex[index] = segment;
+	}
+
+	/**
+	 * Return an index position that is not used by any segment.
+	 */
+	private int freeIndex() {
+		for (int i = 0; i < this.segmentsByIndex.length; i++) {
+			if (this.segmentsByIndex[i] == null) {
+				return i;
+			}
+		}
+		throw new IllegalStateException("All segments are in use");
+	}
+
+	private static void deleteSegmentFile(Path path) {
+		try {
+			Files.deleteIfExists(path);
+		}
+		catch (IOException ex) {
+			// the file might still be mapped on some platforms
+			path.toFile().deleteOnExit();
+		}
+	}
+
+	/**
+	 * Add the valid records of a segment to the index, and set the position for appending after them.
+	 */
+	private void scan(Segment segment) throws IOException {
+		final ByteBuffer buffer = segment.buffer;
+		final byte[] copyBuffer = new byte[COPY_BUFFER_SIZE];
+		int offset = SEGMENT_HEADER_SIZE;
+		while (offset + RECORD_HEADER_SIZE <= this.segmentSize) {
+			final int length = buffer.getInt(offset);
+			if (length <= 0 || length > this.segmentSize - offset - RECORD_HEADER_SIZE
+					|| buffer.getInt(offset + 4) != checksum(buffer, offset + RECORD_HEADER_SIZE, length, copyBuffer)) {
+				break;
+			}
+			final DataInputStream in = new DataInputStream(new ByteBufferInputStream(recordData(segment, offset)));
+			final byte type = in.readByte();
+			final long hash = ResponseIndex.hash(in.readUTF());
+			if (type == RECORD_RESPONSE) {
+				this.index.put(hash, segment.index, offset);
+			}
+			else {
+				this.index.remove(hash);
+			}
+			offset += RECORD_HEADER_SIZE + length;
+		}
+		segment.position = offset;
+	}
+
+	private static int checksum(ByteBuffer buffer, int offset, int length, byte[] copyBuffer) {
+		final ByteBuffer source = buffer.duplicate();
+		source.position(offset);
+		source.limit(offset + length);
+		final CRC32 crc = new CRC32();
+		while (source.hasRemaining()) {
+			final int n = Math.min(copyBuffer.length, source.remaining());
+			source.get(copyBuffer, 0, n);
+			crc.update(copyBuffer, 0, n);
+		}
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Return a buffer over the data of the record at the given offset.
+	 */
+	private static ByteBuffer recordData(Segment segment, int offset) {
+		final ByteBuffer record = segment.buffer.duplicate();
+		record.position(offset + RECORD_HEADER_SIZE);
+		record.limit(offset + RECORD_HEADER_SIZE + segment.buffer.getInt(offset));
+		return record;
+	}
+
+	private void checkOpen() {
+		if (this.closed) {
+			throw new IllegalStateException("Response store was closed");
+		}
+	}
+
+	@Override
+	public synchronized CachedResponse get(String key) {
+		checkOpen();
+		final int slot = this.index.find(ResponseIndex.hash(key));
+		if (slot < 0) {
+			return null;
+		}
+		final Segment segment = this.segmentsByIndex[this.index.segmentAt(slot)];
+		final int offset = this.index.offsetAt(slot);
+		final CachedResponse response;
+		try {
+			response = readResponse(segment, offset, key);
+		}
+		catch (IOException | RuntimeException ex) {
+			// treat records that cannot be read as missing
+			this.index.remove(ResponseIndex.hash(key));
+			return null;
+		}
+		if (response != null) {
+			this.index.setAccessed(slot);
+		}
+		return response;
+	}
+
+	private static CachedResponse readResponse(Segment segment, int offset, String key) throws IOException {
+		final ByteBuffer record = recordData(segment, offset);
+		final DataInputStream in = new DataInputStream(new ByteBufferInputStream(record));
+		in.readByte();
+		if (!key.equals(in.readUTF())) {
+			// a different key with the same hash
+			return null;
+		}
+		final long requestTime = in.readLong();
+		final long responseTime = in.readLong();
+		final int statusCode = in.readInt();
+		final String statusText = in.readUTF();
+		final HttpHeaders headers = new HttpHeaders();
+		for (int i = in.readInt(); i > 0; i--) {
+			final String name = in.readUTF();
+			for (int j = in.readInt(); j > 0; j--) {
+				headers.add(name, in.readUTF());
+			}
+		}
+		final Map<String, String> varyHeaders = new LinkedHashMap<>();
+		for (int i = in.readInt(); i > 0; i--) {
+			final String name = in.readUTF();
+			varyHeaders.put(name, in.readBoolean() ? in.readUTF() : null);
+		}
+		// the body is the remainder of the record
+		return new CachedResponse(statusCode, statusText, headers, varyHeaders, record, requestTime, responseTime);
+	}
+
+	@Override
+	public synchronized void put(String key, CachedResponse response) {
+		if (response == null) {
+			throw new IllegalArgumentException("CachedResponse must not be null");
+		}
+		checkOpen();
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+		try {
+			final DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(RECORD_RESPONSE);
+			out.writeUTF(key);
+			out.writeLong(response.getRequestTime());
+			out.writeLong(response.getResponseTime());
+			out.writeInt(response.getStatusCode());
+			out.writeUTF(response.getStatusText());
+			final HttpHeaders headers = response.getHeaders();
+			out.writeInt(headers.size());
+			for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue().size());
+				for (String value : entry.getValue()) {
+					out.writeUTF(value != null ? value : "");
+				}
+			}
+			out.writeInt(response.getVaryHeaders().size());
+			for (Map.Entry<String, String> entry : response.getVaryHeaders().entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeBoolean(entry.getValue() != null);
+				if (entry.getValue() != null) {
+					out.writeUTF(entry.getValue());
+				}
+			}
+		}
+		catch (IOException ex) {
+			// strings longer than 64 KiB in their encoded form
+			remove(key);
+			return;
+		}
+		final ByteBuffer body = response.getBody();
+		if (RECORD_HEADER_SIZE + (long) bytes.size() + body.remaining() > this.maxRecordSize) {
+			remove(key);
+			return;
+		}
+		final long hash = ResponseIndex.hash(key);
+		final Segment segment = append(bytes.toByteArray(), body);
+		if (segment != null) {
+			this.index.put(hash, segment.index, segment.lastOffset);
+		}
+		else {
+			this.index.remove(hash);
+		}
+	}
+
+	@Override
+	public synchronized void remove(String key) {
+		checkOpen();
+		final long hash = ResponseIndex.hash(key);
+		final int slot = this.index.find(hash);
+		if (slot < 0) {
+			return;
+		}
+		final Segment segment = this.segmentsByIndex[this.index.segmentAt(slot)];
+		try {
+			final DataInputStream in = new DataInputStream(new ByteBufferInputStream(recordData(segment, this.index.offsetAt(slot))));
+			in.readByte();
+			if (!key.equals(in.readUTF())) {
+				// keep the entry of a different key with the same hash
+				return;
+			}
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream(key.length() + 8);
+			final DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(RECORD_REMOVAL);
+			out.writeUTF(key);
+			append(bytes.toByteArray(), null);
+		}
+		catch (IOException | RuntimeException ex) {
+			// records that cannot be read are only removed from the index
+		}
+		this.index.remove(hash);
+	}
+
+	/**
+	 * Append a record to the newest segment, creating a new segment if it is full.
+	 * @return the segment containing the record at its {@link Segment#lastOffset}, or {@code null}
+	 * if no new segment could be created
+	 */
+	private Segment append(byte[] header, ByteBuffer body) {
+		final int length = header.length + (body != null ? body.remaining() : 0);
+		Segment segment = this.segments.peekLast();
+		if (segment.position + RECORD_HEADER_SIZE + length > this.segmentSize) {
+			try {
+				segment = rollSegment();
+			}
+			catch (IOException ex) {
+				// keep using the full segment, responses are not stored until a segment can be created
+				return null;
+			}
+		}
+		final int offset = segment.position;
+		final ByteBuffer target = segment.buffer.duplicate();
+		target.position(offset + RECORD_HEADER_SIZE);
+		target.put(header);
+		final CRC32 crc = new CRC32();
+		crc.update(header, 0, header.length);
+		if (body != null) {
+			final byte[] copyBuffer = new byte[Math.min(COPY_BUFFER_SIZE, Math.max(1, body.remaining()))];
+			while (body.hasRemaining()) {
+				final int n = Math.min(copyBuffer.length, body.remaining());
+				body.get(copyBuffer, 0, n);
+				target.put(copyBuffer, 0, n);
+				crc.update(copyBuffer, 0, n);
+			}
+		}
+		target.putInt(offset + 4, (int) crc.getValue());
+		// the length is written last, marking the record as complete
+		target.putInt(offset, length);
+		segment.position = offset + RECORD_HEADER_SIZE + length;
+		segment.lastOffset = offset;
+		return segment;
+	}
+
+	/**
+	 * Create a new segment. If all segments are in use, the recently read entries of the oldest segment
+	 * are copied into the new segment and the oldest segment is removed.
+	 */
+	private Segment rollSegment() throws IOException {
+		final Segment newest = this.segments.peekLast();
+		newest.buffer.force();
+		final Segment created = createSegment(newest.sequence + 1);
+		if (this.segments.size() < this.segmentCount) {
+			addSegment(created, freeIndex());
+			return created;
+		}
+		final Segment oldest = this.segments.pollFirst();
+		// the new segment takes the index position of the oldest one, updating the offsets suffices
+		int position = SEGMENT_HEADER_SIZE;
+		final int maxPosition = SEGMENT_HEADER_SIZE + this.maxRecordSize;
+		for (long hash : this.index.hashesInSegment(oldest.index)) {
+			final int slot = this.index.find(hash);
+			final int offset = this.index.offsetAt(slot);
+			final int recordSize = RECORD_HEADER_SIZE + oldest.buffer.getInt(offset);
+			if (this.index.isAccessed(slot) && position + recordSize <= maxPosition) {
+				final ByteBuffer record = oldest.buffer.duplicate();
+				record.position(offset);
+				record.limit(offset + recordSize);
+				final ByteBuffer target = created.buffer.duplicate();
+				target.position(position);
+				target.put(record);
+				this.index.put(hash, oldest.index, position);
+				position += recordSize;
+			}
+			else {
+				this.index.remove(hash);
+			}
+		}
+		created.position = position;
+		addSegment(created, oldest.index);
+		deleteSegmentFile(oldest.path);
+		return created;
+	}
+
+	/**
+	 * Return the number of stored responses.
+	 */
+	public synchronized int getEntryCount() {
+		return this.index.size();
+	}
+
+	/**
+	 * Return the size of all segment files in bytes.
+	 */
+	public synchronized long getSize() {
+		return (long) this.segments.size() * this.segmentSize;
+	}
+
+	/**
+	 * Return the maximum size of all segment files in bytes.
+	 */
+	public long getMaxSize() {
+		return (long) this.segmentCount * this.segmentSize;
+	}
+
+	/**
+	 * Write all records to disk and release the store directory.
+	 * Responses returned before remain readable.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		try {
+			this.segments.peekLast().buffer.force();
+		}
+		finally {
+			this.lockChannel.close();
+		}
+	}
+
+
+	/**
+	 * A mapped segment file.
+	 */
+	private static final class Segment {
+
+		final Path path;
+		final long sequence;
+		final MappedByteBuffer buffer;
+		int index;
+		int position;
+		int lastOffset;
+
+		Segment(Path path, long sequence, MappedByteBuffer buffer) {
+			this.path = path;
+			this.sequence = sequence;
+			this.buffer = buffer;
+			this.position = SEGMENT_HEADER_SIZE;
+		}
+	}
+}
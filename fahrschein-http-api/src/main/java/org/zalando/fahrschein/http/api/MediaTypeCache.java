@@ -0,0 +1,168 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of parsed {@link MediaType} instances, keyed by the parsed string, used by
+ * {@link MediaType#parseMediaType(String)} and with it by {@link HttpHeaders#getContentType()}
+ * and {@link HttpHeaders#getAccept()}.
+ *
+ * <p>Responses of an API usually carry one of a handful of {@code Content-Type} values, parsing them
+ * once avoids tokenizing, validating and building the parameter map for every response. The values
+ * of the media type constants, for example {@link MediaType#APPLICATION_JSON_VALUE}, always resolve
+ * to the constant itself. Since {@code MediaType} instances are immutable, they can be shared.
+ *
+ * <p>The cache holds at most {@value #MAX_SIZE} values and is cleared completely when it is full,
+ * so that unexpected or malicious values can not grow it. Values that fail to parse are not cached.
+ * The cache is enabled by default, its {@linkplain #getHitRate() hit rate} shows whether it is effective.
+ *
+ * @author Joern Horstmann
+ * @see MediaType#parseMediaType(String)
+ */
+public final class MediaTypeCache {
+
+	/**
+	 * The maximum number of cached values, not counting the media type constants.
+	 */
+	public static final int MAX_SIZE = 256;
+
+	private static final MediaTypeCache DEFAULT = new MediaTypeCache();
+
+	private final ConcurrentMap<String, MediaType> constants = new ConcurrentHashMap<String, MediaType>(32);
+	private final ConcurrentMap<String, MediaType> cache = new ConcurrentHashMap<String, MediaType>(64);
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private volatile boolean enabled = true;
+
+	private MediaTypeCache() {
+	}
+
+	/**
+	 * Return the cache used by {@link MediaType#parseMediaType(String)}.
+	 */
+	public static MediaTypeCache getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Register the canonical instance of a media type constant, called while initializing {@link MediaType}.
+	 * @param value the value of the constant
+	 * @param mediaType the constant
+	 */
+	public void registerConstant(String value, MediaType mediaType) {
+		this.constants.put(value, mediaType);
+	}
+
+	/**
+	 * Return the media type constant or the cached media type for the given value,
+	 * counting a hit if there is one and a miss otherwise.
+	 * @param value the unparsed value
+	 * @return the media type, or {@code null} if the value has to be parsed
+	 */
+	public MediaType get(String value) {
+		MediaType mediaType = this.constants.get(value);
+		if (mediaType == null && this.enabled) {
+			mediaType = this.cache.get(value);
+		}
+		if (mediaType != null) {
+			this.hits.incrementAndGet();
+		}
+		else {
+			this.misses.incrementAndGet();
+		}
+		return mediaType;
+	}
+
+	/**
+	 * Cache the media type parsed from the given value, unless caching is disabled.
+	 * @param value the unparsed value
+	 * @param mediaType the media type parsed from the value
+	 */
+	public void put(String value, MediaType mediaType) {
+		if (this.enabled) {
+			if (this.cache.size() >= MAX_SIZE) {
+				this.cache.clear();
+			}
+			this.cache.put(value, mediaType);
+		}
+	}
+
+	/**
+	 * Enable or disable caching of parsed values, disabling also clears the cache.
+	 * The media type constants are resolved either way.
+	 * <p>Default is {@code true}.
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+		if (!enabled) {
+			this.cache.clear();
+		}
+	}
+
+	/**
+	 * Return whether parsed values are cached.
+	 */
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * Remove all cached values, keeping the media type constants.
+	 */
+	public void clear() {
+		this.cache.clear();
+	}
+
+	/**
+	 * Return the number of cached values, not counting the media type constants.
+	 */
+	public int size() {
+		return this.cache.size();
+	}
+
+	/**
+	 * Return the number of parses that were answered from the cache or by a constant.
+	 */
+	public long getHitCount() {
+		return this.hits.get();
+	}
+
+	/**
+	 * Return the number of parses that had to parse the value.
+	 */
+	public long getMissCount() {
+		return this.misses.get();
+	}
+
+	/**
+	 * Return the fraction of parses that were answered from the cache or by a constant,
+	 * or {@code NaN} if nothing was parsed yet.
+	 */
+	public double getHitRate() {
+		final long hits = this.hits.get();
+		final long total = hits + this.misses.get();
+		return total == 0 ? Double.NaN : (double) hits / total;
+	}
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.HttpMethod;
+
+/**
+ * Service provider interface for recording metrics of the requests executed through an
+ * {@link InstrumentedClientHttpRequestFactory}.
+ *
+ * <p>Metrics are tagged by host and method. The request factory asks for the {@link RequestMetrics} of
+ * each combination once and caches them, so implementations can register their meters up front and
+ * record measurements without further lookups. Implementations have to be thread-safe, and may be
+ * asked for the same combination more than once when requests are created concurrently.
+ *
+ * @author Joern Horstmann
+ * @see InstrumentedClientHttpRequestFactory
+ */
+public interface MetricsRecorder {
+
+	/**
+	 * Return the metrics for requests with the given method to the given host.
+	 * @param host the host of the request URI, or an empty string for URIs without host
+	 * @param method the request method
+	 * @return the metrics to record measurements to
+	 */
+	RequestMetrics getRequestMetrics(String host, HttpMethod method);
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+
+/**
+ * Unsynchronized alternative to {@link java.io.ByteArrayOutputStream} that takes its buffers from a
+ * {@link BufferPool}. The stream grows by switching to a buffer of the next size class, returning the
+ * previous buffer to the pool.
+ *
+ * <p>The buffered data can be accessed without copying via {@link #getBuffer()} and {@link #size()}.
+ * After the data was sent the stream has to be {@linkplain #release() released}, which returns the
+ * buffer to the pool and records the body size for the request uri, if one was given.
+ *
+ * @author Joern Horstmann
+ */
+public final class PooledByteArrayOutputStream extends OutputStream {
+
+	private final BufferPool pool;
+	private final URI uri;
+	private byte[] buffer;
+	private int count;
+
+	/**
+	 * Create a new stream buffering a request body for the given uri. The initial buffer size is
+	 * chosen based on the body sizes recently seen for that uri.
+	 * @param pool the pool to take buffers from
+	 * @param uri the request uri
+	 */
+	public PooledByteArrayOutputStream(BufferPool pool, URI uri) {
+		this.pool = pool;
+		this.uri = uri;
+		this.buffer = pool.acquire(pool.sizeHint(uri));
+	}
+
+	/**
+	 * Create a new stream with the given initial size. The size of the data is not recorded
+	 * when releasing the stream.
+	 * @param pool the pool to take buffers from
+	 * @param initialSize the initial buffer size
+	 */
+	public PooledByteArrayOutputStream(BufferPool pool, int initialSize) {
+		this.pool = pool;
+		this.uri = null;
+		this.buffer = pool.acquire(initialSize);
+	}
+
+	private void ensureCapacity(int minCapacity) throws IOException {
+		if (this.buffer == null) {
+			throw new IOException("Stream already released");
+		}
+		if (minCapacity < 0) {
+			throw new OutOfMemoryError("Request body too large");
+		}
+		if (minCapacity > this.buffer.length) {
+			final byte[] newBuffer = this.pool.acquire(Math.max(minCapacity, this.buffer.length << 1));
+			System.arraycopy(this.buffer, 0, newBuffer, 0, this.count);
+			this.pool.release(this.buffer);
+			this.buffer = newBuffer;
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureCapacity(this.count + 1);
+		this.buffer[this.count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		ensureCapacity(this.count + len);
+		System.arraycopy(b, off, this.buffer, this.count, len);
+		this.count += len;
+	}
+
+	/**
+	 * Write the buffered data to the given output stream.
+	 * @param out the stream to write to
+	 * @throws IOException in case of I/O errors
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		if (this.buffer == null) {
+			throw new IOException("Stream already released");
+		}
+		out.write(this.buffer, 0, this.count);
+	}
+
+	/**
+	 * Return the internal buffer, only the first {@link #size()} bytes contain valid data.
+	 * The buffer must not be used after the stream was {@linkplain #release() released}.
+	 */
+	public byte[] getBuffer() {
+		return this.buffer;
+	}
+
+	/**
+	 * Return the number of bytes written to this stream.
+	 */
+	public int size() {
+		return this.count;
+	}
+
+	/**
+	 * Return the buffer to the pool and record the body size. Further writes will fail,
+	 * calling this method more than once has no effect.
+	 */
+	public void release() {
+		if (this.buffer != null) {
+			if (this.uri != null) {
+				this.pool.recordSize(this.uri, this.count);
+			}
+			this.pool.release(this.buffer);
+			this.buffer = null;
+		}
+	}
+
+	/**
+	 * Closing a {@code PooledByteArrayOutputStream} has no effect, the buffered data is still
+	 * available until the stream is {@linkplain #release() released}.
+	 */
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.StreamingHttpOutputMessage;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Configuration for compressing request bodies using a content coding.
+ *
+ * <p>Bodies smaller than the minimum size are sent uncompressed, as are requests that
+ * already specify a {@code Content-Encoding}. Compressed bodies are either streamed to the
+ * connection or, for buffering requests, compressed into a pooled buffer.
+ *
+ * @author Joern Horstmann
+ * @see GzipRequestCompression
+ * @see #forCodec(ContentCodec, int)
+ */
+public abstract class RequestCompression {
+
+	static final int BUFFER_SIZE = 8192;
+
+	private final String contentEncoding;
+	private final int minSize;
+	private final BufferPool bufferPool;
+
+	protected RequestCompression(String contentEncoding, int minSize, BufferPool bufferPool) {
+		if (contentEncoding == null || contentEncoding.isEmpty()) {
+			throw new IllegalArgumentException("Content encoding must not be empty");
+		}
+		if (minSize < 0) {
+			throw new IllegalArgumentException("Minimum size must not be negative");
+		}
+		this.contentEncoding = contentEncoding;
+		this.minSize = minSize;
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Compress request bodies of at least {@code minSize} bytes using the given codec.
+	 * @param codec the content codec
+	 * @param minSize the minimum body size in bytes
+	 * @see ContentCodecs#get(String)
+	 */
+	public static RequestCompression forCodec(ContentCodec codec, int minSize) {
+		if (codec == null) {
+			throw new IllegalArgumentException("Codec must not be null");
+		}
+		return new CodecRequestCompression(codec, minSize, BufferPool.getDefault());
+	}
+
+	/**
+	 * Compress request bodies of at least {@code minSize} bytes using the codec registered for
+	 * the given content coding.
+	 * @param contentEncoding the content coding token, for example {@code "gzip"}
+	 * @param minSize the minimum body size in bytes
+	 * @throws IllegalArgumentException if no codec is available for the content coding
+	 */
+	public static RequestCompression forEncoding(String contentEncoding, int minSize) {
+		final ContentCodec codec = ContentCodecs.getDefault().get(contentEncoding);
+		if (codec == null) {
+			throw new IllegalArgumentException("No content codec available for [" + contentEncoding + "]");
+		}
+		return forCodec(codec, minSize);
+	}
+
+	/**
+	 * Return whether a body of the given size should be compressed, considering the headers of the request.
+	 * @param headers the request headers
+	 * @param contentLength the size of the body, or -1 if unknown
+	 */
+	public boolean shouldCompress(HttpHeaders headers, long contentLength) {
+		return !headers.containsKey(HttpHeaders.CONTENT_ENCODING) && (contentLength < 0 || contentLength >= this.minSize);
+	}
+
+	/**
+	 * Return a stream that writes compressed data to the given stream.
+	 * <p>The returned stream has to be closed to finish the compressed data and return pooled resources,
+	 * which also closes the given stream.
+	 * @param out the stream to write compressed data to
+	 * @throws IOException in case of I/O errors
+	 */
+	public abstract OutputStream compressingStream(OutputStream out) throws IOException;
+
+	/**
+	 * Return a streaming body that writes the given body compressed. The output stream passed to
+	 * the returned body is not closed.
+	 * @param body the uncompressed body
+	 */
+	public StreamingHttpOutputMessage.Body compressingBody(final StreamingHttpOutputMessage.Body body) {
+		return new StreamingHttpOutputMessage.Body() {
+			@Override
+			public void writeTo(OutputStream outputStream) throws IOException {
+				final OutputStream compressed = compressingStream(new NonClosingOutputStream(outputStream));
+				boolean completed = false;
+				try {
+					body.writeTo(compressed);
+					compressed.close();
+					completed = true;
+				} finally {
+					if (!completed) {
+						abort(compressed);
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Release the resources of a compressing stream after writing to it failed, without finishing the compressed data
+	 * if possible. Failures while closing are ignored in favor of the original one.
+	 */
+	private static void abort(OutputStream compressed) {
+		if (compressed instanceof GzipCompressingOutputStream) {
+			((GzipCompressingOutputStream) compressed).release();
+		} else {
+			try {
+				compressed.close();
+			} catch (IOException | RuntimeException ignored) {
+				// the stream is discarded anyway
+			}
+		}
+	}
+
+	/**
+	 * Compress the given data into a new pooled buffer, which has to be released by the caller.
+	 * @param b the data
+	 * @param off the start offset in the data
+	 * @param len the number of bytes to compress
+	 * @throws IOException in case of I/O errors
+	 */
+	public PooledByteArrayOutputStream compress(byte[] b, int off, int len) throws IOException {
+		final PooledByteArrayOutputStream result = new PooledByteArrayOutputStream(this.bufferPool, Math.max(len / 4, BUFFER_SIZE));
+		try {
+			final OutputStream compressed = compressingStream(result);
+			boolean completed = false;
+			try {
+				compressed.write(b, off, len);
+				compressed.close();
+				completed = true;
+			} finally {
+				if (!completed) {
+					abort(compressed);
+				}
+			}
+		} catch (IOException e) {
+			result.release();
+			throw e;
+		} catch (RuntimeException e) {
+			result.release();
+			throw e;
+		}
+		return result;
+	}
+
+	/**
+	 * Set the headers for a compressed request body.
+	 * @param headers the request headers
+	 * @param compressedLength the length of the compressed body, or -1 if unknown
+	 */
+	public void applyHeaders(HttpHeaders headers, long compressedLength) {
+		headers.set(HttpHeaders.CONTENT_ENCODING, this.contentEncoding);
+		if (compressedLength >= 0) {
+			headers.setContentLength(compressedLength);
+		} else {
+			headers.remove(HttpHeaders.CONTENT_LENGTH);
+		}
+	}
+
+	/**
+	 * Return the content coding token used for compressed requests.
+	 */
+	public String getContentEncoding() {
+		return this.contentEncoding;
+	}
+
+	/**
+	 * Return the minimum size of bodies to compress.
+	 */
+	public int getMinSize() {
+		return this.minSize;
+	}
+
+	/**
+	 * Return the pool for compression buffers.
+	 */
+	protected BufferPool getBufferPool() {
+		return this.bufferPool;
+	}
+
+
+	/**
+	 * Request compression delegating to a {@link ContentCodec}.
+	 */
+	private static final class CodecRequestCompression extends RequestCompression {
+
+		private final ContentCodec codec;
+
+		CodecRequestCompression(ContentCodec codec, int minSize, BufferPool bufferPool) {
+			super(codec.getName(), minSize, bufferPool);
+			this.codec = codec;
+		}
+
+		@Override
+		public OutputStream compressingStream(OutputStream out) throws IOException {
+			return this.codec.encode(out);
+		}
+	}
+
+
+	/**
+	 * Output stream that does not close the wrapped stream, so the connection stays usable
+	 * after the compressed data was finished.
+	 */
+	private static final class NonClosingOutputStream extends FilterOutputStream {
+
+		NonClosingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Receives the measurements of requests with the same host and method.
+ *
+ * <p>For every executed request {@link #requestStarted()} is called, followed by either
+ * {@link #requestFailed(long, long)}, or by {@link #requestExecuted(long, long, HttpStatus.Series)}
+ * and {@link #responseClosed(long, long)} once the response is closed. {@link #firstByteReceived(long)}
+ * is called in between if the response has a body. Methods are called on the threads executing the requests
+ * and reading the responses and should not block or allocate.
+ *
+ * @author Joern Horstmann
+ * @see MetricsRecorder
+ */
+public interface RequestMetrics {
+
+	/**
+	 * A request starts executing, it is in flight until it failed or its response was closed.
+	 */
+	void requestStarted();
+
+	/**
+	 * A request was executed and its response headers were received.
+	 * @param executeNanos the time in nanoseconds spent executing the request, including sending the body
+	 * @param bytesSent the number of body bytes written by the application, before compression
+	 * @param series the status series of the response, or {@code null} for status codes outside all series
+	 */
+	void requestExecuted(long executeNanos, long bytesSent, HttpStatus.Series series);
+
+	/**
+	 * Executing a request failed with an exception, the request is no longer in flight.
+	 * @param executeNanos the time in nanoseconds until the request failed
+	 * @param bytesSent the number of body bytes written by the application, before compression
+	 */
+	void requestFailed(long executeNanos, long bytesSent);
+
+	/**
+	 * The first byte of the response body was read.
+	 * @param nanos the time in nanoseconds since the request started executing
+	 */
+	void firstByteReceived(long nanos);
+
+	/**
+	 * The response was closed, the request is no longer in flight.
+	 * @param bodyReadNanos the time in nanoseconds between receiving the response headers and closing the response
+	 * @param bytesReceived the number of body bytes read by the application, after decompression
+	 */
+	void responseClosed(long bodyReadNanos, long bytesReceived);
+
+}
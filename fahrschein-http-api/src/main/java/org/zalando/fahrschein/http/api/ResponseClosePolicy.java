@@ -0,0 +1,192 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether closing a response drains the remaining body, so that the connection can be
+ * reused, or aborts the connection.
+ *
+ * <p>By default the request factories abort the connection when a response is closed before the
+ * end of its body, which is the right choice for long-running event streams. For short responses
+ * this means that each request pays for a new connection, including the TLS handshake. With a
+ * {@linkplain #drain(long, long, TimeUnit) draining} policy the remaining body is read and discarded
+ * if it is known to be at most the given number of bytes, or turns out to be while draining, and its
+ * end arrives within the given time. Otherwise the connection is aborted.
+ *
+ * <p>The time limit is checked between reads, so a single blocking read can exceed it by up to the
+ * read timeout of the connection. Policies should therefore not be used for requests to streaming
+ * endpoints that might not send any data for a long time.
+ *
+ * <p>Each policy counts the closed responses by outcome, so the limits can be tuned based on the
+ * {@linkplain #getReuseRate() reuse rate}. A policy can be shared between request factories.
+ *
+ * @author Joern Horstmann
+ */
+public final class ResponseClosePolicy {
+
+	private static final int DRAIN_BUFFER_SIZE = 4096;
+
+	private final long maxDrainBytes;
+	private final long maxDrainNanos;
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong drained = new AtomicLong();
+	private final AtomicLong aborted = new AtomicLong();
+	private final AtomicLong drainedBytes = new AtomicLong();
+
+	private ResponseClosePolicy(long maxDrainBytes, long maxDrainNanos) {
+		this.maxDrainBytes = maxDrainBytes;
+		this.maxDrainNanos = maxDrainNanos;
+	}
+
+	/**
+	 * Return a policy that never drains, connections are only reused if the body was read up to its end.
+	 * <p>This is the behavior of the request factories without a configured policy, but additionally
+	 * records the statistics.
+	 */
+	public static ResponseClosePolicy abort() {
+		return new ResponseClosePolicy(0, 0);
+	}
+
+	/**
+	 * Return a policy that drains up to the given number of bytes within the given time.
+	 * @param maxDrainBytes the maximum number of remaining bytes to discard
+	 * @param maxDrainTime the maximum time to spend draining
+	 * @param unit the unit of the time limit
+	 */
+	public static ResponseClosePolicy drain(long maxDrainBytes, long maxDrainTime, TimeUnit unit) {
+		if (maxDrainBytes < 0) {
+			throw new IllegalArgumentException("Maximum number of drained bytes must not be negative");
+		}
+		if (maxDrainTime < 0) {
+			throw new IllegalArgumentException("Maximum drain time must not be negative");
+		}
+		if (unit == null) {
+			throw new IllegalArgumentException("TimeUnit must not be null");
+		}
+		return new ResponseClosePolicy(maxDrainBytes, unit.toNanos(maxDrainTime));
+	}
+
+	/**
+	 * Discard the remainder of the given body if this policy allows it.
+	 * <p>The stream is not closed, callers close it if the end was reached and abort the
+	 * connection otherwise. Exceptions while draining are propagated, the response then
+	 * counts as aborted. A body of unknown length is never read if this policy does not
+	 * allow draining, as the next read could block until more data arrives.
+	 * <p>Bodies that the application read up to their end or closed must not be passed
+	 * here, see {@link #recordCompleted()}.
+	 * @param body the undecoded response body, positioned after the data read by the application
+	 * @param remaining the number of bytes known to remain in the body, or -1 if unknown
+	 * @return {@code true} if the end of the body was reached and the connection can be reused
+	 * @throws IOException in case of I/O errors
+	 */
+	public boolean drain(InputStream body, long remaining) throws IOException {
+		if (remaining > this.maxDrainBytes || (remaining < 0 && this.maxDrainBytes == 0)) {
+			this.aborted.incrementAndGet();
+			return false;
+		}
+		final long deadline = System.nanoTime() + this.maxDrainNanos;
+		final BufferPool bufferPool = BufferPool.getDefault();
+		final byte[] buffer = bufferPool.acquire(DRAIN_BUFFER_SIZE);
+		long total = 0;
+		boolean reusable = false;
+		try {
+			while (true) {
+				// read one byte more than allowed to detect bodies exceeding the limit
+				final int n = body.read(buffer, 0, (int) Math.min(buffer.length, this.maxDrainBytes - total + 1));
+				if (n < 0) {
+					reusable = true;
+					return true;
+				}
+				total += n;
+				if (total > this.maxDrainBytes || System.nanoTime() - deadline > 0) {
+					return false;
+				}
+			}
+		} finally {
+			bufferPool.release(buffer);
+			if (!reusable) {
+				this.aborted.incrementAndGet();
+			} else if (total > 0) {
+				this.drained.incrementAndGet();
+				this.drainedBytes.addAndGet(total);
+			} else {
+				this.completed.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Record a response whose body was already read up to its end, or closed by the application,
+	 * when the response was closed. Its connection is reused without draining.
+	 * @see TrackingInputStream
+	 */
+	public void recordCompleted() {
+		this.completed.incrementAndGet();
+	}
+
+	/**
+	 * Record a response whose connection was aborted without draining, for example because
+	 * closing its body failed.
+	 */
+	public void recordAborted() {
+		this.aborted.incrementAndGet();
+	}
+
+	/**
+	 * Return the number of responses whose body was already read up to its end when closed.
+	 */
+	public long getCompletedCount() {
+		return this.completed.get();
+	}
+
+	/**
+	 * Return the number of responses whose remaining body was drained, allowing to reuse the connection.
+	 */
+	public long getDrainedCount() {
+		return this.drained.get();
+	}
+
+	/**
+	 * Return the number of responses whose connection was aborted.
+	 */
+	public long getAbortedCount() {
+		return this.aborted.get();
+	}
+
+	/**
+	 * Return the total number of bytes discarded while draining responses.
+	 */
+	public long getDrainedBytes() {
+		return this.drainedBytes.get();
+	}
+
+	/**
+	 * Return the fraction of closed responses whose connection could be reused, or {@code NaN}
+	 * if no response was closed yet.
+	 */
+	public double getReuseRate() {
+		final long aborted = this.aborted.get();
+		final long reused = this.completed.get() + this.drained.get();
+		return reused + aborted == 0 ? Double.NaN : (double) reused / (reused + aborted);
+	}
+}
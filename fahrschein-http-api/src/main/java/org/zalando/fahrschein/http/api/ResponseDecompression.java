@@ -0,0 +1,159 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.HttpHeaders;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Transparent decoding of compressed response bodies.
+ *
+ * <p>Requests advertise the supported codings via the {@code Accept-Encoding} header, unless
+ * that header was already set. Compressed responses are decoded while reading, and their
+ * {@code Content-Encoding} and {@code Content-Length} headers are removed since they no longer
+ * describe the decoded body. The {@code gzip} and {@code deflate} codings use pooled {@link Inflater}
+ * instances, all other codings are decoded by the matching {@link ContentCodec}.
+ *
+ * @author Joern Horstmann
+ * @see InflatingInputStream
+ * @see ContentCodecs
+ */
+public final class ResponseDecompression {
+
+	/**
+	 * The {@code deflate} content coding.
+	 */
+	public static final String DEFLATE = "deflate";
+
+	/**
+	 * The {@code Accept-Encoding} header value for the built-in codings.
+	 */
+	public static final String ACCEPT_ENCODING = GzipRequestCompression.GZIP + ", " + DEFLATE;
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final int MAX_POOLED_INFLATERS = Runtime.getRuntime().availableProcessors() * 4;
+
+	private static final ResponseDecompression DEFAULT = new ResponseDecompression(BufferPool.getDefault(), null);
+
+	private final BufferPool bufferPool;
+	private final InflaterPool inflaterPool;
+	private final ContentCodecs codecs;
+
+	private ResponseDecompression(BufferPool bufferPool, ContentCodecs codecs) {
+		this.bufferPool = bufferPool;
+		this.inflaterPool = new InflaterPool(MAX_POOLED_INFLATERS);
+		this.codecs = codecs;
+	}
+
+	/**
+	 * Return the shared instance used by the request factories, supporting all codecs of the
+	 * {@linkplain ContentCodecs#getDefault() default registry}.
+	 */
+	public static ResponseDecompression getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Return an instance supporting the codecs of the given registry.
+	 * @param codecs the codec registry
+	 */
+	public static ResponseDecompression forCodecs(ContentCodecs codecs) {
+		if (codecs == null) {
+			throw new IllegalArgumentException("Codecs must not be null");
+		}
+		return new ResponseDecompression(BufferPool.getDefault(), codecs);
+	}
+
+	private ContentCodecs getCodecs() {
+		return this.codecs != null ? this.codecs : ContentCodecs.getDefault();
+	}
+
+	/**
+	 * Add the {@code Accept-Encoding} header to the given request headers, unless already present.
+	 * @param requestHeaders the request headers
+	 */
+	public void applyRequestHeaders(HttpHeaders requestHeaders) {
+		if (!requestHeaders.containsKey(HttpHeaders.ACCEPT_ENCODING)) {
+			requestHeaders.set(HttpHeaders.ACCEPT_ENCODING, getCodecs().getAcceptEncoding());
+		}
+	}
+
+	/**
+	 * Remove the {@code Content-Encoding} and {@code Content-Length} headers from the given response headers,
+	 * if the body will be decoded.
+	 * @param responseHeaders the response headers
+	 */
+	public void applyResponseHeaders(HttpHeaders responseHeaders) {
+		if (supports(responseHeaders.getFirst(HttpHeaders.CONTENT_ENCODING))) {
+			responseHeaders.remove(HttpHeaders.CONTENT_ENCODING);
+			responseHeaders.remove(HttpHeaders.CONTENT_LENGTH);
+		}
+	}
+
+	/**
+	 * Return whether the given content coding can be decoded.
+	 * @param contentEncoding the value of the {@code Content-Encoding} header, may be {@code null}
+	 */
+	public boolean supports(String contentEncoding) {
+		return isGzip(contentEncoding) || isDeflate(contentEncoding) || getCodecs().get(contentEncoding) != null;
+	}
+
+	private static boolean isGzip(String contentEncoding) {
+		return contentEncoding != null && (GzipRequestCompression.GZIP.equalsIgnoreCase(contentEncoding.trim()) || "x-gzip".equalsIgnoreCase(contentEncoding.trim()));
+	}
+
+	private static boolean isDeflate(String contentEncoding) {
+		return contentEncoding != null && DEFLATE.equalsIgnoreCase(contentEncoding.trim());
+	}
+
+	/**
+	 * Return a stream decoding the given body according to the content coding, or the body
+	 * itself if the coding is not supported.
+	 * @param contentEncoding the value of the {@code Content-Encoding} header, may be {@code null}
+	 * @param body the response body
+	 * @throws IOException in case of I/O errors
+	 */
+	public InputStream decode(String contentEncoding, InputStream body) throws IOException {
+		if (isGzip(contentEncoding)) {
+			return inflate(body, true);
+		} else if (isDeflate(contentEncoding)) {
+			return inflate(body, false);
+		}
+		final ContentCodec codec = getCodecs().get(contentEncoding);
+		return codec != null ? codec.decode(body) : body;
+	}
+
+	InflatingInputStream inflate(InputStream body, boolean gzip) {
+		return new InflatingInputStream(body, this, gzip, this.inflaterPool.acquire(), this.bufferPool.acquire(BUFFER_SIZE));
+	}
+
+	void release(Inflater inflater, byte[] buffer) {
+		this.inflaterPool.release(inflater);
+		this.bufferPool.release(buffer);
+	}
+
+	/**
+	 * Free an inflater that was not used to the end of its data instead of pooling it, and pool the buffer.
+	 */
+	void discard(Inflater inflater, byte[] buffer) {
+		inflater.end();
+		this.bufferPool.release(buffer);
+	}
+}
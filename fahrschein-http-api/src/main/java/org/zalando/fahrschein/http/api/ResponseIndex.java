@@ -0,0 +1,197 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table in a direct buffer, mapping the 64 bit hash of a key to the segment and
+ * offset of the record stored for it.
+ *
+ * <p>Each slot consists of the hash, 0 for an empty slot, the segment with a flag in the sign bit
+ * recording whether the entry was accessed since it was written, and the offset. Collisions are
+ * resolved by linear probing, removals shift the following entries back instead of leaving tombstones.
+ * Not thread-safe.
+ *
+ * @author Joern Horstmann
+ * @see MappedResponseStore
+ */
+final class ResponseIndex {
+
+	private static final int SLOT_SIZE = 16;
+	private static final int ACCESSED = 0x80000000;
+
+	private ByteBuffer slots;
+	private int mask;
+	private int size;
+
+	ResponseIndex(int initialCapacity) {
+		final int capacity = Integer.highestOneBit(Math.max(16, initialCapacity - 1) << 1);
+		this.slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Return the FNV-1a hash of the given key, which is never 0.
+	 */
+	static long hash(String key) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash != 0 ? hash : 1;
+	}
+
+	private int home(long hash) {
+		return (int) ((hash * 0x9E3779B97F4A7C15L) >>> 32) & this.mask;
+	}
+
+	private long hashAt(int slot) {
+		return this.slots.getLong(slot * SLOT_SIZE);
+	}
+
+	/**
+	 * Return the number of entries.
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * Return the slot of the entry for the given hash, or -1 if there is none.
+	 */
+	int find(long hash) {
+		for (int slot = home(hash); ; slot = (slot + 1) & this.mask) {
+			final long h = hashAt(slot);
+			if (h == hash) {
+				return slot;
+			}
+			if (h == 0) {
+				return -1;
+			}
+		}
+	}
+
+	int segmentAt(int slot) {
+		return this.slots.getInt(slot * SLOT_SIZE + 8) & ~ACCESSED;
+	}
+
+	int offsetAt(int slot) {
+		return this.slots.getInt(slot * SLOT_SIZE + 12);
+	}
+
+	boolean isAccessed(int slot) {
+		return (this.slots.getInt(slot * SLOT_SIZE + 8) & ACCESSED) != 0;
+	}
+
+	void setAccessed(int slot) {
+		this.slots.putInt(slot * SLOT_SIZE + 8, this.slots.getInt(slot * SLOT_SIZE + 8) | ACCESSED);
+	}
+
+	/**
+	 * Set the location of the entry for the given hash, clearing its accessed flag.
+	 */
+	void put(long hash, int segment, int offset) {
+		if ((this.size + 1) * 2 > this.mask + 1) {
+			resize((this.mask + 1) * 2);
+		}
+		int slot = home(hash);
+		while (true) {
+			final long h = hashAt(slot);
+			if (h == hash) {
+				break;
+			}
+			if (h == 0) {
+				this.size++;
+				break;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+		final int base = slot * SLOT_SIZE;
+		this.slots.putLong(base, hash);
+		this.slots.putInt(base + 8, segment);
+		this.slots.putInt(base + 12, offset);
+	}
+
+	private void resize(int capacity) {
+		final ByteBuffer old = this.slots;
+		final int oldCapacity = this.mask + 1;
+		this.slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+		this.mask = capacity - 1;
+		for (int i = 0; i < oldCapacity; i++) {
+			final long hash = old.getLong(i * SLOT_SIZE);
+			if (hash != 0) {
+				int slot = home(hash);
+				while (hashAt(slot) != 0) {
+					slot = (slot + 1) & this.mask;
+				}
+				this.slots.putLong(slot * SLOT_SIZE, hash);
+				this.slots.putLong(slot * SLOT_SIZE + 8, old.getLong(i * SLOT_SIZE + 8));
+			}
+		}
+	}
+
+	/**
+	 * Remove the entry for the given hash, if any.
+	 */
+	void remove(long hash) {
+		int slot = find(hash);
+		if (slot < 0) {
+			return;
+		}
+		// shift back following entries that would no longer be found after emptying the slot
+		int next = slot;
+		while (true) {
+			next = (next + 1) & this.mask;
+			final long h = hashAt(next);
+			if (h == 0) {
+				break;
+			}
+			final int home = home(h);
+			final boolean between = slot <= next ? slot < home && home <= next : slot < home || home <= next;
+			if (!between) {
+				this.slots.putLong(slot * SLOT_SIZE, h);
+				this.slots.putLong(slot * SLOT_SIZE + 8, this.slots.getLong(next * SLOT_SIZE + 8));
+				slot = next;
+			}
+		}
+		this.slots.putLong(slot * SLOT_SIZE, 0);
+		this.slots.putLong(slot * SLOT_SIZE + 8, 0);
+		this.size--;
+	}
+
+	/**
+	 * Return the hashes of all entries located in the given segment.
+	 */
+	long[] hashesInSegment(int segment) {
+		long[] hashes = new long[16];
+		int count = 0;
+		for (int slot = 0; slot <= this.mask; slot++) {
+			final long hash = hashAt(slot);
+			if (hash != 0 && segmentAt(slot) == segment) {
+				if (count == hashes.length) {
+					hashes = Arrays.copyOf(hashes, count * 2);
+				}
+				hashes[count++] = hash;
+			}
+		}
+		return Arrays.copyOf(hashes, count);
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+/**
+ * Storage of cached responses for a {@link CachingClientHttpRequestFactory}.
+ *
+ * <p>Implementations must be thread-safe. Since {@link CachedResponse} instances are immutable,
+ * the same instance can be returned to concurrent callers. A store may decline or evict entries
+ * at any time, for example to stay within a size limit.
+ *
+ * @author Joern Horstmann
+ * @see InMemoryResponseStore
+ */
+public interface ResponseStore {
+
+	/**
+	 * Return the response stored under the given key.
+	 * @param key the key, consisting of the request method and URI
+	 * @return the stored response, or {@code null} if none
+	 */
+	CachedResponse get(String key);
+
+	/**
+	 * Store the given response, replacing any response stored under the same key.
+	 * @param key the key, consisting of the request method and URI
+	 * @param response the response to store
+	 */
+	void put(String key, CachedResponse response);
+
+	/**
+	 * Remove the response stored under the given key, if any.
+	 * @param key the key, consisting of the request method and URI
+	 */
+	void remove(String key);
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ClientHttpResponse} decorator copying the body while the application reads it, and putting
+ * the response into a {@link ResponseStore} once the end of the body was reached.
+ *
+ * <p>Nothing is stored if the body is closed or skipped before its end, or exceeds the maximum body size.
+ *
+ * @author Joern Horstmann
+ * @see CachingClientHttpRequestFactory
+ */
+final class StoringClientHttpResponse implements ClientHttpResponse {
+
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	private final ClientHttpResponse response;
+	private final ResponseStore store;
+	private final String key;
+	private final Map<String, String> varyHeaders;
+	private final long requestTime;
+	private final long responseTime;
+	private final int maxBodySize;
+	private StoringInputStream body;
+
+	StoringClientHttpResponse(ClientHttpResponse response, ResponseStore store, String key, Map<String, String> varyHeaders,
+			long requestTime, long responseTime, int maxBodySize) {
+		this.response = response;
+		this.store = store;
+		this.key = key;
+		this.varyHeaders = varyHeaders;
+		this.requestTime = requestTime;
+		this.responseTime = responseTime;
+		this.maxBodySize = maxBodySize;
+	}
+
+	@Override
+	public HttpStatus getStatusCode() throws IOException {
+		return this.response.getStatusCode();
+	}
+
+	@Override
+	public int getRawStatusCode() throws IOException {
+		return this.response.getRawStatusCode();
+	}
+
+	@Override
+	public String getStatusText() throws IOException {
+		return this.response.getStatusText();
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		return this.response.getHeaders();
+	}
+
+	@Override
+	public InputStream getBody() throws IOException {
+		if (this.body == null) {
+			this.body = new StoringInputStream(this.response.getBody());
+		}
+		return this.body;
+	}
+
+	@Override
+	public void close() {
+		this.response.close();
+	}
+
+	private void store(byte[] buf, int count) throws IOException {
+		final HttpHeaders headers = new HttpHeaders();
+		for (Map.Entry<String, List<String>> entry : this.response.getHeaders().entrySet()) {
+			final String name = entry.getKey();
+			if (!HttpHeaders.CONNECTION.equalsIgnoreCase(name) && !HttpHeaders.TRANSFER_ENCODING.equalsIgnoreCase(name)
+					&& !"Keep-Alive".equalsIgnoreCase(name)) {
+				headers.put(name, entry.getValue());
+			}
+		}
+		headers.setContentLength(count);
+		final ByteBuffer body = ByteBuffer.wrap(count == buf.length ? buf : Arrays.copyOf(buf, count));
+		this.store.put(this.key, new CachedResponse(this.response.getRawStatusCode(), this.response.getStatusText(),
+				headers, this.varyHeaders, body, this.requestTime, this.responseTime));
+	}
+
+
+	/**
+	 * Copies the bytes read from the body, storing the response when reaching its end.
+	 */
+	private final class StoringInputStream extends InputStream {
+
+		private final InputStream in;
+		private final byte[] single = new byte[1];
+		private byte[] buf = new byte[INITIAL_BUFFER_SIZE];
+		private int count;
+
+		StoringInputStream(InputStream in) {
+			this.in = in;
+		}
+
+		private void copy(byte[] b, int off, int n) throws IOException {
+			if (this.buf == null) {
+				return;
+			}
+			if (n < 0) {
+				final byte[] buf = this.buf;
+				this.buf = null;
+				store(buf, this.count);
+				return;
+			}
+			if (this.count + n > StoringClientHttpResponse.this.maxBodySize) {
+				this.buf = null;
+				return;
+			}
+			if (this.count + n > this.buf.length) {
+				this.buf = Arrays.copyOf(this.buf, Math.min(Math.max(this.count + n, this.buf.length * 2),
+						StoringClientHttpResponse.this.maxBodySize));
+			}
+			System.arraycopy(b, off, this.buf, this.count, n);
+			this.count += n;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = this.in.read();
+			if (b >= 0) {
+				this.single[0] = (byte) b;
+				copy(this.single, 0, 1);
+			}
+			else {
+				copy(null, 0, -1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			final int n = this.in.read(b, off, len);
+			if (n != 0) {
+				copy(b, off, n);
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// skipped bytes are not copied, the response cannot be stored
+			this.buf = null;
+			return this.in.skip(n);
+		}
+
+		@Override
+		public int available() throws IOException {
+			return this.in.available();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.buf = null;
+			this.in.close();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link InputStream} recording whether the application read the wrapped response body up to
+ * its end or closed it, so that a {@link ResponseClosePolicy} does not try to drain it again.
+ *
+ * @author Joern Horstmann
+ * @see ResponseClosePolicy#recordCompleted()
+ */
+public final class TrackingInputStream extends FilterInputStream {
+
+	private volatile boolean finished;
+
+	public TrackingInputStream(InputStream in) {
+		super(in);
+	}
+
+	/**
+	 * Return whether the end of the stream was reached or the stream was closed.
+	 */
+	public boolean isFinished() {
+		return this.finished;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int b = super.read();
+		if (b < 0) {
+			this.finished = true;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		final int n = super.read(b, off, len);
+		if (n < 0) {
+			this.finished = true;
+		}
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.finished = true;
+		super.close();
+	}
+}
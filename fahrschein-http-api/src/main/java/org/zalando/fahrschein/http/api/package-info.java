@@ -0,0 +1,5 @@
+/**
+ * Support classes shared by the {@code ClientHttpRequestFactory} implementations,
+ * which are not part of the original spring api.
+ */
+package org.zalando.fahrschein.http.api;
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that a {@link CachedResponse} is not affected by later changes to the headers it was created from.
+ *
+ * @author Joern Horstmann
+ */
+public class CachedResponseTest {
+
+	private static CachedResponse cachedResponse(HttpHeaders headers) {
+		return new CachedResponse(200, "OK", headers, Collections.<String, String>emptyMap(),
+				ByteBuffer.wrap(new byte[0]), 1000, 2000);
+	}
+
+	@Test
+	public void copiesHeaderValues() {
+		final HttpHeaders headers = new HttpHeaders();
+		headers.add("X-Multi", "1");
+		headers.add("X-Multi", "2");
+		headers.set("X-Single", "a");
+		final CachedResponse cached = cachedResponse(headers);
+
+		headers.get("X-Multi").add("3");
+		headers.get("X-Single").add("b");
+		headers.add("X-Other", "c");
+
+		assertEquals(Arrays.asList("1", "2"), cached.getHeaders().get("X-Multi"));
+		assertEquals(Collections.singletonList("a"), cached.getHeaders().get("X-Single"));
+		assertEquals(2, cached.getHeaders().size());
+	}
+
+	@Test
+	public void headersAreReadOnly() {
+		final HttpHeaders headers = new HttpHeaders();
+		headers.add("X-Multi", "1");
+		headers.add("X-Multi", "2");
+		final CachedResponse cached = cachedResponse(headers);
+		try {
+			cached.getHeaders().add("X-Other", "a");
+			fail("Expected read-only headers");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			cached.getHeaders().get("X-Multi").add("3");
+			fail("Expected read-only values");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void validatedHeadersAreCopied() {
+		final HttpHeaders headers = new HttpHeaders();
+		headers.setETag("\"1\"");
+		headers.add("X-Multi", "1");
+		final CachedResponse cached = cachedResponse(headers);
+
+		final HttpHeaders notModifiedHeaders = new HttpHeaders();
+		notModifiedHeaders.add("X-Multi", "2");
+		notModifiedHeaders.add("X-Multi", "3");
+		notModifiedHeaders.setContentLength(0);
+		final CachedResponse validated = cached.withValidatedHeaders(notModifiedHeaders, 3000, 4000);
+		notModifiedHeaders.get("X-Multi").add("4");
+
+		assertEquals(Arrays.asList("2", "3"), validated.getHeaders().get("X-Multi"));
+		assertEquals("\"1\"", validated.getHeaders().getETag());
+		assertEquals(-1, validated.getHeaders().getContentLength());
+		assertEquals(Collections.singletonList("1"), cached.getHeaders().get("X-Multi"));
+	}
+
+	@Test
+	public void storedResponseDoesNotShareHeaderValuesWithLiveResponse() throws IOException {
+		final HttpHeaders headers = new HttpHeaders();
+		headers.add("X-Multi", "1");
+		headers.add("X-Multi", "2");
+		headers.set(HttpHeaders.CACHE_CONTROL, "max-age=60");
+		final InMemoryResponseStore store = new InMemoryResponseStore(1024 * 1024);
+		final StoringClientHttpResponse response = new StoringClientHttpResponse(
+				new StubClientHttpResponse(200, headers, "body".getBytes(StandardCharsets.UTF_8)),
+				store, "GET /", Collections.<String, String>emptyMap(), 1000, 2000, 1024);
+		final InputStream body = response.getBody();
+		while (body.read() >= 0) {
+			// read up to the end to store the response
+		}
+		response.getHeaders().get("X-Multi").add("3");
+		response.close();
+
+		final CachedResponse cached = store.get("GET /");
+		assertNotNull(cached);
+		assertEquals(Arrays.asList("1", "2"), cached.getHeaders().get("X-Multi"));
+	}
+}
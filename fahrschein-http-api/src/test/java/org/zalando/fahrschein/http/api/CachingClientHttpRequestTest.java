@@ -0,0 +1,248 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the {@link CachingClientHttpRequest}, answering requests with a {@link StubClientHttpRequestFactory}.
+ *
+ * @author Joern Horstmann
+ */
+public class CachingClientHttpRequestTest {
+
+	private static final URI RESOURCE = URI.create("http://localhost/resource");
+	private static final String ETAG = "\"1\"";
+
+	private StubClientHttpRequestFactory server;
+	private CachingClientHttpRequestFactory requestFactory;
+
+	@Before
+	public void setUp() {
+		this.server = new StubClientHttpRequestFactory();
+		this.requestFactory = new CachingClientHttpRequestFactory(this.server, new InMemoryResponseStore(1024 * 1024));
+	}
+
+	private static StubClientHttpResponse response(int statusCode, String body, String... headers) {
+		final HttpHeaders responseHeaders = new HttpHeaders();
+		for (int i = 0; i < headers.length; i += 2) {
+			responseHeaders.add(headers[i], headers[i + 1]);
+		}
+		return new StubClientHttpResponse(statusCode, responseHeaders, body.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private ClientHttpResponse get(String... headers) throws IOException {
+		final ClientHttpRequest request = this.requestFactory.createRequest(RESOURCE, HttpMethod.GET);
+		for (int i = 0; i < headers.length; i += 2) {
+			request.getHeaders().add(headers[i], headers[i + 1]);
+		}
+		return request.execute();
+	}
+
+	private static String readBody(ClientHttpResponse response) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = response.getBody()) {
+			final byte[] buf = new byte[16];
+			int n;
+			while ((n = in.read(buf)) >= 0) {
+				out.write(buf, 0, n);
+			}
+		}
+		finally {
+			response.close();
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private int executedRequests() {
+		return this.server.getExecutedRequests().size();
+	}
+
+	private HttpHeaders lastExecutedRequest() {
+		return this.server.getExecutedRequests().get(executedRequests() - 1);
+	}
+
+	@Test
+	public void servesFreshResponseWithoutRequest() throws IOException {
+		this.server.respond(response(200, "fresh", HttpHeaders.CACHE_CONTROL, "max-age=60"));
+		assertEquals("fresh", readBody(get()));
+
+		final ClientHttpResponse cached = get();
+		assertEquals(200, cached.getRawStatusCode());
+		assertEquals("fresh", readBody(cached));
+		assertEquals(1, executedRequests());
+		assertEquals(1, this.requestFactory.getMissCount());
+		assertEquals(1, this.requestFactory.getHitCount());
+	}
+
+	@Test
+	public void revalidatesStaleResponse() throws IOException {
+		this.server.respond(response(200, "stale", HttpHeaders.CACHE_CONTROL, "max-age=0", HttpHeaders.ETAG, ETAG));
+		assertEquals("stale", readBody(get()));
+
+		final StubClientHttpResponse notModified = response(304, "", HttpHeaders.ETAG, ETAG);
+		this.server.respond(notModified);
+		final ClientHttpResponse validated = get();
+		assertEquals(ETAG, lastExecutedRequest().getFirst(HttpHeaders.IF_NONE_MATCH));
+		assertTrue(notModified.isClosed());
+		assertEquals(200, validated.getRawStatusCode());
+		assertEquals("stale", readBody(validated));
+		assertEquals(2, executedRequests());
+		assertEquals(1, this.requestFactory.getRevalidationCount());
+		assertEquals(1, this.requestFactory.getNotModifiedCount());
+		assertEquals(0, this.requestFactory.getHitCount());
+	}
+
+	@Test
+	public void replacesStaleResponseChangedOnServer() throws IOException {
+		this.server.respond(response(200, "old", HttpHeaders.CACHE_CONTROL, "max-age=0", HttpHeaders.ETAG, ETAG));
+		assertEquals("old", readBody(get()));
+
+		this.server.respond(response(200, "new", HttpHeaders.CACHE_CONTROL, "max-age=60", HttpHeaders.ETAG, "\"2\""));
+		assertEquals("new", readBody(get()));
+		assertEquals(1, this.requestFactory.getRevalidationCount());
+		assertEquals(0, this.requestFactory.getNotModifiedCount());
+
+		assertEquals("new", readBody(get()));
+		assertEquals(2, executedRequests());
+	}
+
+	@Test
+	public void mergesHeadersOfNotModifiedResponse() throws IOException {
+		this.server.respond(response(200, "body", HttpHeaders.CACHE_CONTROL, "max-age=0", HttpHeaders.ETAG, ETAG,
+				"X-Stored", "stored", "X-Updated", "old"));
+		assertEquals("body", readBody(get()));
+
+		this.server.respond(response(304, "", HttpHeaders.CACHE_CONTROL, "max-age=60", HttpHeaders.ETAG, ETAG,
+				"X-Updated", "new", HttpHeaders.CONTENT_LENGTH, "0"));
+		final ClientHttpResponse validated = get();
+		assertEquals("stored", validated.getHeaders().getFirst("X-Stored"));
+		assertEquals("new", validated.getHeaders().getFirst("X-Updated"));
+		assertEquals("max-age=60", validated.getHeaders().getFirst(HttpHeaders.CACHE_CONTROL));
+		assertEquals(4, validated.getHeaders().getContentLength());
+		assertEquals("body", readBody(validated));
+
+		// the updated freshness lifetime was stored
+		final ClientHttpResponse cached = get();
+		assertEquals("new", cached.getHeaders().getFirst("X-Updated"));
+		assertEquals("body", readBody(cached));
+		assertEquals(2, executedRequests());
+		assertEquals(1, this.requestFactory.getHitCount());
+	}
+
+	@Test
+	public void sendsRequestIfVaryHeadersDoNotMatch() throws IOException {
+		this.server.respond(response(200, "json", HttpHeaders.CACHE_CONTROL, "max-age=60", HttpHeaders.VARY, HttpHeaders.ACCEPT));
+		assertEquals("json", readBody(get(HttpHeaders.ACCEPT, "application/json")));
+
+		this.server.respond(response(200, "text", HttpHeaders.CACHE_CONTROL, "max-age=60", HttpHeaders.VARY, HttpHeaders.ACCEPT));
+		assertEquals("text", readBody(get(HttpHeaders.ACCEPT, "text/plain")));
+		assertEquals(2, executedRequests());
+
+		// the last response replaced the stored one
+		assertEquals("text", readBody(get(HttpHeaders.ACCEPT, "text/plain")));
+		assertEquals(2, executedRequests());
+		assertEquals(1, this.requestFactory.getHitCount());
+	}
+
+	@Test
+	public void doesNotStoreResponseVaryingOnAllHeaders() throws IOException {
+		this.server.respond(response(200, "first", HttpHeaders.CACHE_CONTROL, "max-age=60", HttpHeaders.VARY, "*"));
+		assertEquals("first", readBody(get()));
+		assertNull(this.requestFactory.getResponseStore().get(CachingClientHttpRequestFactory.cacheKey(RESOURCE)));
+
+		this.server.respond(response(200, "second", HttpHeaders.CACHE_CONTROL, "max-age=60", HttpHeaders.VARY, "*"));
+		assertEquals("second", readBody(get()));
+		assertEquals(2, executedRequests());
+		assertEquals(0, this.requestFactory.getHitCount());
+	}
+
+	@Test
+	public void revalidatesFreshResponseForRequestWithNoCache() throws IOException {
+		this.server.respond(response(200, "body", HttpHeaders.CACHE_CONTROL, "max-age=60", HttpHeaders.ETAG, ETAG));
+		assertEquals("body", readBody(get()));
+
+		this.server.respond(response(304, "", HttpHeaders.ETAG, ETAG));
+		assertEquals("body", readBody(get(HttpHeaders.CACHE_CONTROL, "no-cache")));
+		assertEquals(2, executedRequests());
+		assertEquals(ETAG, lastExecutedRequest().getFirst(HttpHeaders.IF_NONE_MATCH));
+		assertEquals(1, this.requestFactory.getNotModifiedCount());
+		assertEquals(0, this.requestFactory.getHitCount());
+	}
+
+	@Test
+	public void respectsMaxAgeOfRequest() throws IOException {
+		// the response is ten seconds old when it is received
+		this.server.respond(response(200, "body", HttpHeaders.CACHE_CONTROL, "max-age=60", HttpHeaders.AGE, "10"));
+		assertEquals("body", readBody(get()));
+
+		assertEquals("body", readBody(get(HttpHeaders.CACHE_CONTROL, "max-age=30")));
+		assertEquals(1, executedRequests());
+
+		this.server.respond(response(200, "younger", HttpHeaders.CACHE_CONTROL, "max-age=60"));
+		assertEquals("younger", readBody(get(HttpHeaders.CACHE_CONTROL, "max-age=5")));
+		assertEquals(2, executedRequests());
+		assertNull(lastExecutedRequest().getFirst(HttpHeaders.IF_NONE_MATCH));
+	}
+
+	@Test
+	public void doesNotStoreResponseClosedBeforeEndOfBody() throws IOException {
+		this.server.respond(response(200, "a partially read body", HttpHeaders.CACHE_CONTROL, "max-age=60"));
+		final ClientHttpResponse response = get();
+		final InputStream body = response.getBody();
+		assertTrue(body.read(new byte[8]) > 0);
+		body.close();
+		response.close();
+		assertNull(this.requestFactory.getResponseStore().get(CachingClientHttpRequestFactory.cacheKey(RESOURCE)));
+
+		this.server.respond(response(200, "complete", HttpHeaders.CACHE_CONTROL, "max-age=60"));
+		assertEquals("complete", readBody(get()));
+		assertEquals(2, executedRequests());
+		assertNotNull(this.requestFactory.getResponseStore().get(CachingClientHttpRequestFactory.cacheKey(RESOURCE)));
+	}
+
+	@Test
+	public void doesNotStoreResponseLargerThanMaxBodySize() throws IOException {
+		this.requestFactory.setMaxBodySize(8);
+		this.server.respond(response(200, "more than eight bytes", HttpHeaders.CACHE_CONTROL, "max-age=60"));
+		assertEquals("more than eight bytes", readBody(get()));
+		assertNull(this.requestFactory.getResponseStore().get(CachingClientHttpRequestFactory.cacheKey(RESOURCE)));
+
+		this.server.respond(response(200, "8 bytes!", HttpHeaders.CACHE_CONTROL, "max-age=60"));
+		assertEquals("8 bytes!", readBody(get()));
+		assertEquals("8 bytes!", readBody(get()));
+		assertEquals(2, executedRequests());
+		assertEquals(1, this.requestFactory.getHitCount());
+	}
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.HttpHeaders;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the {@link MappedResponseStore}, reopening stores from the segment files they left behind.
+ *
+ * @author Joern Horstmann
+ */
+public class MappedResponseStoreTest {
+
+	private static final int SEGMENT_SIZE = 64 * 1024;
+	private static final int SEGMENT_HEADER_SIZE = 24;
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	// records with bodies of this size fill a segment after six records
+	private static final int BODY_SIZE = 10 * 1024;
+	private static final int RECORDS_PER_SEGMENT = 6;
+
+	// two keys with the same hash, found by searching for a collision of the four characters after the prefix
+	private static final String COLLIDING_KEY_1 = "GET /\u6741\ufe54\uac57\u9289";
+	private static final String COLLIDING_KEY_2 = "GET /\uc399\u6862\u5258\u6d8a";
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<MappedResponseStore> stores = new ArrayList<>();
+	private Path directory;
+
+	@After
+	public void tearDown() throws IOException {
+		for (MappedResponseStore store : this.stores) {
+			store.close();
+		}
+	}
+
+	private MappedResponseStore open(int segmentCount) throws IOException {
+		if (this.directory == null) {
+			this.directory = this.folder.newFolder().toPath();
+		}
+		final MappedResponseStore store = new MappedResponseStore(this.directory, (long) segmentCount * SEGMENT_SIZE, segmentCount);
+		this.stores.add(store);
+		return store;
+	}
+
+	private static byte[] body(String key) {
+		final byte[] body = new byte[BODY_SIZE];
+		Arrays.fill(body, (byte) key.hashCode());
+		body[0] = (byte) key.length();
+		return body;
+	}
+
+	private static CachedResponse response(String key) {
+		final HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.CACHE_CONTROL, "max-age=60");
+		headers.add("X-Key", key);
+		return new CachedResponse(200, "OK", headers, Collections.<String, String>emptyMap(),
+				ByteBuffer.wrap(body(key)), 1000, 2000);
+	}
+
+	private static void assertResponse(String key, CachedResponse response) {
+		assertNotNull("Missing response for " + key, response);
+		assertEquals(200, response.getStatusCode());
+		assertEquals(key, response.getHeaders().getFirst("X-Key"));
+		final ByteBuffer body = response.getBody();
+		final byte[] bytes = new byte[body.remaining()];
+		body.get(bytes);
+		assertArrayEquals(body(key), bytes);
+	}
+
+	private static String key(String prefix, int i) {
+		return "GET /" + prefix + "/" + i;
+	}
+
+	private List<Path> segmentFiles() throws IOException {
+		final List<Path> paths = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*.segment")) {
+			for (Path path : stream) {
+				paths.add(path);
+			}
+		}
+		Collections.sort(paths);
+		return paths;
+	}
+
+	@Test
+	public void reopensAfterSegmentRoll() throws IOException {
+		final int count = 2 * RECORDS_PER_SEGMENT + 3;
+		final MappedResponseStore store = open(4);
+		for (int i = 0; i < count; i++) {
+			store.put(key("a", i), response(key("a", i)));
+		}
+		assertEquals(3, segmentFiles().size());
+		store.close();
+
+		final MappedResponseStore reopened = open(4);
+		assertEquals(count, reopened.getEntryCount());
+		for (int i = 0; i < count; i++) {
+			assertResponse(key("a", i), reopened.get(key("a", i)));
+		}
+
+		// new records are appended after the existing ones
+		reopened.put(key("b", 0), response(key("b", 0)));
+		reopened.remove(key("a", 0));
+		reopened.close();
+
+		final MappedResponseStore again = open(4);
+		assertEquals(count, again.getEntryCount());
+		assertNull(again.get(key("a", 0)));
+		assertResponse(key("b", 0), again.get(key("b", 0)));
+		for (int i = 1; i < count; i++) {
+			assertResponse(key("a", i), again.get(key("a", i)));
+		}
+	}
+
+	@Test
+	public void reopensAfterReplacingTheOldestSegment() throws IOException {
+		final int count = 5 * RECORDS_PER_SEGMENT;
+		final MappedResponseStore store = open(3);
+		for (int i = 0; i < count; i++) {
+			store.put(key("a", i), response(key("a", i)));
+		}
+		assertEquals(3, segmentFiles().size());
+		final int entryCount = store.getEntryCount();
+		assertTrue(entryCount < count);
+		store.close();
+
+		final MappedResponseStore reopened = open(3);
+		assertEquals(entryCount, reopened.getEntryCount());
+		for (int i = 0; i < count - entryCount; i++) {
+			assertNull(reopened.get(key("a", i)));
+		}
+		for (int i = count - entryCount; i < count; i++) {
+			assertResponse(key("a", i), reopened.get(key("a", i)));
+		}
+	}
+
+	@Test
+	public void dropsSegmentWithDifferentSizeOnLoad() throws IOException {
+		final MappedResponseStore store = open(4);
+		for (int i = 0; i < 2 * RECORDS_PER_SEGMENT; i++) {
+			store.put(key("a", i), response(key("a", i)));
+		}
+		store.close();
+
+		// a segment which was not completely created
+		final Path torn = segmentFiles().get(0);
+		try (FileChannel channel = FileChannel.open(torn, StandardOpenOption.WRITE)) {
+			channel.truncate(SEGMENT_SIZE / 2);
+		}
+
+		final MappedResponseStore reopened = open(4);
+		assertFalse(Files.exists(torn));
+		assertEquals(RECORDS_PER_SEGMENT, reopened.getEntryCount());
+		for (int i = 0; i < RECORDS_PER_SEGMENT; i++) {
+			assertNull(reopened.get(key("a", i)));
+		}
+		for (int i = RECORDS_PER_SEGMENT; i < 2 * RECORDS_PER_SEGMENT; i++) {
+			assertResponse(key("a", i), reopened.get(key("a", i)));
+		}
+	}
+
+	@Test
+	public void ignoresRecordsAfterDamagedRecordOnLoad() throws IOException {
+		final MappedResponseStore store = open(4);
+		for (int i = 0; i < 2 * RECORDS_PER_SEGMENT; i++) {
+			store.put(key("a", i), response(key("a", i)));
+		}
+		store.close();
+
+		// flip a byte in the body of the second record of the first segment
+		final Path damaged = segmentFiles().get(0);
+		try (FileChannel channel = FileChannel.open(damaged, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			final ByteBuffer length = ByteBuffer.allocate(4);
+			channel.read(length, SEGMENT_HEADER_SIZE);
+			final long second = SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE + length.getInt(0);
+			final ByteBuffer b = ByteBuffer.allocate(1);
+			final long position = second + RECORD_HEADER_SIZE + 1000;
+			channel.read(b, position);
+			b.put(0, (byte) ~b.get(0));
+			b.rewind();
+			channel.write(b, position);
+		}
+
+		final MappedResponseStore reopened = open(4);
+		assertEquals(1 + RECORDS_PER_SEGMENT, reopened.getEntryCount());
+		assertResponse(key("a", 0), reopened.get(key("a", 0)));
+		for (int i = 1; i < RECORDS_PER_SEGMENT; i++) {
+			assertNull(reopened.get(key("a", i)));
+		}
+		for (int i = RECORDS_PER_SEGMENT; i < 2 * RECORDS_PER_SEGMENT; i++) {
+			assertResponse(key("a", i), reopened.get(key("a", i)));
+		}
+	}
+
+	@Test
+	public void compactsOnlyAccessedEntries() throws IOException {
+		final MappedResponseStore store = open(2);
+		for (int i = 0; i < RECORDS_PER_SEGMENT; i++) {
+			store.put(key("a", i), response(key("a", i)));
+		}
+		assertResponse(key("a", 1), store.get(key("a", 1)));
+		assertResponse(key("a", 3), store.get(key("a", 3)));
+
+		// fill the second segment, the last record replaces the first segment
+		for (int i = 0; i <= RECORDS_PER_SEGMENT; i++) {
+			store.put(key("b", i), response(key("b", i)));
+		}
+		assertEquals(2, segmentFiles().size());
+		assertEquals(2 + RECORDS_PER_SEGMENT + 1, store.getEntryCount());
+		for (int i = 0; i < RECORDS_PER_SEGMENT; i++) {
+			if (i == 1 || i == 3) {
+				assertResponse(key("a", i), store.get(key("a", i)));
+			}
+			else {
+				assertNull(store.get(key("a", i)));
+			}
+		}
+		for (int i = 0; i <= RECORDS_PER_SEGMENT; i++) {
+			assertResponse(key("b", i), store.get(key("b", i)));
+		}
+		store.close();
+
+		final MappedResponseStore reopened = open(2);
+		assertEquals(2 + RECORDS_PER_SEGMENT + 1, reopened.getEntryCount());
+		assertResponse(key("a", 1), reopened.get(key("a", 1)));
+		assertResponse(key("a", 3), reopened.get(key("a", 3)));
+		assertNull(reopened.get(key("a", 0)));
+	}
+
+	@Test
+	public void keepsOneEntryForKeysWithTheSameHash() throws IOException {
+		assertNotEquals(COLLIDING_KEY_1, COLLIDING_KEY_2);
+		assertEquals(ResponseIndex.hash(COLLIDING_KEY_1), ResponseIndex.hash(COLLIDING_KEY_2));
+
+		final MappedResponseStore store = open(4);
+		store.put(COLLIDING_KEY_1, response(COLLIDING_KEY_1));
+		assertResponse(COLLIDING_KEY_1, store.get(COLLIDING_KEY_1));
+		assertNull(store.get(COLLIDING_KEY_2));
+
+		// removing the other key keeps the entry
+		store.remove(COLLIDING_KEY_2);
+		assertResponse(COLLIDING_KEY_1, store.get(COLLIDING_KEY_1));
+
+		store.put(COLLIDING_KEY_2, response(COLLIDING_KEY_2));
+		assertEquals(1, store.getEntryCount());
+		assertNull(store.get(COLLIDING_KEY_1));
+		assertResponse(COLLIDING_KEY_2, store.get(COLLIDING_KEY_2));
+		store.close();
+
+		final MappedResponseStore reopened = open(4);
+		assertEquals(1, reopened.getEntryCount());
+		assertNull(reopened.get(COLLIDING_KEY_1));
+		assertResponse(COLLIDING_KEY_2, reopened.get(COLLIDING_KEY_2));
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * {@link ClientHttpRequestFactory} answering executed requests with queued responses,
+ * and recording the headers each request was executed with.
+ *
+ * @author Joern Horstmann
+ */
+final class StubClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+	private final Deque<StubClientHttpResponse> responses = new ArrayDeque<>();
+	private final List<HttpHeaders> executedRequests = new ArrayList<>();
+
+	/**
+	 * Queue the response to the next executed request.
+	 */
+	void respond(StubClientHttpResponse response) {
+		this.responses.addLast(response);
+	}
+
+	/**
+	 * Return a copy of the headers of each executed request, in the order of execution.
+	 */
+	List<HttpHeaders> getExecutedRequests() {
+		return this.executedRequests;
+	}
+
+	@Override
+	public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+		return new StubClientHttpRequest(uri, httpMethod);
+	}
+
+
+	private final class StubClientHttpRequest implements ClientHttpRequest {
+
+		private final URI uri;
+		private final HttpMethod method;
+		private final HttpHeaders headers = new HttpHeaders();
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		StubClientHttpRequest(URI uri, HttpMethod method) {
+			this.uri = uri;
+			this.method = method;
+		}
+
+		@Override
+		public HttpMethod getMethod() {
+			return this.method;
+		}
+
+		@Override
+		public URI getURI() {
+			return this.uri;
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return this.headers;
+		}
+
+		@Override
+		public OutputStream getBody() {
+			return this.body;
+		}
+
+		@Override
+		public ClientHttpResponse execute() throws IOException {
+			final StubClientHttpResponse response = StubClientHttpRequestFactory.this.responses.pollFirst();
+			if (response == null) {
+				throw new IOException("No response queued for " + this.method + " " + this.uri);
+			}
+			final HttpHeaders executed = new HttpHeaders();
+			executed.putAll(this.headers);
+			StubClientHttpRequestFactory.this.executedRequests.add(executed);
+			return response;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.api;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link ClientHttpResponse} with a fixed status, headers and body, recording whether it was closed.
+ *
+ * @author Joern Horstmann
+ */
+final class StubClientHttpResponse implements ClientHttpResponse {
+
+	private final int statusCode;
+	private final HttpHeaders headers;
+	private final InputStream body;
+	private boolean closed;
+
+	StubClientHttpResponse(int statusCode, HttpHeaders headers, byte[] body) {
+		this.statusCode = statusCode;
+		this.headers = headers;
+		this.body = new ByteArrayInputStream(body);
+	}
+
+	@Override
+	public HttpStatus getStatusCode() throws IOException {
+		return HttpStatus.valueOf(this.statusCode);
+	}
+
+	@Override
+	public int getRawStatusCode() {
+		return this.statusCode;
+	}
+
+	@Override
+	public String getStatusText() {
+		return HttpStatus.valueOf(this.statusCode).getReasonPhrase();
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		return this.headers;
+	}
+
+	@Override
+	public InputStream getBody() {
+		return this.body;
+	}
+
+	@Override
+	public void close() {
+		this.closed = true;
+	}
+
+	boolean isClosed() {
+		return this.closed;
+	}
+}
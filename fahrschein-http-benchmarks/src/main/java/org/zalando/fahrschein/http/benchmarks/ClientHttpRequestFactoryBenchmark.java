@@ -0,0 +1,157 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link ClientHttpRequestFactory} implementations listed in {@link RequestFactoryType}
+ * by sending requests to a {@link LoopbackServer} running in the benchmark process.
+ *
+ * <p>Reports throughput and average time per request. Run with {@code -prof gc} to also report the
+ * allocation per request, the server itself does not allocate while serving requests, and with
+ * {@code -t} to send requests from several threads:
+ * {@code java -jar fahrschein-http-benchmarks/target/benchmarks.jar ClientHttpRequestFactoryBenchmark -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientHttpRequestFactoryBenchmark {
+
+	private static final int SMALL_PAYLOAD_SIZE = 1024;
+	private static final int LARGE_PAYLOAD_SIZE = 1024 * 1024;
+	private static final int STREAM_SIZE = 16 * 1024 * 1024;
+	private static final int STREAM_CHUNK_SIZE = 8 * 1024;
+	private static final int READ_BUFFER_SIZE = 8192;
+	private static final String APPLICATION_X_JSON_STREAM = "application/x-json-stream";
+
+	@Param
+	public RequestFactoryType factory;
+
+	private LoopbackServer server;
+	private ClientHttpRequestFactory requestFactory;
+	private byte[] smallPayload;
+	private byte[] largePayload;
+	private URI postUri;
+	private URI smallUri;
+	private URI streamUri;
+
+
+	/**
+	 * Per thread read buffer.
+	 */
+	@State(Scope.Thread)
+	public static class ReadBuffer {
+
+		final byte[] bytes = new byte[READ_BUFFER_SIZE];
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		this.smallPayload = NdjsonPayloads.generate(SMALL_PAYLOAD_SIZE);
+		this.largePayload = NdjsonPayloads.generate(LARGE_PAYLOAD_SIZE);
+		this.server = new LoopbackServer()
+				.fixed("/events", MediaType.APPLICATION_JSON_VALUE, "{}".getBytes(StandardCharsets.UTF_8))
+				.fixed("/small", APPLICATION_X_JSON_STREAM, this.smallPayload)
+				.chunked("/stream", APPLICATION_X_JSON_STREAM, NdjsonPayloads.generate(STREAM_SIZE), STREAM_CHUNK_SIZE)
+				.start();
+		this.postUri = this.server.uri("/events");
+		this.smallUri = this.server.uri("/small");
+		this.streamUri = this.server.uri("/stream");
+		this.requestFactory = this.factory.create();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		this.factory.destroy(this.requestFactory);
+		this.server.close();
+	}
+
+	@Benchmark
+	public long smallPost(ReadBuffer buffer) throws IOException {
+		return post(this.smallPayload, buffer.bytes);
+	}
+
+	@Benchmark
+	public long largePost(ReadBuffer buffer) throws IOException {
+		return post(this.largePayload, buffer.bytes);
+	}
+
+	@Benchmark
+	public long smallGet(ReadBuffer buffer) throws IOException {
+		return get(this.smallUri, buffer.bytes);
+	}
+
+	@Benchmark
+	public long streamingGet(ReadBuffer buffer) throws IOException {
+		return get(this.streamUri, buffer.bytes);
+	}
+
+	private long post(byte[] payload, byte[] readBuffer) throws IOException {
+		final ClientHttpRequest request = this.requestFactory.createRequest(this.postUri, HttpMethod.POST);
+		request.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+		request.getBody().write(payload);
+		return execute(request, readBuffer);
+	}
+
+	private long get(URI uri, byte[] readBuffer) throws IOException {
+		return execute(this.requestFactory.createRequest(uri, HttpMethod.GET), readBuffer);
+	}
+
+	private static long execute(ClientHttpRequest request, byte[] readBuffer) throws IOException {
+		final ClientHttpResponse response = request.execute();
+		try {
+			if (response.getRawStatusCode() != 200) {
+				throw new IOException("Unexpected status code " + response.getRawStatusCode());
+			}
+			final InputStream in = response.getBody();
+			long total = 0;
+			int n;
+			while ((n = in.read(readBuffer)) >= 0) {
+				total += n;
+			}
+			return total;
+		} finally {
+			response.close();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zalando.fahrschein.http.api.ContentCodec;
+import org.zalando.fahrschein.http.api.ContentCodecs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of the available {@link ContentCodec content codecs} when encoding and
+ * decoding newline-delimited JSON payloads of different sizes.
+ *
+ * <p>The compression ratio of each codec and payload size is printed during setup. Run with
+ * {@code java -jar fahrschein-http-benchmarks/target/benchmarks.jar ContentCodecBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentCodecBenchmark {
+
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	@Param({"gzip", "deflate", "zstd", "br"})
+	public String codec;
+
+	@Param({"4096", "65536", "1048576"})
+	public int payloadSize;
+
+	private ContentCodec contentCodec;
+	private byte[] payload;
+	private byte[] encoded;
+	private ByteArrayOutputStream sink;
+	private byte[] readBuffer;
+
+	@Setup
+	public void setup() throws IOException {
+		this.contentCodec = ContentCodecs.getDefault().get(this.codec);
+		if (this.contentCodec == null) {
+			throw new IllegalStateException("Codec [" + this.codec + "] is not available, available codecs are " + ContentCodecs.getDefault().getNames());
+		}
+		this.payload = NdjsonPayloads.generate(this.payloadSize);
+		this.sink = new ByteArrayOutputStream(this.payload.length);
+		this.readBuffer = new byte[READ_BUFFER_SIZE];
+		encode();
+		this.encoded = this.sink.toByteArray();
+		System.out.printf("%n%s: %d bytes encoded to %d bytes, ratio %.2f%n", this.codec, this.payload.length, this.encoded.length, (double) this.payload.length / this.encoded.length);
+	}
+
+	@Benchmark
+	public int encode() throws IOException {
+		this.sink.reset();
+		final OutputStream out = this.contentCodec.encode(this.sink);
+		out.write(this.payload);
+		out.close();
+		return this.sink.size();
+	}
+
+	@Benchmark
+	public long decode() throws IOException {
+		final InputStream in = this.contentCodec.decode(new ByteArrayInputStream(this.encoded));
+		try {
+			long total = 0;
+			int n;
+			while ((n = in.read(this.readBuffer)) >= 0) {
+				total += n;
+			}
+			return total;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.zalando.fahrschein.http.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zalando.fahrschein.http.api.FrameReader;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares splitting a newline-delimited JSON body into frames using a {@link FrameReader} with the common
+ * approach of reading lines with a {@link BufferedReader} and encoding them to bytes again for parsing.
+ *
+ * <p>Run with {@code -prof gc} to report the allocation per operation:
+ * {@code java -jar fahrschein-http-benchmarks/target/benchmarks.jar FrameReaderBenchmark -prof gc}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameReaderBenchmark {
+
+	@Param({"65536", "1048576"})
+	public int payloadSize;
+
+	private byte[] payload;
+
+	@Setup
+	public void setup() {
+		this.payload = NdjsonPayloads.generate(this.payloadSize);
+	}
+
+	@Benchmark
+	public long bufferedReader() throws IOException {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(this.payload), StandardCharsets.UTF_8))) {
+			long total = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				total += line.getBytes(StandardCharsets.UTF_8).length;
+			}
+			return total;
+		}
+	}
+
+	@Benchmark
+	public long frameReader() throws IOException {
+		try (FrameReader reader = new FrameReader(new ByteArrayInputStream(this.payload))) {
+			long total = 0;
+			ByteBuffer frame;
+			while ((frame = reader.next()) != null) {
+				total += frame.remaining();
+			}
+			return total;
+		}
+	}
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.benchmarks;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Closed-loop load generator that drives a {@link ClientHttpRequestFactory} with a fixed number of workers
+ * at a fixed target rate and reports the latency distribution.
+ *
+ * <p>Every worker sends its requests on a fixed schedule. Latency is measured from the time a request
+ * was scheduled to be sent, not from the time it was actually sent, so a stalled client or server also
+ * delays the requests that should have been sent in the meantime and coordinated omission is corrected.
+ * The service time, measured from the actual start, is reported as well.
+ *
+ * <p>By default requests are sent to a {@link LoopbackServer} running in the same process. Options are
+ * given as {@code --name=value}:
+ * <pre>
+ * java -cp fahrschein-http-benchmarks/target/benchmarks.jar org.zalando.fahrschein.http.benchmarks.LoadGenerator \
+ *     --factory=nio --workers=64 --rate=10000 --duration=60 --method=POST --payload-size=4096
+ * </pre>
+ */
+public final class LoadGenerator {
+
+	private static final long HIGHEST_TRACKABLE_LATENCY = TimeUnit.MINUTES.toNanos(1);
+	private static final double NANOS_PER_MILLI = 1000000.0;
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	private final ClientHttpRequestFactory requestFactory;
+	private final URI uri;
+	private final HttpMethod method;
+	private final byte[] payload;
+	private final int workers;
+	private final long intervalNanos;
+	private final Recorder latencyRecorder = new Recorder(HIGHEST_TRACKABLE_LATENCY, 3);
+	private final Recorder serviceTimeRecorder = new Recorder(HIGHEST_TRACKABLE_LATENCY, 3);
+	// guarded by gcPauses
+	private final Histogram gcPauses = new Histogram(HIGHEST_TRACKABLE_LATENCY, 3);
+	private long gcPauseNanos;
+	private final AtomicLong errors = new AtomicLong();
+	private volatile boolean running = true;
+
+	LoadGenerator(ClientHttpRequestFactory requestFactory, URI uri, HttpMethod method, byte[] payload, int workers, int rate) {
+		this.requestFactory = requestFactory;
+		this.uri = uri;
+		this.method = method;
+		this.payload = payload;
+		this.workers = workers;
+		// each worker sends every interval, together they send at the target rate
+		this.intervalNanos = TimeUnit.SECONDS.toNanos(workers) / rate;
+	}
+
+	public static void main(String[] args) throws Exception {
+		final Map<String, String> options = parseOptions(args);
+		final RequestFactoryType factoryType = RequestFactoryType.valueOf(option(options, "factory", "simple").toUpperCase(Locale.ROOT));
+		final int workers = Integer.parseInt(option(options, "workers", "16"));
+		final int rate = Integer.parseInt(option(options, "rate", "1000"));
+		final int duration = Integer.parseInt(option(options, "duration", "30"));
+		final int warmup = Integer.parseInt(option(options, "warmup", "5"));
+		final HttpMethod method = HttpMethod.valueOf(option(options, "method", "GET").toUpperCase(Locale.ROOT));
+		final int payloadSize = Integer.parseInt(option(options, "payload-size", "1024"));
+		final int responseSize = Integer.parseInt(option(options, "response-size", "1024"));
+		final String url = options.remove("url");
+		if (!options.isEmpty()) {
+			throw new IllegalArgumentException("Unknown options " + options.keySet());
+		}
+		if (workers <= 0 || rate <= 0 || duration <= 0 || warmup < 0) {
+			throw new IllegalArgumentException("Workers, rate and duration must be positive");
+		}
+
+		LoopbackServer server = null;
+		final URI uri;
+		if (url != null) {
+			uri = URI.create(url);
+		} else {
+			server = new LoopbackServer().fixed("/", MediaType.APPLICATION_JSON_VALUE, NdjsonPayloads.generate(responseSize)).start();
+			uri = server.uri("/");
+		}
+		final byte[] payload = method == HttpMethod.POST || method == HttpMethod.PUT ? NdjsonPayloads.generate(payloadSize) : null;
+		final ClientHttpRequestFactory requestFactory = factoryType.create();
+		try {
+			System.out.printf("%s %s using %s with %d workers at %d requests/s%n", method, uri, factoryType, workers, rate);
+			new LoadGenerator(requestFactory, uri, method, payload, workers, rate).run(warmup, duration, System.out);
+		} finally {
+			factoryType.destroy(requestFactory);
+			if (server != null) {
+				server.close();
+			}
+		}
+	}
+
+	private static Map<String, String> parseOptions(String[] args) {
+		final Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			final int idx = arg.indexOf('=');
+			if (!arg.startsWith("--") || idx < 0) {
+				throw new IllegalArgumentException("Options must be given as --name=value: " + arg);
+			}
+			options.put(arg.substring(2, idx), arg.substring(idx + 1));
+		}
+		return options;
+	}
+
+	private static String option(Map<String, String> options, String name, String defaultValue) {
+		final String value = options.remove(name);
+		return value != null ? value : defaultValue;
+	}
+
+	/**
+	 * Send requests for the warmup and measurement period, printing interval statistics every second and
+	 * a summary of the measurement period.
+	 */
+	void run(int warmupSeconds, int durationSeconds, PrintStream out) throws InterruptedException {
+		final List<Thread> threads = new ArrayList<>(this.workers);
+		final long start = System.nanoTime();
+		for (int i = 0; i < this.workers; i++) {
+			// spread the workers evenly over the interval
+			final long firstRequest = start + this.intervalNanos * i / this.workers;
+			final Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work(firstRequest);
+				}
+			}, "load-generator-" + i);
+			thread.setDaemon(true);
+			thread.start();
+			threads.add(thread);
+		}
+
+		final List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+		final NotificationListener gcListener = new NotificationListener() {
+			@Override
+			public void handleNotification(Notification notification, Object handback) {
+				recordGcPause(notification);
+			}
+		};
+
+		final Histogram totalLatency = new Histogram(HIGHEST_TRACKABLE_LATENCY, 3);
+		final Histogram totalServiceTime = new Histogram(HIGHEST_TRACKABLE_LATENCY, 3);
+		Histogram intervalLatency = null;
+		Histogram intervalServiceTime = null;
+		long errorsBefore = 0;
+
+		long intervalErrorsBefore = 0;
+
+		out.printf("%8s %10s %8s %10s %10s %10s %10s%n", "time", "requests", "errors", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+		for (int second = 1; second <= warmupSeconds + durationSeconds; second++) {
+			final boolean measuring = second > warmupSeconds;
+			if (second == warmupSeconds + 1) {
+				// start of the measurement period
+				errorsBefore = this.errors.get();
+				for (GarbageCollectorMXBean gcBean : gcBeans) {
+					((NotificationEmitter) gcBean).addNotificationListener(gcListener, null, null);
+				}
+			}
+			final long sleep = start + TimeUnit.SECONDS.toNanos(second) - System.nanoTime();
+			if (sleep > 0) {
+				TimeUnit.NANOSECONDS.sleep(sleep);
+			}
+			intervalLatency = this.latencyRecorder.getIntervalHistogram(intervalLatency);
+			intervalServiceTime = this.serviceTimeRecorder.getIntervalHistogram(intervalServiceTime);
+			if (measuring) {
+				totalLatency.add(intervalLatency);
+				totalServiceTime.add(intervalServiceTime);
+			}
+			final long intervalErrors = this.errors.get();
+			out.printf("%7ds %10d %8d %10.3f %10.3f %10.3f %10.3f%s%n", second, intervalLatency.getTotalCount(), intervalErrors - intervalErrorsBefore,
+					millis(intervalLatency, 50.0), millis(intervalLatency, 99.0), millis(intervalLatency, 99.9),
+					intervalLatency.getMaxValue() / NANOS_PER_MILLI, measuring ? "" : " (warmup)");
+			intervalErrorsBefore = intervalErrors;
+		}
+
+		this.running = false;
+		for (GarbageCollectorMXBean gcBean : gcBeans) {
+			try {
+				((NotificationEmitter) gcBean).removeNotificationListener(gcListener);
+			} catch (ListenerNotFoundException e) {
+				// no measurement period
+			}
+		}
+		for (Thread thread : threads) {
+			thread.join(TimeUnit.SECONDS.toMillis(10));
+		}
+
+		out.println();
+		out.printf("requests   %d in %d s, %.1f/s%n", totalLatency.getTotalCount(), durationSeconds, (double) totalLatency.getTotalCount() / durationSeconds);
+		out.printf("errors     %d%n", this.errors.get() - errorsBefore);
+		printPercentiles(out, "latency", totalLatency);
+		printPercentiles(out, "service", totalServiceTime);
+		synchronized (this.gcPauses) {
+			out.printf("gc pauses  %d, total %.1f ms, max %.1f ms%n", this.gcPauses.getTotalCount(),
+					this.gcPauseNanos / NANOS_PER_MILLI, this.gcPauses.getMaxValue() / NANOS_PER_MILLI);
+		}
+	}
+
+	private void work(long firstRequest) {
+		final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+		long scheduled = firstRequest;
+		while (this.running) {
+			final long now = System.nanoTime();
+			if (scheduled > now) {
+				LockSupport.parkNanos(scheduled - now);
+				continue;
+			}
+			final long start = System.nanoTime();
+			try {
+				if (!send(readBuffer)) {
+					this.errors.incrementAndGet();
+				}
+			} catch (IOException | RuntimeException e) {
+				this.errors.incrementAndGet();
+			}
+			final long end = System.nanoTime();
+			this.latencyRecorder.recordValue(Math.min(end - scheduled, HIGHEST_TRACKABLE_LATENCY));
+			this.serviceTimeRecorder.recordValue(Math.min(end - start, HIGHEST_TRACKABLE_LATENCY));
+			scheduled += this.intervalNanos;
+		}
+	}
+
+	/**
+	 * @return whether the response had a successful status code
+	 */
+	private boolean send(byte[] readBuffer) throws IOException {
+		final ClientHttpRequest request = this.requestFactory.createRequest(this.uri, this.method);
+		if (this.payload != null) {
+			request.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+			request.getBody().write(this.payload);
+		}
+		final ClientHttpResponse response = request.execute();
+		try {
+			final InputStream in = response.getBody();
+			while (in.read(readBuffer) >= 0) {
+				// discard
+			}
+			return response.getStatusCode().is2xxSuccessful();
+		} finally {
+			response.close();
+		}
+	}
+
+	private void recordGcPause(Notification notification) {
+		if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+			return;
+		}
+		final GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+		// concurrent cycles run alongside the application and are no pauses
+		if (info.getGcAction().startsWith("end of minor") || info.getGcAction().startsWith("end of major")) {
+			final long pause = Math.min(TimeUnit.MILLISECONDS.toNanos(info.getGcInfo().getDuration()), HIGHEST_TRACKABLE_LATENCY);
+			synchronized (this.gcPauses) {
+				this.gcPauses.recordValue(pause);
+				this.gcPauseNanos += pause;
+			}
+		}
+	}
+
+	private static double millis(Histogram histogram, double percentile) {
+		return histogram.getValueAtPercentile(percentile) / NANOS_PER_MILLI;
+	}
+
+	private static void printPercentiles(PrintStream out, String name, Histogram histogram) {
+		out.printf("%-10s p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n", name, millis(histogram, 50.0), millis(histogram, 99.0),
+				millis(histogram, 99.9), histogram.getMaxValue() / NANOS_PER_MILLI);
+	}
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Minimal HTTP/1.1 server on the loopback interface that answers each path with a fixed, pre-encoded response.
+ *
+ * <p>Each connection is served by its own thread, reusing its buffers for all requests on that connection.
+ * Request bodies are discarded. Serving a request does not allocate, so allocation rates measured in the
+ * benchmark process are caused by the client.
+ */
+final class LoopbackServer implements Closeable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final byte[] NOT_FOUND = "HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] CONTENT_LENGTH = "content-length".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] TRANSFER_ENCODING = "transfer-encoding".getBytes(StandardCharsets.ISO_8859_1);
+
+	private final List<byte[]> paths = new ArrayList<>();
+	private final List<byte[]> responses = new ArrayList<>();
+	private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+	private ServerSocket serverSocket;
+	private volatile boolean closed;
+
+	/**
+	 * Answer requests for the given path with a response that has a {@code Content-Length} delimited body.
+	 */
+	LoopbackServer fixed(String path, String contentType, byte[] body) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length + 128);
+		writeAscii(out, "HTTP/1.1 200 OK\r\nContent-Type: " + contentType + "\r\nContent-Length: " + body.length + "\r\n\r\n");
+		out.write(body, 0, body.length);
+		return route(path, out.toByteArray());
+	}
+
+	/**
+	 * Answer requests for the given path with a response that has a chunked body, using chunks of the given size.
+	 */
+	LoopbackServer chunked(String path, String contentType, byte[] body, int chunkSize) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length + body.length / chunkSize * 8 + 128);
+		writeAscii(out, "HTTP/1.1 200 OK\r\nContent-Type: " + contentType + "\r\nTransfer-Encoding: chunked\r\n\r\n");
+		for (int off = 0; off < body.length; off += chunkSize) {
+			final int len = Math.min(chunkSize, body.length - off);
+			writeAscii(out, Integer.toHexString(len) + "\r\n");
+			out.write(body, off, len);
+			writeAscii(out, "\r\n");
+		}
+		writeAscii(out, "0\r\n\r\n");
+		return route(path, out.toByteArray());
+	}
+
+	private LoopbackServer route(String path, byte[] response) {
+		this.paths.add(path.getBytes(StandardCharsets.ISO_8859_1));
+		this.responses.add(response);
+		return this;
+	}
+
+	private static void writeAscii(ByteArrayOutputStream out, String str) {
+		final byte[] bytes = str.getBytes(StandardCharsets.ISO_8859_1);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	LoopbackServer start() throws IOException {
+		this.serverSocket = new ServerSocket();
+		this.serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+		final Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "loopback-server-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		return this;
+	}
+
+	URI uri(String path) {
+		return URI.create("http://127.0.0.1:" + this.serverSocket.getLocalPort() + path);
+	}
+
+	private void accept() {
+		while (!this.closed) {
+			try {
+				final Socket socket = this.serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				this.connections.add(socket);
+				final Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						serve(socket);
+					}
+				}, "loopback-server-" + socket.getPort());
+				thread.setDaemon(true);
+				thread.start();
+			} catch (IOException e) {
+				if (!this.closed) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try {
+			final Connection connection = new Connection(socket.getInputStream(), socket.getOutputStream());
+			while (connection.serveRequest()) {
+				// keep-alive
+			}
+		} catch (SocketException | EOFException e) {
+			// client closed or aborted the connection
+		} catch (IOException e) {
+			if (!this.closed) {
+				e.printStackTrace();
+			}
+		} finally {
+			this.connections.remove(socket);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.closed = true;
+		if (this.serverSocket != null) {
+			this.serverSocket.close();
+		}
+		for (Socket socket : this.connections) {
+			socket.close();
+		}
+	}
+
+
+	/**
+	 * Reads requests from a single connection, parsing only what is needed to find the response and
+	 * the end of the request body.
+	 */
+	private final class Connection {
+
+		private final InputStream in;
+		private final OutputStream out;
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		private int pos;
+		private int limit;
+
+		Connection(InputStream in, OutputStream out) {
+			this.in = in;
+			this.out = out;
+		}
+
+		/**
+		 * @return {@code false} if the client closed the connection before sending another request
+		 */
+		boolean serveRequest() throws IOException {
+			final int requestLineEnd = readLine();
+			if (requestLineEnd < 0) {
+				return false;
+			}
+			final byte[] response = findResponse(this.pos, requestLineEnd);
+			this.pos = requestLineEnd + 2;
+
+			long contentLength = 0;
+			boolean chunked = false;
+			int lineEnd;
+			while ((lineEnd = readLine()) != this.pos) {
+				if (lineEnd < 0) {
+					throw new EOFException();
+				}
+				if (headerNameEquals(CONTENT_LENGTH, lineEnd)) {
+					contentLength = parseDecimal(this.pos + CONTENT_LENGTH.length + 1, lineEnd);
+				} else if (headerNameEquals(TRANSFER_ENCODING, lineEnd)) {
+					chunked = true;
+				}
+				this.pos = lineEnd + 2;
+			}
+			this.pos = lineEnd + 2;
+
+			if (chunked) {
+				long chunkSize;
+				do {
+					lineEnd = readLine();
+					if (lineEnd < 0) {
+						throw new EOFException();
+					}
+					chunkSize = parseHex(this.pos, lineEnd);
+					this.pos = lineEnd + 2;
+					skip(chunkSize + (chunkSize > 0 ? 2 : 0));
+				} while (chunkSize > 0);
+				// trailers
+				while ((lineEnd = readLine()) != this.pos) {
+					if (lineEnd < 0) {
+						throw new EOFException();
+					}
+					this.pos = lineEnd + 2;
+				}
+				this.pos = lineEnd + 2;
+			} else {
+				skip(contentLength);
+			}
+
+			this.out.write(response);
+			this.out.flush();
+			return true;
+		}
+
+		/**
+		 * Make sure a complete line is buffered.
+		 * @return the index of the CR of the line end, or -1 if the connection was closed before
+		 */
+		private int readLine() throws IOException {
+			int scanned = this.pos;
+			while (true) {
+				for (int i = scanned; i < this.limit - 1; i++) {
+					if (this.buffer[i] == '\r' && this.buffer[i + 1] == '\n') {
+						return i;
+					}
+				}
+				scanned = Math.max(this.pos, this.limit - 1);
+				if (this.pos > 0) {
+					System.arraycopy(this.buffer, this.pos, this.buffer, 0, this.limit - this.pos);
+					scanned -= this.pos;
+					this.limit -= this.pos;
+					this.pos = 0;
+				}
+				if (this.limit == this.buffer.length) {
+					throw new IOException("Line too long");
+				}
+				final int n = this.in.read(this.buffer, this.limit, this.buffer.length - this.limit);
+				if (n < 0) {
+					return -1;
+				}
+				this.limit += n;
+			}
+		}
+
+		private void skip(long n) throws IOException {
+			while (n > 0) {
+				if (this.pos == this.limit) {
+					this.pos = 0;
+					this.limit = this.in.read(this.buffer, 0, this.buffer.length);
+					if (this.limit < 0) {
+						this.limit = 0;
+						throw new EOFException();
+					}
+				}
+				final int len = (int) Math.min(n, this.limit - this.pos);
+				this.pos += len;
+				n -= len;
+			}
+		}
+
+		private byte[] findResponse(int start, int end) {
+			// request line is "METHOD SP request-target SP HTTP-version", the query is ignored
+			int targetStart = start;
+			while (targetStart < end && this.buffer[targetStart] != ' ') {
+				targetStart++;
+			}
+			targetStart++;
+			int targetEnd = targetStart;
+			while (targetEnd < end && this.buffer[targetEnd] != ' ' && this.buffer[targetEnd] != '?') {
+				targetEnd++;
+			}
+			for (int i = 0; i < LoopbackServer.this.paths.size(); i++) {
+				final byte[] path = LoopbackServer.this.paths.get(i);
+				if (regionEquals(path, targetStart, targetEnd)) {
+					return LoopbackServer.this.responses.get(i);
+				}
+			}
+			return NOT_FOUND;
+		}
+
+		private boolean regionEquals(byte[] expected, int start, int end) {
+			if (end - start != expected.length) {
+				return false;
+			}
+			for (int i = 0; i < expected.length; i++) {
+				if (this.buffer[start + i] != expected[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private boolean headerNameEquals(byte[] lowerCaseName, int lineEnd) {
+			if (lineEnd - this.pos <= lowerCaseName.length || this.buffer[this.pos + lowerCaseName.length] != ':') {
+				return false;
+			}
+			for (int i = 0; i < lowerCaseName.length; i++) {
+				if ((this.buffer[this.pos + i] | 0x20) != lowerCaseName[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private long parseDecimal(int start, int end) throws IOException {
+			long value = 0;
+			for (int i = start; i < end; i++) {
+				final byte b = this.buffer[i];
+				if (b >= '0' && b <= '9') {
+					value = value * 10 + (b - '0');
+				} else if (b != ' ' && b != '\t') {
+					throw new IOException("Invalid Content-Length");
+				}
+			}
+			return value;
+		}
+
+		private long parseHex(int start, int end) throws IOException {
+			long value = 0;
+			for (int i = start; i < end; i++) {
+				final int digit = Character.digit(this.buffer[i], 16);
+				if (digit < 0) {
+					if (this.buffer[i] == ';' || this.buffer[i] == ' ') {
+						break;
+					}
+					throw new IOException("Invalid chunk size");
+				}
+				value = value * 16 + digit;
+			}
+			return value;
+		}
+	}
+}
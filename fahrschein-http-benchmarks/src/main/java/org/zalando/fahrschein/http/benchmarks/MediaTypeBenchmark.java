@@ -0,0 +1,88 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.MediaType;
+import org.zalando.fahrschein.http.api.MediaTypeCache;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing of {@code Content-Type} and {@code Accept} header values, with and without
+ * the {@link MediaTypeCache}.
+ *
+ * <p>Run with {@code -prof gc} to report the allocation per operation:
+ * {@code java -jar fahrschein-http-benchmarks/target/benchmarks.jar MediaTypeBenchmark -prof gc}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MediaTypeBenchmark {
+
+	@Param({"true", "false"})
+	public boolean cache;
+
+	@Setup
+	public void setup() {
+		MediaTypeCache.getDefault().setEnabled(this.cache);
+	}
+
+	/**
+	 * Typical {@code Content-Type} header values.
+	 */
+	@State(Scope.Thread)
+	public static class ContentType {
+
+		@Param({"application/json", "application/json;charset=UTF-8", "application/problem+json; charset=utf-8"})
+		public String value;
+	}
+
+	/**
+	 * Typical {@code Accept} header values.
+	 */
+	@State(Scope.Thread)
+	public static class Accept {
+
+		@Param({"application/json", "application/x-json-stream, application/json;q=0.9, */*;q=0.1"})
+		public String value;
+	}
+
+	@Benchmark
+	public MediaType parseMediaType(ContentType contentType) {
+		return MediaType.parseMediaType(contentType.value);
+	}
+
+	@Benchmark
+	public List<MediaType> parseMediaTypes(Accept accept) {
+		return MediaType.parseMediaTypes(accept.value);
+	}
+}
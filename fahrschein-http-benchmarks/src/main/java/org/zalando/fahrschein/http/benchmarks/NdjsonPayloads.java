@@ -0,0 +1,77 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.UUID;
+
+/**
+ * Generates representative newline-delimited JSON payloads, resembling batches of business events
+ * as published to and consumed from Nakadi. The output is deterministic for a given size.
+ */
+final class NdjsonPayloads {
+
+	private static final String[] EVENT_TYPES = {"order.order_created", "order.order_shipped", "article.stock_changed", "customer.address_updated"};
+	private static final String[] CURRENCIES = {"EUR", "CHF", "SEK", "PLN", "DKK"};
+
+	private NdjsonPayloads() {
+	}
+
+	/**
+	 * Return a payload of complete events with at least the given size in bytes.
+	 */
+	static byte[] generate(int minSize) {
+		final Random random = new Random(minSize);
+		final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		final StringBuilder sb = new StringBuilder(minSize + 1024);
+		long timestamp = 1467000000000L;
+		int offset = 0;
+		while (sb.length() < minSize) {
+			timestamp += random.nextInt(1000);
+			final String eventType = EVENT_TYPES[random.nextInt(EVENT_TYPES.length)];
+			sb.append("{\"metadata\":{\"eid\":\"").append(new UUID(random.nextLong(), random.nextLong()))
+					.append("\",\"event_type\":\"").append(eventType)
+					.append("\",\"occurred_at\":\"").append(dateFormat.format(new Date(timestamp)))
+					.append("\",\"partition\":\"").append(random.nextInt(8))
+					.append("\",\"offset\":\"").append(String.format("%018d", offset++))
+					.append("\",\"flow_id\":\"").append(Long.toString(random.nextLong() & Long.MAX_VALUE, 36))
+					.append("\"},\"order_number\":\"").append(10000000 + random.nextInt(90000000))
+					.append("\",\"customer\":{\"id\":").append(random.nextInt(1000000))
+					.append(",\"country\":\"DE\"},\"amount\":{\"value\":").append(random.nextInt(50000) / 100.0)
+					.append(",\"currency\":\"").append(CURRENCIES[random.nextInt(CURRENCIES.length)])
+					.append("\"},\"items\":[");
+			final int items = 1 + random.nextInt(4);
+			for (int i = 0; i < items; i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				sb.append("{\"sku\":\"SKU").append(100000 + random.nextInt(900000))
+						.append("\",\"quantity\":").append(1 + random.nextInt(3))
+						.append(",\"price\":").append(random.nextInt(20000) / 100.0)
+						.append('}');
+			}
+			sb.append("]}\n");
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+}
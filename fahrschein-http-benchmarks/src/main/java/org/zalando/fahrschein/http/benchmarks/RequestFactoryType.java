@@ -0,0 +1,100 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.benchmarks;
+
+import org.apache.http.impl.client.HttpClients;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.zalando.fahrschein.http.apache.HttpComponentsClientHttpRequestFactory;
+import org.zalando.fahrschein.http.jdk.JdkClientHttpRequestFactory;
+import org.zalando.fahrschein.http.netty.NettyClientHttpRequestFactory;
+import org.zalando.fahrschein.http.nio.NioClientHttpRequestFactory;
+import org.zalando.fahrschein.http.simple.SimpleClientHttpRequestFactory;
+
+import java.net.http.HttpClient;
+
+/**
+ * The {@link ClientHttpRequestFactory} implementations compared by the benchmarks.
+ *
+ * <p>Benchmarks declare a {@code @Param} of this type without values, so JMH runs them for every
+ * constant. A new implementation is benchmarked by adding a constant here.
+ */
+public enum RequestFactoryType {
+
+	SIMPLE {
+		@Override
+		ClientHttpRequestFactory create() {
+			return new SimpleClientHttpRequestFactory();
+		}
+	},
+	APACHE {
+		@Override
+		ClientHttpRequestFactory create() {
+			return new HttpComponentsClientHttpRequestFactory(HttpClients.custom()
+					.setMaxConnTotal(MAX_CONNECTIONS)
+					.setMaxConnPerRoute(MAX_CONNECTIONS)
+					.build());
+		}
+
+		@Override
+		void destroy(ClientHttpRequestFactory requestFactory) throws Exception {
+			((HttpComponentsClientHttpRequestFactory) requestFactory).destroy();
+		}
+	},
+	JDK {
+		@Override
+		ClientHttpRequestFactory create() {
+			// the loopback server only speaks HTTP/1.1
+			return new JdkClientHttpRequestFactory(HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build());
+		}
+	},
+	NIO {
+		@Override
+		ClientHttpRequestFactory create() {
+			return new NioClientHttpRequestFactory();
+		}
+
+		@Override
+		void destroy(ClientHttpRequestFactory requestFactory) {
+			((NioClientHttpRequestFactory) requestFactory).destroy();
+		}
+	},
+	NETTY {
+		@Override
+		ClientHttpRequestFactory create() {
+			return new NettyClientHttpRequestFactory();
+		}
+
+		@Override
+		void destroy(ClientHttpRequestFactory requestFactory) {
+			((NettyClientHttpRequestFactory) requestFactory).destroy();
+		}
+	};
+
+	private static final int MAX_CONNECTIONS = 64;
+
+	/**
+	 * Create a request factory with its default configuration, allowing enough connections for
+	 * benchmarks running with multiple threads.
+	 */
+	abstract ClientHttpRequestFactory create();
+
+	/**
+	 * Release the connections and threads of a request factory created by {@link #create()}.
+	 */
+	void destroy(ClientHttpRequestFactory requestFactory) throws Exception {
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.brotli;
+
+import com.aayushatharva.brotli4j.Brotli4jLoader;
+import com.aayushatharva.brotli4j.decoder.BrotliInputStream;
+import com.aayushatharva.brotli4j.encoder.BrotliOutputStream;
+import com.aayushatharva.brotli4j.encoder.Encoder;
+import org.zalando.fahrschein.http.api.ContentCodec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link ContentCodec} for the {@code br} content coding based on the brotli4j bindings.
+ *
+ * <p>Registered via {@link java.util.ServiceLoader}. The native brotli library is loaded when the
+ * codec is created, if it is not available for the current platform the codec is skipped and
+ * {@code br} is not advertised in the {@code Accept-Encoding} header.
+ *
+ * @author Joern Horstmann
+ */
+public final class BrotliContentCodec implements ContentCodec {
+
+	/**
+	 * The {@code br} content coding.
+	 */
+	public static final String BR = "br";
+
+	/**
+	 * The default quality for dynamic content, trading compression ratio for speed.
+	 */
+	public static final int DEFAULT_QUALITY = 4;
+
+	private final int quality;
+
+	public BrotliContentCodec() {
+		this(DEFAULT_QUALITY);
+	}
+
+	/**
+	 * Create a codec encoding with the given quality.
+	 * @param quality the compression quality, between 0 (fastest) and 11 (best compression)
+	 */
+	public BrotliContentCodec(int quality) {
+		if (quality < 0 || quality > 11) {
+			throw new IllegalArgumentException("Quality must be between 0 and 11");
+		}
+		Brotli4jLoader.ensureAvailability();
+		this.quality = quality;
+	}
+
+	@Override
+	public String getName() {
+		return BR;
+	}
+
+	@Override
+	public OutputStream encode(OutputStream out) throws IOException {
+		return new BrotliOutputStream(out, new Encoder.Parameters().setQuality(this.quality));
+	}
+
+	@Override
+	public InputStream decode(InputStream in) throws IOException {
+		return new BrotliInputStream(in);
+	}
+
+	/**
+	 * Return the quality used for encoding.
+	 */
+	public int getQuality() {
+		return this.quality;
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.jdk;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.zalando.fahrschein.http.api.BufferPool;
+import org.zalando.fahrschein.http.api.PooledByteArrayOutputStream;
+import org.zalando.fahrschein.http.api.RequestCompression;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link ClientHttpRequest} implementation based on the {@link HttpClient} of Java 11.
+ *
+ * <p>The request body is buffered in a pooled buffer, which is released when the response is closed.
+ * The response is returned as soon as its headers were received, the body is streamed.
+ *
+ * <p>Created via the {@link JdkClientHttpRequestFactory}.
+ *
+ * @author Joern Horstmann
+ * @see JdkClientHttpRequestFactory#createRequest(URI, HttpMethod)
+ */
+final class JdkClientHttpRequest implements ClientHttpRequest {
+
+	/**
+	 * Headers which the {@link HttpClient} manages itself and rejects when set explicitly.
+	 */
+	private static final Set<String> SKIPPED_HEADERS = Set.of("connection", "content-length", "expect", "host", "transfer-encoding", "upgrade");
+
+	/**
+	 * Headers which the {@link HttpClient} of Java 11 also rejects, unless allowed by the
+	 * {@code jdk.httpclient.allowRestrictedHeaders} system property. Later releases accept them,
+	 * so they are only skipped if the request builder rejects them.
+	 */
+	private static final Set<String> RESTRICTED_HEADERS = Set.of("date", "from", "origin", "referer", "via", "warning");
+
+	private final HttpClient httpClient;
+	private final URI uri;
+	private final HttpMethod method;
+	private final Duration timeout;
+	private final BufferPool bufferPool;
+	private final RequestCompression compression;
+	private final ResponseDecompression decompression;
+	private final HttpHeaders headers;
+	private PooledByteArrayOutputStream bufferedOutput;
+	private boolean executed;
+
+	JdkClientHttpRequest(HttpClient httpClient, URI uri, HttpMethod method, Duration timeout, BufferPool bufferPool, RequestCompression compression, ResponseDecompression decompression) {
+		this.httpClient = httpClient;
+		this.uri = uri;
+		this.method = method;
+		this.timeout = timeout;
+		this.bufferPool = bufferPool;
+		this.compression = compression;
+		this.decompression = decompression;
+		this.headers = new HttpHeaders();
+	}
+
+	@Override
+	public HttpMethod getMethod() {
+		return this.method;
+	}
+
+	@Override
+	public URI getURI() {
+		return this.uri;
+	}
+
+	private static String collectionToDelimitedString(Collection<?> coll, String delim) {
+		if (coll == null || coll.isEmpty()) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder();
+		Iterator<?> it = coll.iterator();
+		while (it.hasNext()) {
+			sb.append(it.next());
+			if (it.hasNext()) {
+				sb.append(delim);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Add the given headers to the given request builder.
+	 * <p>Headers managed by the {@link HttpClient}, and restricted headers rejected by the running
+	 * Java release, are skipped. An {@code Expect: 100-continue} header is translated to
+	 * {@link HttpRequest.Builder#expectContinue(boolean)}.
+	 * @param builder the request builder to add the headers to
+	 * @param headers the headers to add
+	 */
+	private static void addHeaders(HttpRequest.Builder builder, HttpHeaders headers) {
+		for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+			final String headerName = entry.getKey();
+			final String lowerCaseName = headerName.toLowerCase(Locale.ENGLISH);
+			if (HttpHeaders.COOKIE.equalsIgnoreCase(headerName)) {  // RFC 6265
+				final String headerValue = collectionToDelimitedString(entry.getValue(), "; ");
+				builder.setHeader(headerName, headerValue);
+			} else if ("expect".equals(lowerCaseName)) {
+				for (String headerValue : entry.getValue()) {
+					if ("100-continue".equalsIgnoreCase(headerValue)) {
+						builder.expectContinue(true);
+					}
+				}
+			} else if (!SKIPPED_HEADERS.contains(lowerCaseName)) {
+				for (String headerValue : entry.getValue()) {
+					final String actualHeaderValue = headerValue != null ? headerValue : "";
+					try {
+						builder.header(headerName, actualHeaderValue);
+					} catch (IllegalArgumentException e) {
+						if (!RESTRICTED_HEADERS.contains(lowerCaseName)) {
+							throw e;
+						}
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	private ClientHttpResponse executeInternal() throws IOException {
+		try {
+			final ClientHttpResponse response = doExecute();
+			// The pooled buffer is owned by the response from now on
+			this.bufferedOutput = null;
+			return response;
+		} finally {
+			if (this.bufferedOutput != null) {
+				this.bufferedOutput.release();
+				this.bufferedOutput = null;
+			}
+		}
+	}
+
+	private ClientHttpResponse doExecute() throws IOException {
+		int size = this.bufferedOutput != null ? this.bufferedOutput.size() : 0;
+		if (this.compression != null && this.bufferedOutput != null && this.compression.shouldCompress(this.headers, size)) {
+			final PooledByteArrayOutputStream compressed = this.compression.compress(this.bufferedOutput.getBuffer(), 0, size);
+			this.bufferedOutput.release();
+			this.bufferedOutput = compressed;
+			size = compressed.size();
+			this.compression.applyHeaders(this.headers, size);
+		}
+
+		final HttpRequest.BodyPublisher bodyPublisher = this.bufferedOutput != null
+				? HttpRequest.BodyPublishers.ofByteArray(this.bufferedOutput.getBuffer(), 0, size)
+				: HttpRequest.BodyPublishers.noBody();
+
+		final HttpRequest.Builder builder = HttpRequest.newBuilder(this.uri).method(this.method.name(), bodyPublisher);
+		if (this.timeout != null) {
+			builder.timeout(this.timeout);
+		}
+		addHeaders(builder, this.headers);
+
+		final HttpResponse<InputStream> response;
+		try {
+			response = this.httpClient.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			final InterruptedIOException exception = new InterruptedIOException("Interrupted while waiting for the response");
+			exception.initCause(e);
+			throw exception;
+		}
+
+		return new JdkClientHttpResponse(response, this.bufferedOutput, this.decompression);
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		return (this.executed ? HttpHeaders.readOnlyHttpHeaders(this.headers) : this.headers);
+	}
+
+	@Override
+	public OutputStream getBody() throws IOException {
+		assertNotExecuted();
+		if (this.bufferedOutput == null) {
+			this.bufferedOutput = new PooledByteArrayOutputStream(this.bufferPool, getURI());
+		}
+		return this.bufferedOutput;
+	}
+
+	@Override
+	public ClientHttpResponse execute() throws IOException {
+		assertNotExecuted();
+		final ClientHttpResponse result = executeInternal();
+		this.executed = true;
+		return result;
+	}
+
+	/**
+	 * Assert that this request has not been {@linkplain #execute() executed} yet.
+	 * @throws IllegalStateException if this request has been executed
+	 */
+	private void assertNotExecuted() {
+		if (this.executed) {
+			throw new IllegalStateException("ClientHttpRequest already executed");
+		}
+	}
+}
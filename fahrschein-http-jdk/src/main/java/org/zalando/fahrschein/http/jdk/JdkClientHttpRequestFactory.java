@@ -0,0 +1,139 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.jdk;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.zalando.fahrschein.http.api.BufferPool;
+import org.zalando.fahrschein.http.api.RequestCompression;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+/**
+ * {@link ClientHttpRequestFactory} implementation based on the
+ * {@link HttpClient} of Java 11.
+ *
+ * <p>The client negotiates HTTP/2 where the server supports it, so concurrent requests to the
+ * same host are multiplexed over a single connection. Response bodies are streamed, the client
+ * only requests more data from the connection while the application consumes the body.
+ *
+ * @author Joern Horstmann
+ * @see HttpClient
+ */
+public class JdkClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+	private final HttpClient httpClient;
+	private Duration readTimeout;
+	private BufferPool bufferPool = BufferPool.getDefault();
+	private RequestCompression requestCompression;
+	private ResponseDecompression responseDecompression;
+
+
+	/**
+	 * Create a new instance of the {@code JdkClientHttpRequestFactory}
+	 * with a default {@link HttpClient}, which prefers HTTP/2 and does not follow redirects.
+	 */
+	public JdkClientHttpRequestFactory() {
+		this(HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build());
+	}
+
+	/**
+	 * Create a new instance of the {@code JdkClientHttpRequestFactory}
+	 * with the given {@link HttpClient} instance.
+	 * <p>Connect timeout, proxy, redirect policy and the preferred protocol version are
+	 * configured on the {@link HttpClient.Builder}.
+	 * @param httpClient the HttpClient instance to use for this request factory
+	 */
+	public JdkClientHttpRequestFactory(HttpClient httpClient) {
+		if (httpClient == null) {
+			throw new IllegalArgumentException("HttpClient must not be null");
+		}
+		this.httpClient = httpClient;
+	}
+
+
+	/**
+	 * Return the {@code HttpClient} used for
+	 * {@linkplain #createRequest(URI, HttpMethod) synchronous execution}.
+	 */
+	public HttpClient getHttpClient() {
+		return this.httpClient;
+	}
+
+	/**
+	 * Set the timeout for receiving the response headers (in milliseconds).
+	 * A timeout value of 0 or less specifies an infinite timeout.
+	 * <p>Default is an infinite timeout. The timeout does not apply to reading the response body.
+	 *
+	 * @see java.net.http.HttpRequest.Builder#timeout(Duration)
+	 */
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout > 0 ? Duration.ofMillis(readTimeout) : null;
+	}
+
+	/**
+	 * Set the {@link BufferPool} used for buffering request bodies.
+	 * <p>Default is the {@linkplain BufferPool#getDefault() shared pool}.
+	 */
+	public void setBufferPool(BufferPool bufferPool) {
+		if (bufferPool == null) {
+			throw new IllegalArgumentException("BufferPool must not be null");
+		}
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Enable compression of request bodies using the given configuration.
+	 * <p>Default is {@code null}, meaning request bodies are sent uncompressed.
+	 *
+	 * @see org.zalando.fahrschein.http.api.GzipRequestCompression#fixed(int, int)
+	 * @see org.zalando.fahrschein.http.api.GzipRequestCompression#adaptive(int, int, long)
+	 * @see RequestCompression#forEncoding(String, int)
+	 */
+	public void setRequestCompression(RequestCompression requestCompression) {
+		this.requestCompression = requestCompression;
+	}
+
+	/**
+	 * Indicate whether responses should be transparently decompressed.
+	 * <p>Default is {@code false}. When enabled, requests are sent with an {@code Accept-Encoding}
+	 * header listing all {@linkplain org.zalando.fahrschein.http.api.ContentCodecs available codecs},
+	 * unless that header is set explicitly, and compressed response bodies are decoded while reading. The {@code Content-Encoding} and
+	 * {@code Content-Length} headers of decoded responses are removed.
+	 *
+	 * @see ResponseDecompression
+	 */
+	public void setDecompressResponses(boolean decompressResponses) {
+		this.responseDecompression = decompressResponses ? ResponseDecompression.getDefault() : null;
+	}
+
+	@Override
+	public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+		final ClientHttpRequest request = new JdkClientHttpRequest(this.httpClient, uri, httpMethod, this.readTimeout,
+				this.bufferPool, this.requestCompression, this.responseDecompression);
+		if (this.responseDecompression != null) {
+			this.responseDecompression.applyRequestHeaders(request.getHeaders());
+		}
+		return request;
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.jdk;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.zalando.fahrschein.http.api.LazyHeaderMap;
+import org.zalando.fahrschein.http.api.PooledByteArrayOutputStream;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ClientHttpResponse} implementation based on the {@link java.net.http.HttpClient} of Java 11.
+ *
+ * <p>The body is read from the stream of {@link HttpResponse.BodyHandlers#ofInputStream()}, which
+ * only requests more data from the connection after the previously received buffers were consumed.
+ * Closing the response before the body was read completely cancels the exchange.
+ *
+ * <p>Created via the {@link JdkClientHttpRequest}.
+ *
+ * @author Joern Horstmann
+ * @see JdkClientHttpRequest#execute()
+ */
+final class JdkClientHttpResponse implements ClientHttpResponse {
+
+	private final HttpResponse<InputStream> response;
+	private final ResponseDecompression decompression;
+	private PooledByteArrayOutputStream requestBody;
+	private HttpHeaders headers;
+	private InputStream responseStream;
+
+	JdkClientHttpResponse(HttpResponse<InputStream> response, PooledByteArrayOutputStream requestBody, ResponseDecompression decompression) {
+		this.response = response;
+		this.requestBody = requestBody;
+		this.decompression = decompression;
+	}
+
+	@Override
+	public int getRawStatusCode() throws IOException {
+		return this.response.statusCode();
+	}
+
+	/**
+	 * Return the reason phrase of the status code, HTTP/2 does not transmit a status text.
+	 */
+	@Override
+	public String getStatusText() throws IOException {
+		final int statusCode = getRawStatusCode();
+		for (HttpStatus status : HttpStatus.values()) {
+			if (status.value() == statusCode) {
+				return status.getReasonPhrase();
+			}
+		}
+		return "";
+	}
+
+	@Override
+	public HttpStatus getStatusCode() throws IOException {
+		return HttpStatus.valueOf(getRawStatusCode());
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		if (this.headers == null) {
+			this.headers = new HttpHeaders(new ResponseHeaders(this.response.headers()));
+			if (this.decompression != null) {
+				this.decompression.applyResponseHeaders(this.headers);
+			}
+		}
+		return this.headers;
+	}
+
+	@Override
+	public InputStream getBody() throws IOException {
+		if (this.responseStream == null) {
+			final InputStream body = this.response.body();
+			this.responseStream = (this.decompression != null ? this.decompression.decode(this.response.headers().firstValue(HttpHeaders.CONTENT_ENCODING).orElse(null), body) : body);
+		}
+		return this.responseStream;
+	}
+
+	@Override
+	public void close() {
+		try {
+			// Closing the body stream before the end cancels the subscription and with it the exchange
+			if (this.responseStream != null) {
+				this.responseStream.close();
+			} else {
+				this.response.body().close();
+			}
+		} catch (IOException ex) {
+			// ignore
+		} finally {
+			if (this.requestBody != null) {
+				this.requestBody.release();
+				this.requestBody = null;
+			}
+		}
+	}
+
+
+	/**
+	 * View of the response headers that looks up single headers in the {@link java.net.http.HttpHeaders},
+	 * without copying them.
+	 */
+	private static final class ResponseHeaders extends LazyHeaderMap {
+
+		private final java.net.http.HttpHeaders headers;
+
+		ResponseHeaders(java.net.http.HttpHeaders headers) {
+			this.headers = headers;
+		}
+
+		@Override
+		protected String getFirstValue(String name) {
+			return this.headers.firstValue(name).orElse(null);
+		}
+
+		@Override
+		protected List<String> getValues(String name) {
+			return this.headers.allValues(name);
+		}
+
+		@Override
+		protected void copyTo(HttpHeaders headers) {
+			for (Map.Entry<String, List<String>> entry : this.headers.map().entrySet()) {
+				for (String value : entry.getValue()) {
+					headers.add(entry.getKey(), value);
+				}
+			}
+		}
+	}
+}
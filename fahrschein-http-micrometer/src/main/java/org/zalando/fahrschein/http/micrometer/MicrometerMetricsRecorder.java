@@ -0,0 +1,183 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.micrometer;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.zalando.fahrschein.http.api.MetricsRecorder;
+import org.zalando.fahrschein.http.api.RequestMetrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link MetricsRecorder} registering its meters in a Micrometer {@link MeterRegistry}.
+ *
+ * <p>All meters are tagged with {@code host} and {@code method}. With the default prefix the following meters are registered:
+ * <ul>
+ * <li>{@code http.client.execute}, timer tagged with the {@code outcome}, which is the name of the
+ * {@linkplain HttpStatus.Series status series}, {@code UNKNOWN} or {@code IO_ERROR}</li>
+ * <li>{@code http.client.first.byte}, timer until the first byte of the response body was read</li>
+ * <li>{@code http.client.body.read}, timer from receiving the response headers to closing the response</li>
+ * <li>{@code http.client.bytes.sent} and {@code http.client.bytes.received}, distribution summaries of the body sizes</li>
+ * <li>{@code http.client.in.flight}, gauge of the requests executing or with an open response</li>
+ * </ul>
+ *
+ * @author Joern Horstmann
+ * @see org.zalando.fahrschein.http.api.InstrumentedClientHttpRequestFactory
+ */
+public class MicrometerMetricsRecorder implements MetricsRecorder {
+
+	private static final String DEFAULT_PREFIX = "http.client";
+
+	private final MeterRegistry registry;
+	private final String prefix;
+	private final Map<String, RequestMetrics> metrics = new HashMap<>();
+
+	/**
+	 * Create a recorder registering meters with the prefix {@code http.client}.
+	 * @param registry the registry to register the meters with
+	 */
+	public MicrometerMetricsRecorder(MeterRegistry registry) {
+		this(registry, DEFAULT_PREFIX);
+	}
+
+	/**
+	 * Create a recorder registering meters with the given prefix.
+	 * @param registry the registry to register the meters with
+	 * @param prefix the prefix of all meter names
+	 */
+	public MicrometerMetricsRecorder(MeterRegistry registry, String prefix) {
+		if (registry == null) {
+			throw new IllegalArgumentException("MeterRegistry must not be null");
+		}
+		if (prefix == null || prefix.isEmpty()) {
+			throw new IllegalArgumentException("Prefix must not be empty");
+		}
+		this.registry = registry;
+		this.prefix = prefix;
+	}
+
+	@Override
+	public synchronized RequestMetrics getRequestMetrics(String host, HttpMethod method) {
+		final String key = method.name() + " " + host;
+		RequestMetrics requestMetrics = this.metrics.get(key);
+		if (requestMetrics == null) {
+			requestMetrics = new MicrometerRequestMetrics(Tags.of("host", host, "method", method.name()));
+			this.metrics.put(key, requestMetrics);
+		}
+		return requestMetrics;
+	}
+
+
+	/**
+	 * Meters for one host and method.
+	 */
+	private final class MicrometerRequestMetrics implements RequestMetrics {
+
+		private final Timer[] executeBySeries;
+		private final Timer executeUnknown;
+		private final Timer executeFailed;
+		private final Timer firstByte;
+		private final Timer bodyRead;
+		private final DistributionSummary bytesSent;
+		private final DistributionSummary bytesReceived;
+		private final AtomicInteger inFlight = new AtomicInteger();
+
+		MicrometerRequestMetrics(Tags tags) {
+			final HttpStatus.Series[] series = HttpStatus.Series.values();
+			this.executeBySeries = new Timer[series.length];
+			for (HttpStatus.Series s : series) {
+				this.executeBySeries[s.ordinal()] = executeTimer(tags, s.name());
+			}
+			this.executeUnknown = executeTimer(tags, "UNKNOWN");
+			this.executeFailed = executeTimer(tags, "IO_ERROR");
+			this.firstByte = Timer.builder(name("first.byte"))
+					.description("Time until the first byte of the response body was read")
+					.tags(tags)
+					.register(registry);
+			this.bodyRead = Timer.builder(name("body.read"))
+					.description("Time from receiving the response headers to closing the response")
+					.tags(tags)
+					.register(registry);
+			this.bytesSent = DistributionSummary.builder(name("bytes.sent"))
+					.description("Size of the request body")
+					.baseUnit("bytes")
+					.tags(tags)
+					.register(registry);
+			this.bytesReceived = DistributionSummary.builder(name("bytes.received"))
+					.description("Size of the response body read by the application")
+					.baseUnit("bytes")
+					.tags(tags)
+					.register(registry);
+			Gauge.builder(name("in.flight"), this.inFlight, AtomicInteger::get)
+					.description("Requests executing or with an open response")
+					.tags(tags)
+					.register(registry);
+		}
+
+		private Timer executeTimer(Tags tags, String outcome) {
+			return Timer.builder(name("execute"))
+					.description("Time to execute a request until the response headers were received")
+					.tags(tags)
+					.tag("outcome", outcome)
+					.register(registry);
+		}
+
+		private String name(String suffix) {
+			return prefix + "." + suffix;
+		}
+
+		@Override
+		public void requestStarted() {
+			this.inFlight.incrementAndGet();
+		}
+
+		@Override
+		public void requestExecuted(long executeNanos, long bytesSent, HttpStatus.Series series) {
+			final Timer timer = series != null ? this.executeBySeries[series.ordinal()] : this.executeUnknown;
+			timer.record(executeNanos, TimeUnit.NANOSECONDS);
+			this.bytesSent.record(bytesSent);
+		}
+
+		@Override
+		public void requestFailed(long executeNanos, long bytesSent) {
+			this.executeFailed.record(executeNanos, TimeUnit.NANOSECONDS);
+			this.bytesSent.record(bytesSent);
+			this.inFlight.decrementAndGet();
+		}
+
+		@Override
+		public void firstByteReceived(long nanos) {
+			this.firstByte.record(nanos, TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public void responseClosed(long bodyReadNanos, long bytesReceived) {
+			this.bodyRead.record(bodyReadNanos, TimeUnit.NANOSECONDS);
+			this.bytesReceived.record(bytesReceived);
+			this.inFlight.decrementAndGet();
+		}
+	}
+}
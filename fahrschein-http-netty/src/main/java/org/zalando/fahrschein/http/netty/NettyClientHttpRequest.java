@@ -0,0 +1,251 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.zalando.fahrschein.http.api.BufferPool;
+import org.zalando.fahrschein.http.api.PooledByteArrayOutputStream;
+import org.zalando.fahrschein.http.api.RequestCompression;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ClientHttpRequest} implementation that uses Netty to execute requests.
+ *
+ * <p>The request body is buffered in a pooled buffer, which is sent without copying and released
+ * once it was written to the connection.
+ *
+ * <p>Created via the {@link NettyClientHttpRequestFactory}.
+ *
+ * @author Joern Horstmann
+ * @see NettyClientHttpRequestFactory#createRequest(URI, HttpMethod)
+ */
+final class NettyClientHttpRequest implements ClientHttpRequest {
+
+	private final ChannelPool channelPool;
+	private final URI uri;
+	private final HttpMethod method;
+	private final int readTimeout;
+	private final int responseQueueCapacity;
+	private final BufferPool bufferPool;
+	private final RequestCompression compression;
+	private final ResponseDecompression decompression;
+	private final HttpHeaders headers;
+	private PooledByteArrayOutputStream bufferedOutput;
+	private boolean executed;
+
+	NettyClientHttpRequest(ChannelPool channelPool, URI uri, HttpMethod method, int readTimeout, int responseQueueCapacity,
+			BufferPool bufferPool, RequestCompression compression, ResponseDecompression decompression) {
+		this.channelPool = channelPool;
+		this.uri = uri;
+		this.method = method;
+		this.readTimeout = readTimeout;
+		this.responseQueueCapacity = responseQueueCapacity;
+		this.bufferPool = bufferPool;
+		this.compression = compression;
+		this.decompression = decompression;
+		this.headers = new HttpHeaders();
+	}
+
+	@Override
+	public HttpMethod getMethod() {
+		return this.method;
+	}
+
+	@Override
+	public URI getURI() {
+		return this.uri;
+	}
+
+	private static String collectionToDelimitedString(Collection<?> coll, String delim) {
+		if (coll == null || coll.isEmpty()) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder();
+		Iterator<?> it = coll.iterator();
+		while (it.hasNext()) {
+			sb.append(it.next());
+			if (it.hasNext()) {
+				sb.append(delim);
+			}
+		}
+		return sb.toString();
+	}
+
+	private FullHttpRequest createNettyRequest(ByteBuf content) {
+		final String path = this.uri.getRawPath();
+		final String query = this.uri.getRawQuery();
+		final String target = (path == null || path.isEmpty() ? "/" : path) + (query != null ? "?" + query : "");
+		final FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,
+				io.netty.handler.codec.http.HttpMethod.valueOf(this.method.name()), target, content);
+		final io.netty.handler.codec.http.HttpHeaders nettyHeaders = request.headers();
+
+		if (!this.headers.containsKey(HttpHeaders.HOST)) {
+			nettyHeaders.set(HttpHeaders.HOST, this.uri.getPort() >= 0 ? this.uri.getHost() + ":" + this.uri.getPort() : this.uri.getHost());
+		}
+		for (Map.Entry<String, List<String>> entry : this.headers.entrySet()) {
+			final String headerName = entry.getKey();
+			if (HttpHeaders.COOKIE.equalsIgnoreCase(headerName)) {  // RFC 6265
+				nettyHeaders.add(headerName, collectionToDelimitedString(entry.getValue(), "; "));
+			} else if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(headerName) && !HttpHeaders.TRANSFER_ENCODING.equalsIgnoreCase(headerName)) {
+				for (String headerValue : entry.getValue()) {
+					nettyHeaders.add(headerName, headerValue != null ? headerValue : "");
+				}
+			}
+		}
+		final int size = content.readableBytes();
+		if (size > 0 || this.method == HttpMethod.POST || this.method == HttpMethod.PUT || this.method == HttpMethod.PATCH) {
+			nettyHeaders.set(HttpHeaders.CONTENT_LENGTH, size);
+		}
+		return request;
+	}
+
+	private ClientHttpResponse executeInternal() throws IOException {
+		try {
+			int size = this.bufferedOutput != null ? this.bufferedOutput.size() : 0;
+			if (this.compression != null && this.bufferedOutput != null && this.compression.shouldCompress(this.headers, size)) {
+				final PooledByteArrayOutputStream compressed = this.compression.compress(this.bufferedOutput.getBuffer(), 0, size);
+				this.bufferedOutput.release();
+				this.bufferedOutput = compressed;
+				size = compressed.size();
+				this.compression.applyHeaders(this.headers, size);
+			}
+			final ByteBuf content = this.bufferedOutput != null ? Unpooled.wrappedBuffer(this.bufferedOutput.getBuffer(), 0, size) : Unpooled.EMPTY_BUFFER;
+			final FullHttpRequest request = createNettyRequest(content);
+
+			final Channel channel = acquire();
+			final ResponseReceiver receiver = new ResponseReceiver(channel, this.channelPool, this.responseQueueCapacity);
+			channel.attr(ResponseHandler.RECEIVER).set(receiver);
+
+			// The pooled buffer is released once it was written
+			final PooledByteArrayOutputStream body = this.bufferedOutput;
+			this.bufferedOutput = null;
+			channel.writeAndFlush(request).addListener(new ChannelFutureListener() {
+				@Override
+				public void operationComplete(ChannelFuture future) {
+					if (body != null) {
+						body.release();
+					}
+					if (!future.isSuccess()) {
+						receiver.onFailure(future.cause());
+					}
+				}
+			});
+
+			final HttpResponse response = receiver.awaitResponse(this.readTimeout);
+			return new NettyClientHttpResponse(response, receiver.getBody(this.readTimeout), receiver, this.decompression);
+		} finally {
+			if (this.bufferedOutput != null) {
+				this.bufferedOutput.release();
+				this.bufferedOutput = null;
+			}
+		}
+	}
+
+	private Channel acquire() throws IOException {
+		final Future<Channel> future = this.channelPool.acquire();
+		try {
+			future.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			future.addListener(new ReleaseChannelListener(this.channelPool));
+			final InterruptedIOException exception = new InterruptedIOException("Interrupted while connecting to " + this.uri.getAuthority());
+			exception.initCause(e);
+			throw exception;
+		}
+		if (!future.isSuccess()) {
+			final Throwable cause = future.cause();
+			throw cause instanceof IOException ? (IOException) cause : new IOException("Could not connect to " + this.uri.getAuthority(), cause);
+		}
+		return future.getNow();
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		return (this.executed ? HttpHeaders.readOnlyHttpHeaders(this.headers) : this.headers);
+	}
+
+	@Override
+	public OutputStream getBody() throws IOException {
+		assertNotExecuted();
+		if (this.bufferedOutput == null) {
+			this.bufferedOutput = new PooledByteArrayOutputStream(this.bufferPool, getURI());
+		}
+		return this.bufferedOutput;
+	}
+
+	@Override
+	public ClientHttpResponse execute() throws IOException {
+		assertNotExecuted();
+		final ClientHttpResponse result = executeInternal();
+		this.executed = true;
+		return result;
+	}
+
+	/**
+	 * Assert that this request has not been {@linkplain #execute() executed} yet.
+	 * @throws IllegalStateException if this request has been executed
+	 */
+	private void assertNotExecuted() {
+		if (this.executed) {
+			throw new IllegalStateException("ClientHttpRequest already executed");
+		}
+	}
+
+
+	/**
+	 * Returns a channel that was acquired after the caller gave up waiting for it.
+	 */
+	private static final class ReleaseChannelListener implements FutureListener<Channel> {
+
+		private final ChannelPool channelPool;
+
+		ReleaseChannelListener(ChannelPool channelPool) {
+			this.channelPool = channelPool;
+		}
+
+		@Override
+		public void operationComplete(Future<Channel> future) {
+			if (future.isSuccess()) {
+				this.channelPool.release(future.getNow());
+			}
+		}
+	}
+}
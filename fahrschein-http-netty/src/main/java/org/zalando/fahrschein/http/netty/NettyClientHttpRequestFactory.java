@@ -0,0 +1,265 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.netty;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.pool.AbstractChannelPoolHandler;
+import io.netty.channel.pool.AbstractChannelPoolMap;
+import io.netty.channel.pool.ChannelPoolMap;
+import io.netty.channel.pool.SimpleChannelPool;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.zalando.fahrschein.http.api.BufferPool;
+import org.zalando.fahrschein.http.api.RequestCompression;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+/**
+ * {@link ClientHttpRequestFactory} implementation that uses <a href="https://netty.io">Netty</a>
+ * and its HTTP codec to create requests.
+ *
+ * <p>The native epoll transport is used if {@code netty-transport-native-epoll} is on the class path
+ * and can be loaded, the nio transport otherwise. Connections are kept alive and pooled per scheme,
+ * host and port.
+ *
+ * <p>Response bodies are received into pooled {@link io.netty.buffer.ByteBuf ByteBufs} and queued for
+ * the application thread reading {@link org.springframework.http.client.ClientHttpResponse#getBody()}.
+ * Reading from the connection is suspended while the queue holds the
+ * {@linkplain #setResponseQueueCapacity(int) maximum number of chunks}.
+ *
+ * <p>The event loop threads are started with the first request, configuration changes after that
+ * only apply to timeouts and body handling.
+ *
+ * @author Joern Horstmann
+ */
+public class NettyClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+	private static final int DEFAULT_RESPONSE_QUEUE_CAPACITY = 16;
+
+	private int eventLoopThreads;
+	private int connectTimeout = -1;
+	private int readTimeout = -1;
+	private int responseQueueCapacity = DEFAULT_RESPONSE_QUEUE_CAPACITY;
+	private BufferPool bufferPool = BufferPool.getDefault();
+	private RequestCompression requestCompression;
+	private ResponseDecompression responseDecompression;
+	private EventLoopGroup eventLoopGroup;
+	private ChannelPoolMap<Route, SimpleChannelPool> channelPools;
+	private SslContext sslContext;
+	private boolean destroyed;
+
+
+	/**
+	 * Set the number of event loop threads.
+	 * <p>Default is {@code 0}, meaning Netty's default of twice the number of available processors.
+	 */
+	public void setEventLoopThreads(int eventLoopThreads) {
+		if (eventLoopThreads < 0) {
+			throw new IllegalArgumentException("Number of event loop threads must not be negative");
+		}
+		this.eventLoopThreads = eventLoopThreads;
+	}
+
+	/**
+	 * Set the connect timeout (in milliseconds).
+	 * A timeout value of 0 specifies an infinite timeout.
+	 * <p>Default is Netty's default of 30 seconds.
+	 */
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * Set the read timeout (in milliseconds), which applies to waiting for the response headers
+	 * and to each blocking read of the response body.
+	 * A timeout value of 0 specifies an infinite timeout.
+	 * <p>Default is an infinite timeout.
+	 */
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * Set the number of received body chunks that are queued for each response before reading
+	 * from the connection is suspended.
+	 * <p>Default is 16.
+	 */
+	public void setResponseQueueCapacity(int responseQueueCapacity) {
+		if (responseQueueCapacity <= 0) {
+			throw new IllegalArgumentException("Response queue capacity must be positive");
+		}
+		this.responseQueueCapacity = responseQueueCapacity;
+	}
+
+	/**
+	 * Set the {@link SslContext} used for {@code https} requests.
+	 * <p>Default is a client context using the JDK's default trust store.
+	 */
+	public void setSslContext(SslContext sslContext) {
+		this.sslContext = sslContext;
+	}
+
+	/**
+	 * Set the {@link BufferPool} used for buffering request bodies.
+	 * <p>Default is the {@linkplain BufferPool#getDefault() shared pool}.
+	 */
+	public void setBufferPool(BufferPool bufferPool) {
+		if (bufferPool == null) {
+			throw new IllegalArgumentException("BufferPool must not be null");
+		}
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Enable compression of request bodies using the given configuration.
+	 * <p>Default is {@code null}, meaning request bodies are sent uncompressed.
+	 *
+	 * @see org.zalando.fahrschein.http.api.GzipRequestCompression#fixed(int, int)
+	 * @see org.zalando.fahrschein.http.api.GzipRequestCompression#adaptive(int, int, long)
+	 * @see RequestCompression#forEncoding(String, int)
+	 */
+	public void setRequestCompression(RequestCompression requestCompression) {
+		this.requestCompression = requestCompression;
+	}
+
+	/**
+	 * Indicate whether responses should be transparently decompressed.
+	 * <p>Default is {@code false}. When enabled, requests are sent with an {@code Accept-Encoding}
+	 * header listing all {@linkplain org.zalando.fahrschein.http.api.ContentCodecs available codecs},
+	 * unless that header is set explicitly, and compressed response bodies are decoded while reading. The {@code Content-Encoding} and
+	 * {@code Content-Length} headers of decoded responses are removed.
+	 *
+	 * @see ResponseDecompression
+	 */
+	public void setDecompressResponses(boolean decompressResponses) {
+		this.responseDecompression = decompressResponses ? ResponseDecompression.getDefault() : null;
+	}
+
+	private synchronized ChannelPoolMap<Route, SimpleChannelPool> getChannelPools() throws IOException {
+		if (this.destroyed) {
+			throw new IllegalStateException("Request factory was destroyed");
+		}
+		if (this.channelPools == null) {
+			final SslContext sslContext = this.sslContext != null ? this.sslContext : SslContextBuilder.forClient().build();
+			final Transport transport = Transport.getDefault();
+			this.eventLoopGroup = transport.createEventLoopGroup(this.eventLoopThreads);
+			final Bootstrap bootstrap = new Bootstrap()
+					.group(this.eventLoopGroup)
+					.channel(transport.getChannelClass())
+					.option(ChannelOption.TCP_NODELAY, true)
+					.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+			if (this.connectTimeout >= 0) {
+				bootstrap.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, this.connectTimeout);
+			}
+			this.channelPools = new AbstractChannelPoolMap<Route, SimpleChannelPool>() {
+				@Override
+				protected SimpleChannelPool newPool(final Route route) {
+					final Bootstrap routeBootstrap = bootstrap.clone().remoteAddress(InetSocketAddress.createUnresolved(route.host, route.port));
+					return new SimpleChannelPool(routeBootstrap, new AbstractChannelPoolHandler() {
+						@Override
+						public void channelCreated(Channel channel) {
+							final ChannelPipeline pipeline = channel.pipeline();
+							if (route.secure) {
+								pipeline.addLast(sslContext.newHandler(channel.alloc(), route.host, route.port));
+							}
+							pipeline.addLast(new HttpClientCodec());
+							pipeline.addLast(new ResponseHandler());
+						}
+					});
+				}
+			};
+		}
+		return this.channelPools;
+	}
+
+	@Override
+	public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+		final String scheme = uri.getScheme();
+		final boolean secure = "https".equalsIgnoreCase(scheme);
+		if (!secure && !"http".equalsIgnoreCase(scheme) || uri.getHost() == null) {
+			throw new IllegalArgumentException("Only absolute http and https URIs are supported: " + uri);
+		}
+		final String host = uri.getHost().startsWith("[") ? uri.getHost().substring(1, uri.getHost().length() - 1) : uri.getHost();
+		final int port = uri.getPort() >= 0 ? uri.getPort() : (secure ? 443 : 80);
+		final SimpleChannelPool channelPool = getChannelPools().get(new Route(secure, host, port));
+		final ClientHttpRequest request = new NettyClientHttpRequest(channelPool, uri, httpMethod, Math.max(0, this.readTimeout),
+				this.responseQueueCapacity, this.bufferPool, this.requestCompression, this.responseDecompression);
+		if (this.responseDecompression != null) {
+			this.responseDecompression.applyRequestHeaders(request.getHeaders());
+		}
+		return request;
+	}
+
+	/**
+	 * Shutdown hook that closes all pooled connections and stops the event loop threads.
+	 */
+	public synchronized void destroy() {
+		this.destroyed = true;
+		if (this.eventLoopGroup != null) {
+			this.eventLoopGroup.shutdownGracefully();
+			this.eventLoopGroup = null;
+			this.channelPools = null;
+		}
+	}
+
+
+	/**
+	 * Key of the connection pools.
+	 */
+	private static final class Route {
+
+		private final boolean secure;
+		private final String host;
+		private final int port;
+
+		Route(boolean secure, String host, int port) {
+			this.secure = secure;
+			this.host = host;
+			this.port = port;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof Route)) {
+				return false;
+			}
+			final Route route = (Route) other;
+			return this.secure == route.secure && this.port == route.port && this.host.equals(route.host);
+		}
+
+		@Override
+		public int hashCode() {
+			return (this.host.hashCode() * 31 + this.port) * 31 + (this.secure ? 1 : 0);
+		}
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.netty;
+
+import io.netty.handler.codec.http.HttpResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.zalando.fahrschein.http.api.LazyHeaderMap;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ClientHttpResponse} implementation that uses Netty to execute requests.
+ *
+ * <p>The connection is returned to the pool once the body was received completely. Closing the response
+ * before that closes the connection.
+ *
+ * <p>Created via the {@link NettyClientHttpRequest}.
+ *
+ * @author Joern Horstmann
+ * @see NettyClientHttpRequest#execute()
+ */
+final class NettyClientHttpResponse implements ClientHttpResponse {
+
+	private final HttpResponse response;
+	private final InputStream body;
+	private final ResponseReceiver receiver;
+	private final ResponseDecompression decompression;
+	private final String contentEncoding;
+	private HttpHeaders headers;
+	private InputStream responseStream;
+
+	NettyClientHttpResponse(HttpResponse response, InputStream body, ResponseReceiver receiver, ResponseDecompression decompression) {
+		this.response = response;
+		this.body = body;
+		this.receiver = receiver;
+		this.decompression = decompression;
+		this.contentEncoding = response.headers().get(HttpHeaders.CONTENT_ENCODING);
+	}
+
+	@Override
+	public int getRawStatusCode() throws IOException {
+		return this.response.status().code();
+	}
+
+	@Override
+	public String getStatusText() throws IOException {
+		return this.response.status().reasonPhrase();
+	}
+
+	@Override
+	public HttpStatus getStatusCode() throws IOException {
+		return HttpStatus.valueOf(getRawStatusCode());
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		if (this.headers == null) {
+			this.headers = new HttpHeaders(new ResponseHeaders(this.response.headers()));
+			if (this.decompression != null) {
+				this.decompression.applyResponseHeaders(this.headers);
+			}
+		}
+		return this.headers;
+	}
+
+	@Override
+	public InputStream getBody() throws IOException {
+		if (this.responseStream == null) {
+			this.responseStream = (this.decompression != null ? this.decompression.decode(this.contentEncoding, this.body) : this.body);
+		}
+		return this.responseStream;
+	}
+
+	@Override
+	public void close() {
+		try {
+			if (this.responseStream != null) {
+				this.responseStream.close();
+			}
+		} catch (IOException ex) {
+			// ignore
+		} finally {
+			this.receiver.abort();
+		}
+	}
+
+
+	/**
+	 * View of the response headers that looks up single headers in the Netty {@link io.netty.handler.codec.http.HttpHeaders},
+	 * without copying them.
+	 */
+	private static final class ResponseHeaders extends LazyHeaderMap {
+
+		private final io.netty.handler.codec.http.HttpHeaders headers;
+
+		ResponseHeaders(io.netty.handler.codec.http.HttpHeaders headers) {
+			this.headers = headers;
+		}
+
+		@Override
+		protected String getFirstValue(String name) {
+			return this.headers.get(name);
+		}
+
+		@Override
+		protected List<String> getValues(String name) {
+			return this.headers.getAll(name);
+		}
+
+		@Override
+		protected void copyTo(HttpHeaders headers) {
+			final Iterator<Map.Entry<String, String>> it = this.headers.iteratorAsString();
+			while (it.hasNext()) {
+				final Map.Entry<String, String> entry = it.next();
+				headers.add(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.netty;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.IOException;
+
+/**
+ * Dispatches the decoded response parts to the {@link ResponseReceiver} of the current exchange.
+ *
+ * @author Joern Horstmann
+ */
+final class ResponseHandler extends ChannelInboundHandlerAdapter {
+
+	static final AttributeKey<ResponseReceiver> RECEIVER = AttributeKey.valueOf(ResponseHandler.class, "receiver");
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) {
+		final ResponseReceiver receiver = ctx.channel().attr(RECEIVER).get();
+		if (receiver == null) {
+			// no exchange in progress, the server must not send anything
+			ReferenceCountUtil.release(msg);
+			ctx.close();
+			return;
+		}
+		if (msg instanceof HttpResponse) {
+			final HttpResponse response = (HttpResponse) msg;
+			if (response.decoderResult().isFailure()) {
+				ReferenceCountUtil.release(msg);
+				receiver.onFailure(new IOException("Invalid response", response.decoderResult().cause()));
+				return;
+			}
+			receiver.onResponse(response);
+		}
+		if (msg instanceof HttpContent) {
+			final HttpContent content = (HttpContent) msg;
+			if (content.decoderResult().isFailure()) {
+				content.release();
+				receiver.onFailure(new IOException("Invalid response body", content.decoderResult().cause()));
+				return;
+			}
+			// the content is released by the receiver
+			receiver.onContent(content.content());
+			if (content instanceof LastHttpContent) {
+				ctx.channel().attr(RECEIVER).set(null);
+				receiver.onComplete();
+			}
+		}
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+		final ResponseReceiver receiver = ctx.channel().attr(RECEIVER).getAndSet(null);
+		if (receiver != null) {
+			receiver.onFailure(new IOException("Connection closed before the response was complete"));
+		}
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+		final ResponseReceiver receiver = ctx.channel().attr(RECEIVER).getAndSet(null);
+		if (receiver != null) {
+			receiver.onFailure(cause);
+		}
+		ctx.close();
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Receives the response of a single exchange on the channel's event loop and hands it to the
+ * application thread.
+ *
+ * <p>Body chunks are kept as pooled {@link ByteBuf ByteBufs} in a bounded queue. Once the queue is full,
+ * {@linkplain io.netty.channel.ChannelConfig#setAutoRead(boolean) auto read} is switched off, so no more
+ * data is read from the socket until the application consumed half of the queued chunks.
+ *
+ * <p>The channel is returned to its pool as soon as the last chunk was received, or closed if the
+ * response does not allow reusing it or the application closes the body before its end.
+ *
+ * @author Joern Horstmann
+ */
+final class ResponseReceiver {
+
+	private final Channel channel;
+	private final ChannelPool channelPool;
+	private final int queueCapacity;
+	private final AtomicBoolean released = new AtomicBoolean();
+
+	// guarded by this
+	private final ArrayDeque<ByteBuf> chunks = new ArrayDeque<>();
+	private HttpResponse response;
+	private boolean keepAlive;
+	private boolean complete;
+	private boolean aborted;
+	private Throwable failure;
+
+	ResponseReceiver(Channel channel, ChannelPool channelPool, int queueCapacity) {
+		this.channel = channel;
+		this.channelPool = channelPool;
+		this.queueCapacity = queueCapacity;
+	}
+
+	// event loop
+
+	synchronized void onResponse(HttpResponse response) {
+		this.response = response;
+		this.keepAlive = HttpUtil.isKeepAlive(response);
+		notifyAll();
+	}
+
+	void onContent(ByteBuf content) {
+		synchronized (this) {
+			if (this.aborted || this.failure != null) {
+				content.release();
+				return;
+			}
+			if (content.isReadable()) {
+				this.chunks.addLast(content);
+				if (this.chunks.size() >= this.queueCapacity) {
+					this.channel.config().setAutoRead(false);
+				}
+				notifyAll();
+			} else {
+				content.release();
+			}
+		}
+	}
+
+	synchronized void onComplete() {
+		this.complete = true;
+		// the body is queued completely, the channel can serve the next exchange before the
+		// application sees the end of the body and sends its next request
+		release(this.keepAlive);
+		notifyAll();
+	}
+
+	void onFailure(Throwable cause) {
+		synchronized (this) {
+			if (this.complete || this.failure != null) {
+				return;
+			}
+			this.failure = cause;
+			notifyAll();
+		}
+		release(false);
+	}
+
+	// application thread
+
+	/**
+	 * Wait for the response head.
+	 * @param timeout the timeout in milliseconds, 0 or less for an infinite timeout
+	 */
+	synchronized HttpResponse awaitResponse(int timeout) throws IOException {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while (this.response == null) {
+			checkFailure();
+			await(timeout, deadline);
+		}
+		return this.response;
+	}
+
+	private void await(int timeout, long deadline) throws IOException {
+		try {
+			if (timeout <= 0) {
+				wait();
+			} else {
+				final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (remaining <= 0) {
+					abort();
+					throw new SocketTimeoutException("Read timed out");
+				}
+				wait(remaining);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			abort();
+			final InterruptedIOException exception = new InterruptedIOException("Interrupted while waiting for the response");
+			exception.initCause(e);
+			throw exception;
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		if (this.aborted) {
+			throw new IOException("Response was aborted");
+		}
+		if (this.failure != null) {
+			throw this.failure instanceof IOException ? (IOException) this.failure : new IOException(this.failure.getMessage(), this.failure);
+		}
+	}
+
+	private synchronized int read(byte[] b, int off, int len, int timeout) throws IOException {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while (this.chunks.isEmpty()) {
+			checkFailure();
+			if (this.complete) {
+				return -1;
+			}
+			await(timeout, deadline);
+		}
+		final ByteBuf chunk = this.chunks.peekFirst();
+		final int n = Math.min(len, chunk.readableBytes());
+		chunk.readBytes(b, off, n);
+		if (!chunk.isReadable()) {
+			this.chunks.pollFirst().release();
+			if (!this.complete && this.chunks.size() == this.queueCapacity / 2) {
+				this.channel.config().setAutoRead(true);
+			}
+		}
+		return n;
+	}
+
+	private synchronized int available() {
+		final ByteBuf chunk = this.chunks.peekFirst();
+		return chunk != null ? chunk.readableBytes() : 0;
+	}
+
+	/**
+	 * Discard the remaining body, closing the channel if the body was not received completely.
+	 */
+	void abort() {
+		final boolean complete;
+		synchronized (this) {
+			this.aborted = true;
+			complete = this.complete;
+			ByteBuf chunk;
+			while ((chunk = this.chunks.pollFirst()) != null) {
+				chunk.release();
+			}
+			notifyAll();
+		}
+		if (!complete) {
+			release(false);
+		}
+	}
+
+	private void release(boolean reuse) {
+		if (this.released.compareAndSet(false, true)) {
+			if (reuse) {
+				this.channel.config().setAutoRead(true);
+			} else {
+				this.channel.close();
+			}
+			this.channelPool.release(this.channel);
+		}
+	}
+
+	InputStream getBody(int timeout) {
+		return new BodyInputStream(timeout);
+	}
+
+
+	/**
+	 * Blocking stream over the queued body chunks.
+	 */
+	private final class BodyInputStream extends InputStream {
+
+		private final int timeout;
+		private final byte[] single = new byte[1];
+		private boolean closed;
+
+		BodyInputStream(int timeout) {
+			this.timeout = timeout;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int n = read(this.single, 0, 1);
+			return n < 0 ? -1 : this.single[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (this.closed) {
+				throw new IOException("Stream is closed");
+			}
+			if (len == 0) {
+				return 0;
+			}
+			return ResponseReceiver.this.read(b, off, len, this.timeout);
+		}
+
+		@Override
+		public int available() {
+			return this.closed ? 0 : ResponseReceiver.this.available();
+		}
+
+		@Override
+		public void close() {
+			if (!this.closed) {
+				this.closed = true;
+				abort();
+			}
+		}
+	}
+}
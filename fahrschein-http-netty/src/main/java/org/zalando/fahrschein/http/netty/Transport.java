@@ -0,0 +1,94 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.netty;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Selects the channel implementation, preferring the native epoll transport on Linux.
+ *
+ * @author Joern Horstmann
+ */
+abstract class Transport {
+
+	private static final String THREAD_POOL_NAME = "fahrschein-netty";
+
+	abstract EventLoopGroup createEventLoopGroup(int threads);
+
+	abstract Class<? extends Channel> getChannelClass();
+
+	abstract String getName();
+
+	/**
+	 * Return the epoll transport if its native library can be loaded, the nio transport otherwise.
+	 */
+	static Transport getDefault() {
+		try {
+			if (Epoll.isAvailable()) {
+				return new EpollTransport();
+			}
+		} catch (LinkageError e) {
+			// netty-transport-native-epoll is not on the class path
+		}
+		return new NioTransport();
+	}
+
+
+	private static final class EpollTransport extends Transport {
+
+		@Override
+		EventLoopGroup createEventLoopGroup(int threads) {
+			return new EpollEventLoopGroup(threads, new DefaultThreadFactory(THREAD_POOL_NAME, true));
+		}
+
+		@Override
+		Class<? extends Channel> getChannelClass() {
+			return EpollSocketChannel.class;
+		}
+
+		@Override
+		String getName() {
+			return "epoll";
+		}
+	}
+
+
+	private static final class NioTransport extends Transport {
+
+		@Override
+		EventLoopGroup createEventLoopGroup(int threads) {
+			return new NioEventLoopGroup(threads, new DefaultThreadFactory(THREAD_POOL_NAME, true));
+		}
+
+		@Override
+		Class<? extends Channel> getChannelClass() {
+			return NioSocketChannel.class;
+		}
+
+		@Override
+		String getName() {
+			return "nio";
+		}
+	}
+}
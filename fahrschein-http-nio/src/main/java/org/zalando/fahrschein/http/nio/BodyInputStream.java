@@ -0,0 +1,261 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.nio;
+
+import org.springframework.http.HttpHeaders;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Blocking input stream for a response body, decoding the message framing of HTTP/1.1.
+ *
+ * <p>The connection is released for reuse once the end of the body was read. Closing the stream
+ * before that aborts the connection.
+ *
+ * @author Joern Horstmann
+ */
+abstract class BodyInputStream extends InputStream {
+
+	protected final NioConnection connection;
+	protected final int timeout;
+	private final boolean keepAlive;
+	private final byte[] single = new byte[1];
+	private boolean complete;
+	private boolean closed;
+
+	BodyInputStream(NioConnection connection, int timeout, boolean keepAlive) {
+		this.connection = connection;
+		this.timeout = timeout;
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * Create the body stream for the given response, following RFC 7230 section 3.3.3.
+	 * @param expectBody whether the request allows a response body, which is not the case for {@code HEAD}
+	 */
+	static BodyInputStream create(NioConnection connection, ResponseHead head, boolean expectBody, int timeout) throws IOException {
+		final int statusCode = head.getStatusCode();
+		final boolean keepAlive = head.isKeepAlive();
+		if (!expectBody || statusCode == 204 || statusCode == 304) {
+			return new FixedLength(connection, timeout, keepAlive, 0);
+		}
+		if (head.getHeaders().containsKey(HttpHeaders.TRANSFER_ENCODING)) {
+			return head.isChunked() ? new Chunked(connection, timeout, keepAlive) : new UntilClose(connection, timeout);
+		}
+		final long contentLength = head.getContentLength();
+		return contentLength >= 0 ? new FixedLength(connection, timeout, keepAlive, contentLength) : new UntilClose(connection, timeout);
+	}
+
+	/**
+	 * Mark the body as completely read and release the connection.
+	 */
+	protected final void complete() {
+		if (!this.complete) {
+			this.complete = true;
+			this.connection.release(this.keepAlive);
+		}
+	}
+
+	protected final boolean isComplete() {
+		return this.complete;
+	}
+
+	protected final void checkNotClosed() throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream is closed");
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int n = read(this.single, 0, 1);
+		return n < 0 ? -1 : this.single[0] & 0xFF;
+	}
+
+	@Override
+	public void close() {
+		if (!this.closed) {
+			this.closed = true;
+			if (!this.complete) {
+				this.complete = true;
+				this.connection.abort();
+			}
+		}
+	}
+
+
+	/**
+	 * Body delimited by the {@code Content-Length} header.
+	 */
+	private static final class FixedLength extends BodyInputStream {
+
+		private long remaining;
+
+		FixedLength(NioConnection connection, int timeout, boolean keepAlive, long contentLength) {
+			super(connection, timeout, keepAlive);
+			this.remaining = contentLength;
+			if (contentLength == 0) {
+				complete();
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			checkNotClosed();
+			if (this.remaining == 0) {
+				return -1;
+			}
+			if (len == 0) {
+				return 0;
+			}
+			final int n = this.connection.read(b, off, (int) Math.min(len, this.remaining), this.timeout);
+			if (n < 0) {
+				throw new IOException("Premature end of Content-Length delimited message body");
+			}
+			this.remaining -= n;
+			if (this.remaining == 0) {
+				complete();
+			}
+			return n;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return isComplete() ? 0 : (int) Math.min(this.connection.available(), this.remaining);
+		}
+	}
+
+
+	/**
+	 * Body using the chunked transfer coding.
+	 */
+	private static final class Chunked extends BodyInputStream {
+
+		private long chunkRemaining;
+		private boolean chunkDataRead;
+		private boolean lastChunk;
+
+		Chunked(NioConnection connection, int timeout, boolean keepAlive) {
+			super(connection, timeout, keepAlive);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			checkNotClosed();
+			if (this.lastChunk) {
+				return -1;
+			}
+			if (len == 0) {
+				return 0;
+			}
+			if (this.chunkRemaining == 0) {
+				if (this.chunkDataRead) {
+					// read the CRLF after the previous chunk only now, its data was already returned
+					final String line = this.connection.readLine(ResponseHead.MAX_LINE_LENGTH, this.timeout);
+					if (line == null || !line.isEmpty()) {
+						throw new IOException("Missing CRLF after chunk data");
+					}
+					this.chunkDataRead = false;
+				}
+				this.chunkRemaining = readChunkSize();
+				if (this.chunkRemaining == 0) {
+					readTrailers();
+					this.lastChunk = true;
+					complete();
+					return -1;
+				}
+			}
+			final int n = this.connection.read(b, off, (int) Math.min(len, this.chunkRemaining), this.timeout);
+			if (n < 0) {
+				throw new IOException("Premature end of chunk coded message body");
+			}
+			this.chunkRemaining -= n;
+			this.chunkDataRead = this.chunkRemaining == 0;
+			return n;
+		}
+
+		private long readChunkSize() throws IOException {
+			final String line = this.connection.readLine(ResponseHead.MAX_LINE_LENGTH, this.timeout);
+			if (line == null) {
+				throw new IOException("Premature end of chunk coded message body");
+			}
+			int end = line.indexOf(';');
+			if (end < 0) {
+				end = line.length();
+			}
+			try {
+				final long size = Long.parseLong(line.substring(0, end).trim(), 16);
+				if (size < 0) {
+					throw new IOException("Invalid chunk size: " + line);
+				}
+				return size;
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid chunk size: " + line);
+			}
+		}
+
+		private void readTrailers() throws IOException {
+			while (true) {
+				final String line = this.connection.readLine(ResponseHead.MAX_LINE_LENGTH, this.timeout);
+				if (line == null) {
+					throw new IOException("Premature end of chunk coded message body");
+				}
+				if (line.isEmpty()) {
+					return;
+				}
+			}
+		}
+
+		@Override
+		public int available() throws IOException {
+			return isComplete() ? 0 : (int) Math.min(this.connection.available(), this.chunkRemaining);
+		}
+	}
+
+
+	/**
+	 * Body delimited by closing the connection.
+	 */
+	private static final class UntilClose extends BodyInputStream {
+
+		UntilClose(NioConnection connection, int timeout) {
+			super(connection, timeout, false);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			checkNotClosed();
+			if (isComplete()) {
+				return -1;
+			}
+			if (len == 0) {
+				return 0;
+			}
+			final int n = this.connection.read(b, off, len, this.timeout);
+			if (n < 0) {
+				complete();
+			}
+			return n;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return isComplete() ? 0 : this.connection.available();
+		}
+	}
+}
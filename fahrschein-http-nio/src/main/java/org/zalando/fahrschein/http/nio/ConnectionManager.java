@@ -0,0 +1,130 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns new connections to the event loops in round-robin order and keeps idle
+ * connections per route for reuse.
+ *
+ * @author Joern Horstmann
+ */
+final class ConnectionManager {
+
+	private final EventLoop[] eventLoops;
+	private final AtomicInteger nextEventLoop = new AtomicInteger();
+	private final int connectTimeout;
+	private final int maxIdlePerRoute;
+	private final long maxIdleNanos;
+	private final Map<String, ArrayDeque<NioConnection>> idleConnections = new HashMap<>();
+	private boolean shutdown;
+
+	ConnectionManager(int eventLoopThreads, int minReadBufferSize, int maxReadBufferSize, int bufferIdleTimeout,
+			int connectTimeout, int maxIdlePerRoute, int connectionIdleTimeout) throws IOException {
+		this.eventLoops = new EventLoop[eventLoopThreads];
+		for (int i = 0; i < eventLoopThreads; i++) {
+			this.eventLoops[i] = new EventLoop("fahrschein-nio-" + i, minReadBufferSize, maxReadBufferSize, bufferIdleTimeout);
+		}
+		for (EventLoop eventLoop : this.eventLoops) {
+			eventLoop.start();
+		}
+		this.connectTimeout = connectTimeout;
+		this.maxIdlePerRoute = maxIdlePerRoute;
+		this.maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(connectionIdleTimeout);
+	}
+
+	/**
+	 * Return an idle connection for the given route, or {@code null} if there is none.
+	 */
+	NioConnection lease(String route) {
+		final List<NioConnection> expired = new ArrayList<>();
+		NioConnection result = null;
+		synchronized (this) {
+			final ArrayDeque<NioConnection> connections = this.idleConnections.get(route);
+			if (connections != null) {
+				NioConnection connection;
+				while ((connection = connections.pollLast()) != null) {
+					if (connection.reuse(this.maxIdleNanos)) {
+						result = connection;
+						break;
+					}
+					expired.add(connection);
+				}
+			}
+		}
+		for (NioConnection connection : expired) {
+			connection.abort();
+		}
+		return result;
+	}
+
+	/**
+	 * Create a new connection to the given address, which is opened when sending the first request.
+	 */
+	NioConnection create(String route, InetSocketAddress address) {
+		final EventLoop eventLoop = this.eventLoops[(this.nextEventLoop.getAndIncrement() & Integer.MAX_VALUE) % this.eventLoops.length];
+		return new NioConnection(eventLoop, this, route, address, this.connectTimeout);
+	}
+
+	void release(NioConnection connection) {
+		NioConnection evicted = null;
+		synchronized (this) {
+			if (this.shutdown) {
+				evicted = connection;
+			} else {
+				ArrayDeque<NioConnection> connections = this.idleConnections.get(connection.getRoute());
+				if (connections == null) {
+					connections = new ArrayDeque<>();
+					this.idleConnections.put(connection.getRoute(), connections);
+				}
+				connections.addLast(connection);
+				if (connections.size() > this.maxIdlePerRoute) {
+					evicted = connections.pollFirst();
+				}
+			}
+		}
+		if (evicted != null) {
+			evicted.abort();
+		}
+	}
+
+	synchronized void remove(NioConnection connection) {
+		final ArrayDeque<NioConnection> connections = this.idleConnections.get(connection.getRoute());
+		if (connections != null) {
+			connections.remove(connection);
+		}
+	}
+
+	void shutdown() {
+		synchronized (this) {
+			this.shutdown = true;
+			this.idleConnections.clear();
+		}
+		for (EventLoop eventLoop : this.eventLoops) {
+			eventLoop.shutdown();
+		}
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.nio;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool of direct buffers in power of two size classes.
+ *
+ * <p>Instances are confined to the thread of a single {@link EventLoop} and not thread-safe.
+ *
+ * @author Joern Horstmann
+ */
+final class DirectBufferPool {
+
+	private static final int MAX_BUFFERS_PER_CLASS = 32;
+
+	private final int minShift;
+	private final int maxShift;
+	private final List<ArrayDeque<ByteBuffer>> buffers;
+
+	DirectBufferPool(int minBufferSize, int maxBufferSize) {
+		this.minShift = shift(minBufferSize);
+		this.maxShift = Math.max(this.minShift, shift(maxBufferSize));
+		this.buffers = new ArrayList<>(this.maxShift - this.minShift + 1);
+		for (int i = this.minShift; i <= this.maxShift; i++) {
+			this.buffers.add(new ArrayDeque<ByteBuffer>());
+		}
+	}
+
+	private static int shift(int size) {
+		return 32 - Integer.numberOfLeadingZeros(Math.max(size, 2) - 1);
+	}
+
+	int getMinBufferSize() {
+		return 1 << this.minShift;
+	}
+
+	int getMaxBufferSize() {
+		return 1 << this.maxShift;
+	}
+
+	/**
+	 * Return a cleared buffer with a capacity of at least the given size, up to the maximum buffer size.
+	 */
+	ByteBuffer acquire(int minCapacity) {
+		final int shift = Math.min(Math.max(shift(minCapacity), this.minShift), this.maxShift);
+		final ByteBuffer buffer = this.buffers.get(shift - this.minShift).pollLast();
+		return buffer != null ? buffer : ByteBuffer.allocateDirect(1 << shift);
+	}
+
+	void release(ByteBuffer buffer) {
+		final int shift = shift(buffer.capacity());
+		if (shift >= this.minShift && shift <= this.maxShift && buffer.capacity() == 1 << shift) {
+			final ArrayDeque<ByteBuffer> free = this.buffers.get(shift - this.minShift);
+			if (free.size() < MAX_BUFFERS_PER_CLASS) {
+				buffer.clear();
+				free.addLast(buffer);
+			}
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Thread multiplexing the I/O of many {@link NioConnection connections} over a single {@link Selector}.
+ *
+ * <p>All socket operations, selection key changes and buffer allocations happen on the event loop thread.
+ * Other threads hand over work using {@link #execute(Runnable)}. The loop periodically sweeps its connections
+ * to enforce connect timeouts and to release the read buffers of connections that did not receive data for a while.
+ *
+ * @author Joern Horstmann
+ */
+final class EventLoop implements Runnable {
+
+	private static final long SELECT_TIMEOUT_MILLIS = 100;
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	private final Selector selector;
+	private final Thread thread;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean wakeupPending = new AtomicBoolean();
+	private final DirectBufferPool bufferPool;
+	private final long bufferIdleNanos;
+	private final Set<NioConnection> connections = new HashSet<>();
+	private ByteBuffer writeBuffer;
+	private volatile boolean running = true;
+
+	EventLoop(String name, int minReadBufferSize, int maxReadBufferSize, long bufferIdleMillis) throws IOException {
+		this.selector = Selector.open();
+		this.bufferPool = new DirectBufferPool(minReadBufferSize, maxReadBufferSize);
+		this.bufferIdleNanos = TimeUnit.MILLISECONDS.toNanos(bufferIdleMillis);
+		this.thread = new Thread(this, name);
+		this.thread.setDaemon(true);
+	}
+
+	void start() {
+		this.thread.start();
+	}
+
+	/**
+	 * Run the given task on the event loop thread.
+	 * <p>Tasks submitted after the loop was {@linkplain #shutdown() shut down} are not executed.
+	 */
+	void execute(Runnable task) {
+		this.tasks.add(task);
+		if (Thread.currentThread() != this.thread && this.wakeupPending.compareAndSet(false, true)) {
+			this.selector.wakeup();
+		}
+	}
+
+	boolean inEventLoop() {
+		return Thread.currentThread() == this.thread;
+	}
+
+	boolean isRunning() {
+		return this.running;
+	}
+
+	/**
+	 * Stop the event loop, closing all of its connections.
+	 */
+	void shutdown() {
+		this.running = false;
+		this.selector.wakeup();
+	}
+
+	Selector getSelector() {
+		return this.selector;
+	}
+
+	DirectBufferPool getBufferPool() {
+		return this.bufferPool;
+	}
+
+	/**
+	 * Return the buffer used to copy request data into direct memory before writing it.
+	 * The buffer is shared by all connections of this loop and cleared before each use.
+	 */
+	ByteBuffer getWriteBuffer() {
+		if (this.writeBuffer == null) {
+			this.writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+		}
+		this.writeBuffer.clear();
+		return this.writeBuffer;
+	}
+
+	void register(NioConnection connection) {
+		this.connections.add(connection);
+	}
+
+	void unregister(NioConnection connection) {
+		this.connections.remove(connection);
+	}
+
+	@Override
+	public void run() {
+		long lastSweep = System.nanoTime();
+		try {
+			while (this.running) {
+				this.selector.select(SELECT_TIMEOUT_MILLIS);
+				this.wakeupPending.set(false);
+
+				final Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					final NioConnection connection = (NioConnection) key.attachment();
+					try {
+						connection.handle(key);
+					} catch (CancelledKeyException e) {
+						// connection was closed while processing its events
+					}
+				}
+
+				runTasks();
+
+				final long now = System.nanoTime();
+				if (now - lastSweep >= TimeUnit.MILLISECONDS.toNanos(SELECT_TIMEOUT_MILLIS)) {
+					lastSweep = now;
+					for (NioConnection connection : new ArrayList<>(this.connections)) {
+						connection.sweep(now, this.bufferIdleNanos);
+					}
+				}
+			}
+		} catch (IOException e) {
+			closeConnections(e);
+		} catch (RuntimeException | Error e) {
+			closeConnections(new IOException("Event loop failed", e));
+			throw e;
+		} finally {
+			this.running = false;
+			closeConnections(new IOException("Event loop was shut down"));
+			try {
+				this.selector.close();
+			} catch (IOException e) {
+				// ignore exception on close
+			}
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = this.tasks.poll()) != null) {
+			task.run();
+		}
+	}
+
+	private void closeConnections(IOException cause) {
+		runTasks();
+		for (NioConnection connection : new ArrayList<>(this.connections)) {
+			connection.close(cause);
+		}
+	}
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.nio;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.zalando.fahrschein.http.api.BufferPool;
+import org.zalando.fahrschein.http.api.HeaderName;
+import org.zalando.fahrschein.http.api.PooledByteArrayOutputStream;
+import org.zalando.fahrschein.http.api.RequestCompression;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ClientHttpRequest} implementation executed by the non-blocking HTTP/1.1 engine
+ * of the {@link NioClientHttpRequestFactory}.
+ *
+ * <p>The request body is buffered in a pooled buffer. Requests with idempotent methods are sent
+ * again on a new connection if a pooled connection turns out to be closed by the server.
+ *
+ * @author Joern Horstmann
+ * @see NioClientHttpRequestFactory#createRequest(URI, HttpMethod)
+ */
+final class NioClientHttpRequest implements ClientHttpRequest {
+
+	private static final int DEFAULT_PORT = 80;
+
+	private final ConnectionManager connectionManager;
+	private final URI uri;
+	private final HttpMethod method;
+	private final int readTimeout;
+	private final BufferPool bufferPool;
+	private final RequestCompression compression;
+	private final ResponseDecompression decompression;
+	private final HttpHeaders headers;
+	private PooledByteArrayOutputStream bufferedOutput;
+	private boolean executed;
+
+	NioClientHttpRequest(ConnectionManager connectionManager, URI uri, HttpMethod method, int readTimeout, BufferPool bufferPool, RequestCompression compression, ResponseDecompression decompression) {
+		this.connectionManager = connectionManager;
+		this.uri = uri;
+		this.method = method;
+		this.readTimeout = readTimeout;
+		this.bufferPool = bufferPool;
+		this.compression = compression;
+		this.decompression = decompression;
+		this.headers = new HttpHeaders();
+	}
+
+	@Override
+	public HttpMethod getMethod() {
+		return this.method;
+	}
+
+	@Override
+	public URI getURI() {
+		return this.uri;
+	}
+
+	private int getPort() {
+		return this.uri.getPort() >= 0 ? this.uri.getPort() : DEFAULT_PORT;
+	}
+
+	private static String collectionToDelimitedString(Collection<?> coll, String delim) {
+		if (coll == null || coll.isEmpty()) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder();
+		Iterator<?> it = coll.iterator();
+		while (it.hasNext()) {
+			sb.append(it.next());
+			if (it.hasNext()) {
+				sb.append(delim);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Serialize the request line and the given headers.
+	 * <p>The {@code Content-Length} and {@code Transfer-Encoding} headers are replaced by
+	 * the length of the buffered body. {@linkplain HeaderName Registered} header names are
+	 * written using their encoded bytes.
+	 */
+	private byte[] encodeHead(HttpHeaders headers, int size) {
+		final HeadBuffer head = new HeadBuffer(256);
+		final String path = this.uri.getRawPath();
+		head.writeLatin1(this.method.name());
+		head.write(' ');
+		head.writeLatin1(path == null || path.isEmpty() ? "/" : path);
+		if (this.uri.getRawQuery() != null) {
+			head.write('?');
+			head.writeLatin1(this.uri.getRawQuery());
+		}
+		head.writeLatin1(" HTTP/1.1\r\n");
+
+		if (!headers.containsKey(HttpHeaders.HOST)) {
+			head.writeHeader(HttpHeaders.HOST, this.uri.getPort() >= 0 ? this.uri.getHost() + ":" + this.uri.getPort() : this.uri.getHost());
+		}
+		for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+			final String headerName = entry.getKey();
+			if (HttpHeaders.COOKIE.equalsIgnoreCase(headerName)) {  // RFC 6265
+				head.writeHeader(headerName, collectionToDelimitedString(entry.getValue(), "; "));
+			} else if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(headerName) && !HttpHeaders.TRANSFER_ENCODING.equalsIgnoreCase(headerName)) {
+				for (String headerValue : entry.getValue()) {
+					head.writeHeader(headerName, headerValue != null ? headerValue : "");
+				}
+			}
+		}
+		if (size > 0 || this.method == HttpMethod.POST || this.method == HttpMethod.PUT || this.method == HttpMethod.PATCH) {
+			head.writeHeader(HttpHeaders.CONTENT_LENGTH, Integer.toString(size));
+		}
+		head.write('\r');
+		head.write('\n');
+		return head.toByteArray();
+	}
+
+	private ClientHttpResponse executeInternal() throws IOException {
+		try {
+			int size = this.bufferedOutput != null ? this.bufferedOutput.size() : 0;
+			if (this.compression != null && this.bufferedOutput != null && this.compression.shouldCompress(this.headers, size)) {
+				final PooledByteArrayOutputStream compressed = this.compression.compress(this.bufferedOutput.getBuffer(), 0, size);
+				this.bufferedOutput.release();
+				this.bufferedOutput = compressed;
+				size = compressed.size();
+				this.compression.applyHeaders(this.headers, size);
+			}
+			final RequestData request = new RequestData(encodeHead(this.headers, size), this.bufferedOutput, size);
+			// The pooled buffer is owned by the request data from now on
+			this.bufferedOutput = null;
+			try {
+				return exchange(request);
+			} finally {
+				request.release();
+			}
+		} finally {
+			if (this.bufferedOutput != null) {
+				this.bufferedOutput.release();
+				this.bufferedOutput = null;
+			}
+		}
+	}
+
+	private ClientHttpResponse exchange(RequestData request) throws IOException {
+		final String route = this.uri.getHost() + ":" + getPort();
+		NioConnection connection = this.connectionManager.lease(route);
+		while (true) {
+			if (connection == null) {
+				final String host = this.uri.getHost();
+				// resolve on the calling thread, name resolution would block the event loop
+				final InetSocketAddress address = new InetSocketAddress(host.startsWith("[") ? host.substring(1, host.length() - 1) : host, getPort());
+				if (address.isUnresolved()) {
+					throw new UnknownHostException(host);
+				}
+				connection = this.connectionManager.create(route, address);
+			}
+			final ResponseHead head;
+			final BodyInputStream body;
+			try {
+				connection.send(request);
+				head = ResponseHead.read(connection, this.readTimeout);
+				if (head == null) {
+					throw new IOException("Server closed the connection without sending a response");
+				}
+				body = BodyInputStream.create(connection, head, this.method != HttpMethod.HEAD, this.readTimeout);
+			} catch (IOException e) {
+				connection.abort();
+				if (connection.isReused() && !connection.hasReceivedData() && isIdempotent() && !(e instanceof InterruptedIOException)) {
+					// the server closed the pooled connection, retry once on a new connection
+					connection = null;
+					continue;
+				}
+				throw e;
+			}
+			return new NioClientHttpResponse(head, body, this.decompression);
+		}
+	}
+
+	private boolean isIdempotent() {
+		return this.method != HttpMethod.POST && this.method != HttpMethod.PATCH;
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		return (this.executed ? HttpHeaders.readOnlyHttpHeaders(this.headers) : this.headers);
+	}
+
+	@Override
+	public OutputStream getBody() throws IOException {
+		assertNotExecuted();
+		if (this.bufferedOutput == null) {
+			this.bufferedOutput = new PooledByteArrayOutputStream(this.bufferPool, getURI());
+		}
+		return this.bufferedOutput;
+	}
+
+	@Override
+	public ClientHttpResponse execute() throws IOException {
+		assertNotExecuted();
+		final ClientHttpResponse result = executeInternal();
+		this.executed = true;
+		return result;
+	}
+
+	/**
+	 * Assert that this request has not been {@linkplain #execute() executed} yet.
+	 * @throws IllegalStateException if this request has been executed
+	 */
+	private void assertNotExecuted() {
+		if (this.executed) {
+			throw new IllegalStateException("ClientHttpRequest already executed");
+		}
+	}
+
+
+	/**
+	 * Buffer for the encoded request head, writing strings as ISO-8859-1.
+	 */
+	private static final class HeadBuffer extends ByteArrayOutputStream {
+
+		HeadBuffer(int size) {
+			super(size);
+		}
+
+		private void ensureCapacity(int capacity) {
+			if (capacity > this.buf.length) {
+				this.buf = Arrays.copyOf(this.buf, Math.max(capacity, this.buf.length * 2));
+			}
+		}
+
+		void writeLatin1(String s) {
+			final int length = s.length();
+			ensureCapacity(this.count + length);
+			for (int i = 0; i < length; i++) {
+				final char ch = s.charAt(i);
+				this.buf[this.count++] = (byte) (ch <= 0xFF ? ch : '?');
+			}
+		}
+
+		void writeHeader(String name, String value) {
+			final HeaderName headerName = HeaderName.lookup(name);
+			if (headerName != null && headerName.getName().equals(name)) {
+				ensureCapacity(this.count + headerName.length());
+				headerName.copyTo(this.buf, this.count);
+				this.count += headerName.length();
+			} else {
+				for (int i = 0; i < name.length(); i++) {
+					final char ch = name.charAt(i);
+					if (ch <= ' ' || ch == ':' || ch >= 0x7F) {
+						throw new IllegalArgumentException("Invalid header name [" + name + "]");
+					}
+				}
+				writeLatin1(name);
+			}
+			if (value.indexOf('\r') >= 0 || value.indexOf('\n') >= 0) {
+				throw new IllegalArgumentException("Invalid value for header [" + name + "]");
+			}
+			write(':');
+			write(' ');
+			writeLatin1(value);
+			write('\r');
+			write('\n');
+		}
+	}
+}
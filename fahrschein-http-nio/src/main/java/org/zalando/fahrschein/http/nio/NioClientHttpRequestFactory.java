@@ -0,0 +1,219 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.nio;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.zalando.fahrschein.http.api.BufferPool;
+import org.zalando.fahrschein.http.api.RequestCompression;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * {@link ClientHttpRequestFactory} implementation based on a non-blocking HTTP/1.1 engine
+ * using {@link java.nio.channels.Selector selectors} and direct buffers.
+ *
+ * <p>A small, fixed number of event loop threads performs the I/O for all connections, so
+ * many long-lived streaming responses do not each need a thread blocked in a socket read.
+ * Response bodies are received into per-connection direct buffers, which grow up to the
+ * {@linkplain #setMaxReadBufferSize(int) maximum read buffer size} while the application
+ * does not keep up, and are released when they did not receive data for the
+ * {@linkplain #setBufferIdleTimeout(int) buffer idle timeout}. Reading from a connection is
+ * suspended while its buffer is full. Connections are kept alive and reused per host and port.
+ *
+ * <p>Only plain {@code http} URIs are supported. The event loop threads are started with the first
+ * request, configuration changes after that only apply to timeouts and body handling.
+ *
+ * @author Joern Horstmann
+ */
+public class NioClientHttpRequestFactory implements ClientHttpRequestFactory {
+
+	private static final int DEFAULT_EVENT_LOOP_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	private static final int DEFAULT_MIN_READ_BUFFER_SIZE = 4 * 1024;
+	private static final int DEFAULT_MAX_READ_BUFFER_SIZE = 64 * 1024;
+	private static final int DEFAULT_BUFFER_IDLE_TIMEOUT = 1000;
+	private static final int DEFAULT_MAX_IDLE_CONNECTIONS_PER_ROUTE = 16;
+	private static final int DEFAULT_CONNECTION_IDLE_TIMEOUT = 30000;
+
+	private int eventLoopThreads = DEFAULT_EVENT_LOOP_THREADS;
+	private int minReadBufferSize = DEFAULT_MIN_READ_BUFFER_SIZE;
+	private int maxReadBufferSize = DEFAULT_MAX_READ_BUFFER_SIZE;
+	private int bufferIdleTimeout = DEFAULT_BUFFER_IDLE_TIMEOUT;
+	private int maxIdleConnectionsPerRoute = DEFAULT_MAX_IDLE_CONNECTIONS_PER_ROUTE;
+	private int connectionIdleTimeout = DEFAULT_CONNECTION_IDLE_TIMEOUT;
+	private int connectTimeout = -1;
+	private int readTimeout = -1;
+	private BufferPool bufferPool = BufferPool.getDefault();
+	private RequestCompression requestCompression;
+	private ResponseDecompression responseDecompression;
+	private ConnectionManager connectionManager;
+	private boolean destroyed;
+
+
+	/**
+	 * Set the number of event loop threads.
+	 * <p>Default is half the number of available processors, but at least one.
+	 */
+	public void setEventLoopThreads(int eventLoopThreads) {
+		if (eventLoopThreads <= 0) {
+			throw new IllegalArgumentException("Number of event loop threads must be positive");
+		}
+		this.eventLoopThreads = eventLoopThreads;
+	}
+
+	/**
+	 * Set the initial size of the read buffer of a connection, rounded up to a power of two.
+	 * <p>Default is 4 KiB.
+	 */
+	public void setMinReadBufferSize(int minReadBufferSize) {
+		if (minReadBufferSize <= 0) {
+			throw new IllegalArgumentException("Read buffer size must be positive");
+		}
+		this.minReadBufferSize = minReadBufferSize;
+	}
+
+	/**
+	 * Set the size up to which the read buffer of a connection grows while the application
+	 * does not consume the response body, rounded up to a power of two.
+	 * <p>Default is 64 KiB.
+	 */
+	public void setMaxReadBufferSize(int maxReadBufferSize) {
+		if (maxReadBufferSize <= 0) {
+			throw new IllegalArgumentException("Read buffer size must be positive");
+		}
+		this.maxReadBufferSize = maxReadBufferSize;
+	}
+
+	/**
+	 * Set the time (in milliseconds) after which an empty read buffer that did not receive
+	 * any data is released.
+	 * <p>Default is one second.
+	 */
+	public void setBufferIdleTimeout(int bufferIdleTimeout) {
+		this.bufferIdleTimeout = bufferIdleTimeout;
+	}
+
+	/**
+	 * Set the maximum number of idle connections kept for each host and port.
+	 * <p>Default is 16.
+	 */
+	public void setMaxIdleConnectionsPerRoute(int maxIdleConnectionsPerRoute) {
+		this.maxIdleConnectionsPerRoute = maxIdleConnectionsPerRoute;
+	}
+
+	/**
+	 * Set the time (in milliseconds) after which idle connections are no longer reused.
+	 * <p>Default is 30 seconds.
+	 */
+	public void setConnectionIdleTimeout(int connectionIdleTimeout) {
+		this.connectionIdleTimeout = connectionIdleTimeout;
+	}
+
+	/**
+	 * Set the connect timeout (in milliseconds).
+	 * A timeout value of 0 specifies an infinite timeout.
+	 * <p>Default is the system's default timeout.
+	 */
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * Set the read timeout (in milliseconds), which applies to each blocking read of the response.
+	 * A timeout value of 0 specifies an infinite timeout.
+	 * <p>Default is an infinite timeout.
+	 */
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * Set the {@link BufferPool} used for buffering request bodies.
+	 * <p>Default is the {@linkplain BufferPool#getDefault() shared pool}.
+	 */
+	public void setBufferPool(BufferPool bufferPool) {
+		if (bufferPool == null) {
+			throw new IllegalArgumentException("BufferPool must not be null");
+		}
+		this.bufferPool = bufferPool;
+	}
+
+	/**
+	 * Enable compression of request bodies using the given configuration.
+	 * <p>Default is {@code null}, meaning request bodies are sent uncompressed.
+	 *
+	 * @see org.zalando.fahrschein.http.api.GzipRequestCompression#fixed(int, int)
+	 * @see org.zalando.fahrschein.http.api.GzipRequestCompression#adaptive(int, int, long)
+	 * @see RequestCompression#forEncoding(String, int)
+	 */
+	public void setRequestCompression(RequestCompression requestCompression) {
+		this.requestCompression = requestCompression;
+	}
+
+	/**
+	 * Indicate whether responses should be transparently decompressed.
+	 * <p>Default is {@code false}. When enabled, requests are sent with an {@code Accept-Encoding}
+	 * header listing all {@linkplain org.zalando.fahrschein.http.api.ContentCodecs available codecs},
+	 * unless that header is set explicitly, and compressed response bodies are decoded while reading. The {@code Content-Encoding} and
+	 * {@code Content-Length} headers of decoded responses are removed.
+	 *
+	 * @see ResponseDecompression
+	 */
+	public void setDecompressResponses(boolean decompressResponses) {
+		this.responseDecompression = decompressResponses ? ResponseDecompression.getDefault() : null;
+	}
+
+	private synchronized ConnectionManager getConnectionManager() throws IOException {
+		if (this.destroyed) {
+			throw new IllegalStateException("Request factory was destroyed");
+		}
+		if (this.connectionManager == null) {
+			this.connectionManager = new ConnectionManager(this.eventLoopThreads, this.minReadBufferSize,
+					Math.max(this.minReadBufferSize, this.maxReadBufferSize), Math.max(0, this.bufferIdleTimeout),
+					this.connectTimeout, Math.max(0, this.maxIdleConnectionsPerRoute), Math.max(0, this.connectionIdleTimeout));
+		}
+		return this.connectionManager;
+	}
+
+	@Override
+	public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+		if (!"http".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) {
+			throw new IllegalArgumentException("Only absolute http URIs are supported: " + uri);
+		}
+		final ClientHttpRequest request = new NioClientHttpRequest(getConnectionManager(), uri, httpMethod, Math.max(0, this.readTimeout),
+				this.bufferPool, this.requestCompression, this.responseDecompression);
+		if (this.responseDecompression != null) {
+			this.responseDecompression.applyRequestHeaders(request.getHeaders());
+		}
+		return request;
+	}
+
+	/**
+	 * Shutdown hook that stops the event loop threads and closes all connections.
+	 */
+	public synchronized void destroy() {
+		this.destroyed = true;
+		if (this.connectionManager != null) {
+			this.connectionManager.shutdown();
+			this.connectionManager = null;
+		}
+	}
+
+}
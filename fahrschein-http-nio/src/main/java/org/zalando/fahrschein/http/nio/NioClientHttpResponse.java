@@ -0,0 +1,96 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.nio;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link ClientHttpResponse} implementation for the non-blocking HTTP/1.1 engine.
+ *
+ * <p>The connection is returned to the pool once the body was read completely. Closing the response
+ * before that closes the connection.
+ *
+ * <p>Created via the {@link NioClientHttpRequest}.
+ *
+ * @author Joern Horstmann
+ * @see NioClientHttpRequest#execute()
+ */
+final class NioClientHttpResponse implements ClientHttpResponse {
+
+	private final ResponseHead head;
+	private final BodyInputStream body;
+	private final ResponseDecompression decompression;
+	private final String contentEncoding;
+	private InputStream responseStream;
+
+	NioClientHttpResponse(ResponseHead head, BodyInputStream body, ResponseDecompression decompression) {
+		this.head = head;
+		this.body = body;
+		this.decompression = decompression;
+		this.contentEncoding = head.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+		if (decompression != null) {
+			decompression.applyResponseHeaders(head.getHeaders());
+		}
+	}
+
+	@Override
+	public int getRawStatusCode() throws IOException {
+		return this.head.getStatusCode();
+	}
+
+	@Override
+	public String getStatusText() throws IOException {
+		return this.head.getReasonPhrase();
+	}
+
+	@Override
+	public HttpStatus getStatusCode() throws IOException {
+		return HttpStatus.valueOf(getRawStatusCode());
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		return this.head.getHeaders();
+	}
+
+	@Override
+	public InputStream getBody() throws IOException {
+		if (this.responseStream == null) {
+			this.responseStream = (this.decompression != null ? this.decompression.decode(this.contentEncoding, this.body) : this.body);
+		}
+		return this.responseStream;
+	}
+
+	@Override
+	public void close() {
+		try {
+			if (this.responseStream != null) {
+				this.responseStream.close();
+			}
+		} catch (IOException ex) {
+			// ignore
+		} finally {
+			this.body.close();
+		}
+	}
+}
@@ -0,0 +1,552 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.nio;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking HTTP/1.1 connection owned by an {@link EventLoop}.
+ *
+ * <p>The event loop writes the request and fills a direct read buffer with the response, the application
+ * thread parses the response from that buffer using the blocking read methods. Reading from the socket is
+ * suspended while the buffer is full and has grown to the maximum size, and resumed once the application
+ * consumed data. The read buffer is returned to the pool of the event loop when it is empty and did not
+ * receive data for a while, so idle long-lived streams do not hold on to any buffer memory.
+ *
+ * <p>Fields accessed by both threads are guarded by the connection monitor, the channel and
+ * its selection key are confined to the event loop thread.
+ *
+ * @author Joern Horstmann
+ */
+final class NioConnection {
+
+	private final EventLoop eventLoop;
+	private final ConnectionManager connectionManager;
+	private final String route;
+	private final InetSocketAddress address;
+	private final long connectTimeoutNanos;
+
+	// confined to the event loop
+	private SocketChannel channel;
+	private SelectionKey key;
+	private long connectStarted;
+	private RequestData request;
+	private int writeOffset;
+
+	// guarded by this
+	private ByteBuffer readBuffer;
+	private int readIndex;
+	private boolean readSuspended;
+	private boolean endOfStream;
+	private IOException failure;
+	private boolean closed;
+	private boolean idle;
+	private boolean writing;
+	private long idleSince;
+	private long lastRead;
+	private long received;
+	private int exchanges;
+	private byte[] lineBuffer = new byte[256];
+
+	private final Runnable resumeReadTask = new Runnable() {
+		@Override
+		public void run() {
+			updateInterest();
+		}
+	};
+
+	private final Runnable idleTask = new Runnable() {
+		@Override
+		public void run() {
+			onIdle();
+		}
+	};
+
+	private final Runnable closeTask = new Runnable() {
+		@Override
+		public void run() {
+			close(null);
+		}
+	};
+
+	NioConnection(EventLoop eventLoop, ConnectionManager connectionManager, String route, InetSocketAddress address, int connectTimeout) {
+		this.eventLoop = eventLoop;
+		this.connectionManager = connectionManager;
+		this.route = route;
+		this.address = address;
+		this.connectTimeoutNanos = connectTimeout > 0 ? TimeUnit.MILLISECONDS.toNanos(connectTimeout) : 0;
+	}
+
+	String getRoute() {
+		return this.route;
+	}
+
+	// application thread
+
+	/**
+	 * Start a new exchange by sending the given request.
+	 * @throws IOException if the connection is already closed
+	 */
+	void send(final RequestData request) throws IOException {
+		synchronized (this) {
+			checkOpen();
+			if (!this.eventLoop.isRunning()) {
+				throw new IOException("Event loop was shut down");
+			}
+			this.idle = false;
+			this.writing = true;
+			this.received = 0;
+			this.exchanges++;
+		}
+		request.retain();
+		this.eventLoop.execute(new Runnable() {
+			@Override
+			public void run() {
+				startExchange(request);
+			}
+		});
+	}
+
+	/**
+	 * Return whether any response data was received for the current exchange.
+	 */
+	synchronized boolean hasReceivedData() {
+		return this.received > 0;
+	}
+
+	/**
+	 * Return whether the connection was used for a previous exchange.
+	 */
+	synchronized boolean isReused() {
+		return this.exchanges > 1;
+	}
+
+	/**
+	 * Read up to {@code len} bytes of the response, blocking until data is available.
+	 * @return the number of bytes read, or {@code -1} if the server closed the connection
+	 */
+	synchronized int read(byte[] b, int off, int len, int timeout) throws IOException {
+		if (!awaitData(timeout)) {
+			return -1;
+		}
+		final int n = Math.min(len, readable());
+		final int writeIndex = this.readBuffer.position();
+		this.readBuffer.position(this.readIndex);
+		this.readBuffer.get(b, off, n);
+		this.readBuffer.position(writeIndex);
+		this.readIndex += n;
+		consumed();
+		return n;
+	}
+
+	/**
+	 * Read a line terminated by {@code LF}, removing the line terminator.
+	 * @param maxLength the maximum length of the line
+	 * @return the line, or {@code null} if the server closed the connection before sending any data
+	 */
+	synchronized String readLine(int maxLength, int timeout) throws IOException {
+		int length = 0;
+		while (true) {
+			if (!awaitData(timeout)) {
+				if (length == 0) {
+					return null;
+				}
+				throw new IOException("Premature end of line");
+			}
+			final int writeIndex = this.readBuffer.position();
+			int i = this.readIndex;
+			boolean complete = false;
+			while (i < writeIndex) {
+				final byte b = this.readBuffer.get(i++);
+				if (b == '\n') {
+					complete = true;
+					break;
+				}
+				if (length == maxLength) {
+					throw new IOException("Line exceeds maximum length of " + maxLength);
+				}
+				if (length == this.lineBuffer.length) {
+					final byte[] newBuffer = new byte[Math.min(2 * length, maxLength)];
+					System.arraycopy(this.lineBuffer, 0, newBuffer, 0, length);
+					this.lineBuffer = newBuffer;
+				}
+				this.lineBuffer[length++] = b;
+			}
+			this.readIndex = i;
+			consumed();
+			if (complete) {
+				if (length > 0 && this.lineBuffer[length - 1] == '\r') {
+					length--;
+				}
+				return new String(this.lineBuffer, 0, length, StandardCharsets.ISO_8859_1);
+			}
+		}
+	}
+
+	synchronized int available() {
+		return readable();
+	}
+
+	/**
+	 * Finish the current exchange, returning the connection to the pool if it can be reused.
+	 * @param keepAlive whether the response allows reusing the connection
+	 */
+	void release(boolean keepAlive) {
+		final boolean reusable;
+		synchronized (this) {
+			// a response may arrive before the request was written completely
+			reusable = keepAlive && !this.writing && !this.closed && !this.endOfStream && this.failure == null && readable() == 0;
+			if (reusable) {
+				this.idle = true;
+				this.idleSince = System.nanoTime();
+			}
+		}
+		if (reusable) {
+			this.eventLoop.execute(this.idleTask);
+			this.connectionManager.release(this);
+		} else {
+			abort();
+		}
+	}
+
+	/**
+	 * Take an idle connection out of the pool for a new exchange.
+	 * @return {@code false} if the connection was closed or idle for longer than the given time
+	 */
+	synchronized boolean reuse(long maxIdleNanos) {
+		if (this.closed || this.endOfStream || this.failure != null || !this.idle || System.nanoTime() - this.idleSince > maxIdleNanos) {
+			return false;
+		}
+		this.idle = false;
+		return true;
+	}
+
+	/**
+	 * Close the connection, any blocked or following reads fail.
+	 */
+	void abort() {
+		synchronized (this) {
+			if (this.closed) {
+				return;
+			}
+			if (this.failure == null) {
+				this.failure = new IOException("Connection was aborted");
+			}
+			notifyAll();
+		}
+		this.eventLoop.execute(this.closeTask);
+	}
+
+	private void checkOpen() throws IOException {
+		if (this.failure != null) {
+			throw this.failure;
+		}
+		if (this.closed) {
+			throw new IOException("Connection is closed");
+		}
+	}
+
+	private int readable() {
+		return this.readBuffer == null ? 0 : this.readBuffer.position() - this.readIndex;
+	}
+
+	/**
+	 * Wait until data is available.
+	 * @return {@code false} if the server closed the connection
+	 */
+	private boolean awaitData(int timeout) throws IOException {
+		long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+		while (readable() == 0) {
+			checkOpen();
+			if (this.endOfStream) {
+				return false;
+			}
+			if (timeout <= 0) {
+				waitInterruptibly(0);
+			} else if (remaining <= 0) {
+				throw new SocketTimeoutException("Read timed out");
+			} else {
+				final long start = System.nanoTime();
+				waitInterruptibly(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+				remaining -= System.nanoTime() - start;
+			}
+		}
+		return true;
+	}
+
+	private void waitInterruptibly(long millis) throws IOException {
+		try {
+			wait(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			abort();
+			final IOException exception = new InterruptedIOException("Interrupted while waiting for data");
+			exception.initCause(e);
+			throw exception;
+		}
+	}
+
+	private void consumed() {
+		if (readable() == 0) {
+			this.readBuffer.clear();
+			this.readIndex = 0;
+		}
+		if (this.readSuspended) {
+			this.readSuspended = false;
+			this.eventLoop.execute(this.resumeReadTask);
+		}
+	}
+
+	// event loop thread
+
+	private void startExchange(RequestData request) {
+		synchronized (this) {
+			if (this.closed || this.failure != null) {
+				request.release();
+				return;
+			}
+		}
+		this.request = request;
+		this.writeOffset = 0;
+		if (this.channel == null) {
+			connect();
+		} else {
+			try {
+				write();
+			} catch (IOException e) {
+				close(e);
+			}
+		}
+	}
+
+	private void connect() {
+		this.eventLoop.register(this);
+		try {
+			this.channel = SocketChannel.open();
+			this.channel.configureBlocking(false);
+			this.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			this.channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+			this.connectStarted = System.nanoTime();
+			this.key = this.channel.register(this.eventLoop.getSelector(), 0, this);
+			if (this.channel.connect(this.address)) {
+				onConnected();
+			} else {
+				this.key.interestOps(SelectionKey.OP_CONNECT);
+			}
+		} catch (IOException e) {
+			close(e);
+		}
+	}
+
+	private void onConnected() throws IOException {
+		this.connectStarted = 0;
+		write();
+	}
+
+	void handle(SelectionKey key) {
+		try {
+			final int readyOps = key.readyOps();
+			if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
+				if (this.channel.finishConnect()) {
+					onConnected();
+				}
+			}
+			if ((readyOps & SelectionKey.OP_WRITE) != 0 && key.isValid()) {
+				write();
+			}
+			if ((readyOps & SelectionKey.OP_READ) != 0 && key.isValid()) {
+				read();
+			}
+		} catch (IOException e) {
+			close(e);
+		}
+	}
+
+	private void write() throws IOException {
+		final RequestData request = this.request;
+		if (request != null) {
+			final int size = request.size();
+			while (this.writeOffset < size) {
+				final ByteBuffer buffer = this.eventLoop.getWriteBuffer();
+				request.copyTo(buffer, this.writeOffset);
+				buffer.flip();
+				final int n = this.channel.write(buffer);
+				this.writeOffset += n;
+				if (buffer.hasRemaining()) {
+					break;
+				}
+			}
+			if (this.writeOffset == size) {
+				synchronized (this) {
+					this.writing = false;
+				}
+				this.request = null;
+				request.release();
+			}
+		}
+		updateInterest();
+	}
+
+	private void read() throws IOException {
+		final boolean closeIdle;
+		synchronized (this) {
+			if (this.closed) {
+				return;
+			}
+			if (this.readBuffer == null) {
+				this.readBuffer = this.eventLoop.getBufferPool().acquire(0);
+				this.readIndex = 0;
+			}
+			if (!this.readBuffer.hasRemaining()) {
+				if (this.readIndex > 0) {
+					compact();
+				} else if (this.readBuffer.capacity() < this.eventLoop.getBufferPool().getMaxBufferSize()) {
+					grow();
+				} else {
+					this.readSuspended = true;
+				}
+			}
+			if (!this.readSuspended) {
+				final int n = this.channel.read(this.readBuffer);
+				if (n < 0) {
+					this.endOfStream = true;
+				} else if (n > 0) {
+					this.received += n;
+					this.lastRead = System.nanoTime();
+				}
+				notifyAll();
+			}
+			// idle connections should not receive anything, the server either closed it or violated the protocol
+			closeIdle = this.idle && (this.endOfStream || readable() > 0);
+		}
+		if (closeIdle) {
+			close(null);
+		} else {
+			updateInterest();
+		}
+	}
+
+	private void compact() {
+		final int writeIndex = this.readBuffer.position();
+		this.readBuffer.limit(writeIndex);
+		this.readBuffer.position(this.readIndex);
+		this.readBuffer.compact();
+		this.readIndex = 0;
+	}
+
+	private void grow() {
+		final DirectBufferPool bufferPool = this.eventLoop.getBufferPool();
+		final ByteBuffer newBuffer = bufferPool.acquire(2 * this.readBuffer.capacity());
+		this.readBuffer.flip();
+		this.readBuffer.position(this.readIndex);
+		newBuffer.put(this.readBuffer);
+		bufferPool.release(this.readBuffer);
+		this.readBuffer = newBuffer;
+		this.readIndex = 0;
+	}
+
+	private void updateInterest() {
+		if (this.key == null || !this.key.isValid() || this.connectStarted != 0) {
+			return;
+		}
+		int ops = 0;
+		synchronized (this) {
+			if (!this.readSuspended && !this.endOfStream) {
+				ops |= SelectionKey.OP_READ;
+			}
+		}
+		if (this.request != null) {
+			ops |= SelectionKey.OP_WRITE;
+		}
+		this.key.interestOps(ops);
+	}
+
+	private void onIdle() {
+		synchronized (this) {
+			if (this.idle && this.readBuffer != null && readable() == 0) {
+				this.eventLoop.getBufferPool().release(this.readBuffer);
+				this.readBuffer = null;
+				this.readIndex = 0;
+			}
+		}
+		updateInterest();
+	}
+
+	/**
+	 * Enforce the connect timeout and release the read buffer if it is empty and did not receive data for the given time.
+	 */
+	void sweep(long now, long bufferIdleNanos) {
+		if (this.connectStarted != 0 && this.connectTimeoutNanos > 0 && now - this.connectStarted > this.connectTimeoutNanos) {
+			close(new SocketTimeoutException("Connect timed out"));
+			return;
+		}
+		synchronized (this) {
+			if (this.readBuffer != null && readable() == 0 && !this.readSuspended && now - this.lastRead > bufferIdleNanos) {
+				this.eventLoop.getBufferPool().release(this.readBuffer);
+				this.readBuffer = null;
+				this.readIndex = 0;
+			}
+		}
+	}
+
+	/**
+	 * Close the channel and release all buffers.
+	 * @param cause the failure reported to readers, or {@code null} if the connection is closed regularly
+	 */
+	void close(IOException cause) {
+		synchronized (this) {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			if (this.failure == null && cause != null) {
+				this.failure = cause;
+			}
+			if (this.readBuffer != null) {
+				this.eventLoop.getBufferPool().release(this.readBuffer);
+				this.readBuffer = null;
+				this.readIndex = 0;
+			}
+			notifyAll();
+		}
+		if (this.request != null) {
+			this.request.release();
+			this.request = null;
+		}
+		if (this.key != null) {
+			this.key.cancel();
+		}
+		if (this.channel != null) {
+			try {
+				this.channel.close();
+			} catch (IOException e) {
+				// ignore exception on close
+			}
+		}
+		this.eventLoop.unregister(this);
+		this.connectionManager.remove(this);
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.nio;
+
+import org.zalando.fahrschein.http.api.PooledByteArrayOutputStream;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serialized request head and body, shared between the application thread and the event loop writing it.
+ *
+ * <p>The pooled body buffer is released once both sides {@linkplain #release() released} their reference,
+ * which allows to resend the request on a new connection.
+ *
+ * @author Joern Horstmann
+ */
+final class RequestData {
+
+	private final byte[] head;
+	private final PooledByteArrayOutputStream body;
+	private final int bodySize;
+	private final AtomicInteger references = new AtomicInteger(1);
+
+	RequestData(byte[] head, PooledByteArrayOutputStream body, int bodySize) {
+		this.head = head;
+		this.body = body;
+		this.bodySize = bodySize;
+	}
+
+	int size() {
+		return this.head.length + this.bodySize;
+	}
+
+	/**
+	 * Copy as much of the request as fits into the given buffer, starting at the given offset.
+	 * @return the number of bytes copied
+	 */
+	int copyTo(ByteBuffer buffer, int offset) {
+		final int start = buffer.position();
+		if (offset < this.head.length) {
+			final int n = Math.min(this.head.length - offset, buffer.remaining());
+			buffer.put(this.head, offset, n);
+			offset += n;
+		}
+		if (this.body != null && buffer.hasRemaining() && offset < size()) {
+			final int bodyOffset = offset - this.head.length;
+			buffer.put(this.body.getBuffer(), bodyOffset, Math.min(this.bodySize - bodyOffset, buffer.remaining()));
+		}
+		return buffer.position() - start;
+	}
+
+	RequestData retain() {
+		this.references.incrementAndGet();
+		return this;
+	}
+
+	void release() {
+		if (this.references.decrementAndGet() == 0 && this.body != null) {
+			this.body.release();
+		}
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.nio;
+
+import org.springframework.http.HttpHeaders;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Status line and headers of an HTTP/1.x response.
+ *
+ * @author Joern Horstmann
+ */
+final class ResponseHead {
+
+	static final int MAX_LINE_LENGTH = 8 * 1024;
+	private static final int MAX_HEADER_COUNT = 256;
+
+	private final boolean http11;
+	private final int statusCode;
+	private final String reasonPhrase;
+	private final HttpHeaders headers;
+
+	private ResponseHead(boolean http11, int statusCode, String reasonPhrase, HttpHeaders headers) {
+		this.http11 = http11;
+		this.statusCode = statusCode;
+		this.reasonPhrase = reasonPhrase;
+		this.headers = headers;
+	}
+
+	/**
+	 * Read the head of the final response from the given connection, skipping interim {@code 1xx} responses.
+	 * @return the response head, or {@code null} if the server closed the connection without sending a response
+	 */
+	static ResponseHead read(NioConnection connection, int timeout) throws IOException {
+		while (true) {
+			final String statusLine = connection.readLine(MAX_LINE_LENGTH, timeout);
+			if (statusLine == null) {
+				return null;
+			}
+			final ResponseHead head = parseStatusLine(statusLine);
+			readHeaders(connection, timeout, head.headers);
+			if (head.statusCode >= 200 || head.statusCode == 101) {
+				return head;
+			}
+		}
+	}
+
+	private static ResponseHead parseStatusLine(String line) throws IOException {
+		// HTTP-version SP status-code SP reason-phrase
+		if (!line.startsWith("HTTP/1.") || line.length() < 12 || line.charAt(8) != ' ') {
+			throw new IOException("Invalid status line: " + line);
+		}
+		final int statusCode;
+		try {
+			statusCode = Integer.parseInt(line.substring(9, 12));
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid status line: " + line);
+		}
+		final String reasonPhrase = line.length() > 13 ? line.substring(13) : "";
+		return new ResponseHead(line.charAt(7) != '0', statusCode, reasonPhrase, new HttpHeaders());
+	}
+
+	private static void readHeaders(NioConnection connection, int timeout, HttpHeaders headers) throws IOException {
+		String name = null;
+		StringBuilder value = null;
+		int count = 0;
+		while (true) {
+			final String line = connection.readLine(MAX_LINE_LENGTH, timeout);
+			if (line == null) {
+				throw new IOException("Premature end of response headers");
+			}
+			if (!line.isEmpty() && (line.charAt(0) == ' ' || line.charAt(0) == '\t') && name != null) {
+				// obsolete line folding
+				value.append(' ').append(line.trim());
+				continue;
+			}
+			if (name != null) {
+				headers.add(name, value.toString());
+			}
+			if (line.isEmpty()) {
+				return;
+			}
+			if (++count > MAX_HEADER_COUNT) {
+				throw new IOException("Response contains more than " + MAX_HEADER_COUNT + " headers");
+			}
+			final int colon = line.indexOf(':');
+			if (colon <= 0) {
+				throw new IOException("Invalid header line: " + line);
+			}
+			name = line.substring(0, colon).trim();
+			value = new StringBuilder(line.length() - colon).append(line, colon + 1, line.length());
+			trim(value);
+		}
+	}
+
+	private static void trim(StringBuilder value) {
+		int start = 0;
+		while (start < value.length() && (value.charAt(start) == ' ' || value.charAt(start) == '\t')) {
+			start++;
+		}
+		value.delete(0, start);
+		int end = value.length();
+		while (end > 0 && (value.charAt(end - 1) == ' ' || value.charAt(end - 1) == '\t')) {
+			end--;
+		}
+		value.setLength(end);
+	}
+
+	int getStatusCode() {
+		return this.statusCode;
+	}
+
+	String getReasonPhrase() {
+		return this.reasonPhrase;
+	}
+
+	HttpHeaders getHeaders() {
+		return this.headers;
+	}
+
+	/**
+	 * Return whether the connection can be reused after this response, following RFC 7230 section 6.3.
+	 */
+	boolean isKeepAlive() {
+		final List<String> connection = this.headers.get(HttpHeaders.CONNECTION);
+		if (connection != null) {
+			for (String value : connection) {
+				for (String token : value.split(",")) {
+					final String option = token.trim();
+					if ("close".equalsIgnoreCase(option)) {
+						return false;
+					}
+					if (!this.http11 && "keep-alive".equalsIgnoreCase(option)) {
+						return true;
+					}
+				}
+			}
+		}
+		return this.http11;
+	}
+
+	/**
+	 * Return whether the body uses the chunked transfer coding.
+	 */
+	boolean isChunked() {
+		final List<String> transferEncoding = this.headers.get(HttpHeaders.TRANSFER_ENCODING);
+		if (transferEncoding == null || transferEncoding.isEmpty()) {
+			return false;
+		}
+		final String last = transferEncoding.get(transferEncoding.size() - 1);
+		final int comma = last.lastIndexOf(',');
+		return "chunked".equalsIgnoreCase(last.substring(comma + 1).trim());
+	}
+
+	/**
+	 * Return the value of the {@code Content-Length} header, or {@code -1} if it is not present.
+	 */
+	long getContentLength() throws IOException {
+		final List<String> contentLength = this.headers.get(HttpHeaders.CONTENT_LENGTH);
+		if (contentLength == null || contentLength.isEmpty()) {
+			return -1;
+		}
+		long result = -1;
+		for (String value : contentLength) {
+			final long length;
+			try {
+				length = Long.parseLong(value.trim());
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid Content-Length: " + value);
+			}
+			if (length < 0 || (result >= 0 && length != result)) {
+				throw new IOException("Invalid Content-Length: " + contentLength);
+			}
+			result = length;
+		}
+		return result;
+	}
+}
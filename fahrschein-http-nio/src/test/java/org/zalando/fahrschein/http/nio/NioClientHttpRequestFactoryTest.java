@@ -0,0 +1,362 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.nio;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Exercises the {@link NioClientHttpRequestFactory} against servers on the loopback interface.
+ *
+ * @author Joern Horstmann
+ */
+public class NioClientHttpRequestFactoryTest {
+
+	private static final int STREAM_CHUNK_SIZE = 10000;
+	private static final int STREAM_CHUNKS = 100000;
+
+	private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+	private final List<Closeable> resources = new ArrayList<>();
+	private ExecutorService executor;
+	private HttpServer server;
+	private boolean started;
+	private NioClientHttpRequestFactory requestFactory;
+
+	@Before
+	public void setUp() throws IOException {
+		this.executor = Executors.newCachedThreadPool();
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 50);
+		this.server.setExecutor(this.executor);
+		this.requestFactory = new NioClientHttpRequestFactory();
+		this.requestFactory.setEventLoopThreads(2);
+		this.requestFactory.setReadTimeout(10000);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		this.requestFactory.destroy();
+		this.server.stop(0);
+		this.executor.shutdownNow();
+		for (Closeable resource : this.resources) {
+			resource.close();
+		}
+	}
+
+	private URI start(String path, final Handler handler) {
+		this.server.createContext(path, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				NioClientHttpRequestFactoryTest.this.clientPorts.add(exchange.getRemoteAddress().getPort());
+				try {
+					handler.handle(exchange);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		if (!this.started) {
+			this.server.start();
+			this.started = true;
+		}
+		return URI.create("http://127.0.0.1:" + this.server.getAddress().getPort() + path);
+	}
+
+	private static String get(NioClientHttpRequestFactory requestFactory, URI uri) throws IOException {
+		try (ClientHttpResponse response = requestFactory.createRequest(uri, HttpMethod.GET).execute()) {
+			assertEquals(200, response.getRawStatusCode());
+			return readFully(response.getBody());
+		}
+	}
+
+	private static String readFully(InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, n);
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		int b;
+		while ((b = in.read()) >= 0 && b != '\n') {
+			sb.append((char) b);
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void reusesKeepAliveConnections() throws IOException {
+		final URI uri = start("/plain", new Handler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				final byte[] body = ("hello " + exchange.getRequestURI().getQuery()).getBytes(StandardCharsets.UTF_8);
+				exchange.sendResponseHeaders(200, body.length);
+				exchange.getResponseBody().write(body);
+			}
+		});
+		for (int i = 0; i < 5; i++) {
+			assertEquals("hello i=" + i, get(this.requestFactory, URI.create(uri + "?i=" + i)));
+		}
+		assertEquals(1, this.clientPorts.size());
+	}
+
+	@Test
+	public void readsChunkedBody() throws IOException {
+		final URI uri = start("/chunked", new Handler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.sendResponseHeaders(200, 0);
+				final OutputStream out = exchange.getResponseBody();
+				for (int i = 0; i < 5; i++) {
+					out.write(("line" + i + "\n").getBytes(StandardCharsets.UTF_8));
+					out.flush();
+				}
+			}
+		});
+		assertEquals("line0\nline1\nline2\nline3\nline4\n", get(this.requestFactory, uri));
+		// the connection is reused after the last chunk
+		assertEquals("line0\nline1\nline2\nline3\nline4\n", get(this.requestFactory, uri));
+		assertEquals(1, this.clientPorts.size());
+	}
+
+	@Test
+	public void deliversStreamingBodyAsItArrives() throws IOException, InterruptedException {
+		final CountDownLatch firstLineRead = new CountDownLatch(1);
+		final URI uri = start("/stream", new Handler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException, InterruptedException {
+				exchange.sendResponseHeaders(200, 0);
+				final OutputStream out = exchange.getResponseBody();
+				out.write("first\n".getBytes(StandardCharsets.UTF_8));
+				out.flush();
+				// the client can only read the next line after receiving the first one
+				firstLineRead.await(10, TimeUnit.SECONDS);
+				out.write("second\n".getBytes(StandardCharsets.UTF_8));
+			}
+		});
+		final long start = System.nanoTime();
+		try (ClientHttpResponse response = this.requestFactory.createRequest(uri, HttpMethod.GET).execute()) {
+			final InputStream body = response.getBody();
+			assertEquals("first", readLine(body));
+			firstLineRead.countDown();
+			assertEquals("second", readLine(body));
+			assertEquals(-1, body.read());
+		}
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+	}
+
+	@Test
+	public void suspendsReadingWhileBufferIsFullAndAbortsOnClose() throws IOException, InterruptedException {
+		final AtomicLong written = new AtomicLong();
+		final CountDownLatch aborted = new CountDownLatch(1);
+		final URI small = start("/small", new Handler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.sendResponseHeaders(200, 2);
+				exchange.getResponseBody().write("ok".getBytes(StandardCharsets.UTF_8));
+			}
+		});
+		final URI uri = start("/large", new Handler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.sendResponseHeaders(200, 0);
+				final OutputStream out = exchange.getResponseBody();
+				final byte[] chunk = new byte[STREAM_CHUNK_SIZE];
+				try {
+					for (int i = 0; i < STREAM_CHUNKS; i++) {
+						out.write(chunk);
+						written.addAndGet(chunk.length);
+					}
+				} catch (IOException e) {
+					aborted.countDown();
+				}
+			}
+		});
+		final ClientHttpResponse response = this.requestFactory.createRequest(uri, HttpMethod.GET).execute();
+		final InputStream body = response.getBody();
+		assertTrue(body.read(new byte[1000]) > 0);
+
+		// the server is blocked once the read buffer and the socket buffers are full
+		Thread.sleep(500);
+		final long writtenWhileIdle = written.get();
+		Thread.sleep(500);
+		assertEquals(writtenWhileIdle, written.get());
+		assertTrue(writtenWhileIdle < (long) STREAM_CHUNK_SIZE * STREAM_CHUNKS / 10);
+
+		// reading resumes once data is consumed
+		final byte[] buffer = new byte[8192];
+		long read = 0;
+		while (read < 2 * writtenWhileIdle) {
+			read += body.read(buffer);
+		}
+		assertTrue(written.get() > writtenWhileIdle);
+
+		// closing before the end of the body closes the connection
+		response.close();
+		assertTrue(aborted.await(5, TimeUnit.SECONDS));
+		assertEquals("ok", get(this.requestFactory, small));
+	}
+
+	@Test
+	public void timesOutWaitingForResponse() throws IOException {
+		final CountDownLatch done = new CountDownLatch(1);
+		final URI uri = start("/hang", new Handler() {
+			@Override
+			public void handle(HttpExchange exchange) throws InterruptedException {
+				done.await(10, TimeUnit.SECONDS);
+			}
+		});
+		this.requestFactory.setReadTimeout(300);
+		final long start = System.nanoTime();
+		try {
+			this.requestFactory.createRequest(uri, HttpMethod.GET).execute();
+			fail("Expected a read timeout");
+		} catch (SocketTimeoutException e) {
+			final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			assertTrue("Timed out after " + elapsed + " ms", elapsed >= 250 && elapsed < 5000);
+		} finally {
+			done.countDown();
+		}
+	}
+
+	@Test
+	public void timesOutConnecting() throws IOException {
+		// a server that never accepts, once its backlog is full further connection attempts are not answered
+		final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		this.resources.add(serverSocket);
+		for (int i = 0; i < 8; i++) {
+			final Socket socket = new Socket();
+			this.resources.add(socket);
+			try {
+				socket.connect(serverSocket.getLocalSocketAddress(), 200);
+			} catch (SocketTimeoutException e) {
+				break;
+			}
+		}
+		this.requestFactory.setConnectTimeout(300);
+		final long start = System.nanoTime();
+		try {
+			get(this.requestFactory, URI.create("http://127.0.0.1:" + serverSocket.getLocalPort() + "/"));
+			fail("Expected a connect timeout");
+		} catch (SocketTimeoutException e) {
+			final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			assertTrue("Timed out after " + elapsed + " ms", elapsed >= 250 && elapsed < 5000);
+		}
+	}
+
+	@Test
+	public void retriesIdempotentRequestOnStaleConnection() throws IOException {
+		final AtomicInteger accepted = new AtomicInteger();
+		final URI uri = startClosingServer(accepted);
+		assertEquals("ok", get(this.requestFactory, uri));
+		// the pooled connection is closed by the server when the next request arrives
+		assertEquals("ok", get(this.requestFactory, uri));
+		assertEquals(2, accepted.get());
+	}
+
+	@Test
+	public void doesNotRetryPostOnStaleConnection() throws IOException {
+		final AtomicInteger accepted = new AtomicInteger();
+		final URI uri = startClosingServer(accepted);
+		assertEquals("ok", get(this.requestFactory, uri));
+		try {
+			this.requestFactory.createRequest(uri, HttpMethod.POST).execute();
+			fail("Expected the request to fail");
+		} catch (IOException e) {
+			assertEquals(1, accepted.get());
+		}
+	}
+
+	/**
+	 * Start a server answering the first request on each connection with keep-alive, and closing the
+	 * connection without an answer when it receives a second request.
+	 */
+	private URI startClosingServer(final AtomicInteger accepted) throws IOException {
+		final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		this.resources.add(serverSocket);
+		this.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						final Socket socket = serverSocket.accept();
+						accepted.incrementAndGet();
+						final InputStream in = socket.getInputStream();
+						readRequestHead(in);
+						socket.getOutputStream().write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes(StandardCharsets.US_ASCII));
+						readRequestHead(in);
+						socket.close();
+					}
+				} catch (IOException e) {
+					// server socket closed
+				}
+			}
+		});
+		return URI.create("http://127.0.0.1:" + serverSocket.getLocalPort() + "/");
+	}
+
+	private static void readRequestHead(InputStream in) throws IOException {
+		int matched = 0;
+		int b;
+		while (matched < 4 && (b = in.read()) >= 0) {
+			matched = b == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : (b == '\r' ? 1 : 0);
+		}
+	}
+
+	private interface Handler {
+		void handle(HttpExchange exchange) throws IOException, InterruptedException;
+	}
+}
@@ -20,8 +20,12 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.client.ClientHttpRequest;
 import org.springframework.http.client.ClientHttpResponse;
+import org.zalando.fahrschein.http.api.BufferPool;
+import org.zalando.fahrschein.http.api.RequestCompression;
+import org.zalando.fahrschein.http.api.ResponseClosePolicy;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
+import org.zalando.fahrschein.http.api.PooledByteArrayOutputStream;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
@@ -44,12 +48,20 @@ import java.util.Map;
 final class SimpleBufferingClientHttpRequest implements ClientHttpRequest {
 
 	private final HttpURLConnection connection;
+	private final BufferPool bufferPool;
+	private final RequestCompression compression;
+	private final ResponseDecompression decompression;
+	private final ResponseClosePolicy closePolicy;
 	private final HttpHeaders headers;
-	private ByteArrayOutputStream bufferedOutput;
+	private PooledByteArrayOutputStream bufferedOutput;
 	private boolean executed;
 
-	SimpleBufferingClientHttpRequest(HttpURLConnection connection) {
+	SimpleBufferingClientHttpRequest(HttpURLConnection connection, BufferPool bufferPool, RequestCompression compression, ResponseDecompression decompression, ResponseClosePolicy closePolicy) {
 		this.connection = connection;
+		this.bufferPool = bufferPool;
+		this.compression = compression;
+		this.decompression = decompression;
+		this.closePolicy = closePolicy;
 		this.headers = new HttpHeaders();
 	}
 
@@ -82,12 +94,12 @@ final class SimpleBufferingClientHttpRequest implements ClientHttpRequest {
 		return sb.toString();
 	}
 
-	private ClientHttpResponse executeInternal() throws IOException {
-		final int size = this.bufferedOutput != null ? this.bufferedOutput.size() : 0;
-		if (this.headers.getContentLength() < 0) {
-			this.headers.setContentLength(size);
-		}
-
+	/**
+	 * Add the given headers to the given HTTP connection.
+	 * @param connection the connection to add the headers to
+	 * @param headers the headers to add
+	 */
+	static void addHeaders(HttpURLConnection connection, HttpHeaders headers) {
 		for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
 			final String headerName = entry.getKey();
 			if (HttpHeaders.COOKIE.equalsIgnoreCase(headerName)) {  // RFC 6265
@@ -100,6 +112,33 @@ final class SimpleBufferingClientHttpRequest implements ClientHttpRequest {
 				}
 			}
 		}
+	}
+
+	private ClientHttpResponse executeInternal() throws IOException {
+		try {
+			return doExecute();
+		} finally {
+			if (this.bufferedOutput != null) {
+				this.bufferedOutput.release();
+				this.bufferedOutput = null;
+			}
+		}
+	}
+
+	private ClientHttpResponse doExecute() throws IOException {
+		int size = this.bufferedOutput != null ? this.bufferedOutput.size() : 0;
+		if (this.compression != null && this.bufferedOutput != null && this.compression.shouldCompress(this.headers, size)) {
+			final PooledByteArrayOutputStream compressed = this.compression.compress(this.bufferedOutput.getBuffer(), 0, size);
+			this.bufferedOutput.release();
+			this.bufferedOutput = compressed;
+			size = compressed.size();
+			this.compression.applyHeaders(this.headers, size);
+		}
+		if (this.headers.getContentLength() < 0) {
+			this.headers.setContentLength(size);
+		}
+
+		addHeaders(this.connection, this.headers);
 
 		// JDK <1.8 doesn't support getOutputStream with HTTP DELETE
 		if (HttpMethod.DELETE == getMethod() && size > 0) {
@@ -118,9 +157,7 @@ final class SimpleBufferingClientHttpRequest implements ClientHttpRequest {
 			this.connection.getResponseCode();
 		}
 
-		final ClientHttpResponse result = new SimpleClientHttpResponse(this.connection);
-		this.bufferedOutput = null;
-		return result;
+		return new SimpleClientHttpResponse(this.connection, this.decompression, this.closePolicy);
 	}
 
 	@Override
@@ -132,7 +169,7 @@ final class SimpleBufferingClientHttpRequest implements ClientHttpRequest {
 	public final OutputStream getBody() throws IOException {
 		assertNotExecuted();
 		if (this.bufferedOutput == null) {
-			this.bufferedOutput = new ByteArrayOutputStream(1024);
+			this.bufferedOutput = new PooledByteArrayOutputStream(this.bufferPool, getURI());
 		}
 		return this.bufferedOutput;
 	}
@@ -19,6 +19,10 @@ package org.zalando.fahrschein.http.simple;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.client.ClientHttpRequest;
 import org.springframework.http.client.ClientHttpRequestFactory;
+import org.zalando.fahrschein.http.api.BufferPool;
+import org.zalando.fahrschein.http.api.RequestCompression;
+import org.zalando.fahrschein.http.api.ResponseClosePolicy;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
@@ -37,9 +41,17 @@ import java.net.URLConnection;
  */
 public class SimpleClientHttpRequestFactory implements ClientHttpRequestFactory {
 
+    private static final int DEFAULT_CHUNK_SIZE = 4096;
+
     private Proxy proxy;
     private int connectTimeout = -1;
     private int readTimeout = -1;
+    private boolean bufferRequestBody = true;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private BufferPool bufferPool = BufferPool.getDefault();
+    private RequestCompression requestCompression;
+    private ResponseDecompression responseDecompression;
+    private ResponseClosePolicy responseClosePolicy;
 
 
     /**
@@ -71,12 +83,103 @@ public class SimpleClientHttpRequestFactory implements ClientHttpRequestFactory
         this.readTimeout = readTimeout;
     }
 
+    /**
+     * Indicate whether this request factory should buffer the
+     * {@linkplain ClientHttpRequest#getBody() request body} internally.
+     * <p>Default is {@code true}. When sending large amounts of data via POST or PUT,
+     * it is recommended to change this property to {@code false}, so as not to run
+     * out of memory. The body is then streamed directly to the connection, either in
+     * fixed-length mode if the {@code Content-Length} header is set before the body is
+     * accessed, or in chunked mode otherwise. Requests created in this mode also
+     * implement {@link org.springframework.http.StreamingHttpOutputMessage}.
+     *
+     * @see HttpURLConnection#setFixedLengthStreamingMode(long)
+     * @see HttpURLConnection#setChunkedStreamingMode(int)
+     */
+    public void setBufferRequestBody(boolean bufferRequestBody) {
+        this.bufferRequestBody = bufferRequestBody;
+    }
+
+    /**
+     * Set the number of bytes to write in each chunk when not buffering request
+     * bodies locally.
+     * <p>Note that this parameter is only used when
+     * {@link #setBufferRequestBody(boolean) bufferRequestBody} is set to {@code false},
+     * and the {@code Content-Length} is not known in advance.
+     *
+     * @see HttpURLConnection#setChunkedStreamingMode(int)
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Set the {@link BufferPool} used for buffering request bodies.
+     * <p>Default is the {@linkplain BufferPool#getDefault() shared pool}.
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        if (bufferPool == null) {
+            throw new IllegalArgumentException("BufferPool must not be null");
+        }
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Enable compression of request bodies using the given configuration.
+     * <p>Default is {@code null}, meaning request bodies are sent uncompressed.
+     *
+     * @see org.zalando.fahrschein.http.api.GzipRequestCompression#fixed(int, int)
+     * @see org.zalando.fahrschein.http.api.GzipRequestCompression#adaptive(int, int, long)
+     * @see RequestCompression#forEncoding(String, int)
+     */
+    public void setRequestCompression(RequestCompression requestCompression) {
+        this.requestCompression = requestCompression;
+    }
+
+    /**
+     * Indicate whether responses should be transparently decompressed.
+     * <p>Default is {@code false}. When enabled, requests are sent with an {@code Accept-Encoding}
+     * header listing all {@linkplain org.zalando.fahrschein.http.api.ContentCodecs available codecs},
+     * unless that header is set explicitly, and compressed response bodies are decoded while reading. The {@code Content-Encoding} and
+     * {@code Content-Length} headers of decoded responses are removed.
+     *
+     * @see ResponseDecompression
+     */
+    public void setDecompressResponses(boolean decompressResponses) {
+        this.responseDecompression = decompressResponses ? ResponseDecompression.getDefault() : null;
+    }
+
+    /**
+     * Set the policy deciding whether closing a response drains the remaining body, so that the
+     * connection is kept alive, or disconnects.
+     * <p>Default is {@code null}, meaning closing a response closes the body stream and leaves the
+     * decision to the {@link HttpURLConnection}, which only keeps the connection if the body was
+     * read completely or very little data remains.
+     *
+     * @see ResponseClosePolicy#drain(long, long, java.util.concurrent.TimeUnit)
+     */
+    public void setResponseClosePolicy(ResponseClosePolicy responseClosePolicy) {
+        this.responseClosePolicy = responseClosePolicy;
+    }
+
     @Override
     public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
         HttpURLConnection connection = openConnection(uri.toURL(), this.proxy);
         prepareConnection(connection, httpMethod.name());
 
-        return new SimpleBufferingClientHttpRequest(connection);
+        final ClientHttpRequest request;
+        if (this.bufferRequestBody) {
+            request = new SimpleBufferingClientHttpRequest(connection, this.bufferPool, this.requestCompression, this.responseDecompression, this.responseClosePolicy);
+        } else {
+            request = new SimpleStreamingClientHttpRequest(connection, this.chunkSize, this.requestCompression, this.responseDecompression, this.responseClosePolicy);
+        }
+        if (this.responseDecompression != null) {
+            this.responseDecompression.applyRequestHeaders(request.getHeaders());
+        }
+        return request;
     }
 
     /**
@@ -19,10 +19,17 @@ package org.zalando.fahrschein.http.simple;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.client.ClientHttpResponse;
+import org.zalando.fahrschein.http.api.LazyHeaderMap;
+import org.zalando.fahrschein.http.api.ResponseClosePolicy;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
+import org.zalando.fahrschein.http.api.TrackingInputStream;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * {@link ClientHttpResponse} implementation that uses standard JDK facilities.
@@ -35,11 +42,16 @@ import java.net.HttpURLConnection;
 final class SimpleClientHttpResponse implements ClientHttpResponse {
 
 	private final HttpURLConnection connection;
+	private final ResponseDecompression decompression;
+	private final ResponseClosePolicy closePolicy;
 	private HttpHeaders headers;
-	private InputStream responseStream;
+	private InputStream body;
+	private TrackingInputStream responseStream;
 
-	SimpleClientHttpResponse(HttpURLConnection connection) {
+	SimpleClientHttpResponse(HttpURLConnection connection, ResponseDecompression decompression, ResponseClosePolicy closePolicy) {
 		this.connection = connection;
+		this.decompression = decompression;
+		this.closePolicy = closePolicy;
 	}
 
 	@Override
@@ -55,20 +67,9 @@ final class SimpleClientHttpResponse implements ClientHttpResponse {
 	@Override
 	public HttpHeaders getHeaders() {
 		if (this.headers == null) {
-			this.headers = new HttpHeaders();
-			// Header field 0 is the status line for most HttpURLConnections, but not on GAE
-			String name = this.connection.getHeaderFieldKey(0);
-			if (name != null && name.length() > 0) {
-				this.headers.add(name, this.connection.getHeaderField(0));
-			}
-			int i = 1;
-			while (true) {
-				name = this.connection.getHeaderFieldKey(i);
-				if (name == null || name.length() == 0) {
-					break;
-				}
-				this.headers.add(name, this.connection.getHeaderField(i));
-				i++;
+			this.headers = new HttpHeaders(new ConnectionHeaders(this.connection));
+			if (this.decompression != null) {
+				this.decompression.applyResponseHeaders(this.headers);
 			}
 		}
 		return this.headers;
@@ -76,14 +77,27 @@ final class SimpleClientHttpResponse implements ClientHttpResponse {
 
 	@Override
 	public InputStream getBody() throws IOException {
-		InputStream errorStream = this.connection.getErrorStream();
-		this.responseStream = (errorStream != null ? errorStream : this.connection.getInputStream());
+		if (this.responseStream == null) {
+			InputStream body = getRawBody();
+			this.responseStream = new TrackingInputStream(this.decompression != null ? this.decompression.decode(this.connection.getContentEncoding(), body) : body);
+		}
 		return this.responseStream;
 	}
 
+	private InputStream getRawBody() throws IOException {
+		if (this.body == null) {
+			InputStream errorStream = this.connection.getErrorStream();
+			this.body = (errorStream != null ? errorStream : this.connection.getInputStream());
+		}
+		return this.body;
+	}
+
 	@Override
 	public void close() {
-		if (this.responseStream != null) {
+		if (this.closePolicy != null) {
+			closeWithPolicy();
+		}
+		else if (this.responseStream != null) {
 			try {
 				this.responseStream.close();
 			}
@@ -93,8 +107,100 @@ final class SimpleClientHttpResponse implements ClientHttpResponse {
 		}
 	}
 
+	/**
+	 * Drain the remaining body if the policy allows it, so that the connection is kept alive,
+	 * or disconnect otherwise. Bodies read up to their end or closed by the application need
+	 * neither, closing them returns the connection to the keep-alive cache.
+	 */
+	private void closeWithPolicy() {
+		boolean reusable = false;
+		if (this.responseStream != null && this.responseStream.isFinished()) {
+			this.closePolicy.recordCompleted();
+			reusable = true;
+		}
+		else {
+			try {
+				// the connection reports the length of the undecoded body
+				final long remaining = (this.body == null ? this.connection.getContentLengthLong() : -1);
+				reusable = this.closePolicy.drain(getRawBody(), remaining);
+			}
+			catch (IOException ex) {
+				// ignore, the connection is closed below
+			}
+		}
+		if (!reusable) {
+			this.connection.disconnect();
+		}
+		try {
+			// returns the connection to the keep-alive cache when the end of the body was reached
+			if (this.responseStream != null) {
+				this.responseStream.close();
+			}
+			if (this.body != null) {
+				this.body.close();
+			}
+		}
+		catch (IOException ex) {
+			// ignore
+		}
+	}
+
 	@Override
 	public HttpStatus getStatusCode() throws IOException {
 		return HttpStatus.valueOf(getRawStatusCode());
 	}
+
+
+	/**
+	 * View of the response headers that looks up single headers by walking the header fields of the
+	 * connection, without copying them.
+	 */
+	private static final class ConnectionHeaders extends LazyHeaderMap {
+
+		private final HttpURLConnection connection;
+
+		ConnectionHeaders(HttpURLConnection connection) {
+			this.connection = connection;
+		}
+
+		private int firstIndex() {
+			// Header field 0 is the status line for most HttpURLConnections, but not on GAE
+			final String name = this.connection.getHeaderFieldKey(0);
+			return (name != null && name.length() > 0 ? 0 : 1);
+		}
+
+		@Override
+		protected String getFirstValue(String name) {
+			String key;
+			for (int i = firstIndex(); (key = this.connection.getHeaderFieldKey(i)) != null && key.length() > 0; i++) {
+				if (key.equalsIgnoreCase(name)) {
+					return this.connection.getHeaderField(i);
+				}
+			}
+			return null;
+		}
+
+		@Override
+		protected List<String> getValues(String name) {
+			List<String> values = Collections.emptyList();
+			String key;
+			for (int i = firstIndex(); (key = this.connection.getHeaderFieldKey(i)) != null && key.length() > 0; i++) {
+				if (key.equalsIgnoreCase(name)) {
+					if (values.isEmpty()) {
+						values = new ArrayList<String>(1);
+					}
+					values.add(this.connection.getHeaderField(i));
+				}
+			}
+			return values;
+		}
+
+		@Override
+		protected void copyTo(HttpHeaders headers) {
+			String key;
+			for (int i = firstIndex(); (key = this.connection.getHeaderFieldKey(i)) != null && key.length() > 0; i++) {
+				headers.add(key, this.connection.getHeaderField(i));
+			}
+		}
+	}
 }
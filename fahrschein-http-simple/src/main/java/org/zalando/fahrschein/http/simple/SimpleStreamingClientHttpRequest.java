@@ -0,0 +1,195 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.simple;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.zalando.fahrschein.http.api.RequestCompression;
+import org.zalando.fahrschein.http.api.ResponseClosePolicy;
+import org.zalando.fahrschein.http.api.ResponseDecompression;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * {@link ClientHttpRequest} implementation that uses standard JDK facilities to
+ * execute streaming requests. Created via the {@link SimpleClientHttpRequestFactory}.
+ *
+ * <p>The body is written directly to the connection, using fixed-length streaming mode
+ * if the {@code Content-Length} header was set before accessing the body, and chunked
+ * streaming mode otherwise. Headers can no longer be modified once the body was opened.
+ *
+ * @author Arjen Poutsma
+ * @author Juergen Hoeller
+ * @author Joern Horstmann
+ * @see SimpleClientHttpRequestFactory#createRequest(java.net.URI, HttpMethod)
+ * @see SimpleClientHttpRequestFactory#setBufferRequestBody(boolean)
+ */
+final class SimpleStreamingClientHttpRequest implements ClientHttpRequest, StreamingHttpOutputMessage {
+
+	private final HttpURLConnection connection;
+	private final int chunkSize;
+	private final RequestCompression compression;
+	private final ResponseDecompression decompression;
+	private final ResponseClosePolicy closePolicy;
+	private final HttpHeaders headers;
+	private OutputStream body;
+	private Body streamingBody;
+	private boolean executed;
+
+	SimpleStreamingClientHttpRequest(HttpURLConnection connection, int chunkSize, RequestCompression compression, ResponseDecompression decompression, ResponseClosePolicy closePolicy) {
+		this.connection = connection;
+		this.chunkSize = chunkSize;
+		this.compression = compression;
+		this.decompression = decompression;
+		this.closePolicy = closePolicy;
+		this.headers = new HttpHeaders();
+	}
+
+	@Override
+	public HttpMethod getMethod() {
+		return Enum.valueOf(HttpMethod.class, this.connection.getRequestMethod());
+	}
+
+	@Override
+	public URI getURI() {
+		try {
+			return this.connection.getURL().toURI();
+		} catch (URISyntaxException ex) {
+			throw new IllegalStateException("Could not get HttpURLConnection URI: " + ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 * Connect for writing the body, using the streaming mode for its length.
+	 * @return whether the body has to be compressed
+	 */
+	private boolean connectForBody() throws IOException {
+		long contentLength = this.headers.getContentLength();
+		final boolean compress = this.compression != null && this.compression.shouldCompress(this.headers, contentLength);
+		if (compress) {
+			this.compression.applyHeaders(this.headers, -1);
+			contentLength = -1;
+		}
+		if (contentLength >= 0) {
+			this.connection.setFixedLengthStreamingMode(contentLength);
+		} else {
+			this.connection.setChunkedStreamingMode(this.chunkSize);
+		}
+		SimpleBufferingClientHttpRequest.addHeaders(this.connection, this.headers);
+		this.connection.connect();
+		return compress;
+	}
+
+	private void openBody() throws IOException {
+		if (this.body == null) {
+			final boolean compress = connectForBody();
+			final OutputStream outputStream = this.connection.getOutputStream();
+			this.body = compress ? this.compression.compressingStream(outputStream) : outputStream;
+		}
+	}
+
+	private ClientHttpResponse executeInternal() throws IOException {
+		if (this.streamingBody != null && this.connection.getDoOutput()) {
+			// the compressing body releases its pooled resources if writing fails
+			final Body body = connectForBody() ? this.compression.compressingBody(this.streamingBody) : this.streamingBody;
+			this.body = this.connection.getOutputStream();
+			body.writeTo(new NonClosingOutputStream(this.body));
+		}
+
+		if (this.body != null) {
+			this.body.close();
+		} else {
+			SimpleBufferingClientHttpRequest.addHeaders(this.connection, this.headers);
+			this.connection.connect();
+			// Immediately trigger the request in a no-output scenario as well
+			this.connection.getResponseCode();
+		}
+
+		return new SimpleClientHttpResponse(this.connection, this.decompression, this.closePolicy);
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		return (this.executed || this.body != null ? HttpHeaders.readOnlyHttpHeaders(this.headers) : this.headers);
+	}
+
+	@Override
+	public OutputStream getBody() throws IOException {
+		assertNotExecuted();
+		if (this.streamingBody != null) {
+			throw new IllegalStateException("Streaming body was already set");
+		}
+		openBody();
+		return new NonClosingOutputStream(this.body);
+	}
+
+	@Override
+	public void setBody(Body body) {
+		assertNotExecuted();
+		if (this.body != null) {
+			throw new IllegalStateException("Body output stream was already opened");
+		}
+		this.streamingBody = body;
+	}
+
+	@Override
+	public ClientHttpResponse execute() throws IOException {
+		assertNotExecuted();
+		final ClientHttpResponse result = executeInternal();
+		this.executed = true;
+		return result;
+	}
+
+	/**
+	 * Assert that this request has not been {@linkplain #execute() executed} yet.
+	 * @throws IllegalStateException if this request has been executed
+	 */
+	private void assertNotExecuted() {
+		if (this.executed) {
+			throw new IllegalStateException("ClientHttpRequest already executed");
+		}
+	}
+
+	/**
+	 * Output stream that ignores calls to {@link #close()}, the underlying connection stream
+	 * gets closed on {@link #execute()} to complete the request.
+	 */
+	private static final class NonClosingOutputStream extends FilterOutputStream {
+
+		NonClosingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			// ignore, the stream will be closed on execute
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2002-2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.zalando.fahrschein.http.zstd;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.github.luben.zstd.util.Native;
+import org.zalando.fahrschein.http.api.ContentCodec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link ContentCodec} for the {@code zstd} content coding based on the zstd-jni bindings.
+ *
+ * <p>Registered via {@link java.util.ServiceLoader}, so adding this module to the classpath is enough
+ * for responses to be decoded and for {@code zstd} to be advertised in the {@code Accept-Encoding}
+ * header. The native zstd library is loaded when the codec is created, if it is not available for the
+ * current platform the codec is skipped and {@code zstd} is not advertised. Request bodies are compressed when configured explicitly, for example using
+ * {@code RequestCompression.forEncoding("zstd", 1024)}.
+ *
+ * @author Joern Horstmann
+ */
+public final class ZstdContentCodec implements ContentCodec {
+
+	/**
+	 * The {@code zstd} content coding.
+	 */
+	public static final String ZSTD = "zstd";
+
+	/**
+	 * The default compression level of zstd.
+	 */
+	public static final int DEFAULT_LEVEL = 3;
+
+	private final int level;
+
+	/**
+	 * Create a codec encoding with the {@linkplain #DEFAULT_LEVEL default compression level}.
+	 * @throws UnsatisfiedLinkError if the native zstd library is not available
+	 */
+	public ZstdContentCodec() {
+		this(DEFAULT_LEVEL);
+	}
+
+	/**
+	 * Create a codec encoding with the given compression level.
+	 * @param level the compression level, between 1 (fastest) and 22 (best compression)
+	 * @throws UnsatisfiedLinkError if the native zstd library is not available
+	 */
+	public ZstdContentCodec(int level) {
+		if (level < 1 || level > 22) {
+			throw new IllegalArgumentException("Compression level must be between 1 and 22");
+		}
+		Native.load();
+		this.level = level;
+	}
+
+	@Override
+	public String getName() {
+		return ZSTD;
+	}
+
+	@Override
+	public OutputStream encode(OutputStream out) throws IOException {
+		return new ZstdOutputStream(out, this.level);
+	}
+
+	@Override
+	public InputStream decode(InputStream in) throws IOException {
+		return new ZstdInputStream(in);
+	}
+
+	/**
+	 * Return the compression level used for encoding.
+	 */
+	public int getLevel() {
+		return this.level;
+	}
+}